@@ -0,0 +1,141 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws.extension;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Reference extension-side receiver for spans exported by {@code LocalSocketSpanExporter}.
+ *
+ * <p>Registers with the Lambda Extensions API for {@code INVOKE} and {@code SHUTDOWN} events,
+ * listens on the export endpoint, and writes each span to standard output as one line of JSON.
+ * Replace the sink to forward spans elsewhere. Because the extension asks for the next event
+ * right after each {@code INVOKE}, it does not extend the invocation; spans that the function
+ * could not write before being frozen are written, and received, when it thaws.
+ *
+ * <p>To package it, put the jar and an executable script named after the extension in the layer's
+ * {@code extensions/} directory, e.g. {@code extensions/newrelic-span-extension}:
+ *
+ * <pre>
+ * #!/bin/sh
+ * exec java -XX:+UseSerialGC -Xshare:auto -cp /opt/newrelic-span-extension.jar \
+ *     com.newrelic.opentracing.aws.extension.SpanExtension newrelic-span-extension
+ * </pre>
+ */
+public final class SpanExtension {
+
+    static final String EXTENSION_API = "/2020-01-01/extension/";
+    static final String DEFAULT_NAME = "newrelic-span-extension";
+    static final String DEFAULT_ENDPOINT = "unix:///tmp/newrelic-span-extension.sock";
+
+    private static final long SHUTDOWN_QUIET_MILLIS = 50;
+    private static final long SHUTDOWN_MAX_MILLIS = 1000;
+
+    private final String runtimeApi;
+    private final String name;
+    private final String endpoint;
+    private final Consumer<byte[]> sink;
+
+    /**
+     * @param runtimeApi The value of {@code AWS_LAMBDA_RUNTIME_API}
+     * @param name       The extension name; must match the executable's file name in a real layer
+     * @param endpoint   Where to receive spans; must match the function's export endpoint
+     * @param sink       Receives each span's JSON payload
+     */
+    public SpanExtension(String runtimeApi, String name, String endpoint, Consumer<byte[]> sink) {
+        this.runtimeApi = runtimeApi;
+        this.name = name;
+        this.endpoint = endpoint;
+        this.sink = sink;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final String runtimeApi = System.getenv("AWS_LAMBDA_RUNTIME_API");
+        if (runtimeApi == null) {
+            throw new IllegalStateException("AWS_LAMBDA_RUNTIME_API is not set");
+        }
+        final String endpoint = System.getenv("NEW_RELIC_LAMBDA_TRACING_EXPORT_ENDPOINT");
+        final PrintStream out = System.out;
+        new SpanExtension(runtimeApi, args.length > 0 ? args[0] : DEFAULT_NAME,
+                endpoint != null ? endpoint : DEFAULT_ENDPOINT,
+                payload -> {
+                    synchronized (out) {
+                        out.println(new String(payload, StandardCharsets.UTF_8));
+                    }
+                }).run();
+    }
+
+    /**
+     * Register, then receive spans until the Extensions API sends {@code SHUTDOWN}.
+     */
+    public void run() throws IOException, InterruptedException {
+        // Listen before registering: the function may start exporting as soon as init completes
+        try (SpanFrameReceiver receiver = SpanFrameReceiver.bind(endpoint, sink)) {
+            final String extensionId = register();
+            while (true) {
+                final String event = nextEvent(extensionId);
+                if (event.contains("\"SHUTDOWN\"")) {
+                    receiver.awaitQuiet(SHUTDOWN_QUIET_MILLIS, SHUTDOWN_MAX_MILLIS);
+                    return;
+                }
+            }
+        }
+    }
+
+    private String register() throws IOException {
+        final HttpURLConnection connection = open("register");
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Lambda-Extension-Name", name);
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setDoOutput(true);
+        try (OutputStream body = connection.getOutputStream()) {
+            body.write("{\"events\":[\"INVOKE\",\"SHUTDOWN\"]}".getBytes(StandardCharsets.UTF_8));
+        }
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Extension registration failed: HTTP " + connection.getResponseCode());
+        }
+        final String extensionId = connection.getHeaderField("Lambda-Extension-Identifier");
+        readFully(connection.getInputStream());
+        if (extensionId == null) {
+            throw new IOException("Extension registration returned no Lambda-Extension-Identifier");
+        }
+        return extensionId;
+    }
+
+    private String nextEvent(String extensionId) throws IOException {
+        final HttpURLConnection connection = open("event/next");
+        connection.setRequestProperty("Lambda-Extension-Identifier", extensionId);
+        connection.setReadTimeout(0);
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Extension event/next failed: HTTP " + connection.getResponseCode());
+        }
+        return new String(readFully(connection.getInputStream()), StandardCharsets.UTF_8);
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        return (HttpURLConnection) new URL("http://" + runtimeApi + EXTENSION_API + path).openConnection();
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        try (InputStream in = inputStream) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws.extension;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Accepts connections from {@code LocalSocketSpanExporter} and hands each frame's payload to a
+ * sink.
+ *
+ * <p>A frame is a four-byte big-endian payload length followed by the payload. A connection that
+ * sends a negative or oversized length is closed. Each connection is read on its own thread, so the
+ * sink must be thread-safe.
+ */
+public final class SpanFrameReceiver implements AutoCloseable {
+
+    static final int MAX_FRAME_BYTES = 1024 * 1024;
+
+    private final ServerSocketChannel server;
+    private final Path socketFile;
+    private final String endpoint;
+    private final Consumer<byte[]> sink;
+    private final AtomicLong received = new AtomicLong();
+    private volatile long lastReceivedNanos = System.nanoTime();
+
+    private SpanFrameReceiver(ServerSocketChannel server, Path socketFile, String endpoint, Consumer<byte[]> sink) {
+        this.server = server;
+        this.socketFile = socketFile;
+        this.endpoint = endpoint;
+        this.sink = sink;
+        final Thread acceptor = new Thread(this::acceptLoop, "span-frame-receiver");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @param endpoint {@code tcp://host:port} (port 0 picks a free port) or {@code unix:///path}
+     * @param sink     Receives each frame's payload
+     */
+    public static SpanFrameReceiver bind(String endpoint, Consumer<byte[]> sink) throws IOException {
+        final URI uri = URI.create(endpoint);
+        if ("tcp".equals(uri.getScheme()) && uri.getHost() != null && uri.getPort() >= 0) {
+            final ServerSocketChannel server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(uri.getHost(), uri.getPort()));
+            final int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+            return new SpanFrameReceiver(server, null, "tcp://" + uri.getHost() + ":" + port, sink);
+        }
+        if ("unix".equals(uri.getScheme()) && uri.getPath() != null && !uri.getPath().isEmpty()) {
+            final Path socketFile = Paths.get(uri.getPath());
+            Files.deleteIfExists(socketFile);
+            final ServerSocketChannel server = openUnixServer();
+            server.bind(unixDomainSocketAddress(uri.getPath()));
+            return new SpanFrameReceiver(server, socketFile, endpoint, sink);
+        }
+        throw new IllegalArgumentException("Unsupported endpoint: " + endpoint);
+    }
+
+    /**
+     * @return the bound endpoint, with the actual port for {@code tcp://host:0}
+     */
+    public String endpoint() {
+        return endpoint;
+    }
+
+    public long getReceivedCount() {
+        return received.get();
+    }
+
+    /**
+     * Wait until no frame has arrived for quietMillis, or maxMillis has elapsed.
+     */
+    public void awaitQuiet(long quietMillis, long maxMillis) throws InterruptedException {
+        final long deadline = System.nanoTime() + maxMillis * 1_000_000L;
+        while (System.nanoTime() - lastReceivedNanos < quietMillis * 1_000_000L
+                && System.nanoTime() - deadline < 0) {
+            Thread.sleep(Math.max(1, quietMillis / 4));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        if (socketFile != null) {
+            Files.deleteIfExists(socketFile);
+        }
+    }
+
+    private void acceptLoop() {
+        while (server.isOpen()) {
+            try {
+                final SocketChannel connection = server.accept();
+                final Thread reader = new Thread(() -> readLoop(connection), "span-frame-reader");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void readLoop(SocketChannel connection) {
+        try (SocketChannel channel = connection;
+             DataInputStream input = new DataInputStream(Channels.newInputStream(channel))) {
+            while (true) {
+                final int length = input.readInt();
+                if (length < 0 || length > MAX_FRAME_BYTES) {
+                    return;
+                }
+                final byte[] payload = new byte[length];
+                input.readFully(payload);
+                lastReceivedNanos = System.nanoTime();
+                received.incrementAndGet();
+                sink.accept(payload);
+            }
+        } catch (EOFException e) {
+            // exporter disconnected
+        } catch (IOException e) {
+            // connection reset
+        }
+    }
+
+    /**
+     * {@code ServerSocketChannel.open(StandardProtocolFamily.UNIX)}, which only exists on Java 16 and later.
+     */
+    private static ServerSocketChannel openUnixServer() throws IOException {
+        try {
+            return (ServerSocketChannel) ServerSocketChannel.class.getMethod("open", ProtocolFamily.class)
+                    .invoke(null, StandardProtocolFamily.valueOf("UNIX"));
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            throw new IOException("Unix domain sockets need Java 16 or later", e);
+        }
+    }
+
+    private static SocketAddress unixDomainSocketAddress(String path) throws IOException {
+        try {
+            return (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+                    .getMethod("of", String.class)
+                    .invoke(null, path);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Unix domain sockets need Java 16 or later", e);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws.extension;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves {@code register} and {@code event/next} of the Lambda Extensions API on localhost, with
+ * events pushed by the test.
+ */
+final class ExtensionsApiStandIn implements AutoCloseable {
+
+    static final String EXTENSION_ID = "stand-in-extension-id";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+    private final CountDownLatch registered = new CountDownLatch(1);
+    private volatile String registeredName;
+
+    ExtensionsApiStandIn() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext(SpanExtension.EXTENSION_API, this::handle);
+        server.start();
+    }
+
+    String runtimeApiAddress() {
+        return "127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    String awaitRegistration() throws InterruptedException {
+        registered.await(10, TimeUnit.SECONDS);
+        return registeredName;
+    }
+
+    void invoke(String requestId) {
+        events.add("{\"eventType\":\"INVOKE\",\"requestId\":\"" + requestId + "\"}");
+    }
+
+    void shutdown() {
+        events.add("{\"eventType\":\"SHUTDOWN\",\"shutdownReason\":\"spindown\"}");
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            final String action = exchange.getRequestURI().getPath().substring(SpanExtension.EXTENSION_API.length());
+            if ("register".equals(action)) {
+                registeredName = exchange.getRequestHeaders().getFirst("Lambda-Extension-Name");
+                exchange.getResponseHeaders().add("Lambda-Extension-Identifier", EXTENSION_ID);
+                respond(exchange, "{}");
+                registered.countDown();
+            } else if ("event/next".equals(action)
+                    && EXTENSION_ID.equals(exchange.getRequestHeaders().getFirst("Lambda-Extension-Identifier"))) {
+                respond(exchange, events.take());
+            } else {
+                exchange.sendResponseHeaders(403, -1);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
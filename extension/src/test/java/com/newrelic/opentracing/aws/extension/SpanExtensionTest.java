@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws.extension;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.newrelic.opentracing.aws.LambdaTracing;
+import com.newrelic.opentracing.aws.LocalSocketSpanExporter;
+import io.opentracing.mock.MockTracer;
+import io.opentracing.util.GlobalTracer;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the whole pipeline on one box: instrumented invocations, the function-side exporter, the
+ * extension and a stand-in for the Extensions API.
+ */
+public class SpanExtensionTest {
+
+    @BeforeClass
+    public static void beforeClass() {
+        GlobalTracer.registerIfAbsent(new MockTracer());
+    }
+
+    @Test
+    public void testTcpPipeline() throws Exception {
+        final int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        runPipeline("tcp://127.0.0.1:" + port);
+    }
+
+    @Test
+    public void testUnixDomainSocketPipeline() throws Exception {
+        Assume.assumeTrue(hasUnixDomainSockets());
+        final Path directory = Files.createTempDirectory("span-extension");
+        try {
+            runPipeline("unix://" + directory.resolve("spans.sock"));
+        } finally {
+            Files.deleteIfExists(directory.resolve("spans.sock"));
+            Files.delete(directory);
+        }
+    }
+
+    private static void runPipeline(String endpoint) throws Exception {
+        final List<String> spans = new CopyOnWriteArrayList<>();
+        try (ExtensionsApiStandIn api = new ExtensionsApiStandIn()) {
+            final SpanExtension extension = new SpanExtension(api.runtimeApiAddress(), "test-extension", endpoint,
+                    payload -> spans.add(new String(payload, StandardCharsets.UTF_8)));
+            final Thread thread = new Thread(() -> {
+                try {
+                    extension.run();
+                } catch (IOException | InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+            Assert.assertEquals("test-extension", api.awaitRegistration());
+
+            final LocalSocketSpanExporter exporter = LocalSocketSpanExporter.open(endpoint, 16);
+            LocalSocketSpanExporter.configure(exporter);
+            try {
+                for (int i = 0; i < 3; i++) {
+                    api.invoke("request-" + i);
+                    Assert.assertEquals("ok", LambdaTracing.instrument("input", context("request-" + i),
+                            (input, context) -> "ok"));
+                }
+                Assert.assertTrue(exporter.flush(10, TimeUnit.SECONDS));
+            } finally {
+                LocalSocketSpanExporter.configure(null);
+                exporter.close();
+            }
+
+            api.shutdown();
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+            Assert.assertFalse(thread.isAlive());
+            Assert.assertEquals(0, exporter.getDroppedCount());
+        }
+
+        Assert.assertEquals(3, spans.size());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(spans.get(i), spans.get(i).contains("\"aws.requestId\":\"request-" + i + "\""));
+            Assert.assertTrue(spans.get(i), spans.get(i).contains("\"name\":\"handleRequest\""));
+        }
+    }
+
+    private static boolean hasUnixDomainSockets() {
+        try {
+            Class.forName("java.net.UnixDomainSocketAddress");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private static Context context(String requestId) {
+        return new Context() {
+            @Override
+            public String getAwsRequestId() {
+                return requestId;
+            }
+
+            @Override
+            public String getLogGroupName() {
+                return null;
+            }
+
+            @Override
+            public String getLogStreamName() {
+                return null;
+            }
+
+            @Override
+            public String getFunctionName() {
+                return "test";
+            }
+
+            @Override
+            public String getFunctionVersion() {
+                return "$LATEST";
+            }
+
+            @Override
+            public String getInvokedFunctionArn() {
+                return "arn:aws:lambda:us-east-1:123456789012:function:test";
+            }
+
+            @Override
+            public CognitoIdentity getIdentity() {
+                return null;
+            }
+
+            @Override
+            public ClientContext getClientContext() {
+                return null;
+            }
+
+            @Override
+            public int getRemainingTimeInMillis() {
+                return 1000;
+            }
+
+            @Override
+            public int getMemoryLimitInMB() {
+                return 512;
+            }
+
+            @Override
+            public LambdaLogger getLogger() {
+                return null;
+            }
+        };
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws.loadtest;
+
+import com.newrelic.opentracing.aws.InvocationLog;
+import io.opentracing.util.GlobalTracer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays invocations captured by the library (see {@code NEW_RELIC_LAMBDA_TRACING_CAPTURE_SAMPLE_RATE})
+ * through the instrumented handler on localhost, on the captured schedule, and reports the handler
+ * latency distribution.
+ *
+ * <p>To compare library versions, replay with one version and {@code --save} the latencies, then
+ * replay with the other and pass the saved file as {@code --baseline}.
+ *
+ * <pre>
+ * --capture DIR      directory of the captured invocation log (required)
+ * --speed X          replay X times faster than captured (default 1)
+ * --max-gap-ms MS    longest wait between two invocations, after speeding up (default 1000)
+ * --warmup N         unmeasured replays before the measured one (default 1)
+ * --concurrency N    runtime clients, i.e. execution environments (default 1)
+ * --mode M           stream or typed (default typed)
+ * --tracer T         mock or noop (default mock)
+ * --save FILE        write the measured handler latencies, in nanoseconds, one per line
+ * --baseline FILE    compare with latencies saved by an earlier replay
+ * </pre>
+ */
+public final class CaptureReplay {
+
+    private CaptureReplay() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path capture = null;
+        double speed = 1;
+        long maxGapMillis = 1000;
+        int warmup = 1;
+        int concurrency = 1;
+        Handlers.Mode mode = Handlers.Mode.TYPED;
+        String tracer = "mock";
+        Path save = null;
+        Path baseline = null;
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            final String value = args[i + 1];
+            switch (args[i]) {
+                case "--capture":
+                    capture = Paths.get(value);
+                    break;
+                case "--speed":
+                    speed = Double.parseDouble(value);
+                    break;
+                case "--max-gap-ms":
+                    maxGapMillis = Long.parseLong(value);
+                    break;
+                case "--warmup":
+                    warmup = Integer.parseInt(value);
+                    break;
+                case "--concurrency":
+                    concurrency = Integer.parseInt(value);
+                    break;
+                case "--mode":
+                    mode = Handlers.Mode.valueOf(value.toUpperCase(Locale.ROOT));
+                    break;
+                case "--tracer":
+                    tracer = value;
+                    break;
+                case "--save":
+                    save = Paths.get(value);
+                    break;
+                case "--baseline":
+                    baseline = Paths.get(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        if (capture == null) {
+            throw new IllegalArgumentException("--capture is required");
+        }
+        if (speed <= 0) {
+            throw new IllegalArgumentException("--speed must be positive");
+        }
+
+        final List<InvocationLog.Entry> entries = InvocationLog.read(capture);
+        if (entries.isEmpty()) {
+            throw new IllegalArgumentException("No captured invocations in " + capture);
+        }
+        if ("mock".equals(tracer)) {
+            GlobalTracer.registerIfAbsent(new LoadTest.DiscardingMockTracer());
+        }
+
+        final List<byte[]> events = new ArrayList<>(entries.size());
+        final LatencyRecorder captured = new LatencyRecorder();
+        for (InvocationLog.Entry entry : entries) {
+            events.add(entry.getEvent());
+            captured.record(entry.getDurationNanos());
+        }
+        final long[] offsets = schedule(entries, speed, TimeUnit.MILLISECONDS.toNanos(maxGapMillis));
+        final LoadGenerator generator = new LoadGenerator(events, 0, concurrency);
+        for (int i = 0; i < warmup; i++) {
+            generator.replay(Handlers.instrumented(mode), offsets);
+        }
+        final LoadGenerator.Result result = generator.replay(Handlers.instrumented(mode), offsets);
+
+        if (save != null) {
+            save(result.handler, save);
+        }
+        System.out.printf(Locale.ROOT, "mode=%s tracer=%s speed=%s concurrency=%d invocations=%d errors=%d%n",
+                mode, tracer, speed, concurrency, result.invocations, result.errors);
+        System.out.println(report(captured.snapshot(), baseline == null ? null : load(baseline), result.handler));
+    }
+
+    /**
+     * @return each entry's offset from the first, divided by speed, with gaps capped at maxGapNanos
+     */
+    static long[] schedule(List<InvocationLog.Entry> entries, double speed, long maxGapNanos) {
+        final long[] offsets = new long[entries.size()];
+        for (int i = 1; i < offsets.length; i++) {
+            final long gapMillis = entries.get(i).getStartMillis() - entries.get(i - 1).getStartMillis();
+            final long gapNanos = (long) (TimeUnit.MILLISECONDS.toNanos(Math.max(0, gapMillis)) / speed);
+            offsets[i] = offsets[i - 1] + Math.min(gapNanos, maxGapNanos);
+        }
+        return offsets;
+    }
+
+    /**
+     * @param baseline null without a baseline
+     */
+    static String report(LatencyRecorder.Snapshot captured, LatencyRecorder.Snapshot baseline,
+            LatencyRecorder.Snapshot replay) {
+        final StringBuilder report = new StringBuilder();
+        if (baseline == null) {
+            report.append(String.format(Locale.ROOT, "%-18s %14s %14s%n", "", "captured", "replay"));
+        } else {
+            report.append(String.format(Locale.ROOT, "%-18s %14s %14s %14s %14s%n", "", "captured", "baseline",
+                    "replay", "change"));
+        }
+        row(report, "count", captured.count(), baseline == null ? 0 : baseline.count(), replay.count(),
+                baseline != null, false);
+        row(report, "mean (us)", captured.mean() / 1000, baseline == null ? 0 : baseline.mean() / 1000,
+                replay.mean() / 1000, baseline != null, true);
+        for (double percentile : new double[] { 50, 90, 99, 99.9 }) {
+            final String name = "p" + (percentile == Math.rint(percentile)
+                    ? Long.toString((long) percentile) : Double.toString(percentile)) + " (us)";
+            row(report, name, captured.percentile(percentile) / 1000.0,
+                    baseline == null ? 0 : baseline.percentile(percentile) / 1000.0,
+                    replay.percentile(percentile) / 1000.0, baseline != null, true);
+        }
+        row(report, "max (us)", captured.max() / 1000.0, baseline == null ? 0 : baseline.max() / 1000.0,
+                replay.max() / 1000.0, baseline != null, true);
+        report.append("captured: durations of the captured invocations, with the function's own business logic")
+                .append(System.lineSeparator());
+        return report.toString();
+    }
+
+    private static void row(StringBuilder report, String name, double captured, double baseline, double replay,
+            boolean withBaseline, boolean change) {
+        if (!withBaseline) {
+            report.append(String.format(Locale.ROOT, change ? "%-18s %14.1f %14.1f%n" : "%-18s %14.0f %14.0f%n",
+                    name, captured, replay));
+        } else if (change) {
+            report.append(String.format(Locale.ROOT, "%-18s %14.1f %14.1f %14.1f %14.1f%n", name, captured, baseline,
+                    replay, replay - baseline));
+        } else {
+            report.append(String.format(Locale.ROOT, "%-18s %14.0f %14.0f %14.0f%n", name, captured, baseline,
+                    replay));
+        }
+    }
+
+    static void save(LatencyRecorder.Snapshot latencies, Path file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            for (int i = 0; i < latencies.count(); i++) {
+                writer.println(latencies.get(i));
+            }
+        }
+    }
+
+    static LatencyRecorder.Snapshot load(Path file) throws IOException {
+        final LatencyRecorder recorder = new LatencyRecorder();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    recorder.record(Long.parseLong(line.trim()));
+                }
+            }
+        }
+        return recorder.snapshot();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Recorded event payloads, one per supported event source, under {@code src/main/resources/fixtures}.
+ */
+final class Fixtures {
+
+    static final List<String> ALL = Arrays.asList(
+            "api-gateway-proxy",
+            "http-api",
+            "alb",
+            "sqs",
+            "sns",
+            "kinesis",
+            "dynamodb",
+            "s3");
+
+    private Fixtures() {
+    }
+
+    static List<byte[]> load(List<String> names) throws IOException {
+        final List<byte[]> fixtures = new ArrayList<>(names.size());
+        for (String name : names) {
+            fixtures.add(load(name));
+        }
+        return fixtures;
+    }
+
+    static byte[] load(String name) throws IOException {
+        try (InputStream inputStream = Fixtures.class.getResourceAsStream("/fixtures/" + name + ".json")) {
+            if (inputStream == null) {
+                throw new IllegalArgumentException("Unknown fixture: " + name);
+            }
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws.loadtest;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.amazonaws.services.lambda.runtime.events.ApplicationLoadBalancerRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.DynamodbEvent;
+import com.amazonaws.services.lambda.runtime.events.KinesisEvent;
+import com.amazonaws.services.lambda.runtime.events.S3Event;
+import com.amazonaws.services.lambda.runtime.events.SNSEvent;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.amazonaws.services.lambda.runtime.serialization.PojoSerializer;
+import com.amazonaws.services.lambda.runtime.serialization.events.LambdaEventSerializers;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.newrelic.opentracing.aws.LambdaTracing;
+import com.newrelic.opentracing.aws.StreamLambdaTracing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The same trivial business logic, with and without instrumentation, for each handler style.
+ */
+final class Handlers {
+
+    enum Mode {
+        /** {@link RequestStreamHandler} wrapped with {@link StreamLambdaTracing}. */
+        STREAM,
+        /**
+         * A handler of the event's class, e.g. {@link SQSEvent}, wrapped with {@link LambdaTracing},
+         * deserialized as the runtime does. Events of no known class are deserialized to a {@code Map}.
+         */
+        TYPED
+    }
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // The event class of a payload is that of the first of these markers it contains, the batch
+    // events' sources first, as their records' bodies may hold HTTP requests
+    private static final String[] MARKERS = {
+            "\"aws:sqs\"", "\"aws:sns\"", "\"aws:kinesis\"", "\"aws:dynamodb\"", "\"aws:s3\"",
+            "\"routeKey\"", "\"elb\"", "\"httpMethod\""};
+    private static final Class<?>[] EVENT_CLASSES = {
+            SQSEvent.class, SNSEvent.class, KinesisEvent.class, DynamodbEvent.class, S3Event.class,
+            APIGatewayV2HTTPEvent.class, ApplicationLoadBalancerRequestEvent.class, APIGatewayProxyRequestEvent.class};
+    private static final byte[][] MARKER_BYTES = new byte[MARKERS.length][];
+    // The runtime's serializers, which map the events' JSON names, such as SNS's capitalized ones
+    private static final Map<Class<?>, PojoSerializer<?>> SERIALIZERS = new HashMap<>();
+
+    static {
+        for (int i = 0; i < MARKERS.length; i++) {
+            MARKER_BYTES[i] = MARKERS[i].getBytes(StandardCharsets.UTF_8);
+            SERIALIZERS.put(EVENT_CLASSES[i],
+                    LambdaEventSerializers.serializerFor(EVENT_CLASSES[i], Handlers.class.getClassLoader()));
+        }
+    }
+
+    private static final RequestStreamHandler STREAM_HANDLER = (input, output, context) -> {
+        final Map<String, Object> event = MAPPER.readValue(input, Map.class);
+        MAPPER.writeValue(output, businessLogic(event, context));
+    };
+
+    private Handlers() {
+    }
+
+    static InvocationHandler bare(Mode mode) {
+        if (mode == Mode.STREAM) {
+            return (event, context) -> {
+                final ByteArrayOutputStream output = new ByteArrayOutputStream();
+                STREAM_HANDLER.handleRequest(new ByteArrayInputStream(event), output, context);
+                return output.toByteArray();
+            };
+        }
+        return (event, context) -> MAPPER.writeValueAsBytes(businessLogic(fromJson(event), context));
+    }
+
+    static InvocationHandler instrumented(Mode mode) {
+        if (mode == Mode.STREAM) {
+            return (event, context) -> {
+                final ByteArrayOutputStream output = new ByteArrayOutputStream();
+                StreamLambdaTracing.instrument(new ByteArrayInputStream(event), output, context, STREAM_HANDLER);
+                return output.toByteArray();
+            };
+        }
+        return (event, context) ->
+                MAPPER.writeValueAsBytes(LambdaTracing.instrument(fromJson(event), context, Handlers::businessLogic));
+    }
+
+    /**
+     * @return the event, as an instance of its {@link #eventClass event class}
+     */
+    static Object fromJson(byte[] event) throws IOException {
+        final Class<?> eventClass = eventClass(event);
+        if (eventClass == Map.class) {
+            return MAPPER.readValue(event, Map.class);
+        }
+        return SERIALIZERS.get(eventClass).fromJson(new ByteArrayInputStream(event));
+    }
+
+    /**
+     * @return the class of {@code com.amazonaws.services.lambda.runtime.events} the event is an
+     * instance of, or {@code Map} if it is none of the fixtures' event types
+     */
+    static Class<?> eventClass(byte[] event) {
+        for (int i = 0; i < MARKER_BYTES.length; i++) {
+            if (contains(event, MARKER_BYTES[i])) {
+                return EVENT_CLASSES[i];
+            }
+        }
+        return Map.class;
+    }
+
+    private static boolean contains(byte[] bytes, byte[] part) {
+        for (int i = 0; i <= bytes.length - part.length; i++) {
+            int j = 0;
+            while (j < part.length && bytes[i + j] == part[j]) {
+                j++;
+            }
+            if (j == part.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Map<String, Object> businessLogic(Object event, Context context) {
+        final Map<String, Object> response = new HashMap<>();
+        response.put("statusCode", 200);
+        response.put("body", context.getAwsRequestId() + ":" + event.getClass().getSimpleName());
+        return response;
+    }
+}
@@ -0,0 +1,16 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws.loadtest;
+
+import com.amazonaws.services.lambda.runtime.Context;
+
+/**
+ * What a runtime does with one invocation: turn the raw event into the raw response.
+ */
+public interface InvocationHandler {
+
+    byte[] handle(byte[] event, Context context) throws Exception;
+}
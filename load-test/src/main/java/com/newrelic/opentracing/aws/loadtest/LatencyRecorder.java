@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Records latency samples in nanoseconds and reports percentiles over all of them.
+ */
+public final class LatencyRecorder {
+
+    private long[] samples = new long[1024];
+    private int count;
+
+    public synchronized void record(long nanos) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, samples.length * 2);
+        }
+        samples[count++] = nanos;
+    }
+
+    public synchronized int count() {
+        return count;
+    }
+
+    public synchronized Snapshot snapshot() {
+        final long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        return new Snapshot(sorted);
+    }
+
+    /**
+     * An immutable, sorted copy of the recorded samples.
+     */
+    public static final class Snapshot {
+        private final long[] sorted;
+
+        private Snapshot(long[] sorted) {
+            this.sorted = sorted;
+        }
+
+        public int count() {
+            return sorted.length;
+        }
+
+        /**
+         * @return the sample at index, in ascending order
+         */
+        public long get(int index) {
+            return sorted[index];
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the sample at that percentile, using the nearest-rank method, or 0 without samples
+         */
+        public long percentile(double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            final int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+            return sorted[Math.min(sorted.length - 1, Math.max(0, rank - 1))];
+        }
+
+        public double mean() {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            double sum = 0;
+            for (long sample : sorted) {
+                sum += sample;
+            }
+            return sum / sorted.length;
+        }
+
+        public long max() {
+            return sorted.length == 0 ? 0 : sorted[sorted.length - 1];
+        }
+    }
+}
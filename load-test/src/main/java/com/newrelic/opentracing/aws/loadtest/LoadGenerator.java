@@ -0,0 +1,127 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws.loadtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Submits events to a {@link RuntimeApiEmulator} at a fixed rate, or on a recorded schedule (open
+ * loop), processes them with a pool of {@link RuntimeClient}s and records latencies.
+ */
+final class LoadGenerator {
+
+    private static final long DRAIN_TIMEOUT_SECONDS = 30;
+
+    private final List<byte[]> fixtures;
+    private final double ratePerSecond;
+    private final int concurrency;
+
+    LoadGenerator(List<byte[]> fixtures, double ratePerSecond, int concurrency) {
+        this.fixtures = fixtures;
+        this.ratePerSecond = ratePerSecond;
+        this.concurrency = concurrency;
+    }
+
+    Result run(InvocationHandler handler, long durationNanos) throws IOException, InterruptedException {
+        final long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+        final int count = (int) ((durationNanos + intervalNanos - 1) / intervalNanos);
+        return drive(handler, count, i -> i * intervalNanos);
+    }
+
+    /**
+     * Submit each event once, at its offset from the start instead of at the fixed rate.
+     *
+     * @param offsetsNanos One per event, in order
+     */
+    Result replay(InvocationHandler handler, long[] offsetsNanos) throws IOException, InterruptedException {
+        if (offsetsNanos.length != fixtures.size()) {
+            throw new IllegalArgumentException("One offset per event expected");
+        }
+        return drive(handler, offsetsNanos.length, i -> offsetsNanos[i]);
+    }
+
+    private Result drive(InvocationHandler handler, int count, IntToLongFunction offsetNanos)
+            throws IOException, InterruptedException {
+        final LatencyRecorder endToEnd = new LatencyRecorder();
+        final LatencyRecorder handlerLatency = new LatencyRecorder();
+        final AtomicInteger errors = new AtomicInteger();
+
+        try (RuntimeApiEmulator emulator = new RuntimeApiEmulator()) {
+            final List<RuntimeClient> clients = new ArrayList<>(concurrency);
+            final List<Thread> threads = new ArrayList<>(concurrency);
+            for (int i = 0; i < concurrency; i++) {
+                final RuntimeClient client = new RuntimeClient(emulator.runtimeApiAddress(), handler, handlerLatency);
+                final Thread thread = new Thread(client, "runtime-client-" + i);
+                thread.setDaemon(true);
+                thread.start();
+                clients.add(client);
+                threads.add(thread);
+            }
+
+            final List<CompletableFuture<RuntimeApiEmulator.Result>> results = new ArrayList<>();
+            final long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                final long scheduled = start + offsetNanos.applyAsLong(i);
+                long wait;
+                while ((wait = scheduled - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                results.add(emulator.submit(fixtures.get(i % fixtures.size()))
+                        .whenComplete((result, throwable) -> {
+                            if (throwable != null || result.isError()) {
+                                errors.incrementAndGet();
+                            } else {
+                                endToEnd.record(result.getLatencyNanos());
+                            }
+                        }));
+            }
+
+            try {
+                CompletableFuture.allOf(results.toArray(new CompletableFuture[0]))
+                        .get(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                throw new IllegalStateException("Invocations did not complete within " + DRAIN_TIMEOUT_SECONDS + "s", e);
+            }
+            final long elapsed = System.nanoTime() - start;
+
+            for (RuntimeClient client : clients) {
+                client.stop();
+            }
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            return new Result(results.size(), errors.get(), elapsed, endToEnd.snapshot(), handlerLatency.snapshot());
+        }
+    }
+
+    static final class Result {
+        final int invocations;
+        final int errors;
+        final long elapsedNanos;
+        final LatencyRecorder.Snapshot endToEnd;
+        final LatencyRecorder.Snapshot handler;
+
+        Result(int invocations, int errors, long elapsedNanos, LatencyRecorder.Snapshot endToEnd,
+                LatencyRecorder.Snapshot handler) {
+            this.invocations = invocations;
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+            this.endToEnd = endToEnd;
+            this.handler = handler;
+        }
+
+        double throughput() {
+            return invocations / (elapsedNanos / 1e9);
+        }
+    }
+}
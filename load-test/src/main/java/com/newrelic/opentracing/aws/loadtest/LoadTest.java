@@ -0,0 +1,138 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws.loadtest;
+
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import io.opentracing.util.GlobalTracer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the end-to-end overhead of the instrumentation on localhost, with no AWS access.
+ *
+ * <p>The same fixtures are replayed at the same rate through a bare handler and through the
+ * instrumented handler, and the latency distributions are compared.
+ *
+ * <pre>
+ * --rate N          invocations per second (default 200)
+ * --duration S      measured seconds per run (default 20)
+ * --warmup S        unmeasured seconds before each run (default 5)
+ * --concurrency N   runtime clients, i.e. execution environments (default 2)
+ * --mode M          stream or typed (default typed)
+ * --tracer T        mock or noop (default mock)
+ * --fixtures a,b    fixture names (default all)
+ * </pre>
+ */
+public final class LoadTest {
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        double rate = 200;
+        long durationSeconds = 20;
+        long warmupSeconds = 5;
+        int concurrency = 2;
+        Handlers.Mode mode = Handlers.Mode.TYPED;
+        String tracer = "mock";
+        List<String> fixtureNames = Fixtures.ALL;
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            final String value = args[i + 1];
+            switch (args[i]) {
+                case "--rate":
+                    rate = Double.parseDouble(value);
+                    break;
+                case "--duration":
+                    durationSeconds = Long.parseLong(value);
+                    break;
+                case "--warmup":
+                    warmupSeconds = Long.parseLong(value);
+                    break;
+                case "--concurrency":
+                    concurrency = Integer.parseInt(value);
+                    break;
+                case "--mode":
+                    mode = Handlers.Mode.valueOf(value.toUpperCase(Locale.ROOT));
+                    break;
+                case "--tracer":
+                    tracer = value;
+                    break;
+                case "--fixtures":
+                    fixtureNames = Arrays.asList(value.split(","));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        if ("mock".equals(tracer)) {
+            GlobalTracer.registerIfAbsent(new DiscardingMockTracer());
+        }
+
+        final LoadGenerator generator = new LoadGenerator(Fixtures.load(fixtureNames), rate, concurrency);
+        final long warmup = TimeUnit.SECONDS.toNanos(warmupSeconds);
+        final long duration = TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        generator.run(Handlers.bare(mode), warmup);
+        final LoadGenerator.Result bare = generator.run(Handlers.bare(mode), duration);
+        generator.run(Handlers.instrumented(mode), warmup);
+        final LoadGenerator.Result instrumented = generator.run(Handlers.instrumented(mode), duration);
+
+        System.out.printf(Locale.ROOT, "mode=%s tracer=%s rate=%.0f/s concurrency=%d fixtures=%s%n",
+                mode, tracer, rate, concurrency, fixtureNames);
+        System.out.println(report(bare, instrumented));
+    }
+
+    static String report(LoadGenerator.Result bare, LoadGenerator.Result instrumented) {
+        final StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "%-22s %14s %14s %14s%n", "", "bare", "instrumented", "overhead"));
+        row(report, "invocations", bare.invocations, instrumented.invocations, false);
+        row(report, "errors", bare.errors, instrumented.errors, false);
+        report.append(String.format(Locale.ROOT, "%-22s %14.1f %14.1f%n", "throughput (/s)",
+                bare.throughput(), instrumented.throughput()));
+        latencyRows(report, "end-to-end", bare.endToEnd, instrumented.endToEnd);
+        latencyRows(report, "handler", bare.handler, instrumented.handler);
+        return report.toString();
+    }
+
+    private static void latencyRows(StringBuilder report, String name, LatencyRecorder.Snapshot bare,
+            LatencyRecorder.Snapshot instrumented) {
+        row(report, name + " mean (us)", bare.mean() / 1000, instrumented.mean() / 1000, true);
+        for (double percentile : new double[] { 50, 90, 99, 99.9 }) {
+            row(report, name + " p" + formatPercentile(percentile) + " (us)",
+                    bare.percentile(percentile) / 1000.0, instrumented.percentile(percentile) / 1000.0, true);
+        }
+        row(report, name + " max (us)", bare.max() / 1000.0, instrumented.max() / 1000.0, true);
+    }
+
+    private static void row(StringBuilder report, String name, double bare, double instrumented, boolean overhead) {
+        if (overhead) {
+            report.append(String.format(Locale.ROOT, "%-22s %14.1f %14.1f %14.1f%n", name, bare, instrumented,
+                    instrumented - bare));
+        } else {
+            report.append(String.format(Locale.ROOT, "%-22s %14.0f %14.0f%n", name, bare, instrumented));
+        }
+    }
+
+    private static String formatPercentile(double percentile) {
+        return percentile == Math.rint(percentile) ? Long.toString((long) percentile) : Double.toString(percentile);
+    }
+
+    /**
+     * A {@link MockTracer} that does not keep finished spans, so long runs don't grow the heap.
+     */
+    static final class DiscardingMockTracer extends MockTracer {
+        @Override
+        protected void onSpanFinished(MockSpan mockSpan) {
+            reset();
+        }
+    }
+}
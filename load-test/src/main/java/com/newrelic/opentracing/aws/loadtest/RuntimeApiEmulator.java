@@ -0,0 +1,228 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A minimal, in-process stand-in for the Lambda Runtime API.
+ *
+ * <p>Only the three endpoints a runtime needs to process invocations are served, on the loopback
+ * interface:
+ *
+ * <ul>
+ *   <li>{@code GET /2018-06-01/runtime/invocation/next}
+ *   <li>{@code POST /2018-06-01/runtime/invocation/{requestId}/response}
+ *   <li>{@code POST /2018-06-01/runtime/invocation/{requestId}/error}
+ * </ul>
+ *
+ * <p>Events are queued with {@link #submit(byte[])}, which completes once the runtime posts a response
+ * or an error for the invocation.
+ */
+public final class RuntimeApiEmulator implements AutoCloseable {
+
+    static final String API_PREFIX = "/2018-06-01/runtime/invocation/";
+    static final String FUNCTION_ARN = "arn:aws:lambda:us-east-1:123456789012:function:load-test";
+
+    private static final long DEADLINE_MILLIS = 30_000;
+    private static final long NEXT_POLL_MILLIS = 200;
+
+    static {
+        // The JDK server writes headers and body separately; without TCP_NODELAY every response
+        // waits out the client's delayed ACK (~40ms), which would swamp the numbers being measured.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final BlockingQueue<Invocation> pending = new LinkedBlockingQueue<>();
+    private final Map<String, Invocation> inFlight = new ConcurrentHashMap<>();
+
+    public RuntimeApiEmulator() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "runtime-api-emulator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext(API_PREFIX, this::handle);
+        server.start();
+    }
+
+    /**
+     * @return the value a runtime would read from {@code AWS_LAMBDA_RUNTIME_API}
+     */
+    public String runtimeApiAddress() {
+        return "127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Queue an invocation.
+     *
+     * @param event The raw JSON event
+     * @return a future that completes when the runtime reports the invocation's outcome
+     */
+    public CompletableFuture<Result> submit(byte[] event) {
+        final Invocation invocation = new Invocation(UUID.randomUUID().toString(), event);
+        inFlight.put(invocation.requestId, invocation);
+        pending.add(invocation);
+        return invocation.result;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            final String path = exchange.getRequestURI().getPath();
+            final String action = path.substring(API_PREFIX.length());
+            if ("GET".equals(exchange.getRequestMethod()) && "next".equals(action)) {
+                next(exchange);
+            } else if ("POST".equals(exchange.getRequestMethod()) && action.endsWith("/response")) {
+                complete(exchange, action.substring(0, action.length() - "/response".length()), false);
+            } else if ("POST".equals(exchange.getRequestMethod()) && action.endsWith("/error")) {
+                complete(exchange, action.substring(0, action.length() - "/error".length()), true);
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void next(HttpExchange exchange) throws IOException {
+        Invocation invocation = null;
+        try {
+            // The real API long-polls; poll in slices so that close() is not held up.
+            while (invocation == null && !executor.isShutdown()) {
+                invocation = pending.poll(NEXT_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (invocation == null) {
+            exchange.sendResponseHeaders(503, -1);
+            return;
+        }
+
+        invocation.dispatchedNanos = System.nanoTime();
+        exchange.getResponseHeaders().add("Lambda-Runtime-Aws-Request-Id", invocation.requestId);
+        exchange.getResponseHeaders().add("Lambda-Runtime-Deadline-Ms",
+                Long.toString(System.currentTimeMillis() + DEADLINE_MILLIS));
+        exchange.getResponseHeaders().add("Lambda-Runtime-Invoked-Function-Arn", FUNCTION_ARN);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, invocation.event.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(invocation.event);
+        }
+    }
+
+    private void complete(HttpExchange exchange, String requestId, boolean error) throws IOException {
+        final byte[] body = readFully(exchange.getRequestBody());
+        final Invocation invocation = inFlight.remove(requestId);
+        if (invocation == null) {
+            exchange.sendResponseHeaders(400, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(202, -1);
+        invocation.result.complete(new Result(requestId, body, error, invocation.submittedNanos,
+                invocation.dispatchedNanos, System.nanoTime()));
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static final class Invocation {
+        private final String requestId;
+        private final byte[] event;
+        private final long submittedNanos = System.nanoTime();
+        private final CompletableFuture<Result> result = new CompletableFuture<>();
+        private volatile long dispatchedNanos;
+
+        private Invocation(String requestId, byte[] event) {
+            this.requestId = requestId;
+            this.event = event;
+        }
+    }
+
+    /**
+     * The outcome of an invocation, as reported by the runtime.
+     */
+    public static final class Result {
+        private final String requestId;
+        private final byte[] body;
+        private final boolean error;
+        private final long submittedNanos;
+        private final long dispatchedNanos;
+        private final long completedNanos;
+
+        Result(String requestId, byte[] body, boolean error, long submittedNanos, long dispatchedNanos,
+                long completedNanos) {
+            this.requestId = requestId;
+            this.body = body;
+            this.error = error;
+            this.submittedNanos = submittedNanos;
+            this.dispatchedNanos = dispatchedNanos;
+            this.completedNanos = completedNanos;
+        }
+
+        public String getRequestId() {
+            return requestId;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public boolean isError() {
+            return error;
+        }
+
+        /**
+         * @return nanoseconds from {@link #submit(byte[])} until the runtime reported the outcome
+         */
+        public long getLatencyNanos() {
+            return completedNanos - submittedNanos;
+        }
+
+        /**
+         * @return nanoseconds the invocation waited for a runtime to fetch it
+         */
+        public long getQueueNanos() {
+            return dispatchedNanos - submittedNanos;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A runtime loop, like the one in the Lambda runtime interface client: fetch the next invocation,
+ * run the handler, post the response or error. Each client stands in for one execution environment.
+ */
+public final class RuntimeClient implements Runnable {
+
+    private final String runtimeApi;
+    private final InvocationHandler handler;
+    private final LatencyRecorder handlerLatency;
+    private volatile boolean running = true;
+
+    public RuntimeClient(String runtimeApi, InvocationHandler handler, LatencyRecorder handlerLatency) {
+        this.runtimeApi = runtimeApi;
+        this.handler = handler;
+        this.handlerLatency = handlerLatency;
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public void run() {
+        while (running && !Thread.currentThread().isInterrupted()) {
+            try {
+                processNext();
+            } catch (IOException e) {
+                if (running) {
+                    throw new IllegalStateException("Runtime API emulator is unreachable", e);
+                }
+            }
+        }
+    }
+
+    private void processNext() throws IOException {
+        final HttpURLConnection next = open("next", "GET");
+        if (next.getResponseCode() != 200) {
+            next.disconnect();
+            return;
+        }
+        final String requestId = next.getHeaderField("Lambda-Runtime-Aws-Request-Id");
+        final long deadlineMillis = Long.parseLong(next.getHeaderField("Lambda-Runtime-Deadline-Ms"));
+        final String functionArn = next.getHeaderField("Lambda-Runtime-Invoked-Function-Arn");
+        final byte[] event;
+        try (InputStream body = next.getInputStream()) {
+            event = readFully(body);
+        }
+
+        final EmulatedContext context = new EmulatedContext(requestId, functionArn, deadlineMillis);
+        byte[] response;
+        boolean error = false;
+        final long start = System.nanoTime();
+        try {
+            response = handler.handle(event, context);
+        } catch (Throwable t) {
+            error = true;
+            response = ("{\"errorType\":\"" + t.getClass().getName() + "\"}").getBytes(StandardCharsets.UTF_8);
+        }
+        handlerLatency.record(System.nanoTime() - start);
+
+        final HttpURLConnection post = open(requestId + (error ? "/error" : "/response"), "POST");
+        post.setDoOutput(true);
+        post.setFixedLengthStreamingMode(response.length);
+        try (OutputStream body = post.getOutputStream()) {
+            body.write(response);
+        }
+        post.getResponseCode();
+        post.disconnect();
+    }
+
+    private HttpURLConnection open(String action, String method) throws IOException {
+        final URL url = new URL("http://" + runtimeApi + RuntimeApiEmulator.API_PREFIX + action);
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        return connection;
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+}
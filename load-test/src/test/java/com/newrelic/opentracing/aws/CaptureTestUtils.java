@@ -0,0 +1,19 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public class CaptureTestUtils {
+
+    /**
+     * Capture to directory from now on, or stop capturing if directory is null.
+     */
+    public static void captureTo(Path directory) throws IOException {
+        InvocationCapture.reset(directory);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws.loadtest;
+
+import com.newrelic.opentracing.aws.InvocationLog;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class CaptureReplayTest {
+
+    @Test
+    public void testSchedule() throws Exception {
+        final Path directory = Files.createTempDirectory("capture");
+        try (InvocationLog log = InvocationLog.open(directory, 1 << 16, 2)) {
+            for (long start : new long[] { 1000, 1100, 1100, 61100 }) {
+                log.append(start, 0, false, "stream", "{}".getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        final long[] offsets = CaptureReplay.schedule(InvocationLog.read(directory), 2, TimeUnit.SECONDS.toNanos(1));
+
+        Assert.assertArrayEquals(new long[] {
+                0,
+                TimeUnit.MILLISECONDS.toNanos(50),
+                TimeUnit.MILLISECONDS.toNanos(50),
+                TimeUnit.MILLISECONDS.toNanos(1050) }, offsets);
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        final Path directory = Files.createTempDirectory("capture");
+        try (InvocationLog log = InvocationLog.open(directory, 1 << 20, 2)) {
+            long start = 1000;
+            for (String fixture : Fixtures.ALL) {
+                log.append(start, TimeUnit.MILLISECONDS.toNanos(3), false, "stream", Fixtures.load(fixture));
+                start += 5;
+            }
+        }
+        final List<InvocationLog.Entry> entries = InvocationLog.read(directory);
+        final List<byte[]> events = new ArrayList<>();
+        for (InvocationLog.Entry entry : entries) {
+            events.add(entry.getEvent());
+        }
+
+        final LoadGenerator.Result result = new LoadGenerator(events, 0, 1)
+                .replay(Handlers.instrumented(Handlers.Mode.STREAM), CaptureReplay.schedule(entries, 1, 0));
+
+        Assert.assertEquals(Fixtures.ALL.size(), result.invocations);
+        Assert.assertEquals(0, result.errors);
+
+        final Path saved = directory.resolve("latencies.txt");
+        CaptureReplay.save(result.handler, saved);
+        final LatencyRecorder.Snapshot loaded = CaptureReplay.load(saved);
+        Assert.assertEquals(result.handler.count(), loaded.count());
+        Assert.assertEquals(result.handler.max(), loaded.max());
+        Assert.assertTrue(CaptureReplay.report(loaded, loaded, result.handler).contains("baseline"));
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws.loadtest;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.events.KinesisEvent;
+import com.amazonaws.services.lambda.runtime.events.SNSEvent;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.newrelic.opentracing.aws.CaptureTestUtils;
+import com.newrelic.opentracing.aws.InvocationLog;
+import com.newrelic.opentracing.aws.LambdaTracing;
+import io.opentracing.util.GlobalTracer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Events captured by the library are read back by {@link CaptureReplay} as the runtime would read them.
+ */
+public class CaptureRoundTripTest {
+
+    private Path directory;
+
+    @Before
+    public void before() throws IOException {
+        GlobalTracer.registerIfAbsent(new LoadTest.DiscardingMockTracer());
+        directory = Files.createTempDirectory("capture");
+        CaptureTestUtils.captureTo(directory);
+    }
+
+    @After
+    public void after() throws IOException {
+        CaptureTestUtils.captureTo(null);
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testSqs() throws Exception {
+        final SQSEvent event = (SQSEvent) Handlers.fromJson(Fixtures.load("sqs"));
+        final SQSEvent replayed = (SQSEvent) roundTrip(event);
+
+        Assert.assertEquals(event.getRecords().size(), replayed.getRecords().size());
+        for (int i = 0; i < event.getRecords().size(); i++) {
+            final SQSEvent.SQSMessage expected = event.getRecords().get(i);
+            final SQSEvent.SQSMessage actual = replayed.getRecords().get(i);
+            Assert.assertEquals(expected.getMessageId(), actual.getMessageId());
+            Assert.assertEquals(expected.getReceiptHandle(), actual.getReceiptHandle());
+            Assert.assertEquals(expected.getBody(), actual.getBody());
+            Assert.assertEquals(expected.getMd5OfBody(), actual.getMd5OfBody());
+            Assert.assertEquals(expected.getAttributes(), actual.getAttributes());
+            Assert.assertEquals(expected.getEventSource(), actual.getEventSource());
+            Assert.assertEquals(expected.getEventSourceArn(), actual.getEventSourceArn());
+            Assert.assertEquals(expected.getAwsRegion(), actual.getAwsRegion());
+            Assert.assertEquals(expected.getMessageAttributes().keySet(), actual.getMessageAttributes().keySet());
+            for (Map.Entry<String, SQSEvent.MessageAttribute> attribute : expected.getMessageAttributes().entrySet()) {
+                final SQSEvent.MessageAttribute replayedAttribute = actual.getMessageAttributes().get(attribute.getKey());
+                Assert.assertEquals(attribute.getValue().getDataType(), replayedAttribute.getDataType());
+                Assert.assertEquals(attribute.getValue().getStringValue(), replayedAttribute.getStringValue());
+            }
+        }
+    }
+
+    @Test
+    public void testSns() throws Exception {
+        final SNSEvent event = (SNSEvent) Handlers.fromJson(Fixtures.load("sns"));
+        final SNSEvent replayed = (SNSEvent) roundTrip(event);
+
+        Assert.assertEquals(event.getRecords().size(), replayed.getRecords().size());
+        for (int i = 0; i < event.getRecords().size(); i++) {
+            final SNSEvent.SNSRecord expected = event.getRecords().get(i);
+            final SNSEvent.SNSRecord actual = replayed.getRecords().get(i);
+            Assert.assertEquals(expected.getEventSource(), actual.getEventSource());
+            Assert.assertEquals(expected.getEventSubscriptionArn(), actual.getEventSubscriptionArn());
+            Assert.assertEquals(expected.getEventVersion(), actual.getEventVersion());
+            Assert.assertEquals(expected.getSNS().getMessageId(), actual.getSNS().getMessageId());
+            Assert.assertEquals(expected.getSNS().getMessage(), actual.getSNS().getMessage());
+            Assert.assertEquals(expected.getSNS().getSubject(), actual.getSNS().getSubject());
+            Assert.assertEquals(expected.getSNS().getTopicArn(), actual.getSNS().getTopicArn());
+            Assert.assertEquals(expected.getSNS().getType(), actual.getSNS().getType());
+            Assert.assertEquals(expected.getSNS().getSignatureVersion(), actual.getSNS().getSignatureVersion());
+            Assert.assertEquals(expected.getSNS().getSigningCertUrl(), actual.getSNS().getSigningCertUrl());
+            Assert.assertEquals(expected.getSNS().getUnsubscribeUrl(), actual.getSNS().getUnsubscribeUrl());
+            Assert.assertEquals(expected.getSNS().getTimestamp().getMillis(), actual.getSNS().getTimestamp().getMillis());
+            Assert.assertEquals(expected.getSNS().getMessageAttributes().keySet(),
+                    actual.getSNS().getMessageAttributes().keySet());
+            for (Map.Entry<String, SNSEvent.MessageAttribute> attribute
+                    : expected.getSNS().getMessageAttributes().entrySet()) {
+                final SNSEvent.MessageAttribute replayedAttribute =
+                        actual.getSNS().getMessageAttributes().get(attribute.getKey());
+                Assert.assertEquals(attribute.getValue().getType(), replayedAttribute.getType());
+                Assert.assertEquals(attribute.getValue().getValue(), replayedAttribute.getValue());
+            }
+        }
+    }
+
+    @Test
+    public void testKinesis() throws Exception {
+        final KinesisEvent event = (KinesisEvent) Handlers.fromJson(Fixtures.load("kinesis"));
+        final KinesisEvent replayed = (KinesisEvent) roundTrip(event);
+
+        Assert.assertEquals(event.getRecords().size(), replayed.getRecords().size());
+        for (int i = 0; i < event.getRecords().size(); i++) {
+            final KinesisEvent.KinesisEventRecord expected = event.getRecords().get(i);
+            final KinesisEvent.KinesisEventRecord actual = replayed.getRecords().get(i);
+            Assert.assertEquals(expected.getEventSource(), actual.getEventSource());
+            Assert.assertEquals(expected.getEventID(), actual.getEventID());
+            Assert.assertEquals(expected.getEventName(), actual.getEventName());
+            Assert.assertEquals(expected.getEventSourceARN(), actual.getEventSourceARN());
+            Assert.assertEquals(expected.getAwsRegion(), actual.getAwsRegion());
+            Assert.assertEquals(expected.getKinesis().getPartitionKey(), actual.getKinesis().getPartitionKey());
+            Assert.assertEquals(expected.getKinesis().getSequenceNumber(), actual.getKinesis().getSequenceNumber());
+            Assert.assertEquals(expected.getKinesis().getData(), actual.getKinesis().getData());
+            Assert.assertEquals(expected.getKinesis().getApproximateArrivalTimestamp(),
+                    actual.getKinesis().getApproximateArrivalTimestamp());
+        }
+    }
+
+    /**
+     * @return event as captured by an instrumented invocation, then read back for replay
+     */
+    private Object roundTrip(Object event) throws Exception {
+        final LambdaTracing<Object, Object> tracing = new LambdaTracing<Object, Object>() {
+            @Override
+            protected boolean isCaptured(Object input, Context context) {
+                return true;
+            }
+        };
+        tracing.instrumentRequest(event, new EmulatedContext("request", "arn:aws:lambda:us-east-1:123456789012:function:capture",
+                System.currentTimeMillis() + 60_000), (input, context) -> "ok");
+
+        final List<InvocationLog.Entry> entries = InvocationLog.read(directory);
+        Assert.assertEquals(1, entries.size());
+        Assert.assertEquals(event.getClass().getName(), entries.get(0).getEventType());
+        return Handlers.fromJson(entries.get(0).getEvent());
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws.loadtest;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.amazonaws.services.lambda.runtime.events.ApplicationLoadBalancerRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.DynamodbEvent;
+import com.amazonaws.services.lambda.runtime.events.KinesisEvent;
+import com.amazonaws.services.lambda.runtime.events.S3Event;
+import com.amazonaws.services.lambda.runtime.events.SNSEvent;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class HandlersTest {
+
+    @Test
+    public void testFixturesDeserializeToTheirEventClass() throws Exception {
+        final List<Class<?>> eventClasses = Arrays.asList(
+                APIGatewayProxyRequestEvent.class,
+                APIGatewayV2HTTPEvent.class,
+                ApplicationLoadBalancerRequestEvent.class,
+                SQSEvent.class,
+                SNSEvent.class,
+                KinesisEvent.class,
+                DynamodbEvent.class,
+                S3Event.class);
+
+        for (int i = 0; i < Fixtures.ALL.size(); i++) {
+            final byte[] fixture = Fixtures.load(Fixtures.ALL.get(i));
+            Assert.assertEquals(Fixtures.ALL.get(i), eventClasses.get(i), Handlers.eventClass(fixture));
+            Assert.assertTrue(Fixtures.ALL.get(i), eventClasses.get(i).isInstance(Handlers.fromJson(fixture)));
+        }
+        Assert.assertSame(Map.class, Handlers.eventClass("{\"orderId\":\"4711\"}".getBytes(StandardCharsets.UTF_8)));
+    }
+}
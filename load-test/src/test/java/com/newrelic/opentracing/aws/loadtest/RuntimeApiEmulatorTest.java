@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws.loadtest;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+public class RuntimeApiEmulatorTest {
+
+    @Test
+    public void testResponseAndError() throws Exception {
+        final InvocationHandler handler = (event, context) -> {
+            if (new String(event, StandardCharsets.UTF_8).contains("fail")) {
+                throw new IllegalStateException("fail");
+            }
+            return context.getAwsRequestId().getBytes(StandardCharsets.UTF_8);
+        };
+
+        try (RuntimeApiEmulator emulator = new RuntimeApiEmulator()) {
+            final RuntimeClient client = new RuntimeClient(emulator.runtimeApiAddress(), handler, new LatencyRecorder());
+            final Thread thread = new Thread(client);
+            thread.setDaemon(true);
+            thread.start();
+
+            final RuntimeApiEmulator.Result ok =
+                    emulator.submit("{}".getBytes(StandardCharsets.UTF_8)).get(10, TimeUnit.SECONDS);
+            Assert.assertFalse(ok.isError());
+            Assert.assertEquals(ok.getRequestId(), new String(ok.getBody(), StandardCharsets.UTF_8));
+            Assert.assertTrue(ok.getLatencyNanos() >= ok.getQueueNanos());
+
+            final RuntimeApiEmulator.Result failed =
+                    emulator.submit("{\"fail\":true}".getBytes(StandardCharsets.UTF_8)).get(10, TimeUnit.SECONDS);
+            Assert.assertTrue(failed.isError());
+
+            client.stop();
+        }
+    }
+
+    @Test
+    public void testInstrumentedLoad() throws Exception {
+        final LoadGenerator generator =
+                new LoadGenerator(Fixtures.load(Fixtures.ALL), 100, 2);
+
+        for (Handlers.Mode mode : Handlers.Mode.values()) {
+            final LoadGenerator.Result result =
+                    generator.run(Handlers.instrumented(mode), TimeUnit.MILLISECONDS.toNanos(500));
+
+            Assert.assertEquals(0, result.errors);
+            Assert.assertEquals(result.invocations, result.endToEnd.count());
+            Assert.assertEquals(result.invocations, result.handler.count());
+        }
+    }
+
+    @Test
+    public void testLatencyPercentiles() {
+        final LatencyRecorder recorder = new LatencyRecorder();
+        for (int i = 1; i <= 100; i++) {
+            recorder.record(i);
+        }
+        final LatencyRecorder.Snapshot snapshot = recorder.snapshot();
+        Assert.assertEquals(50, snapshot.percentile(50));
+        Assert.assertEquals(99, snapshot.percentile(99));
+        Assert.assertEquals(100, snapshot.max());
+        Assert.assertEquals(50.5, snapshot.mean(), 0.0001);
+        Assert.assertEquals(0, new LatencyRecorder().snapshot().percentile(99));
+    }
+}
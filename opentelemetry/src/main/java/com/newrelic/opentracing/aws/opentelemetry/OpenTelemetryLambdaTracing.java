@@ -0,0 +1,218 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws.opentelemetry;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.newrelic.opentracing.aws.EventParsers;
+import com.newrelic.opentracing.aws.PropagationHeaders;
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanBuilder;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.context.propagation.TextMapGetter;
+import io.opentelemetry.context.propagation.TextMapPropagator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * Trace calls to lambda functions with the OpenTelemetry API, for arbitrary Input and Output types.
+ *
+ * <p>The counterpart of {@code LambdaTracing} for functions that use OpenTelemetry: the same event
+ * parsing, context extraction and cold start tracking, without the OpenTracing shim. The root span
+ * uses the FaaS semantic conventions.
+ *
+ * <p>For flexibility, applications may extend this class to enhance the root span or handle novel
+ * invocation event types.
+ *
+ * @param <Input>  The invocation payload type for your lambda function.
+ * @param <Output> The result type for your lambda function.
+ */
+public class OpenTelemetryLambdaTracing<Input, Output> {
+
+    static final String INSTRUMENTATION_NAME = "com.newrelic.opentracing.aws.opentelemetry";
+
+    static final String FAAS_INVOCATION_ID = "faas.invocation_id";
+    static final String FAAS_TRIGGER = "faas.trigger";
+    static final String FAAS_COLDSTART = "faas.coldstart";
+    static final String AWS_LAMBDA_INVOKED_ARN = "aws.lambda.invoked_arn";
+    static final String HTTP_RESPONSE_STATUS_CODE = "http.response.status_code";
+    // No semantic convention covers the event source in general
+    static final String EVENT_SOURCE_ARN = "aws.lambda.event_source.arn";
+
+    private static final TextMapGetter<PropagationHeaders> GETTER = new TextMapGetter<PropagationHeaders>() {
+        @Override
+        public Iterable<String> keys(PropagationHeaders carrier) {
+            final List<String> keys = new ArrayList<>();
+            for (Map.Entry<String, String> header : carrier) {
+                keys.add(header.getKey());
+            }
+            return keys;
+        }
+
+        @Override
+        public String get(PropagationHeaders carrier, String key) {
+            return carrier == null ? null : carrier.get(key);
+        }
+    };
+
+    private final OpenTelemetry openTelemetry;
+    private final Tracer tracer;
+
+    /**
+     * Trace with {@link GlobalOpenTelemetry}.
+     */
+    public OpenTelemetryLambdaTracing() {
+        this(GlobalOpenTelemetry.get());
+    }
+
+    public OpenTelemetryLambdaTracing(OpenTelemetry openTelemetry) {
+        this.openTelemetry = openTelemetry;
+        this.tracer = openTelemetry.getTracer(INSTRUMENTATION_NAME);
+    }
+
+    /**
+     * One-line instrumentation convenience method, with {@link GlobalOpenTelemetry}.
+     *
+     * @param input       The invocation event
+     * @param context     The invocation context
+     * @param realHandler The callback that implements the business logic for this event handler
+     * @param <Input>     The type of the invocation event
+     * @param <Output>    The type of the response
+     * @return The invocation response (the return value of the realHandler callback)
+     */
+    public static <Input, Output> Output instrument(
+            Input input, Context context, BiFunction<Input, Context, Output> realHandler) {
+        if (!EventParsers.isTracingEnabled()) {
+            return realHandler.apply(input, context);
+        }
+        return new OpenTelemetryLambdaTracing<Input, Output>().instrumentRequest(input, context, realHandler);
+    }
+
+    /**
+     * Instrument a Lambda invocation
+     *
+     * <p>When tracing is switched off (see {@code NEW_RELIC_LAMBDA_TRACING_ENABLED}), realHandler
+     * is called directly.
+     *
+     * @param input       The invocation event
+     * @param context     The invocation context
+     * @param realHandler The function that implements the business logic. Will be invoked with the
+     *                    input and context parameters, with the root span current.
+     * @return the return value from realHandler
+     */
+    public Output instrumentRequest(
+            Input input, Context context, BiFunction<Input, Context, Output> realHandler) {
+        if (!EventParsers.isTracingEnabled()) {
+            return realHandler.apply(input, context);
+        }
+        final Span span = buildRootSpan(input, context, extractContext(input, context));
+        try (Scope scope = span.makeCurrent()) {
+            Output output = realHandler.apply(input, context);
+            parseResponse(span, output);
+            return output;
+        } catch (Throwable throwable) {
+            span.recordException(throwable);
+            span.setStatus(StatusCode.ERROR);
+            throw throwable;
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Extract the contexts the root span continues: one from an HTTP request's headers, one per
+     * distinct record context of an SQS, SNS, Kafka or Kinesis event, up to
+     * {@code NEW_RELIC_LAMBDA_TRACING_MAX_BATCH_REFERENCES}, or one from the client context of a
+     * synchronous invocation by another function.
+     *
+     * @return the extracted contexts, in order, without invalid ones; empty if there are none
+     */
+    protected List<io.opentelemetry.context.Context> extractContext(Input input, Context context) {
+        final TextMapPropagator propagator = openTelemetry.getPropagators().getTextMapPropagator();
+        final List<io.opentelemetry.context.Context> contexts = new ArrayList<>(1);
+        final PropagationHeaders headers = EventParsers.parseHttpHeaders(input);
+        if (headers != null) {
+            addIfDistinct(contexts, propagator, headers);
+        } else if (EventParsers.isBatch(input)) {
+            final int max = EventParsers.maxBatchReferences();
+            EventParsers.forEachRecord(input, carrier -> {
+                addIfDistinct(contexts, propagator, carrier);
+                return contexts.size() < max;
+            });
+        }
+        if (contexts.isEmpty()) {
+            addIfDistinct(contexts, propagator, EventParsers.parseClientContextHeaders(context));
+        }
+        return contexts;
+    }
+
+    /**
+     * A single extracted context is the root span's parent. Several, from a batch event's records,
+     * are links instead, and the root span starts a new trace.
+     */
+    protected Span buildRootSpan(Input input, Context context, List<io.opentelemetry.context.Context> parents) {
+        final String trigger = EventParsers.parseTrigger(input);
+        final SpanBuilder builder = tracer.spanBuilder(context.getFunctionName())
+                .setSpanKind("pubsub".equals(trigger) ? SpanKind.CONSUMER : SpanKind.SERVER)
+                .setAttribute(FAAS_TRIGGER, trigger)
+                .setAttribute(FAAS_INVOCATION_ID, context.getAwsRequestId())
+                .setAttribute(AWS_LAMBDA_INVOKED_ARN, context.getInvokedFunctionArn())
+                .setAttribute(FAAS_COLDSTART, EventParsers.claimColdStart());
+        final String eventSourceArn = EventParsers.parseEventSourceArn(input);
+        if (eventSourceArn != null) {
+            builder.setAttribute(EVENT_SOURCE_ARN, eventSourceArn);
+        }
+        if (parents.size() == 1) {
+            builder.setParent(parents.get(0));
+        } else {
+            builder.setNoParent();
+            for (io.opentelemetry.context.Context parent : parents) {
+                builder.addLink(Span.fromContext(parent).getSpanContext());
+            }
+        }
+        return builder.startSpan();
+    }
+
+    protected void parseResponse(Span span, Output output) {
+        final String statusCode = EventParsers.parseStatusCode(output);
+        if (statusCode != null) {
+            try {
+                span.setAttribute(HTTP_RESPONSE_STATUS_CODE, Long.parseLong(statusCode));
+            } catch (NumberFormatException e) {
+                // not an HTTP status code
+            }
+        }
+    }
+
+    private static void addIfDistinct(List<io.opentelemetry.context.Context> contexts, TextMapPropagator propagator,
+            PropagationHeaders carrier) {
+        if (carrier == null || !carrier.iterator().hasNext()) {
+            return;
+        }
+        final io.opentelemetry.context.Context extracted =
+                propagator.extract(io.opentelemetry.context.Context.root(), carrier, GETTER);
+        final SpanContext spanContext = Span.fromContext(extracted).getSpanContext();
+        if (!spanContext.isValid()) {
+            return;
+        }
+        for (io.opentelemetry.context.Context seen : contexts) {
+            final SpanContext seenContext = Span.fromContext(seen).getSpanContext();
+            if (seenContext.getTraceId().equals(spanContext.getTraceId())
+                    && seenContext.getSpanId().equals(spanContext.getSpanId())) {
+                return;
+            }
+        }
+        contexts.add(extracted);
+    }
+}
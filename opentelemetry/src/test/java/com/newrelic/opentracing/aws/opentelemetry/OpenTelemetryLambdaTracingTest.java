@@ -0,0 +1,204 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws.opentelemetry;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.sdk.testing.junit4.OpenTelemetryRule;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class OpenTelemetryLambdaTracingTest {
+
+    private static final String TRACE_ID = "0af7651916cd43dd8448eb211c80319c";
+    private static final String PARENT_ID = "b7ad6b7169203331";
+
+    @Rule
+    public final OpenTelemetryRule otel = OpenTelemetryRule.create();
+
+    private OpenTelemetryLambdaTracing<Object, Object> tracing;
+
+    @Before
+    public void before() {
+        tracing = new OpenTelemetryLambdaTracing<>(otel.getOpenTelemetry());
+    }
+
+    @Test
+    public void testHttpRootSpan() {
+        final APIGatewayV2HTTPEvent input = new APIGatewayV2HTTPEvent();
+        input.setHeaders(Collections.singletonMap("Traceparent", traceparent(TRACE_ID, PARENT_ID)));
+
+        final Object output = tracing.instrumentRequest(input, createContext(),
+                (in, context) -> Collections.singletonMap("statusCode", 201));
+
+        Assert.assertEquals(Collections.singletonMap("statusCode", 201), output);
+        final SpanData span = otel.getSpans().get(0);
+        Assert.assertEquals("test", span.getName());
+        Assert.assertEquals(SpanKind.SERVER, span.getKind());
+        Assert.assertEquals(TRACE_ID, span.getTraceId());
+        Assert.assertEquals(PARENT_ID, span.getParentSpanId());
+        Assert.assertEquals("http", span.getAttributes().get(AttributeKey.stringKey("faas.trigger")));
+        Assert.assertEquals("request-1", span.getAttributes().get(AttributeKey.stringKey("faas.invocation_id")));
+        Assert.assertEquals("arn:aws:lambda:us-east-1:123456789012:function:test",
+                span.getAttributes().get(AttributeKey.stringKey("aws.lambda.invoked_arn")));
+        Assert.assertNotNull(span.getAttributes().get(AttributeKey.booleanKey("faas.coldstart")));
+        Assert.assertEquals(Long.valueOf(201),
+                span.getAttributes().get(AttributeKey.longKey("http.response.status_code")));
+    }
+
+    @Test
+    public void testColdStartOnlyOnce() {
+        tracing.instrumentRequest("input", createContext(), (in, context) -> "ok");
+        tracing.instrumentRequest("input", createContext(), (in, context) -> "ok");
+
+        Assert.assertEquals(Boolean.FALSE,
+                otel.getSpans().get(1).getAttributes().get(AttributeKey.booleanKey("faas.coldstart")));
+    }
+
+    @Test
+    public void testBatchRecordsAreLinks() {
+        final SQSEvent input = sqsEvent(traceparent(TRACE_ID, PARENT_ID), traceparent(TRACE_ID, PARENT_ID),
+                null, traceparent("4bf92f3577b34da6a3ce929d0e0e4736", "00f067aa0ba902b7"));
+        input.getRecords().get(0).setEventSourceArn("arn:aws:sqs:us-east-1:123456789012:queue");
+
+        tracing.instrumentRequest(input, createContext(), (in, context) -> "ok");
+
+        final SpanData span = otel.getSpans().get(0);
+        Assert.assertEquals(SpanKind.CONSUMER, span.getKind());
+        Assert.assertEquals("pubsub", span.getAttributes().get(AttributeKey.stringKey("faas.trigger")));
+        Assert.assertEquals("arn:aws:sqs:us-east-1:123456789012:queue",
+                span.getAttributes().get(AttributeKey.stringKey("aws.lambda.event_source.arn")));
+        Assert.assertFalse(span.getParentSpanContext().isValid());
+        Assert.assertEquals(2, span.getLinks().size());
+        Assert.assertEquals(PARENT_ID, span.getLinks().get(0).getSpanContext().getSpanId());
+        Assert.assertEquals("00f067aa0ba902b7", span.getLinks().get(1).getSpanContext().getSpanId());
+    }
+
+    @Test
+    public void testSingleBatchContextIsParent() {
+        tracing.instrumentRequest(sqsEvent(traceparent(TRACE_ID, PARENT_ID), traceparent(TRACE_ID, PARENT_ID)),
+                createContext(), (in, context) -> "ok");
+
+        final SpanData span = otel.getSpans().get(0);
+        Assert.assertEquals(PARENT_ID, span.getParentSpanId());
+        Assert.assertTrue(span.getLinks().isEmpty());
+    }
+
+    @Test
+    public void testError() {
+        try {
+            tracing.instrumentRequest("input", createContext(), (in, context) -> {
+                throw new IllegalStateException("failed");
+            });
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+
+        final SpanData span = otel.getSpans().get(0);
+        Assert.assertEquals(StatusCode.ERROR, span.getStatus().getStatusCode());
+        Assert.assertEquals("exception", span.getEvents().get(0).getName());
+    }
+
+    private static String traceparent(String traceId, String spanId) {
+        return "00-" + traceId + "-" + spanId + "-01";
+    }
+
+    /**
+     * @param traceparents One per message, null for a message without context
+     */
+    private static SQSEvent sqsEvent(String... traceparents) {
+        final List<SQSEvent.SQSMessage> records = new ArrayList<>();
+        for (String traceparent : traceparents) {
+            final Map<String, SQSEvent.MessageAttribute> attributes = new HashMap<>();
+            if (traceparent != null) {
+                final SQSEvent.MessageAttribute attribute = new SQSEvent.MessageAttribute();
+                attribute.setStringValue(traceparent);
+                attributes.put("traceparent", attribute);
+            }
+            final SQSEvent.SQSMessage message = new SQSEvent.SQSMessage();
+            message.setMessageAttributes(attributes);
+            records.add(message);
+        }
+        final SQSEvent event = new SQSEvent();
+        event.setRecords(records);
+        return event;
+    }
+
+    private static Context createContext() {
+        return new Context() {
+            @Override
+            public String getAwsRequestId() {
+                return "request-1";
+            }
+
+            @Override
+            public String getLogGroupName() {
+                return null;
+            }
+
+            @Override
+            public String getLogStreamName() {
+                return null;
+            }
+
+            @Override
+            public String getFunctionName() {
+                return "test";
+            }
+
+            @Override
+            public String getFunctionVersion() {
+                return "$LATEST";
+            }
+
+            @Override
+            public String getInvokedFunctionArn() {
+                return "arn:aws:lambda:us-east-1:123456789012:function:test";
+            }
+
+            @Override
+            public CognitoIdentity getIdentity() {
+                return null;
+            }
+
+            @Override
+            public ClientContext getClientContext() {
+                return null;
+            }
+
+            @Override
+            public int getRemainingTimeInMillis() {
+                return 1000;
+            }
+
+            @Override
+            public int getMemoryLimitInMB() {
+                return 512;
+            }
+
+            @Override
+            public LambdaLogger getLogger() {
+                return null;
+            }
+        };
+    }
+}
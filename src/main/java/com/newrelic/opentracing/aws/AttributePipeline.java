@@ -0,0 +1,249 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import com.amazonaws.services.lambda.runtime.Context;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * The tags of the root span, each computed by an extractor that only runs when its key is enabled.
+ *
+ * <p>Tags on by default are turned off by listing their keys in
+ * {@code NEW_RELIC_LAMBDA_TRACING_DISABLED_TAGS}; a key ending in {@code *} turns off every key
+ * with that prefix, e.g. {@code aws.lambda.kafka.*}. Optional tags, such as
+ * {@value #FUNCTION_VERSION}, are turned on by listing them in
+ * {@code NEW_RELIC_LAMBDA_TRACING_ENABLED_TAGS}.
+ *
+ * <p>Applications add their own tags with {@link #add} or {@link #addConstant}, once, before the
+ * first invocation, for example in the handler's static initializer. Constant tags are computed
+ * from the first invocation's context and reused for the life of the execution environment. An
+ * extractor that throws leaves its tag out and never fails the invocation.
+ */
+public final class AttributePipeline {
+
+    static final String REQUEST_ID = "aws.requestId";
+    static final String ARN = "aws.lambda.arn";
+    static final String EVENT_SOURCE_ARN = "aws.lambda.eventSource.arn";
+    static final String COLD_START = "aws.lambda.coldStart";
+    static final String FUNCTION_NAME = "aws.lambda.functionName";
+    static final String FUNCTION_VERSION = "aws.lambda.functionVersion";
+    static final String MEMORY_LIMIT = "aws.lambda.memoryLimitMb";
+    static final String REGION = "aws.region";
+
+    static final Set<String> DISABLED = keys(EnvironmentConfig.getString("DISABLED_TAGS", ""));
+    static final Set<String> ENABLED = keys(EnvironmentConfig.getString("ENABLED_TAGS", ""));
+    // The disabled keys ending in *, without the *
+    private static final String[] DISABLED_PREFIXES = prefixes(DISABLED);
+
+    /**
+     * Computes a tag's value for one invocation.
+     */
+    @FunctionalInterface
+    public interface Extractor {
+        /**
+         * @return a {@code String}, {@code Boolean} or {@code Number}, anything else as its string form,
+         * or null to leave the tag out
+         */
+        Object extract(Object input, Context context);
+    }
+
+    private static final Object lock = new Object();
+    private static volatile Tag[] tags = new Tag[0];
+    private static volatile Tag[] constantTags = new Tag[0];
+    // Computed by the first invocation after the constant tags last changed
+    private static volatile Constants constants;
+
+    static {
+        addDefaults();
+    }
+
+    private AttributePipeline() {
+    }
+
+    private static void addDefaults() {
+        add(REQUEST_ID, (input, context) -> context.getAwsRequestId());
+        add(ARN, (input, context) -> context.getInvokedFunctionArn());
+        add(EVENT_SOURCE_ARN, (input, context) -> EventSourceParser.parseEventSourceArn(input));
+        addOptionalConstant(FUNCTION_NAME, Context::getFunctionName);
+        addOptionalConstant(FUNCTION_VERSION, Context::getFunctionVersion);
+        addOptionalConstant(MEMORY_LIMIT, Context::getMemoryLimitInMB);
+        addOptionalConstant(REGION, context -> System.getenv("AWS_REGION"));
+    }
+
+    /**
+     * Tag every root span with key, unless it is disabled.
+     */
+    public static void add(String key, Extractor extractor) {
+        if (!isEnabled(key)) {
+            return;
+        }
+        synchronized (lock) {
+            tags = append(tags, new Tag(key, extractor, null));
+        }
+    }
+
+    /**
+     * Tag every root span with key, unless it is disabled, with a value that does not change within
+     * an execution environment, such as the function's memory size. The extractor runs once.
+     */
+    public static void addConstant(String key, Function<Context, Object> extractor) {
+        if (isEnabled(key)) {
+            addConstantTag(key, extractor);
+        }
+    }
+
+    /**
+     * @return false if key is listed in {@code NEW_RELIC_LAMBDA_TRACING_DISABLED_TAGS}, or matches a
+     * prefix listed there
+     */
+    public static boolean isEnabled(String key) {
+        return isEnabled(key, DISABLED, DISABLED_PREFIXES);
+    }
+
+    static boolean isEnabled(String key, Set<String> disabledKeys) {
+        return isEnabled(key, disabledKeys, prefixes(disabledKeys));
+    }
+
+    private static boolean isEnabled(String key, Set<String> disabledKeys, String[] disabledPrefixes) {
+        if (disabledKeys.isEmpty()) {
+            return true;
+        }
+        if (disabledKeys.contains(key)) {
+            return false;
+        }
+        for (String prefix : disabledPrefixes) {
+            if (key.startsWith(prefix)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static void apply(EnhancedSpanBuilder builder, Object input, Context context) {
+        for (Tag tag : tags) {
+            final Object value;
+            try {
+                value = tag.extractor.extract(input, context);
+            } catch (RuntimeException e) {
+                // A failing extractor only loses its own tag
+                continue;
+            }
+            tag(builder, tag.key, value);
+        }
+
+        Constants constants = AttributePipeline.constants;
+        if (constants == null || constants.tags != constantTags) {
+            constants = new Constants(constantTags, context);
+            AttributePipeline.constants = constants;
+        }
+        for (int i = 0; i < constants.values.length; i++) {
+            tag(builder, constants.tags[i].key, constants.values[i]);
+        }
+    }
+
+    /**
+     * Drop the tags applications added. For tests.
+     */
+    static void reset() {
+        synchronized (lock) {
+            tags = new Tag[0];
+            constantTags = new Tag[0];
+            addDefaults();
+        }
+    }
+
+    private static void tag(EnhancedSpanBuilder builder, String key, Object value) {
+        if (value == null) {
+            return;
+        }
+        if (value instanceof String) {
+            builder.withTag(key, (String) value);
+        } else if (value instanceof Boolean) {
+            builder.withTag(key, ((Boolean) value).booleanValue());
+        } else if (value instanceof Number) {
+            builder.withTag(key, (Number) value);
+        } else {
+            builder.withTag(key, value.toString());
+        }
+    }
+
+    private static void addOptionalConstant(String key, Function<Context, Object> extractor) {
+        if (ENABLED.contains(key) && isEnabled(key)) {
+            addConstantTag(key, extractor);
+        }
+    }
+
+    private static void addConstantTag(String key, Function<Context, Object> extractor) {
+        synchronized (lock) {
+            constantTags = append(constantTags, new Tag(key, null, extractor));
+        }
+    }
+
+    private static Tag[] append(Tag[] tags, Tag tag) {
+        final Tag[] appended = Arrays.copyOf(tags, tags.length + 1);
+        appended[tags.length] = tag;
+        return appended;
+    }
+
+    private static Set<String> keys(String list) {
+        final Set<String> keys = new HashSet<>();
+        for (String key : list.split(",")) {
+            if (!key.trim().isEmpty()) {
+                keys.add(key.trim());
+            }
+        }
+        return Collections.unmodifiableSet(keys);
+    }
+
+    private static String[] prefixes(Set<String> keys) {
+        final List<String> prefixes = new ArrayList<>();
+        for (String key : keys) {
+            if (key.endsWith("*")) {
+                prefixes.add(key.substring(0, key.length() - 1));
+            }
+        }
+        return prefixes.toArray(new String[0]);
+    }
+
+    private static final class Tag {
+        final String key;
+        final Extractor extractor;
+        final Function<Context, Object> constantExtractor;
+
+        Tag(String key, Extractor extractor, Function<Context, Object> constantExtractor) {
+            this.key = key;
+            this.extractor = extractor;
+            this.constantExtractor = constantExtractor;
+        }
+    }
+
+    /**
+     * The values of a set of constant tags.
+     */
+    private static final class Constants {
+        final Tag[] tags;
+        final Object[] values;
+
+        Constants(Tag[] tags, Context context) {
+            this.tags = tags;
+            this.values = new Object[tags.length];
+            for (int i = 0; i < tags.length; i++) {
+                try {
+                    values[i] = tags[i].constantExtractor.apply(context);
+                } catch (RuntimeException e) {
+                    values[i] = null;
+                }
+            }
+        }
+    }
+}
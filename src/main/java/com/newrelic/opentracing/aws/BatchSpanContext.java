@@ -0,0 +1,167 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import io.opentracing.SpanContext;
+
+/**
+ * The distinct upstream contexts of a batch event, such as an SQS batch whose messages come from
+ * different traces. {@link EnhancedSpanBuilder#followsFrom(BatchSpanContext)} turns it into one
+ * {@code FOLLOWS_FROM} reference per context.
+ *
+ * <p>Context extraction only returns the first context, which the tracer created and can use like
+ * any other. The batch is handed to {@link SpanUtil#buildSpan} on the side, through
+ * {@link #setPending} and {@link #take}, so that an overridden {@code buildRootSpan} never sees it.
+ */
+final class BatchSpanContext {
+
+    static final int MAX_REFERENCES = (int) Math.max(1, EnvironmentConfig.getLong("MAX_BATCH_REFERENCES", 32));
+
+    private static final ThreadLocal<BatchSpanContext> PENDING = new ThreadLocal<>();
+
+    private final SpanContext[] contexts;
+    private final int size;
+
+    private BatchSpanContext(SpanContext[] contexts, int size) {
+        this.contexts = contexts;
+        this.size = size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    SpanContext get(int index) {
+        return contexts[index];
+    }
+
+    /**
+     * Hand batch to the next span built on this thread, replacing any batch not taken.
+     *
+     * @param batch null to only clear
+     */
+    static void setPending(BatchSpanContext batch) {
+        if (batch != null) {
+            PENDING.set(batch);
+        } else if (PENDING.get() != null) {
+            PENDING.remove();
+        }
+    }
+
+    /**
+     * Take the batch pending on this thread.
+     *
+     * @param first the context the span is built with
+     * @return the pending batch if its first context is first, null otherwise
+     */
+    static BatchSpanContext take(SpanContext first) {
+        final BatchSpanContext batch = PENDING.get();
+        if (batch == null) {
+            return null;
+        }
+        PENDING.remove();
+        return first != null && batch.contexts[0] == first ? batch : null;
+    }
+
+    /**
+     * Collects distinct contexts, identified by trace and span ID, up to a cap.
+     *
+     * <p>Seen contexts are kept in an open-addressing table of indexes into the context array, sized
+     * for the cap and only allocated once a second context is added.
+     */
+    static final class Collector {
+        private final int capacity;
+        private SpanContext[] contexts;
+        private int[] table;
+        private int size;
+
+        Collector(int capacity) {
+            this.capacity = Math.max(1, capacity);
+        }
+
+        Collector() {
+            this(MAX_REFERENCES);
+        }
+
+        boolean isFull() {
+            return size >= capacity;
+        }
+
+        /**
+         * @return true if context was added, false if it was null, already seen, or the cap is reached
+         */
+        boolean add(SpanContext context) {
+            if (context == null || isFull()) {
+                return false;
+            }
+            final String traceId = context.toTraceId();
+            final String spanId = context.toSpanId();
+            if (size == 0) {
+                contexts = new SpanContext[Math.min(capacity, 4)];
+                contexts[size++] = context;
+                return true;
+            }
+            if (table == null) {
+                table = new int[tableSize(capacity)];
+                insert(0, hash(contexts[0].toTraceId(), contexts[0].toSpanId()));
+            }
+            final int mask = table.length - 1;
+            final int hash = hash(traceId, spanId);
+            for (int slot = hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+                final SpanContext seen = contexts[table[slot] - 1];
+                if (equals(traceId, seen.toTraceId()) && equals(spanId, seen.toSpanId())) {
+                    return false;
+                }
+            }
+            if (size == contexts.length) {
+                final SpanContext[] grown = new SpanContext[Math.min(capacity, size * 2)];
+                System.arraycopy(contexts, 0, grown, 0, size);
+                contexts = grown;
+            }
+            contexts[size] = context;
+            insert(size, hash);
+            size++;
+            return true;
+        }
+
+        /**
+         * @return the first context added, or null if none was
+         */
+        SpanContext first() {
+            return size == 0 ? null : contexts[0];
+        }
+
+        /**
+         * @return the contexts added, or null if fewer than two were
+         */
+        BatchSpanContext toBatch() {
+            return size < 2 ? null : new BatchSpanContext(contexts, size);
+        }
+
+        private void insert(int index, int hash) {
+            final int mask = table.length - 1;
+            int slot = hash & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = index + 1;
+        }
+
+        private static int tableSize(int capacity) {
+            // At most half full
+            return Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+        }
+
+        private static int hash(String traceId, String spanId) {
+            final int hash = (traceId == null ? 0 : traceId.hashCode()) * 31 + (spanId == null ? 0 : spanId.hashCode());
+            return hash ^ (hash >>> 16);
+        }
+
+        private static boolean equals(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.Context;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import io.opentracing.propagation.Format;
+import io.opentracing.propagation.TextMapAdapter;
+
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Propagates trace context between Lambda functions through the client context of a synchronous
+ * {@code Invoke} call, which the callee's runtime exposes as {@link ClientContext#getCustom()}.
+ *
+ * <p>Example, with the AWS SDK for Java:
+ *
+ * <pre>
+ * new InvokeRequest()
+ *         .withFunctionName("callee")
+ *         .withClientContext(ClientContextPropagation.inject(tracer, tracer.activeSpan().context()))
+ * </pre>
+ *
+ * <p>Lambda limits the encoded client context to 3583 bytes.
+ */
+public final class ClientContextPropagation {
+
+    private ClientContextPropagation() {
+    }
+
+    /**
+     * @return the base64 encoded client context carrying spanContext
+     */
+    public static String inject(Tracer tracer, SpanContext spanContext) {
+        return inject(tracer, spanContext, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * @param custom Other custom client context values, which propagation headers take precedence over
+     * @return the base64 encoded client context carrying spanContext and custom
+     */
+    public static String inject(Tracer tracer, SpanContext spanContext, Map<String, String> custom) {
+        final Map<String, String> values = new LinkedHashMap<>(custom);
+        if (spanContext != null) {
+            tracer.inject(spanContext, Format.Builtin.HTTP_HEADERS, new TextMapAdapter(values));
+        }
+        final JsonWriter writer = new JsonWriter(256).beginObject().name("custom").beginObject();
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            writer.name(value.getKey()).value(value.getValue());
+        }
+        writer.endObject().endObject();
+        return Base64.getEncoder().encodeToString(writer.toByteArray());
+    }
+
+    /**
+     * @return the context in the invocation's client context, or null
+     */
+    static SpanContext extract(Tracer tracer, Context context) {
+        final PropagationHeaders carrier = propagationHeaders(context);
+        return carrier == null ? null : HeadersParser.extractQuietly(tracer, carrier);
+    }
+
+    /**
+     * @return the propagation headers in the invocation's client context, or null if it has none
+     */
+    static PropagationHeaders propagationHeaders(Context context) {
+        final ClientContext clientContext = context == null ? null : context.getClientContext();
+        if (clientContext == null || clientContext.getCustom() == null) {
+            return null;
+        }
+        return PropagationHeaders.of(clientContext.getCustom(), null);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import io.opentracing.Span;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Container-level aggregates, tagged on one root span every
+ * {@code NEW_RELIC_LAMBDA_TRACING_CONTAINER_REPORT_INTERVAL_SECONDS} (default 60): the top tenants
+ * of {@link CostAttribution}, the container means of {@link InstrumentationOverhead} and the peak
+ * concurrency of the {@link ExecutionEnvironment}, each when there is something to report.
+ *
+ * <p>Aggregates are cumulative since the container started, so the latest report of a container
+ * supersedes the earlier ones.
+ */
+final class ContainerReport {
+
+    static final String TAG = "aws.lambda.containerReport";
+
+    static final long INTERVAL_NANOS =
+            TimeUnit.SECONDS.toNanos(Math.max(1, EnvironmentConfig.getLong("CONTAINER_REPORT_INTERVAL_SECONDS", 60)));
+
+    private static final AtomicLong nextReportNanos = new AtomicLong(System.nanoTime() + INTERVAL_NANOS);
+
+    private ContainerReport() {
+    }
+
+    /**
+     * @return whether the interval has elapsed; true for only one of the invocations that find it so
+     */
+    static boolean isDue() {
+        final long now = System.nanoTime();
+        final long next = nextReportNanos.get();
+        return now - next >= 0 && nextReportNanos.compareAndSet(next, now + INTERVAL_NANOS);
+    }
+
+    /**
+     * Report on the next span, whether or not the interval has elapsed.
+     */
+    static void reportNext() {
+        nextReportNanos.set(System.nanoTime());
+    }
+
+    static void tag(Span span) {
+        if (AttributePipeline.isEnabled(TAG)) {
+            span.setTag(TAG, true);
+        }
+        final String topTenants = CostAttribution.topTenants().format();
+        if (!topTenants.isEmpty() && AttributePipeline.isEnabled(CostAttribution.TOP_TENANTS_TAG)) {
+            span.setTag(CostAttribution.TOP_TENANTS_TAG, topTenants);
+        }
+        InstrumentationOverhead.tagContainerMeans(span);
+        ExecutionEnvironment.tagReport(span);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import io.opentracing.Span;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates what an invocation is billed for, from its measured duration and the memory configured
+ * for the function, and adds it up per tenant.
+ *
+ * <p>Lambda bills duration rounded up to the millisecond. The duration measured here runs from the
+ * start of the instrumentation to just before the root span finishes, so it leaves out the runtime's
+ * own work and is an estimate.
+ *
+ * <p>The tenant is the value of the baggage item, or else the request header, named by
+ * {@code NEW_RELIC_LAMBDA_TRACING_COST_TENANT_KEY}.
+ */
+final class CostAttribution {
+
+    static final String BILLED_DURATION_TAG = "aws.lambda.billedDurationMs";
+    static final String GB_SECONDS_TAG = "aws.lambda.gbSeconds";
+    static final String TENANT_TAG = "aws.lambda.cost.tenant";
+    static final String TOP_TENANTS_TAG = "aws.lambda.cost.topTenants";
+
+    static final boolean ENABLED = EnvironmentConfig.getBoolean("COST_ATTRIBUTION_ENABLED", false);
+    static final String NO_TENANT = "(none)";
+
+    private static volatile String tenantKey = EnvironmentConfig.getString("COST_TENANT_KEY", null);
+    private static volatile TopTenants topTenants =
+            new TopTenants((int) Math.max(1, EnvironmentConfig.getLong("COST_TOP_TENANTS", 20)));
+
+    private CostAttribution() {
+    }
+
+    static void setTenantKey(String key) {
+        tenantKey = key;
+    }
+
+    static TopTenants topTenants() {
+        return topTenants;
+    }
+
+    static void setTopTenants(TopTenants tenants) {
+        topTenants = tenants;
+    }
+
+    /**
+     * Tag span with the invocation's estimated cost, and add it to the tenant's total.
+     *
+     * @param durationNanos The invocation's measured duration
+     */
+    static void tag(Span span, Object input, Context context, long durationNanos) {
+        final long billedMillis = billedMillis(durationNanos);
+        final double gbSeconds = gbSeconds(billedMillis, context.getMemoryLimitInMB());
+        if (AttributePipeline.isEnabled(BILLED_DURATION_TAG)) {
+            span.setTag(BILLED_DURATION_TAG, billedMillis);
+        }
+        if (AttributePipeline.isEnabled(GB_SECONDS_TAG)) {
+            span.setTag(GB_SECONDS_TAG, gbSeconds);
+        }
+
+        final String key = tenantKey;
+        if (key == null) {
+            return;
+        }
+        String tenant = span.getBaggageItem(key);
+        if (tenant == null) {
+            tenant = HeadersParser.parseHeader(input, key);
+        }
+        if (tenant != null && AttributePipeline.isEnabled(TENANT_TAG)) {
+            span.setTag(TENANT_TAG, tenant);
+        }
+        topTenants.add(tenant != null ? tenant : NO_TENANT, gbSeconds);
+    }
+
+    static long billedMillis(long durationNanos) {
+        return Math.max(1, (durationNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1) / TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    static double gbSeconds(long billedMillis, int memoryLimitMb) {
+        return billedMillis / 1000.0 * Math.max(0, memoryLimitMb) / 1024.0;
+    }
+
+    /**
+     * The tenants with the most GB-seconds, kept with the Space-Saving algorithm in a table of fixed
+     * size: a tenant that is not in a full table replaces the one with the fewest GB-seconds, and
+     * inherits its total. Totals are therefore upper bounds, over by at most the inherited amount,
+     * but any tenant with more than {@code 1 / capacity} of all GB-seconds is always in the table.
+     */
+    static final class TopTenants {
+        private final String[] tenants;
+        private final double[] gbSeconds;
+        private final double[] overestimates;
+        private final long[] invocations;
+        private int size;
+
+        TopTenants(int capacity) {
+            tenants = new String[capacity];
+            gbSeconds = new double[capacity];
+            overestimates = new double[capacity];
+            invocations = new long[capacity];
+        }
+
+        synchronized void add(String tenant, double amount) {
+            int index = indexOf(tenant);
+            if (index < 0) {
+                if (size < tenants.length) {
+                    index = size++;
+                    gbSeconds[index] = 0;
+                    overestimates[index] = 0;
+                } else {
+                    index = 0;
+                    for (int i = 1; i < size; i++) {
+                        if (gbSeconds[i] < gbSeconds[index]) {
+                            index = i;
+                        }
+                    }
+                    overestimates[index] = gbSeconds[index];
+                }
+                tenants[index] = tenant;
+                invocations[index] = 0;
+            }
+            gbSeconds[index] += amount;
+            invocations[index]++;
+        }
+
+        synchronized double gbSeconds(String tenant) {
+            final int index = indexOf(tenant);
+            return index < 0 ? 0 : gbSeconds[index];
+        }
+
+        /**
+         * @return e.g. {@code acme=12.5/3400,globex=3.25/1200}: GB-seconds and invocations per tenant,
+         *     most GB-seconds first, with {@code ~} before totals that may include a replaced tenant's
+         */
+        synchronized String format() {
+            final Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(gbSeconds[b], gbSeconds[a]));
+            final StringBuilder formatted = new StringBuilder(32 * size);
+            for (Integer i : order) {
+                if (formatted.length() > 0) {
+                    formatted.append(',');
+                }
+                formatted.append(tenants[i]).append('=');
+                if (overestimates[i] > 0) {
+                    formatted.append('~');
+                }
+                formatted.append(Math.round(gbSeconds[i] * 1000.0) / 1000.0).append('/').append(invocations[i]);
+            }
+            return formatted.toString();
+        }
+
+        private int indexOf(String tenant) {
+            for (int i = 0; i < size; i++) {
+                if (tenants[i].equals(tenant)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import io.opentracing.Span;
+import io.opentracing.tag.Tags;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Error logging for a {@link VirtualMachineError}, which must not fail. While the heap is exhausted,
+ * {@link SpanUtil#createErrorAttributes} can throw again and hide the handler's error.
+ *
+ * <p>Each error is logged with a small map of its own. If even that cannot be allocated, a map
+ * built in advance for the kind of error is logged instead, without {@code error.object} and
+ * {@code message}. The pre-built maps are immutable, so a tracer that keeps the logged map never
+ * sees it change. The stack is not copied; it is available from {@code error.object}.
+ */
+final class EmergencyErrorRecord {
+
+    static final String ERROR_KIND = "error.kind";
+    static final String OUT_OF_MEMORY = "OutOfMemoryError";
+    static final String STACK_OVERFLOW = "StackOverflowError";
+    static final String VIRTUAL_MACHINE_ERROR = "VirtualMachineError";
+
+    private static final String EVENT = "event";
+    private static final String ERROR_OBJECT = "error.object";
+    private static final String MESSAGE = "message";
+
+    private static final Map<String, Object> OUT_OF_MEMORY_FIELDS = kindFields(OUT_OF_MEMORY);
+    private static final Map<String, Object> STACK_OVERFLOW_FIELDS = kindFields(STACK_OVERFLOW);
+    private static final Map<String, Object> VIRTUAL_MACHINE_ERROR_FIELDS = kindFields(VIRTUAL_MACHINE_ERROR);
+
+    private EmergencyErrorRecord() {
+    }
+
+    /**
+     * Initialize this class ahead of any error, as loading it then could fail too.
+     */
+    static void load() {
+    }
+
+    /**
+     * Tag span with the kind of error and log its fields. Anything thrown while doing so is
+     * dropped, so that the handler's error is the one rethrown.
+     */
+    static void log(Span span, VirtualMachineError error) {
+        final String kind = kind(error);
+        try {
+            span.setTag(ERROR_KIND, kind);
+            Map<String, Object> fields;
+            try {
+                fields = new HashMap<>(8);
+                fields.put(EVENT, Tags.ERROR.getKey());
+                fields.put(ERROR_OBJECT, error);
+                fields.put(MESSAGE, error.getMessage());
+                fields.put(ERROR_KIND, kind);
+            } catch (OutOfMemoryError e) {
+                fields = preallocatedFields(kind);
+            }
+            span.log(fields);
+        } catch (Throwable ignored) {
+        }
+    }
+
+    /**
+     * @return the immutable fields logged for kind when no map can be allocated
+     */
+    static Map<String, Object> preallocatedFields(String kind) {
+        if (OUT_OF_MEMORY.equals(kind)) {
+            return OUT_OF_MEMORY_FIELDS;
+        } else if (STACK_OVERFLOW.equals(kind)) {
+            return STACK_OVERFLOW_FIELDS;
+        }
+        return VIRTUAL_MACHINE_ERROR_FIELDS;
+    }
+
+    /**
+     * Try to finish span, dropping anything thrown while doing so.
+     */
+    static void finish(Span span) {
+        try {
+            span.finish();
+        } catch (Throwable ignored) {
+        }
+    }
+
+    static String kind(VirtualMachineError error) {
+        if (error instanceof OutOfMemoryError) {
+            return OUT_OF_MEMORY;
+        } else if (error instanceof StackOverflowError) {
+            return STACK_OVERFLOW;
+        }
+        return VIRTUAL_MACHINE_ERROR;
+    }
+
+    private static Map<String, Object> kindFields(String kind) {
+        final Map<String, Object> fields = new HashMap<>();
+        fields.put(EVENT, Tags.ERROR.getKey());
+        fields.put(ERROR_KIND, kind);
+        return Collections.unmodifiableMap(fields);
+    }
+}
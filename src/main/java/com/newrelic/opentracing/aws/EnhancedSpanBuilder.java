@@ -5,23 +5,58 @@
 
 package com.newrelic.opentracing.aws;
 
+import io.opentracing.References;
 import io.opentracing.Span;
 import io.opentracing.SpanContext;
 import io.opentracing.Tracer;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class EnhancedSpanBuilder {
     private final Tracer.SpanBuilder spanBuilder;
+    private final String operationName;
+    private final LocalSocketSpanExporter exporter;
+    // Only recorded when spans are exported
+    private final Map<String, Object> tags;
+    private SpanContext parent;
 
     public static EnhancedSpanBuilder basedOn(Tracer tracer, String operationName) {
-        return new EnhancedSpanBuilder(tracer.buildSpan(operationName));
+        return new EnhancedSpanBuilder(tracer.buildSpan(operationName), operationName,
+                LocalSocketSpanExporter.configured());
     }
 
-    private EnhancedSpanBuilder(Tracer.SpanBuilder innerSpanBuilder) {
-        spanBuilder = innerSpanBuilder;
+    private EnhancedSpanBuilder(Tracer.SpanBuilder innerSpanBuilder, String operationName,
+            LocalSocketSpanExporter exporter) {
+        this.spanBuilder = innerSpanBuilder;
+        this.operationName = operationName;
+        this.exporter = exporter;
+        this.tags = exporter != null ? new LinkedHashMap<>() : null;
     }
 
     public EnhancedSpanBuilder asChildOf(SpanContext spanContext) {
         this.spanBuilder.asChildOf(spanContext);
+        this.parent = spanContext;
+        return this;
+    }
+
+    /**
+     * Reference each of the distinct upstream contexts of a batch event with {@code FOLLOWS_FROM},
+     * instead of a parent.
+     */
+    EnhancedSpanBuilder followsFrom(BatchSpanContext batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            this.spanBuilder.addReference(References.FOLLOWS_FROM, batch.get(i));
+        }
+        this.parent = batch.get(0);
+        return this;
+    }
+
+    /**
+     * Same as {@link Tracer.SpanBuilder#ignoreActiveSpan()}.
+     */
+    public EnhancedSpanBuilder ignoreActiveSpan() {
+        this.spanBuilder.ignoreActiveSpan();
         return this;
     }
 
@@ -30,6 +65,7 @@ public class EnhancedSpanBuilder {
      */
     EnhancedSpanBuilder withTag(String key, String value) {
         this.spanBuilder.withTag(key, value);
+        record(key, value);
         return this;
     }
 
@@ -38,6 +74,7 @@ public class EnhancedSpanBuilder {
      */
     EnhancedSpanBuilder withTag(String key, boolean value) {
         this.spanBuilder.withTag(key, value);
+        record(key, value);
         return this;
     }
 
@@ -46,6 +83,7 @@ public class EnhancedSpanBuilder {
      */
     EnhancedSpanBuilder withTag(String key, Number value) {
         this.spanBuilder.withTag(key, value);
+        record(key, value);
         return this;
     }
 
@@ -56,26 +94,39 @@ public class EnhancedSpanBuilder {
      */
     EnhancedSpanBuilder optionallyWithTag(String key, String value) {
         if (value != null) {
-            this.spanBuilder.withTag(key, value);
+            withTag(key, value);
         }
         return this;
     }
 
     EnhancedSpanBuilder optionallyWithTag(String key, boolean value) {
         if (value) {
-            this.spanBuilder.withTag(key, true);
+            withTag(key, true);
         }
         return this;
     }
 
     EnhancedSpanBuilder optionallyWithTag(String key, Number value) {
         if (value != null) {
-            this.spanBuilder.withTag(key, value);
+            withTag(key, value);
         }
         return this;
     }
 
+    /**
+     * @return the started span, wrapped in an {@link ExportingSpan} when span export is configured
+     */
     public Span start() {
-        return this.spanBuilder.start();
+        final Span span = this.spanBuilder.start();
+        if (exporter == null) {
+            return span;
+        }
+        return new ExportingSpan(span, exporter, operationName, parent, tags);
+    }
+
+    private void record(String key, Object value) {
+        if (tags != null) {
+            tags.put(key, value);
+        }
     }
 }
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+/**
+ * Optional settings read from the Lambda function's environment variables.
+ *
+ * <p>Every setting is prefixed with {@value #PREFIX}. Unset or malformed values fall back to the
+ * supplied default.
+ */
+final class EnvironmentConfig {
+
+    static final String PREFIX = "NEW_RELIC_LAMBDA_TRACING_";
+
+    private EnvironmentConfig() {
+    }
+
+    static String getString(String name, String defaultValue) {
+        final String value = System.getenv(PREFIX + name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    static boolean getBoolean(String name, boolean defaultValue) {
+        final String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value);
+    }
+
+    static long getLong(String name, long defaultValue) {
+        final String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    static double getDouble(String name, double defaultValue) {
+        final String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
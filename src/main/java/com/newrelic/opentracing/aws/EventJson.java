@@ -0,0 +1,475 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes invocation events as JSON for {@link InvocationCapture}, and masks the values of named
+ * fields in JSON documents.
+ *
+ * <p>Events are written the way the Lambda runtime's serializers read them: maps as objects,
+ * collections and arrays as arrays, binary data as base64, dates as epoch seconds, and the classes
+ * of {@code aws-lambda-java-events} through their public getters, under the names the runtime
+ * gives them, such as {@code Records}, {@code Sns} and {@code eventSourceARN}. Null properties are
+ * left out, as are properties of any other class, whose getters are never called.
+ */
+final class EventJson {
+
+    private static final int MAX_DEPTH = 32;
+
+    private static final String EVENTS_PACKAGE = "com.amazonaws.services.lambda.runtime.events.";
+
+    // Getters whose runtime name is not their bean property name, by declaring class and method name
+    private static final Map<String, String> RUNTIME_NAMES = new HashMap<>();
+    // Classes whose properties the runtime names in PascalCase
+    private static final Set<String> PASCAL_CASE_CLASSES = new HashSet<>();
+
+    static {
+        for (String event : new String[] {"SQSEvent", "SNSEvent", "KinesisEvent", "DynamodbEvent", "CodeCommitEvent",
+                "models.s3.S3EventNotification"}) {
+            RUNTIME_NAMES.put(EVENTS_PACKAGE + event + "#getRecords", "Records");
+        }
+        RUNTIME_NAMES.put(EVENTS_PACKAGE + "SQSEvent$SQSMessage#getEventSourceArn", "eventSourceARN");
+        RUNTIME_NAMES.put(EVENTS_PACKAGE + "SNSEvent$SNSRecord#getSNS", "Sns");
+        RUNTIME_NAMES.put(EVENTS_PACKAGE + "models.s3.S3EventNotification$ResponseElementsEntity#getxAmzId2",
+                "x-amz-id-2");
+        RUNTIME_NAMES.put(EVENTS_PACKAGE + "models.s3.S3EventNotification$ResponseElementsEntity#getxAmzRequestId",
+                "x-amz-request-id");
+        PASCAL_CASE_CLASSES.add(EVENTS_PACKAGE + "SNSEvent");
+        PASCAL_CASE_CLASSES.add(EVENTS_PACKAGE + "models.dynamodb.StreamRecord");
+        PASCAL_CASE_CLASSES.add(EVENTS_PACKAGE + "models.dynamodb.AttributeValue");
+    }
+
+    private static final ClassValue<Property[]> PROPERTIES = new ClassValue<Property[]>() {
+        @Override
+        protected Property[] computeValue(Class<?> type) {
+            final List<Method> getters = new ArrayList<>();
+            for (Method method : type.getMethods()) {
+                if (!Modifier.isStatic(method.getModifiers()) && method.getParameterCount() == 0
+                        && method.getDeclaringClass() != Object.class && propertyName(method) != null) {
+                    getters.add(method);
+                }
+            }
+            getters.sort(Comparator.comparing(EventJson::propertyName).thenComparing(Method::getName));
+            final List<Property> properties = new ArrayList<>(getters.size());
+            final Set<String> names = new HashSet<>();
+            for (Method getter : getters) {
+                final String name = runtimeName(getter);
+                // e.g. both getBOOL and isBOOL
+                if (names.add(name)) {
+                    properties.add(new Property(getter, name));
+                }
+            }
+            return properties.toArray(new Property[0]);
+        }
+    };
+
+    private EventJson() {
+    }
+
+    /**
+     * @return whether value is written by {@link #write}: a map, a string or an event of
+     * {@code aws-lambda-java-events}
+     */
+    static boolean isWritable(Object value) {
+        return value == null || value instanceof Map || value instanceof CharSequence || isEvent(value.getClass());
+    }
+
+    /**
+     * Write value, stopping once the document is longer than limit.
+     *
+     * @return false if the document got longer than limit, and is incomplete
+     */
+    static boolean write(JsonWriter writer, Object value, int limit) {
+        return write(writer, value, limit, 0);
+    }
+
+    /**
+     * Replace the value of every member named one of fields, case-insensitively, at any depth. The
+     * document keeps its length: string contents become {@code *}, number digits become {@code 0},
+     * and objects and arrays become a string of {@code *}. Booleans and nulls are kept.
+     *
+     * <p>String values that hold an escaped JSON document, such as the body of an HTTP event, an SQS
+     * message or an SNS message, are redacted too. Within them, objects and arrays become an empty
+     * array padded with spaces, since a quote would need an escape.
+     *
+     * @param fields Lower case field names
+     */
+    static void redact(byte[] json, int length, Collection<String> fields) {
+        redact(json, length, fields, false, 0);
+    }
+
+    private static void redact(byte[] json, int length, Collection<String> fields, boolean embedded, int depth) {
+        int i = 0;
+        while (i < length) {
+            if (json[i] != '"') {
+                i++;
+                continue;
+            }
+            final int end = skipString(json, i, length);
+            final int next = skipWhitespace(json, end, length);
+            if (next < length && json[next] == ':' && matches(json, i + 1, end - 1, fields)) {
+                final int valueStart = skipWhitespace(json, next + 1, length);
+                final int valueEnd = skipValue(json, valueStart, length);
+                mask(json, valueStart, valueEnd, embedded);
+                i = valueEnd;
+            } else {
+                if (next >= length || json[next] != ':') {
+                    redactEmbedded(json, i, end, fields, depth);
+                }
+                i = end;
+            }
+        }
+    }
+
+    /**
+     * Redact the escaped JSON document held by the string value between start and end, if it is one.
+     * The value is unescaped, redacted, and each byte that changed is written back over the escape
+     * sequence it came from, so the value keeps its length.
+     */
+    private static void redactEmbedded(byte[] json, int start, int end, Collection<String> fields, int depth) {
+        if (depth >= MAX_DEPTH || end - start < 4 || json[end - 1] != '"') {
+            return;
+        }
+        final int content = skipWhitespace(json, start + 1, end - 1);
+        if (content >= end - 1 || json[content] != '{' && json[content] != '[') {
+            return;
+        }
+        final int capacity = end - start;
+        final byte[] value = new byte[capacity];
+        // The escape sequence each unescaped byte came from
+        final int[] sourceStart = new int[capacity];
+        final int[] sourceEnd = new int[capacity];
+        int length = 0;
+        boolean escaped = false;
+        int i = start + 1;
+        while (i < end - 1) {
+            final int from = i;
+            if (json[i] != '\\') {
+                value[length] = json[i++];
+                sourceStart[length] = from;
+                sourceEnd[length++] = i;
+                continue;
+            }
+            if (i + 1 >= end - 1) {
+                return;
+            }
+            escaped = true;
+            final byte escape = json[i + 1];
+            i += 2;
+            int c;
+            switch (escape) {
+                case 'b':
+                    c = '\b';
+                    break;
+                case 'f':
+                    c = '\f';
+                    break;
+                case 'n':
+                    c = '\n';
+                    break;
+                case 'r':
+                    c = '\r';
+                    break;
+                case 't':
+                    c = '\t';
+                    break;
+                case 'u':
+                    if (i + 4 > end - 1) {
+                        return;
+                    }
+                    c = 0;
+                    for (int h = 0; h < 4; h++) {
+                        final int digit = Character.digit(json[i + h], 16);
+                        if (digit < 0) {
+                            return;
+                        }
+                        c = c << 4 | digit;
+                    }
+                    i += 4;
+                    break;
+                default:
+                    c = escape & 0xFF;
+            }
+            // Any byte stands in for a character outside ASCII, which is never JSON syntax
+            value[length] = c < 0x80 ? (byte) c : (byte) '?';
+            sourceStart[length] = from;
+            sourceEnd[length++] = i;
+        }
+        final int first = skipWhitespace(value, 0, length);
+        if (!escaped || first >= length || value[first] != '{' && value[first] != '[') {
+            return;
+        }
+
+        final byte[] redacted = Arrays.copyOf(value, length);
+        redact(redacted, length, fields, true, depth + 1);
+        for (int j = 0; j < length; j++) {
+            if (redacted[j] != value[j]) {
+                json[sourceStart[j]] = redacted[j];
+                final byte fill = redacted[j] == '*' ? (byte) '*' : (byte) ' ';
+                for (int k = sourceStart[j] + 1; k < sourceEnd[j]; k++) {
+                    json[k] = fill;
+                }
+            }
+        }
+    }
+
+    private static boolean write(JsonWriter writer, Object value, int limit, int depth) {
+        if (value == null || value instanceof Boolean || value instanceof Number) {
+            writer.value(value);
+        } else if (value instanceof CharSequence || value instanceof Character || value instanceof Enum) {
+            writer.value(value.toString());
+        } else if (value instanceof Date) {
+            writer.value(((Date) value).getTime() / 1000.0);
+        } else if (value instanceof byte[]) {
+            writer.value(Base64.getEncoder().encodeToString((byte[]) value));
+        } else if (value instanceof ByteBuffer) {
+            final ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+            final byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            writer.value(Base64.getEncoder().encodeToString(bytes));
+        } else if (depth >= MAX_DEPTH) {
+            writer.value((String) null);
+        } else if (value instanceof Map) {
+            writer.beginObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (entry.getValue() != null && isValue(entry.getValue())) {
+                    writer.name(String.valueOf(entry.getKey()));
+                    if (!write(writer, entry.getValue(), limit, depth + 1)) {
+                        return false;
+                    }
+                }
+            }
+            writer.endObject();
+        } else if (value instanceof Collection) {
+            writer.beginArray();
+            for (Object element : (Collection<?>) value) {
+                if (!write(writer, isValue(element) ? element : null, limit, depth + 1)) {
+                    return false;
+                }
+            }
+            writer.endArray();
+        } else if (value.getClass().isArray()) {
+            writer.beginArray();
+            for (int i = 0; i < Array.getLength(value); i++) {
+                final Object element = Array.get(value, i);
+                if (!write(writer, isValue(element) ? element : null, limit, depth + 1)) {
+                    return false;
+                }
+            }
+            writer.endArray();
+        } else if (isLibraryValue(value.getClass())) {
+            // Dates and times from java.time or Joda-Time, URIs and the like
+            writer.value(value.toString());
+        } else if (isEvent(value.getClass())) {
+            writer.beginObject();
+            for (Property property : PROPERTIES.get(value.getClass())) {
+                final Object propertyValue;
+                try {
+                    propertyValue = property.getter.invoke(value);
+                } catch (ReflectiveOperationException | RuntimeException e) {
+                    continue;
+                }
+                if (propertyValue != null && isValue(propertyValue)) {
+                    writer.name(property.name);
+                    if (!write(writer, propertyValue, limit, depth + 1)) {
+                        return false;
+                    }
+                }
+            }
+            writer.endObject();
+        } else {
+            writer.value((String) null);
+        }
+        return writer.length() <= limit;
+    }
+
+    /**
+     * @return whether value is written as more than null, without calling a getter of a class
+     * outside {@code aws-lambda-java-events}
+     */
+    private static boolean isValue(Object value) {
+        if (value == null) {
+            return true;
+        }
+        final Class<?> type = value.getClass();
+        return value instanceof Boolean || value instanceof Number || value instanceof CharSequence
+                || value instanceof Character || value instanceof Enum || value instanceof Date
+                || value instanceof ByteBuffer || value instanceof Map || value instanceof Collection
+                || type.isArray() || isLibraryValue(type) || isEvent(type);
+    }
+
+    private static boolean isEvent(Class<?> type) {
+        return type.getName().startsWith(EVENTS_PACKAGE);
+    }
+
+    private static boolean isLibraryValue(Class<?> type) {
+        final String name = type.getName();
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("org.joda.");
+    }
+
+    private static String runtimeName(Method getter) {
+        final Class<?> declaring = getter.getDeclaringClass();
+        final String renamed = RUNTIME_NAMES.get(declaring.getName() + '#' + getter.getName());
+        if (renamed != null) {
+            return renamed;
+        }
+        final String name = propertyName(getter);
+        Class<?> outermost = declaring;
+        while (outermost.getEnclosingClass() != null) {
+            outermost = outermost.getEnclosingClass();
+        }
+        if (PASCAL_CASE_CLASSES.contains(declaring.getName()) || PASCAL_CASE_CLASSES.contains(outermost.getName())) {
+            return name.substring(0, 1).toUpperCase(Locale.ROOT) + name.substring(1);
+        }
+        return name;
+    }
+
+    /**
+     * @return the bean property name of a getter, or null if method is not one
+     */
+    private static String propertyName(Method method) {
+        final String name = method.getName();
+        final int prefix;
+        if (name.startsWith("get") && name.length() > 3) {
+            prefix = 3;
+        } else if (name.startsWith("is") && name.length() > 2
+                && (method.getReturnType() == boolean.class || method.getReturnType() == Boolean.class)) {
+            prefix = 2;
+        } else {
+            return null;
+        }
+        return name.substring(prefix, prefix + 1).toLowerCase(Locale.ROOT) + name.substring(prefix + 1);
+    }
+
+    private static boolean matches(byte[] json, int start, int end, Collection<String> fields) {
+        for (String field : fields) {
+            if (field.length() != end - start) {
+                continue;
+            }
+            int i = 0;
+            while (i < field.length() && Character.toLowerCase((char) (json[start + i] & 0xFF)) == field.charAt(i)) {
+                i++;
+            }
+            if (i == field.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the index after the string that starts at start, or length if it is not closed
+     */
+    private static int skipString(byte[] json, int start, int length) {
+        int i = start + 1;
+        while (i < length) {
+            if (json[i] == '\\') {
+                i += 2;
+            } else if (json[i] == '"') {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return length;
+    }
+
+    private static int skipWhitespace(byte[] json, int start, int length) {
+        int i = start;
+        while (i < length && (json[i] == ' ' || json[i] == '\t' || json[i] == '\n' || json[i] == '\r')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipValue(byte[] json, int start, int length) {
+        if (start >= length) {
+            return length;
+        }
+        if (json[start] == '"') {
+            return skipString(json, start, length);
+        }
+        int i = start;
+        if (json[start] == '{' || json[start] == '[') {
+            int depth = 0;
+            while (i < length) {
+                final byte b = json[i];
+                if (b == '"') {
+                    i = skipString(json, i, length);
+                    continue;
+                }
+                if (b == '{' || b == '[') {
+                    depth++;
+                } else if ((b == '}' || b == ']') && --depth == 0) {
+                    return i + 1;
+                }
+                i++;
+            }
+            return length;
+        }
+        while (i < length && json[i] != ',' && json[i] != '}' && json[i] != ']'
+                && skipWhitespace(json, i, length) == i) {
+            i++;
+        }
+        return i;
+    }
+
+    private static void mask(byte[] json, int start, int end, boolean embedded) {
+        if (end - start < 2) {
+            if (end > start && json[start] >= '0' && json[start] <= '9') {
+                json[start] = '0';
+            }
+            return;
+        }
+        final byte first = json[start];
+        if (embedded && (first == '{' || first == '[')) {
+            json[start] = '[';
+            for (int i = start + 1; i < end - 1; i++) {
+                json[i] = ' ';
+            }
+            json[end - 1] = ']';
+        } else if (first == '"' || first == '{' || first == '[') {
+            json[start] = '"';
+            for (int i = start + 1; i < end - 1; i++) {
+                json[i] = '*';
+            }
+            json[end - 1] = '"';
+        } else {
+            for (int i = start; i < end; i++) {
+                if (json[i] >= '0' && json[i] <= '9') {
+                    json[i] = '0';
+                }
+            }
+        }
+    }
+
+    private static final class Property {
+        final Method getter;
+        final String name;
+
+        Property(Method getter, String name) {
+            this.getter = getter;
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import com.amazonaws.services.lambda.runtime.Context;
+
+import java.util.function.Predicate;
+
+/**
+ * The event parsing {@link LambdaTracing} does, for tracing backends that do not go through
+ * OpenTracing, such as the {@code opentelemetry} module. Nothing here depends on a tracer.
+ */
+public final class EventParsers {
+
+    private EventParsers() {
+    }
+
+    /**
+     * @return false when the kill switch has turned tracing off (see {@code NEW_RELIC_LAMBDA_TRACING_ENABLED})
+     */
+    public static boolean isTracingEnabled() {
+        return TracingSwitch.isEnabled();
+    }
+
+    /**
+     * @return true for the first invocation in this execution environment, traced by
+     * {@link LambdaTracing} or any other caller, and false afterwards
+     */
+    public static boolean claimColdStart() {
+        return LambdaTracing.isColdStart.getAndSet(false);
+    }
+
+    /**
+     * @return the ARN of the event's source, or null if it has none or is not recognized
+     */
+    public static String parseEventSourceArn(Object input) {
+        return EventSourceParser.parseEventSourceArn(input);
+    }
+
+    /**
+     * @return the OpenTelemetry {@code faas.trigger} of the event: {@code http}, {@code pubsub},
+     * {@code datasource}, {@code timer} or {@code other}
+     */
+    public static String parseTrigger(Object input) {
+        return EventSourceParser.parseTrigger(input);
+    }
+
+    /**
+     * @return the propagation headers of an HTTP request event, or null if the input is not one
+     */
+    public static PropagationHeaders parseHttpHeaders(Object input) {
+        return HeadersParser.parseHttpHeaders(input);
+    }
+
+    /**
+     * @return whether the input is an SQS, SNS, Kafka or Kinesis event, whose records each carry a context
+     */
+    public static boolean isBatch(Object input) {
+        return HeadersParser.isBatch(input);
+    }
+
+    /**
+     * Pass the propagation headers of each record of a batch event to visitor, in order, until it
+     * returns false. For Kinesis, each user record of a KPL aggregated record is one record.
+     */
+    public static void forEachRecord(Object input, Predicate<PropagationHeaders> visitor) {
+        try {
+            HeadersParser.forEachRecord(input, visitor);
+        } finally {
+            // Only LambdaTracing tags the batch, so the walked Kinesis event must not stay referenced
+            KinesisEventParser.forget();
+        }
+    }
+
+    /**
+     * @return the propagation headers in the client context of a synchronous invocation by another
+     * function, or null if there are none
+     */
+    public static PropagationHeaders parseClientContextHeaders(Context context) {
+        return ClientContextPropagation.propagationHeaders(context);
+    }
+
+    /**
+     * @return the number of distinct record contexts a batch event's span should reference at most
+     */
+    public static int maxBatchReferences() {
+        return BatchSpanContext.MAX_REFERENCES;
+    }
+
+    /**
+     * @return the response's HTTP status code, or null if it has none
+     */
+    public static String parseStatusCode(Object response) {
+        return ResponseParser.parseStatusCode(response);
+    }
+}
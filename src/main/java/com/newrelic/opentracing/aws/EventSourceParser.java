@@ -6,14 +6,18 @@
 package com.newrelic.opentracing.aws;
 
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayV2ProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.ApplicationLoadBalancerRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.CodeCommitEvent;
 import com.amazonaws.services.lambda.runtime.events.DynamodbEvent;
+import com.amazonaws.services.lambda.runtime.events.KafkaEvent;
 import com.amazonaws.services.lambda.runtime.events.KinesisEvent;
 import com.amazonaws.services.lambda.runtime.events.KinesisFirehoseEvent;
 import com.amazonaws.services.lambda.runtime.events.S3Event;
 import com.amazonaws.services.lambda.runtime.events.SNSEvent;
 import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.amazonaws.services.lambda.runtime.events.ScheduledEvent;
 import software.amazon.awssdk.eventnotifications.s3.model.S3;
 import software.amazon.awssdk.eventnotifications.s3.model.S3EventNotification;
 import software.amazon.awssdk.eventnotifications.s3.model.S3EventNotificationRecord;
@@ -55,6 +59,8 @@ final class EventSourceParser {
             return parseDynamodbEventSourceArn(object);
         } else if (object instanceof CodeCommitEvent) {
             return parseCodeCommitEventSourceArn(object);
+        } else if (object instanceof KafkaEvent) {
+            return KafkaEventParser.parseEventSourceArn((KafkaEvent) object);
         } else if (object instanceof APIGatewayProxyRequestEvent) {
             return parseAPIGatewayProxyRequestEventUserArn(object);
         } else if (object instanceof APIGatewayV2ProxyRequestEvent) {
@@ -63,6 +69,55 @@ final class EventSourceParser {
         return null;
     }
 
+    /**
+     * @return the OpenTelemetry {@code faas.trigger} of the event: {@code http}, {@code pubsub},
+     * {@code datasource}, {@code timer} or {@code other}
+     */
+    static String parseTrigger(Object object) {
+        if (object instanceof Map) {
+            return parseTriggerFromMap((Map) object);
+        } else if (object instanceof APIGatewayProxyRequestEvent || object instanceof APIGatewayV2ProxyRequestEvent
+                || object instanceof APIGatewayV2HTTPEvent || object instanceof ApplicationLoadBalancerRequestEvent) {
+            return "http";
+        } else if (object instanceof SNSEvent || object instanceof SQSEvent || object instanceof KafkaEvent) {
+            return "pubsub";
+        } else if (object instanceof S3EventNotification || object instanceof S3Event
+                || object instanceof KinesisEvent || object instanceof KinesisFirehoseEvent
+                || object instanceof DynamodbEvent || object instanceof CodeCommitEvent) {
+            return "datasource";
+        } else if (object instanceof ScheduledEvent) {
+            return "timer";
+        }
+        return "other";
+    }
+
+    private static String parseTriggerFromMap(Map input) {
+        try {
+            if (input.get("requestContext") != null || input.get("httpMethod") != null) {
+                return "http";
+            } else if ("Scheduled Event".equals(input.get("detail-type"))) {
+                return "timer";
+            } else if ("aws:kafka".equals(input.get("eventSource"))
+                    || "SelfManagedKafka".equals(input.get("eventSource"))) {
+                return "pubsub";
+            } else if (input.get("deliveryStreamArn") != null) {
+                return "datasource";
+            }
+
+            final List<Object> records = (List<Object>) input.get("Records");
+            final Map record = (Map) records.get(0);
+            final Object eventSource = record.get("eventSource") != null
+                    ? record.get("eventSource") : record.get("EventSource");
+            if ("aws:sqs".equals(eventSource) || "aws:sns".equals(eventSource)) {
+                return "pubsub";
+            } else if (eventSource != null) {
+                return "datasource";
+            }
+        } catch (Throwable t) {
+        }
+        return "other";
+    }
+
     private static String parseFromMap(Map input) {
         try {
             if (input.get("streamArn") != null) {
@@ -86,6 +141,8 @@ final class EventSourceParser {
             } else if (input.get("detail") != null) { // AWS Cloudwatch
                 Map detail = (Map) input.get("detail");
                 return (String) detail.get("eventSource");
+            } else if (input.get("eventSourceArn") != null) { // Amazon MSK
+                return (String) input.get("eventSourceArn");
             }
 
             final List<Object> records = (List<Object>) input.get("Records");
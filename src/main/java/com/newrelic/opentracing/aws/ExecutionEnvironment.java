@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import io.opentracing.Span;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State shared by the invocations running in this execution environment.
+ *
+ * <p>An execution environment usually runs one invocation at a time, but some runtimes send several
+ * at once into one JVM. Anything carried across invocations must then be safe to update
+ * concurrently, and per-invocation state must stay on the stack or in the invocation's span.
+ *
+ * <p>Reuse is tracked with atomic counters only: the environment's age counts from the first use
+ * of this library, and the idle time is the gap since the previous invocation finished, which
+ * includes any time the environment was frozen.
+ */
+final class ExecutionEnvironment {
+
+    static final String CONCURRENCY_TAG = "aws.lambda.concurrency";
+    static final String ID_TAG = "aws.lambda.environment.id";
+    static final String INVOCATIONS_TAG = "aws.lambda.environment.invocations";
+    static final String AGE_TAG = "aws.lambda.environment.ageMs";
+    static final String IDLE_TAG = "aws.lambda.environment.idleMs";
+    static final String MAX_CONCURRENCY_TAG = "aws.lambda.environment.maxConcurrency";
+
+    private static final long START_NANOS = System.nanoTime();
+    static final String ID = Long.toHexString(ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE);
+
+    private static final AtomicInteger inFlight = new AtomicInteger();
+    private static final AtomicInteger maxInFlight = new AtomicInteger();
+    private static final AtomicLong invocations = new AtomicLong();
+    private static final AtomicLong lastExitNanos = new AtomicLong(START_NANOS);
+
+    private ExecutionEnvironment() {
+    }
+
+    /**
+     * Count an invocation as started, and tag its root span with the concurrency and reuse of this
+     * execution environment, leaving out tags disabled in the {@link AttributePipeline}.
+     *
+     * @return the number of invocations in flight, including this one
+     */
+    static int enter(Span span) {
+        final long now = System.nanoTime();
+        final int concurrency = inFlight.incrementAndGet();
+        final long invocation = invocations.incrementAndGet();
+        int max;
+        while (concurrency > (max = maxInFlight.get()) && !maxInFlight.compareAndSet(max, concurrency)) {
+            // Retry against the new peak
+        }
+        if (AttributePipeline.isEnabled(CONCURRENCY_TAG)) {
+            span.setTag(CONCURRENCY_TAG, concurrency);
+        }
+        if (AttributePipeline.isEnabled(ID_TAG)) {
+            span.setTag(ID_TAG, ID);
+        }
+        if (AttributePipeline.isEnabled(INVOCATIONS_TAG)) {
+            span.setTag(INVOCATIONS_TAG, invocation);
+        }
+        if (AttributePipeline.isEnabled(AGE_TAG)) {
+            span.setTag(AGE_TAG, TimeUnit.NANOSECONDS.toMillis(now - START_NANOS));
+        }
+        if (invocation > 1 && AttributePipeline.isEnabled(IDLE_TAG)) {
+            // Not idle while another invocation is in flight
+            final long idleNanos = concurrency > 1 ? 0 : Math.max(0, now - lastExitNanos.get());
+            span.setTag(IDLE_TAG, TimeUnit.NANOSECONDS.toMillis(idleNanos));
+        }
+        return concurrency;
+    }
+
+    /**
+     * Count an invocation as finished.
+     *
+     * @return the number of invocations still in flight
+     */
+    static int exit() {
+        lastExitNanos.set(System.nanoTime());
+        return inFlight.decrementAndGet();
+    }
+
+    static int inFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Tag a container report with the most invocations ever in flight at once.
+     */
+    static void tagReport(Span span) {
+        final int max = maxInFlight.get();
+        if (max > 0 && AttributePipeline.isEnabled(MAX_CONCURRENCY_TAG)) {
+            span.setTag(MAX_CONCURRENCY_TAG, max);
+        }
+    }
+}
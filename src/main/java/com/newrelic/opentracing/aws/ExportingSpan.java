@@ -0,0 +1,192 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.tag.Tag;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records what this library writes to a root span so it can be sent to a
+ * {@link LocalSocketSpanExporter} when the span finishes. Every call is also passed to the tracer's
+ * span.
+ *
+ * <p>The tracer's span, not this one, is activated for the handler (see {@link #unwrap(Span)}), so
+ * tags the handler adds through {@code tracer.activeSpan()} reach the tracer but are not exported.
+ *
+ * <p>The exported JSON object has {@code traceId}, {@code spanId}, {@code parentId},
+ * {@code name}, {@code startMicros}, {@code durationMicros} and {@code tags}. Error logs add an
+ * {@code error} object with {@code kind} and {@code message}.
+ */
+final class ExportingSpan implements Span {
+
+    private static final ThreadLocal<JsonWriter> WRITER = ThreadLocal.withInitial(() -> new JsonWriter(1024));
+
+    private final Span delegate;
+    private final LocalSocketSpanExporter exporter;
+    private final String parentId;
+    private final long startMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Object> tags;
+    private String operationName;
+    private String errorKind;
+    private String errorMessage;
+    private boolean finished;
+
+    ExportingSpan(Span delegate, LocalSocketSpanExporter exporter, String operationName, SpanContext parent,
+            Map<String, Object> tags) {
+        this.delegate = delegate;
+        this.exporter = exporter;
+        this.operationName = operationName;
+        this.parentId = parent == null ? null : parent.toSpanId();
+        this.tags = tags != null ? tags : new LinkedHashMap<>();
+    }
+
+    /**
+     * @return the tracer's span behind span, or span itself if it is not an ExportingSpan
+     */
+    static Span unwrap(Span span) {
+        return span instanceof ExportingSpan ? ((ExportingSpan) span).delegate : span;
+    }
+
+    @Override
+    public SpanContext context() {
+        return delegate.context();
+    }
+
+    @Override
+    public Span setTag(String key, String value) {
+        tags.put(key, value);
+        delegate.setTag(key, value);
+        return this;
+    }
+
+    @Override
+    public Span setTag(String key, boolean value) {
+        tags.put(key, value);
+        delegate.setTag(key, value);
+        return this;
+    }
+
+    @Override
+    public Span setTag(String key, Number value) {
+        tags.put(key, value);
+        delegate.setTag(key, value);
+        return this;
+    }
+
+    @Override
+    public <T> Span setTag(Tag<T> tag, T value) {
+        tags.put(tag.getKey(), value);
+        delegate.setTag(tag, value);
+        return this;
+    }
+
+    @Override
+    public Span log(Map<String, ?> fields) {
+        recordError(fields);
+        delegate.log(fields);
+        return this;
+    }
+
+    @Override
+    public Span log(long timestampMicroseconds, Map<String, ?> fields) {
+        recordError(fields);
+        delegate.log(timestampMicroseconds, fields);
+        return this;
+    }
+
+    @Override
+    public Span log(String event) {
+        delegate.log(event);
+        return this;
+    }
+
+    @Override
+    public Span log(long timestampMicroseconds, String event) {
+        delegate.log(timestampMicroseconds, event);
+        return this;
+    }
+
+    @Override
+    public Span setBaggageItem(String key, String value) {
+        delegate.setBaggageItem(key, value);
+        return this;
+    }
+
+    @Override
+    public String getBaggageItem(String key) {
+        return delegate.getBaggageItem(key);
+    }
+
+    @Override
+    public Span setOperationName(String operationName) {
+        this.operationName = operationName;
+        delegate.setOperationName(operationName);
+        return this;
+    }
+
+    @Override
+    public void finish() {
+        final long durationMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        delegate.finish();
+        export(durationMicros);
+    }
+
+    @Override
+    public void finish(long finishMicros) {
+        delegate.finish(finishMicros);
+        export(finishMicros - startMicros);
+    }
+
+    private void recordError(Map<String, ?> fields) {
+        if (fields != null && "error".equals(fields.get("event"))) {
+            final Object kind = fields.get("error.kind");
+            final Object message = fields.get("message");
+            errorKind = kind == null ? null : kind.toString();
+            errorMessage = message == null ? null : message.toString();
+            if (errorKind == null) {
+                errorKind = "Exception";
+            }
+        }
+    }
+
+    private void export(long durationMicros) {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        final JsonWriter writer = WRITER.get().reset();
+        writeFrame(writer, durationMicros);
+        exporter.export(writer.toFrame());
+    }
+
+    void writeFrame(JsonWriter writer, long durationMicros) {
+        final SpanContext context = delegate.context();
+        writer.beginFrame().beginObject()
+                .name("traceId").value(context.toTraceId())
+                .name("spanId").value(context.toSpanId())
+                .name("parentId").value(parentId)
+                .name("name").value(operationName)
+                .name("startMicros").value(startMicros)
+                .name("durationMicros").value(durationMicros);
+        if (errorKind != null) {
+            writer.name("error").beginObject()
+                    .name("kind").value(errorKind)
+                    .name("message").value(errorMessage)
+                    .endObject();
+        }
+        writer.name("tags").beginObject();
+        for (Map.Entry<String, Object> tag : tags.entrySet()) {
+            writer.name(tag.getKey()).value(tag.getValue());
+        }
+        writer.endObject().endObject();
+    }
+}
@@ -7,17 +7,19 @@ package com.newrelic.opentracing.aws;
 
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2ProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.ApplicationLoadBalancerRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.KafkaEvent;
+import com.amazonaws.services.lambda.runtime.events.KinesisEvent;
 import com.amazonaws.services.lambda.runtime.events.SNSEvent;
 import com.amazonaws.services.lambda.runtime.events.SQSEvent;
 import io.opentracing.SpanContext;
 import io.opentracing.Tracer;
 import io.opentracing.propagation.Format;
-import io.opentracing.propagation.TextMapAdapter;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 
 final class HeadersParser {
 
@@ -25,56 +27,187 @@ final class HeadersParser {
     }
 
     static <Input> SpanContext parseAndExtract(Tracer tracer, Input input) {
-        try {
-            if (input instanceof Map) {
-                Map map = (Map) input;
-                final Object headers = map.get("headers");
-                if (headers instanceof Map) {
-                    final Map<String, String> headerStr = (Map<String, String>) headers;
-                    return tracer.extract(Format.Builtin.HTTP_HEADERS, new TextMapAdapter(headerStr));
-                }
-            } else if (input instanceof APIGatewayV2HTTPEvent) {
-                return tracer.extract(Format.Builtin.HTTP_HEADERS,
-                        new TextMapAdapter(((APIGatewayV2HTTPEvent) input).getHeaders()));
-            } else if (input instanceof APIGatewayProxyRequestEvent) {
-                return tracer.extract(Format.Builtin.HTTP_HEADERS,
-                        new TextMapAdapter(((APIGatewayProxyRequestEvent) input).getHeaders()));
-            } else if (input instanceof ApplicationLoadBalancerRequestEvent) {
-                return tracer.extract(Format.Builtin.HTTP_HEADERS,
-                        new TextMapAdapter(((ApplicationLoadBalancerRequestEvent) input).getHeaders()));
-            } else if (input instanceof SNSEvent) {
-                SNSEvent snsEvent = (SNSEvent) input;
-                List<SNSEvent.SNSRecord> records = snsEvent.getRecords();
-                Map<String, String> extractedHeaders = new HashMap<>();
-                if (!records.isEmpty()) {
-                    Map<String, SNSEvent.MessageAttribute> messageAttributes = records.get(0).getSNS().getMessageAttributes();
-
-                    if (messageAttributes != null) {
-                        for (Map.Entry<String, SNSEvent.MessageAttribute> entry : messageAttributes.entrySet()) {
-                            extractedHeaders.put(entry.getKey(), entry.getValue().getValue());
-                        }
-                    }
-                }
+        final PropagationHeaders headers = parseHttpHeaders(input);
+        if (headers != null) {
+            return extractQuietly(tracer, headers);
+        }
+        if (!isBatch(input)) {
+            return null;
+        }
+        final BatchSpanContext.Collector contexts = new BatchSpanContext.Collector();
+        forEachRecord(input, carrier -> {
+            contexts.add(extractQuietly(tracer, carrier));
+            return !contexts.isFull();
+        });
+        BatchSpanContext.setPending(contexts.toBatch());
+        return contexts.first();
+    }
+
+    /**
+     * @return the propagation headers of an HTTP request event, or null if the input is not one
+     */
+    static PropagationHeaders parseHttpHeaders(Object input) {
+        if (input instanceof Map) {
+            Map map = (Map) input;
+            final Object headers = map.get("headers");
+            final Object multiValueHeaders = map.get("multiValueHeaders");
+            if (headers instanceof Map || multiValueHeaders instanceof Map) {
+                return PropagationHeaders.of(
+                        headers instanceof Map ? (Map<?, ?>) headers : null,
+                        multiValueHeaders instanceof Map ? (Map<?, ?>) multiValueHeaders : null);
+            }
+        } else if (input instanceof APIGatewayV2HTTPEvent) {
+            return PropagationHeaders.of(((APIGatewayV2HTTPEvent) input).getHeaders(), null);
+        } else if (input instanceof APIGatewayProxyRequestEvent) {
+            final APIGatewayProxyRequestEvent event = (APIGatewayProxyRequestEvent) input;
+            return PropagationHeaders.of(event.getHeaders(), event.getMultiValueHeaders());
+        } else if (input instanceof ApplicationLoadBalancerRequestEvent) {
+            final ApplicationLoadBalancerRequestEvent event = (ApplicationLoadBalancerRequestEvent) input;
+            return PropagationHeaders.of(event.getHeaders(), event.getMultiValueHeaders());
+        } else if (input instanceof APIGatewayV2ProxyRequestEvent) {
+            final APIGatewayV2ProxyRequestEvent event = (APIGatewayV2ProxyRequestEvent) input;
+            return PropagationHeaders.of(event.getHeaders(), event.getMultiValueHeaders());
+        }
+        return null;
+    }
+
+    /**
+     * @return whether the input is an SQS, SNS, Kafka or Kinesis event, whose records each carry a context
+     */
+    static boolean isBatch(Object input) {
+        return input instanceof SQSEvent || input instanceof SNSEvent || input instanceof KafkaEvent
+                || input instanceof KinesisEvent;
+    }
+
+    /**
+     * Pass the propagation headers of each record of a {@link #isBatch batch event} to visitor, in
+     * order, until it returns false.
+     */
+    static void forEachRecord(Object input, Predicate<PropagationHeaders> visitor) {
+        if (input instanceof KafkaEvent) {
+            KafkaEventParser.forEachRecord((KafkaEvent) input, visitor);
+        } else if (input instanceof SNSEvent) {
+            forEachSnsRecord(((SNSEvent) input).getRecords(), visitor);
+        } else if (input instanceof SQSEvent) {
+            forEachSqsMessage(((SQSEvent) input).getRecords(), visitor);
+        } else if (input instanceof KinesisEvent) {
+            KinesisEventParser.forEachRecord((KinesisEvent) input, visitor);
+        }
+    }
+
+    /**
+     * @return the value of the named request header, compared case-insensitively, or null if the
+     *     input is not an HTTP request or has no such header
+     */
+    static String parseHeader(Object input, String name) {
+        if (input instanceof Map) {
+            final Object headers = ((Map) input).get("headers");
+            return headers instanceof Map ? header((Map<?, ?>) headers, name) : null;
+        } else if (input instanceof APIGatewayV2HTTPEvent) {
+            return header(((APIGatewayV2HTTPEvent) input).getHeaders(), name);
+        } else if (input instanceof APIGatewayProxyRequestEvent) {
+            return header(((APIGatewayProxyRequestEvent) input).getHeaders(), name);
+        } else if (input instanceof ApplicationLoadBalancerRequestEvent) {
+            return header(((ApplicationLoadBalancerRequestEvent) input).getHeaders(), name);
+        } else if (input instanceof APIGatewayV2ProxyRequestEvent) {
+            return header(((APIGatewayV2ProxyRequestEvent) input).getHeaders(), name);
+        }
+        return null;
+    }
+
+    private static String header(Map<?, ?> headers, String name) {
+        if (headers == null) {
+            return null;
+        }
+        for (Map.Entry<?, ?> header : headers.entrySet()) {
+            if (header.getValue() instanceof String && header.getKey() instanceof String
+                    && name.equalsIgnoreCase((String) header.getKey())) {
+                return (String) header.getValue();
+            }
+        }
+        return null;
+    }
 
-                return tracer.extract(Format.Builtin.HTTP_HEADERS, new TextMapAdapter(extractedHeaders));
-            } else if (input instanceof SQSEvent) {
-                SQSEvent sqsEvent = (SQSEvent) input;
-                List<SQSEvent.SQSMessage> records = sqsEvent.getRecords();
-                Map<String, String> extractedHeaders = new HashMap<>();
-                if (!records.isEmpty()) {
-                    Map<String, SQSEvent.MessageAttribute> messageAttributes = records.get(0).getMessageAttributes();
-
-                    if (messageAttributes != null) {
-                        for (Map.Entry<String, SQSEvent.MessageAttribute> entry : messageAttributes.entrySet()) {
-                            extractedHeaders.put(entry.getKey(), entry.getValue().getStringValue());
-                        }
-                    }
+    private static void forEachSqsMessage(List<SQSEvent.SQSMessage> records, Predicate<PropagationHeaders> visitor) {
+        if (records == null) {
+            return;
+        }
+        final PropagationKeys propagationKeys = PropagationKeys.get();
+        for (int i = 0; i < records.size(); i++) {
+            final SQSEvent.SQSMessage message = records.get(i);
+            if (message == null) {
+                continue;
+            }
+            final PropagationHeaders carrier = PropagationHeaders.empty();
+            if (message.getMessageAttributes() != null) {
+                for (Map.Entry<String, SQSEvent.MessageAttribute> attribute
+                        : message.getMessageAttributes().entrySet()) {
+                    addAttribute(propagationKeys, carrier, attribute.getKey(),
+                            attribute.getValue() == null ? null : attribute.getValue().getStringValue());
                 }
+            }
+            if (carrier.size() == 0) {
+                // SNS notification delivered to SQS, with the context in the envelope
+                SnsEnvelope.addPropagationHeaders(propagationKeys, carrier, message.getBody());
+            }
+            if (!visitor.test(carrier)) {
+                return;
+            }
+        }
+    }
 
-                return tracer.extract(Format.Builtin.HTTP_HEADERS, new TextMapAdapter(extractedHeaders));
+    private static void forEachSnsRecord(List<SNSEvent.SNSRecord> records, Predicate<PropagationHeaders> visitor) {
+        if (records == null) {
+            return;
+        }
+        final PropagationKeys propagationKeys = PropagationKeys.get();
+        for (int i = 0; i < records.size(); i++) {
+            final SNSEvent.SNSRecord record = records.get(i);
+            if (record == null || record.getSNS() == null || record.getSNS().getMessageAttributes() == null) {
+                continue;
+            }
+            final PropagationHeaders carrier = PropagationHeaders.empty();
+            for (Map.Entry<String, SNSEvent.MessageAttribute> attribute
+                    : record.getSNS().getMessageAttributes().entrySet()) {
+                addAttribute(propagationKeys, carrier, attribute.getKey(),
+                        attribute.getValue() == null ? null : attribute.getValue().getValue());
+            }
+            if (!visitor.test(carrier)) {
+                return;
             }
+        }
+    }
+
+    private static void addAttribute(PropagationKeys propagationKeys, PropagationHeaders carrier, String name,
+            String value) {
+        if (name == null || value == null) {
+            return;
+        }
+        final String key = propagationKeys.match(name);
+        if (key != null && !carrier.contains(key)) {
+            carrier.add(key, value);
+        }
+    }
+
+    /**
+     * Same as {@link #extract(Tracer, PropagationHeaders)}, treating a malformed context as absent so
+     * that one bad record does not hide the others.
+     */
+    static SpanContext extractQuietly(Tracer tracer, PropagationHeaders carrier) {
+        try {
+            return extract(tracer, carrier);
         } catch (IllegalArgumentException exception) {
+            return null;
         }
-        return null;
+    }
+
+    /**
+     * Skip the tracer when no propagation header is present.
+     */
+    static SpanContext extract(Tracer tracer, PropagationHeaders carrier) {
+        if (carrier.size() == 0) {
+            return null;
+        }
+        return tracer.extract(Format.Builtin.HTTP_HEADERS, carrier);
     }
 }
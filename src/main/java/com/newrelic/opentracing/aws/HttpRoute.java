@@ -0,0 +1,314 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2ProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.ApplicationLoadBalancerRequestEvent;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The route of an HTTP invocation, which names its root span, e.g. {@code GET /orders/{orderId}},
+ * and is tagged as {@value #ROUTE_TAG}.
+ *
+ * <p>The route is the API Gateway resource or route key template when the event has one. Otherwise,
+ * for ALB, Function URL and {@code $default} route events, it is the request path with numeric
+ * segments collapsed to {@value #ID_SEGMENT} and UUID segments to {@value #UUID_SEGMENT}.
+ *
+ * <p>Routes are kept per execution environment, so each is allocated once. Beyond
+ * {@code NEW_RELIC_LAMBDA_TRACING_MAX_ROUTES} distinct routes (default 100), the rest share the
+ * {@value #OVERFLOW_ROUTE} route and the default operation name. The first routes seen keep their
+ * names for the life of the execution environment and are never evicted, so that a route's span
+ * name does not change between invocations. Templates are always routes, but a route derived from
+ * the path is only admitted once it has been seen {@value #PATH_ROUTE_SIGHTINGS} times, and shares
+ * {@value #OVERFLOW_ROUTE} until then, so that a burst of one-off paths, such as a scanner's, does
+ * not fill the table. Set
+ * {@code NEW_RELIC_LAMBDA_TRACING_ROUTE_NAMES_ENABLED=false} to name every root span
+ * {@value #DEFAULT_OPERATION_NAME}.
+ */
+final class HttpRoute {
+
+    static final String ROUTE_TAG = "http.route";
+    static final String DEFAULT_OPERATION_NAME = "handleRequest";
+    static final String OVERFLOW_ROUTE = "(other)";
+    static final String ID_SEGMENT = "{id}";
+    static final String UUID_SEGMENT = "{uuid}";
+
+    static final boolean ENABLED = EnvironmentConfig.getBoolean("ROUTE_NAMES_ENABLED", true);
+    static final int MAX_ROUTES = (int) Math.max(1, EnvironmentConfig.getLong("MAX_ROUTES", 100));
+    // A power of two
+    static final int MAX_NORMALIZED_PATHS = 1024;
+    static final int PATH_ROUTE_SIGHTINGS = 2;
+
+    static final HttpRoute OVERFLOW = new HttpRoute(DEFAULT_OPERATION_NAME, OVERFLOW_ROUTE);
+
+    // By method, then template; a null method is keyed by ""
+    private static final ConcurrentMap<String, ConcurrentMap<String, HttpRoute>> ROUTES = new ConcurrentHashMap<>();
+    private static final AtomicInteger ROUTE_COUNT = new AtomicInteger();
+    // Slotted by the raw path's hash, a path replacing the one in its slot, as the paths themselves are unbounded
+    private static final AtomicReferenceArray<NormalizedPath> NORMALIZED_PATHS =
+            new AtomicReferenceArray<>(MAX_NORMALIZED_PATHS);
+    // Path routes not yet admitted, slotted like the paths, a route replacing the one in its slot and starting over
+    private static final AtomicReferenceArray<Sighting> SIGHTINGS = new AtomicReferenceArray<>(MAX_NORMALIZED_PATHS);
+
+    final String operationName;
+    final String route;
+
+    private HttpRoute(String operationName, String route) {
+        this.operationName = operationName;
+        this.route = route;
+    }
+
+    /**
+     * @return the route of an HTTP event, or null if the input is not one or naming is disabled
+     */
+    static HttpRoute parse(Object input) {
+        if (!ENABLED) {
+            return null;
+        }
+        try {
+            if (input instanceof Map) {
+                return parseFromMap((Map) input);
+            } else if (input instanceof APIGatewayProxyRequestEvent) {
+                final APIGatewayProxyRequestEvent event = (APIGatewayProxyRequestEvent) input;
+                return fromTemplate(event.getHttpMethod(), event.getResource(), event.getPath());
+            } else if (input instanceof APIGatewayV2ProxyRequestEvent) {
+                final APIGatewayV2ProxyRequestEvent event = (APIGatewayV2ProxyRequestEvent) input;
+                return fromTemplate(event.getHttpMethod(), event.getResource(), event.getPath());
+            } else if (input instanceof APIGatewayV2HTTPEvent) {
+                final APIGatewayV2HTTPEvent event = (APIGatewayV2HTTPEvent) input;
+                final String method = event.getRequestContext() == null
+                        || event.getRequestContext().getHttp() == null
+                        ? null : event.getRequestContext().getHttp().getMethod();
+                return fromRouteKey(event.getRouteKey(), method, event.getRawPath());
+            } else if (input instanceof ApplicationLoadBalancerRequestEvent) {
+                final ApplicationLoadBalancerRequestEvent event = (ApplicationLoadBalancerRequestEvent) input;
+                return fromPath(event.getHttpMethod(), event.getPath());
+            }
+        } catch (Throwable t) {
+        }
+        return null;
+    }
+
+    private static HttpRoute parseFromMap(Map input) {
+        if (input.get("requestContext") == null && input.get("httpMethod") == null) {
+            return null;
+        }
+        final Object routeKey = input.get("routeKey");
+        if (routeKey instanceof String) { // HTTP API and Function URL
+            final Map http = (Map) ((Map) input.get("requestContext")).get("http");
+            return fromRouteKey((String) routeKey, http == null ? null : (String) http.get("method"),
+                    (String) input.get("rawPath"));
+        }
+        // REST API, or ALB without a resource
+        return fromTemplate((String) input.get("httpMethod"), (String) input.get("resource"),
+                (String) input.get("path"));
+    }
+
+    private static HttpRoute fromTemplate(String method, String template, String path) {
+        return template == null || template.isEmpty() ? fromPath(method, path) : named(method, template);
+    }
+
+    /**
+     * @param routeKey an HTTP API route key, {@code METHOD /template}, or {@code $default}
+     */
+    private static HttpRoute fromRouteKey(String routeKey, String method, String rawPath) {
+        if (routeKey == null || routeKey.isEmpty() || routeKey.charAt(0) == '$') {
+            return fromPath(method, rawPath);
+        }
+        return named(null, routeKey);
+    }
+
+    private static HttpRoute fromPath(String method, String path) {
+        if (path == null || path.isEmpty()) {
+            return null;
+        }
+        final String template = normalize(path);
+        final HttpRoute known = known(method, template);
+        if (known != null) {
+            return known;
+        }
+        return isAdmitted(method, template) ? named(method, template) : OVERFLOW;
+    }
+
+    /**
+     * Count a sighting of a path route that is not named yet.
+     *
+     * @return whether it has now been seen {@link #PATH_ROUTE_SIGHTINGS} times in a row in its slot
+     */
+    private static boolean isAdmitted(String method, String template) {
+        final int hash = template.hashCode() * 31 + (method == null ? 0 : method.hashCode());
+        final int slot = (hash ^ (hash >>> 16)) & (MAX_NORMALIZED_PATHS - 1);
+        final Sighting sighting = SIGHTINGS.get(slot);
+        final int count = sighting != null && sighting.is(method, template) ? sighting.count + 1 : 1;
+        if (count >= PATH_ROUTE_SIGHTINGS) {
+            SIGHTINGS.compareAndSet(slot, sighting, null);
+            return true;
+        }
+        // A sighting lost to a concurrent update is counted again next time
+        SIGHTINGS.compareAndSet(slot, sighting, new Sighting(method, template, count));
+        return false;
+    }
+
+    /**
+     * @param method   the HTTP method, or null if the template already starts with it or there is none
+     * @param template the route, without identifiers
+     * @return the route for method and template, or {@link #OVERFLOW} if there are too many routes
+     */
+    static HttpRoute named(String method, String template) {
+        final HttpRoute known = known(method, template);
+        if (known != null) {
+            return known;
+        }
+        // Reserve a slot, given back if the cap is reached or another thread adds the route first
+        if (ROUTE_COUNT.incrementAndGet() > MAX_ROUTES) {
+            ROUTE_COUNT.decrementAndGet();
+            return OVERFLOW;
+        }
+        final ConcurrentMap<String, HttpRoute> byTemplate =
+                ROUTES.computeIfAbsent(method == null ? "" : method, key -> new ConcurrentHashMap<>());
+        final HttpRoute route;
+        if (method != null) {
+            route = new HttpRoute(method + ' ' + template, template);
+        } else {
+            final int space = template.indexOf(' ');
+            route = new HttpRoute(template, space < 0 ? template : template.substring(space + 1));
+        }
+        final HttpRoute raced = byTemplate.putIfAbsent(template, route);
+        if (raced != null) {
+            ROUTE_COUNT.decrementAndGet();
+            return raced;
+        }
+        return route;
+    }
+
+    /**
+     * @return the route for method and template, or null if it has not been named
+     */
+    private static HttpRoute known(String method, String template) {
+        final ConcurrentMap<String, HttpRoute> byTemplate = ROUTES.get(method == null ? "" : method);
+        return byTemplate == null ? null : byTemplate.get(template);
+    }
+
+    /**
+     * @return path with numeric and UUID segments collapsed, or path itself if it has none
+     */
+    static String normalize(String path) {
+        final int hash = path.hashCode();
+        final int slot = (hash ^ (hash >>> 16)) & (MAX_NORMALIZED_PATHS - 1);
+        final NormalizedPath cached = NORMALIZED_PATHS.get(slot);
+        if (cached != null && cached.path.equals(path)) {
+            return cached.normalized;
+        }
+        final String normalized = collapseIdentifiers(path);
+        NORMALIZED_PATHS.set(slot, new NormalizedPath(path, normalized));
+        return normalized;
+    }
+
+    private static String collapseIdentifiers(String path) {
+        StringBuilder builder = null;
+        int start = 0;
+        while (start <= path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            final String replacement = isNumeric(path, start, end) ? ID_SEGMENT
+                    : isUuid(path, start, end) ? UUID_SEGMENT : null;
+            if (replacement != null && builder == null) {
+                builder = new StringBuilder(path.length()).append(path, 0, start);
+            }
+            if (builder != null) {
+                if (replacement != null) {
+                    builder.append(replacement);
+                } else {
+                    builder.append(path, start, end);
+                }
+                if (end < path.length()) {
+                    builder.append('/');
+                }
+            }
+            start = end + 1;
+        }
+        return builder == null ? path : builder.toString();
+    }
+
+    private static boolean isNumeric(String path, int start, int end) {
+        if (start == end) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            final char c = path.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 8-4-4-4-12 hexadecimal digits
+    private static boolean isUuid(String path, int start, int end) {
+        if (end - start != 36) {
+            return false;
+        }
+        for (int i = 0; i < 36; i++) {
+            final char c = path.charAt(start + i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if (Character.digit(c, 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forget all routes, for tests.
+     */
+    static void reset() {
+        ROUTES.clear();
+        ROUTE_COUNT.set(0);
+        for (int i = 0; i < MAX_NORMALIZED_PATHS; i++) {
+            NORMALIZED_PATHS.set(i, null);
+            SIGHTINGS.set(i, null);
+        }
+    }
+
+    private static final class NormalizedPath {
+        final String path;
+        final String normalized;
+
+        NormalizedPath(String path, String normalized) {
+            this.path = path;
+            this.normalized = normalized;
+        }
+    }
+
+    private static final class Sighting {
+        final String method;
+        final String template;
+        final int count;
+
+        Sighting(String method, String template, int count) {
+            this.method = method;
+            this.template = template;
+            this.count = count;
+        }
+
+        boolean is(String method, String template) {
+            return this.template.equals(template) && Objects.equals(this.method, method);
+        }
+    }
+}
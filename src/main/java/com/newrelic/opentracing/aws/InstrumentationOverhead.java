@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import io.opentracing.Span;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Times the instrumentation's own work during an invocation, excluding the handler.
+ *
+ * <p>Phases, in microseconds:
+ * <ul>
+ *     <li>{@code extract}: trace context extraction</li>
+ *     <li>{@code start}: building the root span, which includes event source parsing</li>
+ *     <li>{@code response}: response parsing, or logging the handler's error</li>
+ *     <li>{@code finish}: optional tags and finishing the span</li>
+ * </ul>
+ *
+ * <p>The span is tagged before it finishes, so its own {@code finish} time is only counted in the
+ * container's running means, which are tagged on the next sampled span.
+ */
+final class InstrumentationOverhead {
+
+    static final String TAG = "aws.lambda.overhead.us";
+    static final String CONTAINER_TAG = "aws.lambda.overhead.containerMeanUs";
+
+    static final double SAMPLE_RATE = EnvironmentConfig.getDouble("OVERHEAD_SAMPLE_RATE", 0);
+
+    static final int EXTRACT = 0;
+    static final int START = 1;
+    static final int RESPONSE = 2;
+    static final int FINISH = 3;
+    private static final String[] PHASES = {"extract", "start", "response", "finish"};
+
+    private static final LongAdder[] totalNanos = {new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder()};
+    private static final LongAdder sampled = new LongAdder();
+
+    private final long[] nanos = new long[PHASES.length];
+    private long mark;
+
+    private InstrumentationOverhead(long mark) {
+        this.mark = mark;
+    }
+
+    /**
+     * @return whether to time this invocation, for {@code NEW_RELIC_LAMBDA_TRACING_OVERHEAD_SAMPLE_RATE}
+     */
+    static boolean isSampled() {
+        return SAMPLE_RATE >= 1.0 || (SAMPLE_RATE > 0 && ThreadLocalRandom.current().nextDouble() < SAMPLE_RATE);
+    }
+
+    static InstrumentationOverhead start() {
+        return new InstrumentationOverhead(System.nanoTime());
+    }
+
+    /**
+     * Count the time since the last lap or mark towards phase.
+     */
+    void lap(int phase) {
+        final long now = System.nanoTime();
+        nanos[phase] += now - mark;
+        mark = now;
+    }
+
+    /**
+     * Start timing again, after time that is not the instrumentation's, such as the handler.
+     */
+    void mark() {
+        mark = System.nanoTime();
+    }
+
+    /**
+     * Tag span with this invocation's phases so far, and the container's means.
+     */
+    void tag(Span span) {
+        if (AttributePipeline.isEnabled(TAG)) {
+            span.setTag(TAG, format(nanos, 1, FINISH));
+        }
+        tagContainerMeans(span);
+    }
+
+    /**
+     * Tag span with the container's means, if any invocation has been sampled.
+     */
+    static void tagContainerMeans(Span span) {
+        final long count = sampled.sum();
+        if (count > 0 && AttributePipeline.isEnabled(CONTAINER_TAG)) {
+            final long[] means = new long[PHASES.length];
+            for (int i = 0; i < means.length; i++) {
+                means[i] = totalNanos[i].sum();
+            }
+            span.setTag(CONTAINER_TAG, format(means, count, PHASES.length) + ",n:" + count);
+        }
+    }
+
+    /**
+     * Count the time since the last lap towards {@code finish}, and add this invocation to the
+     * container's means.
+     */
+    void finish() {
+        lap(FINISH);
+        for (int i = 0; i < nanos.length; i++) {
+            totalNanos[i].add(nanos[i]);
+        }
+        sampled.increment();
+    }
+
+    long nanos(int phase) {
+        return nanos[phase];
+    }
+
+    /**
+     * @return e.g. {@code extract:12.3,start:40.1,response:2.0}
+     */
+    private static String format(long[] nanos, long divisor, int phases) {
+        final StringBuilder formatted = new StringBuilder(16 * phases);
+        for (int i = 0; i < phases; i++) {
+            if (i > 0) {
+                formatted.append(',');
+            }
+            final long tenthsOfMicros = nanos[i] / divisor / 100;
+            formatted.append(PHASES[i]).append(':')
+                    .append(tenthsOfMicros / 10).append('.').append(tenthsOfMicros % 10);
+        }
+        return formatted.toString();
+    }
+}
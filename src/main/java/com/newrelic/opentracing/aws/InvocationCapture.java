@@ -0,0 +1,243 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Records sampled invocations, their redacted input and how long they took, to an
+ * {@link InvocationLog}, so that real event shapes can be replayed locally.
+ *
+ * <p>Configured with {@code NEW_RELIC_LAMBDA_TRACING_CAPTURE_SAMPLE_RATE} (fraction of invocations,
+ * default none), {@code NEW_RELIC_LAMBDA_TRACING_CAPTURE_DIRECTORY},
+ * {@code NEW_RELIC_LAMBDA_TRACING_CAPTURE_FILE_BYTES}, {@code NEW_RELIC_LAMBDA_TRACING_CAPTURE_FILES},
+ * {@code NEW_RELIC_LAMBDA_TRACING_CAPTURE_MAX_EVENT_BYTES} and
+ * {@code NEW_RELIC_LAMBDA_TRACING_CAPTURE_REDACTED_FIELDS}. The log is opened by the first captured
+ * invocation; if it cannot be opened, nothing is captured in this container.
+ *
+ * <p>A stream handler's input is recorded as the handler reads it, and whatever it left unread is
+ * read after it returns. Typed inputs are captured if they are maps, strings or events of
+ * {@code aws-lambda-java-events}, as the Lambda runtime would deserialize them. Events larger than
+ * the maximum are not captured, and stop being written once they reach it.
+ */
+final class InvocationCapture {
+
+    static final double SAMPLE_RATE = EnvironmentConfig.getDouble("CAPTURE_SAMPLE_RATE", 0);
+    static final String DIRECTORY = EnvironmentConfig.getString("CAPTURE_DIRECTORY", "/tmp/newrelic-lambda-capture");
+    static final long FILE_BYTES = EnvironmentConfig.getLong("CAPTURE_FILE_BYTES", 4L << 20);
+    static final int FILES = (int) EnvironmentConfig.getLong("CAPTURE_FILES", 4);
+    static final int MAX_EVENT_BYTES = (int) EnvironmentConfig.getLong("CAPTURE_MAX_EVENT_BYTES", 256 << 10);
+    static final String DEFAULT_REDACTED_FIELDS =
+            "authorization,cookie,set-cookie,x-api-key,x-amz-security-token,password,secret,token";
+    static final List<String> REDACTED_FIELDS =
+            fields(EnvironmentConfig.getString("CAPTURE_REDACTED_FIELDS", DEFAULT_REDACTED_FIELDS));
+
+    static final String STREAM_EVENT_TYPE = "stream";
+
+    private static final Object lock = new Object();
+    private static InvocationLog log;
+    private static boolean unavailable;
+
+    private final String eventType;
+    private final JsonWriter json;
+    private final CapturingInputStream stream;
+    private final long startMillis;
+    private final long startNanos;
+
+    private InvocationCapture(String eventType, JsonWriter json, CapturingInputStream stream) {
+        this.eventType = eventType;
+        this.json = json;
+        this.stream = stream;
+        this.startMillis = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * @return whether to capture this invocation, for {@code NEW_RELIC_LAMBDA_TRACING_CAPTURE_SAMPLE_RATE}
+     */
+    static boolean isSampled() {
+        return SAMPLE_RATE >= 1.0 || (SAMPLE_RATE > 0 && ThreadLocalRandom.current().nextDouble() < SAMPLE_RATE);
+    }
+
+    /**
+     * Write the event before the handler can change it.
+     *
+     * @return null if input is not a map, a string or an event of {@code aws-lambda-java-events},
+     * or is larger than {@link #MAX_EVENT_BYTES}
+     */
+    static InvocationCapture start(Object input) {
+        if (!EventJson.isWritable(input)) {
+            return null;
+        }
+        final JsonWriter json = new JsonWriter(1024);
+        try {
+            if (!EventJson.write(json, input, MAX_EVENT_BYTES)) {
+                return null;
+            }
+        } catch (RuntimeException e) {
+            return null;
+        }
+        return new InvocationCapture(input == null ? "null" : input.getClass().getName(), json, null);
+    }
+
+    /**
+     * @return a capture whose {@link #input()} the handler must read instead of input
+     */
+    static InvocationCapture startStream(InputStream input) {
+        return new InvocationCapture(STREAM_EVENT_TYPE, null, new CapturingInputStream(input));
+    }
+
+    InputStream input() {
+        return stream;
+    }
+
+    /**
+     * Append the invocation to the log. Failures only lose the entry.
+     */
+    void finish(boolean error) {
+        final long durationNanos = System.nanoTime() - startNanos;
+        try {
+            final byte[] event;
+            if (stream != null) {
+                stream.drain();
+                if (stream.overflow) {
+                    return;
+                }
+                event = Arrays.copyOf(stream.buffer, stream.length);
+            } else {
+                if (json.length() > MAX_EVENT_BYTES) {
+                    return;
+                }
+                event = json.toByteArray();
+            }
+            EventJson.redact(event, event.length, REDACTED_FIELDS);
+            final InvocationLog invocationLog = log();
+            if (invocationLog != null) {
+                invocationLog.append(startMillis, durationNanos, error, eventType, event);
+            }
+        } catch (IOException | RuntimeException e) {
+            // not captured
+        }
+    }
+
+    private static InvocationLog log() {
+        synchronized (lock) {
+            if (log == null && !unavailable) {
+                try {
+                    log = InvocationLog.open(Paths.get(DIRECTORY), FILE_BYTES, FILES);
+                } catch (IOException | RuntimeException e) {
+                    unavailable = true;
+                }
+            }
+            return log;
+        }
+    }
+
+    /**
+     * Capture to directory from now on, or close the log if directory is null. For tests.
+     */
+    static void reset(Path directory) throws IOException {
+        synchronized (lock) {
+            if (log != null) {
+                log.close();
+            }
+            log = directory == null ? null : InvocationLog.open(directory, FILE_BYTES, FILES);
+            unavailable = directory == null;
+        }
+    }
+
+    private static List<String> fields(String names) {
+        final List<String> fields = new ArrayList<>();
+        for (String name : names.split(",")) {
+            if (!name.trim().isEmpty()) {
+                fields.add(name.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Copies what the handler reads, up to {@link #MAX_EVENT_BYTES}.
+     */
+    private static final class CapturingInputStream extends FilterInputStream {
+        private byte[] buffer = new byte[1024];
+        private int length;
+        private boolean overflow;
+
+        CapturingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0 && reserve(1)) {
+                buffer[length++] = (byte) b;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int read = super.read(b, off, len);
+            if (read > 0) {
+                copy(b, off, read);
+            }
+            return read;
+        }
+
+        /**
+         * Skipped bytes are not seen, so the event cannot be captured.
+         */
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(n);
+            if (skipped > 0) {
+                overflow = true;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        void drain() throws IOException {
+            final byte[] rest = new byte[4096];
+            while (!overflow && read(rest, 0, rest.length) >= 0) {
+                // copied by read
+            }
+        }
+
+        private void copy(byte[] b, int off, int len) {
+            if (reserve(len)) {
+                System.arraycopy(b, off, buffer, length, len);
+                length += len;
+            }
+        }
+
+        private boolean reserve(int len) {
+            if (overflow || length + len > MAX_EVENT_BYTES) {
+                overflow = true;
+                return false;
+            }
+            if (length + len > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.min(MAX_EVENT_BYTES, Math.max(buffer.length * 2, length + len)));
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * An append-only log of captured invocations, written through memory-mapped files that are rotated
+ * by size.
+ *
+ * <p>Each file is mapped at its full size when it is created, so appending an entry is a copy into
+ * memory with no system call. When an entry does not fit, the next file is created and the oldest
+ * files beyond the limit are deleted. The operating system writes the pages back; a file that was
+ * not filled reads as ending at its last complete entry.
+ *
+ * <p>File layout: the magic {@code NRIL} and a format version, four bytes each, then one entry after
+ * another, each a four-byte length followed by the start time in epoch milliseconds, the duration
+ * in nanoseconds, a flags byte, the event type as a length-prefixed UTF-8 string and the event's
+ * JSON. A zero length ends the file. All numbers are big-endian.
+ */
+public final class InvocationLog implements AutoCloseable {
+
+    static final int MAGIC = 0x4E52494C;
+    static final int VERSION = 1;
+    static final String FILE_PREFIX = "invocations-";
+    static final String FILE_SUFFIX = ".log";
+
+    private static final int HEADER_BYTES = 8;
+    // start, duration, flags, event type length
+    private static final int FIXED_ENTRY_BYTES = 8 + 8 + 1 + 2;
+    private static final byte ERROR_FLAG = 1;
+
+    private final Path directory;
+    private final long fileBytes;
+    private final int maxFiles;
+
+    private long sequence;
+    private MappedByteBuffer buffer;
+
+    private InvocationLog(Path directory, long fileBytes, int maxFiles, long sequence) {
+        this.directory = directory;
+        this.fileBytes = fileBytes;
+        this.maxFiles = maxFiles;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Start a new file in directory, after any files already there.
+     *
+     * @param directory The directory to write to, created if needed
+     * @param fileBytes The size of each file
+     * @param maxFiles  The number of files to keep, including the one being written
+     */
+    public static InvocationLog open(Path directory, long fileBytes, int maxFiles) throws IOException {
+        if (fileBytes <= HEADER_BYTES + FIXED_ENTRY_BYTES + 8 || fileBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("File size out of range: " + fileBytes);
+        }
+        Files.createDirectories(directory);
+        final List<Path> existing = files(directory);
+        final long sequence = existing.isEmpty() ? 0 : sequence(existing.get(existing.size() - 1)) + 1;
+        final InvocationLog log = new InvocationLog(directory, fileBytes, Math.max(1, maxFiles), sequence);
+        log.map();
+        return log;
+    }
+
+    /**
+     * @param startMillis   When the invocation started, in epoch milliseconds
+     * @param durationNanos How long the invocation took
+     * @param error         Whether the handler threw
+     * @param eventType     The event's class name
+     * @param event         The event's JSON
+     * @return false if the entry is larger than a file and was not written
+     */
+    public synchronized boolean append(long startMillis, long durationNanos, boolean error, String eventType,
+            byte[] event) throws IOException {
+        if (buffer == null) {
+            throw new IOException("Closed");
+        }
+        final byte[] type = eventType.getBytes(StandardCharsets.UTF_8);
+        if (type.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Event type too long");
+        }
+        // Keep four zero bytes after the entry to end the file
+        final long needed = 4L + FIXED_ENTRY_BYTES + type.length + event.length + 4;
+        if (needed > fileBytes - HEADER_BYTES) {
+            return false;
+        }
+        final int length = FIXED_ENTRY_BYTES + type.length + event.length;
+        if (buffer.remaining() < needed) {
+            sequence++;
+            map();
+        }
+        final int position = buffer.position();
+        buffer.position(position + 4);
+        buffer.putLong(startMillis)
+                .putLong(durationNanos)
+                .put(error ? ERROR_FLAG : 0)
+                .putShort((short) type.length)
+                .put(type)
+                .put(event);
+        // The length goes last, so a reader never sees a partly written entry
+        buffer.putInt(position, length);
+        return true;
+    }
+
+    /**
+     * Stop writing. The mapping is released when it is garbage collected.
+     */
+    @Override
+    public synchronized void close() {
+        buffer = null;
+    }
+
+    /**
+     * @return the entries of every file in directory, ordered by start time
+     */
+    public static List<Entry> read(Path directory) throws IOException {
+        final List<Entry> entries = new ArrayList<>();
+        for (Path file : files(directory)) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+                    throw new IOException("Not an invocation log: " + file);
+                }
+                final int version = buffer.getInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported invocation log version " + version + ": " + file);
+                }
+                while (buffer.remaining() >= 4) {
+                    final int length = buffer.getInt();
+                    if (length < FIXED_ENTRY_BYTES || length > buffer.remaining()) {
+                        break;
+                    }
+                    final long startMillis = buffer.getLong();
+                    final long durationNanos = buffer.getLong();
+                    final boolean error = (buffer.get() & ERROR_FLAG) != 0;
+                    final byte[] type = new byte[buffer.getShort()];
+                    buffer.get(type);
+                    final byte[] event = new byte[length - FIXED_ENTRY_BYTES - type.length];
+                    buffer.get(event);
+                    entries.add(new Entry(startMillis, durationNanos, error,
+                            new String(type, StandardCharsets.UTF_8), event));
+                }
+            }
+        }
+        entries.sort(Comparator.comparingLong(Entry::getStartMillis));
+        return entries;
+    }
+
+    private void map() throws IOException {
+        final Path file = directory.resolve(String.format(Locale.ROOT, "%s%06d%s", FILE_PREFIX, sequence, FILE_SUFFIX));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileBytes);
+        }
+        buffer.putInt(MAGIC).putInt(VERSION);
+        for (Path old : files(directory)) {
+            if (sequence(old) <= sequence - maxFiles) {
+                Files.deleteIfExists(old);
+            }
+        }
+    }
+
+    private static List<Path> files(Path directory) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return files;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (Path file : stream) {
+                if (sequence(file) >= 0) {
+                    files.add(file);
+                }
+            }
+        }
+        Collections.sort(files, Comparator.comparingLong(InvocationLog::sequence));
+        return files;
+    }
+
+    private static long sequence(Path file) {
+        final String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * One captured invocation.
+     */
+    public static final class Entry {
+        private final long startMillis;
+        private final long durationNanos;
+        private final boolean error;
+        private final String eventType;
+        private final byte[] event;
+
+        Entry(long startMillis, long durationNanos, boolean error, String eventType, byte[] event) {
+            this.startMillis = startMillis;
+            this.durationNanos = durationNanos;
+            this.error = error;
+            this.eventType = eventType;
+            this.event = event;
+        }
+
+        public long getStartMillis() {
+            return startMillis;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        public boolean isError() {
+            return error;
+        }
+
+        public String getEventType() {
+            return eventType;
+        }
+
+        /**
+         * @return the event's JSON, with redacted fields masked
+         */
+        public byte[] getEvent() {
+            return event;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A small, reusable UTF-8 JSON writer.
+ *
+ * <p>The buffer grows as needed and is kept across {@link #reset()} calls, so a writer that is
+ * reused for similar documents stops allocating once it has reached their size. Commas between
+ * members and elements are inserted automatically; the caller is responsible for balancing
+ * objects and arrays.
+ */
+final class JsonWriter {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buffer;
+    private int length;
+    private boolean needsComma;
+
+    JsonWriter(int initialCapacity) {
+        buffer = new byte[Math.max(16, initialCapacity)];
+    }
+
+    JsonWriter reset() {
+        length = 0;
+        needsComma = false;
+        return this;
+    }
+
+    /**
+     * Reserve four bytes for a big-endian length prefix, filled in by {@link #toFrame()}.
+     */
+    JsonWriter beginFrame() {
+        ensure(4);
+        length += 4;
+        return this;
+    }
+
+    JsonWriter beginObject() {
+        separator();
+        append((byte) '{');
+        needsComma = false;
+        return this;
+    }
+
+    JsonWriter endObject() {
+        append((byte) '}');
+        needsComma = true;
+        return this;
+    }
+
+    JsonWriter beginArray() {
+        separator();
+        append((byte) '[');
+        needsComma = false;
+        return this;
+    }
+
+    JsonWriter endArray() {
+        append((byte) ']');
+        needsComma = true;
+        return this;
+    }
+
+    JsonWriter name(String name) {
+        separator();
+        string(name);
+        append((byte) ':');
+        needsComma = false;
+        return this;
+    }
+
+    JsonWriter value(String value) {
+        separator();
+        if (value == null) {
+            ascii("null");
+        } else {
+            string(value);
+        }
+        needsComma = true;
+        return this;
+    }
+
+    JsonWriter value(long value) {
+        separator();
+        if (value == Long.MIN_VALUE) {
+            ascii("-9223372036854775808");
+        } else {
+            if (value < 0) {
+                append((byte) '-');
+                value = -value;
+            }
+            digits(value);
+        }
+        needsComma = true;
+        return this;
+    }
+
+    JsonWriter value(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return value((String) null);
+        }
+        if (value == (long) value && Math.abs(value) < 1e15) {
+            return value((long) value);
+        }
+        separator();
+        ascii(Double.toString(value));
+        needsComma = true;
+        return this;
+    }
+
+    JsonWriter value(boolean value) {
+        separator();
+        ascii(value ? "true" : "false");
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Write value as a string of decimal digits, as 64-bit integers are in OTLP/JSON.
+     */
+    JsonWriter quotedValue(long value) {
+        separator();
+        append((byte) '"');
+        needsComma = false;
+        value(value);
+        append((byte) '"');
+        return this;
+    }
+
+    /**
+     * Write value as a string of 16 lowercase hex digits.
+     */
+    JsonWriter hexValue(long value) {
+        separator();
+        append((byte) '"');
+        hex(value);
+        append((byte) '"');
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Write the 128-bit value high, low as a string of 32 lowercase hex digits.
+     */
+    JsonWriter hexValue(long high, long low) {
+        separator();
+        append((byte) '"');
+        hex(high);
+        hex(low);
+        append((byte) '"');
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Write numbers and booleans as such, and anything else as its string form.
+     */
+    JsonWriter value(Object value) {
+        if (value == null) {
+            return value((String) null);
+        }
+        if (value instanceof Boolean) {
+            return value(((Boolean) value).booleanValue());
+        }
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return value(((Number) value).longValue());
+        }
+        if (value instanceof Number) {
+            return value(((Number) value).doubleValue());
+        }
+        return value(value.toString());
+    }
+
+    int length() {
+        return length;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * @return a copy of the document with the length prefix reserved by {@link #beginFrame()} set
+     */
+    byte[] toFrame() {
+        final int payloadLength = length - 4;
+        buffer[0] = (byte) (payloadLength >>> 24);
+        buffer[1] = (byte) (payloadLength >>> 16);
+        buffer[2] = (byte) (payloadLength >>> 8);
+        buffer[3] = (byte) payloadLength;
+        return toByteArray();
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, length);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private void separator() {
+        if (needsComma) {
+            append((byte) ',');
+        }
+    }
+
+    private void digits(long value) {
+        if (value >= 10) {
+            digits(value / 10);
+        }
+        append((byte) ('0' + (int) (value % 10)));
+    }
+
+    private void hex(long value) {
+        ensure(16);
+        for (int shift = 60; shift >= 0; shift -= 4) {
+            buffer[length++] = HEX[(int) (value >>> shift) & 0xF];
+        }
+    }
+
+    private void ascii(String value) {
+        ensure(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            buffer[length++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void string(String value) {
+        ensure(value.length() + 2);
+        buffer[length++] = '"';
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                append((byte) '\\');
+                append((byte) c);
+            } else if (c < 0x20) {
+                append((byte) '\\');
+                append((byte) 'u');
+                append((byte) '0');
+                append((byte) '0');
+                append(HEX[c >> 4]);
+                append(HEX[c & 0xF]);
+            } else if (c < 0x80) {
+                append((byte) c);
+            } else if (c < 0x800) {
+                append((byte) (0xC0 | (c >> 6)));
+                append((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                append((byte) (0xF0 | (codePoint >> 18)));
+                append((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                append((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                append((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                append((byte) '?');
+            } else {
+                append((byte) (0xE0 | (c >> 12)));
+                append((byte) (0x80 | ((c >> 6) & 0x3F)));
+                append((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        append((byte) '"');
+    }
+
+    private void append(byte b) {
+        if (length == buffer.length) {
+            ensure(1);
+        }
+        buffer[length++] = b;
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import com.amazonaws.services.lambda.runtime.events.KafkaEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Amazon MSK and self-managed Apache Kafka events.
+ *
+ * <p>Records are grouped by {@code topic-partition}. Trace context is read from every record's
+ * {@link PropagationKeys propagation headers}; header values are only decoded from bytes for
+ * those keys.
+ */
+final class KafkaEventParser {
+
+    // Turns the batch tags on or off together, see AttributePipeline
+    static final String TAGS = "aws.lambda.kafka.*";
+    static final String BATCH_SIZE_TAG = "aws.lambda.kafka.batchSize";
+    static final String PARTITION_COUNT_TAG = "aws.lambda.kafka.partitionCount";
+    static final String PARTITION_BATCH_SIZES_TAG = "aws.lambda.kafka.partitionBatchSizes";
+    static final String MAX_PARTITION_BATCH_SIZE_TAG = "aws.lambda.kafka.maxPartitionBatchSize";
+    static final String MAX_RECORD_LAG_TAG = "aws.lambda.kafka.maxRecordLagMs";
+
+    // Keeps the per-partition tag readable when a function consumes many partitions
+    static final int MAX_LISTED_PARTITIONS = 20;
+
+    private KafkaEventParser() {
+    }
+
+    static String parseEventSourceArn(KafkaEvent event) {
+        return event.getEventSourceArn();
+    }
+
+    /**
+     * Pass the propagation headers of each record to visitor, partition by partition, until it
+     * returns false.
+     */
+    static void forEachRecord(KafkaEvent event, Predicate<PropagationHeaders> visitor) {
+        final Map<String, List<KafkaEvent.KafkaEventRecord>> records = event.getRecords();
+        if (records == null) {
+            return;
+        }
+        final PropagationKeys propagationKeys = PropagationKeys.get();
+        for (List<KafkaEvent.KafkaEventRecord> partition : records.values()) {
+            if (partition == null) {
+                continue;
+            }
+            for (int i = 0; i < partition.size(); i++) {
+                final KafkaEvent.KafkaEventRecord record = partition.get(i);
+                if (record != null && !visitor.test(propagationHeaders(propagationKeys, record))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    static PropagationHeaders propagationHeaders(PropagationKeys propagationKeys, KafkaEvent.KafkaEventRecord record) {
+        final PropagationHeaders carrier = PropagationHeaders.empty();
+        if (record.getHeaders() != null) {
+            for (Map<String, byte[]> headers : record.getHeaders()) {
+                addPropagationHeaders(propagationKeys, carrier, headers);
+            }
+        }
+        return carrier;
+    }
+
+    /**
+     * Tag the batch size, overall and per topic-partition, and the age of the oldest record.
+     *
+     * @param nowMillis The current time, to compute record lag against
+     */
+    static void addBatchTags(EnhancedSpanBuilder builder, KafkaEvent event, long nowMillis) {
+        final Map<String, List<KafkaEvent.KafkaEventRecord>> records = event.getRecords();
+        if (records == null || records.isEmpty()) {
+            return;
+        }
+        int batchSize = 0;
+        int maxPartitionBatchSize = 0;
+        int listedPartitions = 0;
+        long oldestTimestamp = Long.MAX_VALUE;
+        final StringBuilder partitionBatchSizes = new StringBuilder();
+        for (Map.Entry<String, List<KafkaEvent.KafkaEventRecord>> partition : records.entrySet()) {
+            final List<KafkaEvent.KafkaEventRecord> partitionRecords = partition.getValue();
+            final int partitionBatchSize = partitionRecords == null ? 0 : partitionRecords.size();
+            batchSize += partitionBatchSize;
+            maxPartitionBatchSize = Math.max(maxPartitionBatchSize, partitionBatchSize);
+            if (listedPartitions < MAX_LISTED_PARTITIONS) {
+                if (listedPartitions > 0) {
+                    partitionBatchSizes.append(',');
+                }
+                partitionBatchSizes.append(partition.getKey()).append(':').append(partitionBatchSize);
+            } else if (listedPartitions == MAX_LISTED_PARTITIONS) {
+                partitionBatchSizes.append(",...");
+            }
+            listedPartitions++;
+            for (int i = 0; i < partitionBatchSize; i++) {
+                final KafkaEvent.KafkaEventRecord record = partitionRecords.get(i);
+                if (record != null && record.getTimestamp() > 0) {
+                    oldestTimestamp = Math.min(oldestTimestamp, record.getTimestamp());
+                }
+            }
+        }
+
+        if (AttributePipeline.isEnabled(BATCH_SIZE_TAG)) {
+            builder.withTag(BATCH_SIZE_TAG, batchSize);
+        }
+        if (AttributePipeline.isEnabled(PARTITION_COUNT_TAG)) {
+            builder.withTag(PARTITION_COUNT_TAG, records.size());
+        }
+        if (AttributePipeline.isEnabled(PARTITION_BATCH_SIZES_TAG)) {
+            builder.withTag(PARTITION_BATCH_SIZES_TAG, partitionBatchSizes.toString());
+        }
+        if (AttributePipeline.isEnabled(MAX_PARTITION_BATCH_SIZE_TAG)) {
+            builder.withTag(MAX_PARTITION_BATCH_SIZE_TAG, maxPartitionBatchSize);
+        }
+        if (oldestTimestamp != Long.MAX_VALUE && AttributePipeline.isEnabled(MAX_RECORD_LAG_TAG)) {
+            builder.withTag(MAX_RECORD_LAG_TAG, Math.max(0, nowMillis - oldestTimestamp));
+        }
+    }
+
+    private static void addPropagationHeaders(PropagationKeys propagationKeys, PropagationHeaders carrier,
+            Map<String, byte[]> headers) {
+        if (headers == null) {
+            return;
+        }
+        for (Map.Entry<String, byte[]> header : headers.entrySet()) {
+            if (header.getKey() == null || header.getValue() == null) {
+                continue;
+            }
+            final String key = propagationKeys.match(header.getKey());
+            if (key != null && !carrier.contains(key)) {
+                carrier.add(key, new String(header.getValue(), StandardCharsets.UTF_8));
+            }
+        }
+    }
+}
@@ -0,0 +1,480 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import com.amazonaws.services.lambda.runtime.events.KinesisEvent;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * Reads the user records of Kinesis records aggregated by the Kinesis Producer Library (KPL).
+ *
+ * <p>An aggregated record is the magic bytes {@code F3 89 9A C2}, an {@code AggregatedRecord}
+ * protocol buffer message, and the MD5 digest of that message. The message is read in place from
+ * the record's data; each user record's data is a slice of it, not a copy. A record without the
+ * magic bytes, or whose digest does not match, is not aggregated and is its own single user record,
+ * as the Kinesis Client Library treats it.
+ *
+ * <pre>
+ * message AggregatedRecord {
+ *   repeated string partition_key_table     = 1;
+ *   repeated string explicit_hash_key_table = 2;
+ *   repeated Record records                 = 3;
+ * }
+ * message Record {
+ *   required uint64 partition_key_index     = 1;
+ *   optional uint64 explicit_hash_key_index = 2;
+ *   required bytes  data                    = 3;
+ *   repeated Tag    tags                    = 4;
+ * }
+ * message Tag {
+ *   required string key   = 1;
+ *   optional string value = 2;
+ * }
+ * </pre>
+ */
+public final class KinesisDeaggregator {
+
+    static final byte[] MAGIC = {(byte) 0xF3, (byte) 0x89, (byte) 0x9A, (byte) 0xC2};
+    static final int DIGEST_LENGTH = 16;
+
+    private static final int VARINT = 0;
+    private static final int FIXED64 = 1;
+    private static final int LENGTH_DELIMITED = 2;
+    private static final int FIXED32 = 5;
+
+    private static final ThreadLocal<MessageDigest> MD5 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private KinesisDeaggregator() {
+    }
+
+    /**
+     * Pass each user record of a Kinesis record to visitor, in order, until it returns false.
+     *
+     * <p>The {@link UserRecord} passed is reused for the next user record, so it is only valid
+     * during the call. A user record of an aggregated record whose message is malformed after the
+     * digest matched ends the iteration.
+     *
+     * @return the number of user records visited
+     */
+    public static int forEach(KinesisEvent.Record record, Predicate<UserRecord> visitor) {
+        if (record == null || record.getData() == null) {
+            return 0;
+        }
+        return forEach(record.getData(), record.getPartitionKey(), visitor);
+    }
+
+    /**
+     * @param data         the data of a Kinesis record, from its position to its limit
+     * @param partitionKey the Kinesis record's partition key, for data that is not aggregated
+     */
+    static int forEach(ByteBuffer data, String partitionKey, Predicate<UserRecord> visitor) {
+        if (!isAggregated(data)) {
+            final UserRecord userRecord = new UserRecord(data, partitionKey);
+            userRecord.setNotAggregated();
+            visitor.test(userRecord);
+            return 1;
+        }
+        return forEachAggregated(data, partitionKey, visitor);
+    }
+
+    /**
+     * {@link #forEach(ByteBuffer, String, Predicate)} for data already known to be
+     * {@link #isAggregated aggregated}, without checking its digest again.
+     */
+    static int forEachAggregated(ByteBuffer data, String partitionKey, Predicate<UserRecord> visitor) {
+        final UserRecord userRecord = new UserRecord(data, partitionKey);
+        final int start = data.position() + MAGIC.length;
+        final int end = data.limit() - DIGEST_LENGTH;
+        userRecord.setTables(readTable(data, start, end, 1), readTable(data, start, end, 2));
+        int visited = 0;
+        int position = start;
+        while (position < end) {
+            final int recordEnd;
+            try {
+                final long key = readVarint(data, position, end);
+                position += varintLength(key);
+                final int wireType = (int) (key & 7);
+                if ((key >>> 3) != 3 || wireType != LENGTH_DELIMITED) {
+                    position = skip(data, position, end, wireType);
+                    continue;
+                }
+                final long length = readVarint(data, position, end);
+                position += varintLength(length);
+                recordEnd = checkedEnd(position, length, end);
+                userRecord.read(visited, position, recordEnd);
+            } catch (IllegalArgumentException malformed) {
+                break;
+            }
+            visited++;
+            if (!visitor.test(userRecord)) {
+                break;
+            }
+            position = recordEnd;
+        }
+        return visited;
+    }
+
+    /**
+     * @return the number of user records of a KPL aggregated record, or -1 if data is not one
+     */
+    static int countUserRecords(ByteBuffer data) {
+        return isAggregated(data) ? countAggregatedUserRecords(data) : -1;
+    }
+
+    /**
+     * {@link #countUserRecords} for data already known to be {@link #isAggregated aggregated},
+     * without checking its digest again.
+     */
+    static int countAggregatedUserRecords(ByteBuffer data) {
+        final int end = data.limit() - DIGEST_LENGTH;
+        int count = 0;
+        int position = data.position() + MAGIC.length;
+        try {
+            while (position < end) {
+                final long key = readVarint(data, position, end);
+                position += varintLength(key);
+                if ((key >>> 3) == 3) {
+                    count++;
+                }
+                position = skip(data, position, end, (int) (key & 7));
+            }
+        } catch (IllegalArgumentException malformed) {
+            // count what was read
+        }
+        return count;
+    }
+
+    /**
+     * @return whether data starts with the KPL magic bytes and ends with the MD5 digest of what is
+     * between them
+     */
+    static boolean isAggregated(ByteBuffer data) {
+        final int start = data.position();
+        if (data.limit() - start < MAGIC.length + DIGEST_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data.get(start + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        final int digestStart = data.limit() - DIGEST_LENGTH;
+        final ByteBuffer message = data.duplicate();
+        message.limit(digestStart).position(start + MAGIC.length);
+        final MessageDigest md5 = MD5.get();
+        md5.reset();
+        md5.update(message);
+        final byte[] digest = md5.digest();
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            if (data.get(digestStart + i) != digest[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the offset and length of each string of a top-level repeated string field, in pairs
+     */
+    private static int[] readTable(ByteBuffer data, int start, int end, int tableField) {
+        int[] table = new int[8];
+        int size = 0;
+        int position = start;
+        try {
+            while (position < end) {
+                final long key = readVarint(data, position, end);
+                position += varintLength(key);
+                final int wireType = (int) (key & 7);
+                if ((key >>> 3) == tableField && wireType == LENGTH_DELIMITED) {
+                    final long length = readVarint(data, position, end);
+                    position += varintLength(length);
+                    if (size + 2 > table.length) {
+                        table = Arrays.copyOf(table, table.length * 2);
+                    }
+                    table[size++] = position;
+                    table[size++] = (int) length;
+                    position = checkedEnd(position, length, end);
+                } else {
+                    position = skip(data, position, end, wireType);
+                }
+            }
+        } catch (IllegalArgumentException malformed) {
+            // keep the entries read so far
+        }
+        return Arrays.copyOf(table, size);
+    }
+
+    static long readVarint(ByteBuffer data, int position, int end) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position >= end) {
+                throw new IllegalArgumentException("Truncated varint");
+            }
+            final byte b = data.get(position++);
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    static int varintLength(long value) {
+        int length = 1;
+        while ((value >>>= 7) != 0) {
+            length++;
+        }
+        return length;
+    }
+
+    private static int skip(ByteBuffer data, int position, int end, int wireType) {
+        switch (wireType) {
+            case VARINT:
+                return position + varintLength(readVarint(data, position, end));
+            case FIXED64:
+                return checkedEnd(position, 8, end);
+            case LENGTH_DELIMITED:
+                final long length = readVarint(data, position, end);
+                return checkedEnd(position + varintLength(length), length, end);
+            case FIXED32:
+                return checkedEnd(position, 4, end);
+            default:
+                throw new IllegalArgumentException("Unsupported wire type " + wireType);
+        }
+    }
+
+    private static int checkedEnd(int position, long length, int end) {
+        if (length < 0 || length > end - position) {
+            throw new IllegalArgumentException("Length beyond message");
+        }
+        return position + (int) length;
+    }
+
+    private static String string(ByteBuffer data, int offset, int length) {
+        if (data.hasArray()) {
+            return new String(data.array(), data.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+        }
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = data.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * One user record, read in place from its Kinesis record's data.
+     */
+    public static final class UserRecord {
+
+        private final ByteBuffer buffer;
+        private final String recordPartitionKey;
+        private boolean aggregated;
+        private int[] partitionKeys;
+        private int[] explicitHashKeys;
+        private int index;
+        private long partitionKeyIndex;
+        private long explicitHashKeyIndex;
+        private int dataOffset;
+        private int dataLength;
+        private int messageStart;
+        private int messageEnd;
+
+        private UserRecord(ByteBuffer buffer, String recordPartitionKey) {
+            this.buffer = buffer;
+            this.recordPartitionKey = recordPartitionKey;
+        }
+
+        private void setNotAggregated() {
+            aggregated = false;
+            dataOffset = buffer.position();
+            dataLength = buffer.remaining();
+        }
+
+        private void setTables(int[] partitionKeys, int[] explicitHashKeys) {
+            this.aggregated = true;
+            this.partitionKeys = partitionKeys;
+            this.explicitHashKeys = explicitHashKeys;
+        }
+
+        private void read(int index, int start, int end) {
+            this.index = index;
+            this.messageStart = start;
+            this.messageEnd = end;
+            partitionKeyIndex = -1;
+            explicitHashKeyIndex = -1;
+            dataOffset = start;
+            dataLength = 0;
+            int position = start;
+            while (position < end) {
+                final long key = readVarint(buffer, position, end);
+                position += varintLength(key);
+                final int field = (int) (key >>> 3);
+                final int wireType = (int) (key & 7);
+                if ((field == 1 || field == 2) && wireType == VARINT) {
+                    final long value = readVarint(buffer, position, end);
+                    position += varintLength(value);
+                    if (field == 1) {
+                        partitionKeyIndex = value;
+                    } else {
+                        explicitHashKeyIndex = value;
+                    }
+                } else if (field == 3 && wireType == LENGTH_DELIMITED) {
+                    final long length = readVarint(buffer, position, end);
+                    dataOffset = position + varintLength(length);
+                    dataLength = (int) length;
+                    position = checkedEnd(dataOffset, length, end);
+                } else {
+                    position = skip(buffer, position, end, wireType);
+                }
+            }
+        }
+
+        /**
+         * @return whether this user record was read from a KPL aggregated record
+         */
+        public boolean isAggregated() {
+            return aggregated;
+        }
+
+        /**
+         * @return the position of this user record in its Kinesis record, from 0
+         */
+        public int index() {
+            return index;
+        }
+
+        /**
+         * @return a read-only view of this user record's data, sharing the Kinesis record's buffer
+         */
+        public ByteBuffer data() {
+            final ByteBuffer data = buffer.asReadOnlyBuffer();
+            data.limit(dataOffset + dataLength).position(dataOffset);
+            return data.slice();
+        }
+
+        /**
+         * @return the user record's partition key, or the Kinesis record's if it is not aggregated
+         */
+        public String partitionKey() {
+            return aggregated ? tableEntry(partitionKeys, partitionKeyIndex) : recordPartitionKey;
+        }
+
+        /**
+         * @return the user record's explicit hash key, or null if it has none
+         */
+        public String explicitHashKey() {
+            return aggregated ? tableEntry(explicitHashKeys, explicitHashKeyIndex) : null;
+        }
+
+        /**
+         * @return the value of the user record's tag with that key, or null if it has none
+         */
+        public String tag(String key) {
+            final String[] found = new String[1];
+            forEachTag((tagKey, value) -> {
+                if (tagKey.equals(key)) {
+                    found[0] = value;
+                    return false;
+                }
+                return true;
+            });
+            return found[0];
+        }
+
+        /**
+         * Add the tags whose keys are propagation keys to carrier.
+         */
+        void addPropagationHeaders(PropagationKeys propagationKeys, PropagationHeaders carrier) {
+            forEachTag((tagKey, value) -> {
+                final String key = propagationKeys.match(tagKey);
+                if (key != null && value != null && !carrier.contains(key)) {
+                    carrier.add(key, value);
+                }
+                return true;
+            });
+        }
+
+        private void forEachTag(TagVisitor visitor) {
+            if (!aggregated) {
+                return;
+            }
+            try {
+                int position = messageStart;
+                while (position < messageEnd) {
+                    final long key = readVarint(buffer, position, messageEnd);
+                    position += varintLength(key);
+                    final int wireType = (int) (key & 7);
+                    if ((key >>> 3) == 4 && wireType == LENGTH_DELIMITED) {
+                        final long length = readVarint(buffer, position, messageEnd);
+                        position += varintLength(length);
+                        final int tagEnd = checkedEnd(position, length, messageEnd);
+                        if (!readTag(position, tagEnd, visitor)) {
+                            return;
+                        }
+                        position = tagEnd;
+                    } else {
+                        position = skip(buffer, position, messageEnd, wireType);
+                    }
+                }
+            } catch (IllegalArgumentException malformed) {
+                // no further tags
+            }
+        }
+
+        private boolean readTag(int start, int end, TagVisitor visitor) {
+            String key = null;
+            String value = null;
+            int position = start;
+            while (position < end) {
+                final long fieldKey = readVarint(buffer, position, end);
+                position += varintLength(fieldKey);
+                final int wireType = (int) (fieldKey & 7);
+                final long field = fieldKey >>> 3;
+                if ((field == 1 || field == 2) && wireType == LENGTH_DELIMITED) {
+                    final long length = readVarint(buffer, position, end);
+                    position += varintLength(length);
+                    final int stringEnd = checkedEnd(position, length, end);
+                    if (field == 1) {
+                        key = string(buffer, position, (int) length);
+                    } else {
+                        value = string(buffer, position, (int) length);
+                    }
+                    position = stringEnd;
+                } else {
+                    position = skip(buffer, position, end, wireType);
+                }
+            }
+            return key == null || visitor.visit(key, value);
+        }
+
+        private String tableEntry(int[] table, long entry) {
+            if (entry < 0 || entry * 2 >= table.length) {
+                return null;
+            }
+            final int i = (int) entry * 2;
+            return string(buffer, table[i], table[i + 1]);
+        }
+    }
+
+    private interface TagVisitor {
+        /**
+         * @return false to stop
+         */
+        boolean visit(String key, String value);
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import com.amazonaws.services.lambda.runtime.events.KinesisEvent;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Kinesis Data Streams events, whose records may be aggregated by the Kinesis Producer Library.
+ *
+ * <p>Each user record of an aggregated record (see {@link KinesisDeaggregator}) counts as one
+ * record of the batch, and its trace context is read from its KPL tags whose keys are
+ * {@link PropagationKeys}. A record that is not aggregated carries no context.
+ */
+final class KinesisEventParser {
+
+    // Turns the batch tags on or off together, see AttributePipeline
+    static final String TAGS = "aws.lambda.kinesis.*";
+    static final String BATCH_SIZE_TAG = "aws.lambda.kinesis.batchSize";
+    static final String RECORD_COUNT_TAG = "aws.lambda.kinesis.recordCount";
+    static final String AGGREGATED_RECORD_COUNT_TAG = "aws.lambda.kinesis.aggregatedRecordCount";
+    static final String MAX_RECORD_LAG_TAG = "aws.lambda.kinesis.maxRecordLagMs";
+
+    static final byte UNKNOWN = 0;
+    static final byte NOT_AGGREGATED = 1;
+    static final byte AGGREGATED = 2;
+
+    // Whether each record of the event last walked on this thread is aggregated, for addBatchTags
+    private static final ThreadLocal<Aggregation> LAST_WALKED = ThreadLocal.withInitial(Aggregation::new);
+
+    private KinesisEventParser() {
+    }
+
+    /**
+     * Pass the propagation headers of each user record to visitor, record by record, until it
+     * returns false. A record that is not aggregated gets a shared empty carrier.
+     */
+    static void forEachRecord(KinesisEvent event, Predicate<PropagationHeaders> visitor) {
+        final List<KinesisEvent.KinesisEventRecord> records = event.getRecords();
+        if (records == null) {
+            return;
+        }
+        final Aggregation aggregation = LAST_WALKED.get();
+        aggregation.reset(event, records.size());
+        final PropagationKeys propagationKeys = PropagationKeys.get();
+        final boolean[] more = {true};
+        for (int i = 0; i < records.size() && more[0]; i++) {
+            final KinesisEvent.KinesisEventRecord record = records.get(i);
+            final KinesisEvent.Record kinesis = record == null ? null : record.getKinesis();
+            final ByteBuffer data = kinesis == null ? null : kinesis.getData();
+            if (data == null) {
+                continue;
+            }
+            if (!KinesisDeaggregator.isAggregated(data)) {
+                aggregation.states[i] = NOT_AGGREGATED;
+                more[0] = visitor.test(PropagationHeaders.NONE);
+                continue;
+            }
+            aggregation.states[i] = AGGREGATED;
+            KinesisDeaggregator.forEachAggregated(data, kinesis.getPartitionKey(), userRecord -> {
+                final PropagationHeaders carrier = PropagationHeaders.empty();
+                userRecord.addPropagationHeaders(propagationKeys, carrier);
+                more[0] = visitor.test(carrier);
+                return more[0];
+            });
+        }
+    }
+
+    /**
+     * Tag the batch size in user records, the number of Kinesis records and of those aggregated,
+     * and the age of the oldest record. Records that {@link #forEachRecord} already found to be
+     * aggregated or not are not checked again.
+     *
+     * @param nowMillis The current time, to compute record lag against
+     */
+    static void addBatchTags(EnhancedSpanBuilder builder, KinesisEvent event, long nowMillis) {
+        final byte[] walked = takeAggregation(event);
+        final List<KinesisEvent.KinesisEventRecord> records = event.getRecords();
+        if (records == null || records.isEmpty()) {
+            return;
+        }
+        int batchSize = 0;
+        int aggregatedRecords = 0;
+        long oldestArrival = Long.MAX_VALUE;
+        for (int i = 0; i < records.size(); i++) {
+            final KinesisEvent.KinesisEventRecord record = records.get(i);
+            final KinesisEvent.Record kinesis = record == null ? null : record.getKinesis();
+            if (kinesis == null) {
+                continue;
+            }
+            final ByteBuffer data = kinesis.getData();
+            final byte state = walked != null && i < walked.length ? walked[i] : UNKNOWN;
+            final int userRecords;
+            if (data == null || state == NOT_AGGREGATED) {
+                userRecords = -1;
+            } else if (state == AGGREGATED) {
+                userRecords = KinesisDeaggregator.countAggregatedUserRecords(data);
+            } else {
+                userRecords = KinesisDeaggregator.countUserRecords(data);
+            }
+            if (userRecords < 0) {
+                batchSize++;
+            } else {
+                batchSize += userRecords;
+                aggregatedRecords++;
+            }
+            if (kinesis.getApproximateArrivalTimestamp() != null) {
+                oldestArrival = Math.min(oldestArrival, kinesis.getApproximateArrivalTimestamp().getTime());
+            }
+        }
+
+        if (AttributePipeline.isEnabled(BATCH_SIZE_TAG)) {
+            builder.withTag(BATCH_SIZE_TAG, batchSize);
+        }
+        if (AttributePipeline.isEnabled(RECORD_COUNT_TAG)) {
+            builder.withTag(RECORD_COUNT_TAG, records.size());
+        }
+        if (AttributePipeline.isEnabled(AGGREGATED_RECORD_COUNT_TAG)) {
+            builder.withTag(AGGREGATED_RECORD_COUNT_TAG, aggregatedRecords);
+        }
+        if (oldestArrival != Long.MAX_VALUE && AttributePipeline.isEnabled(MAX_RECORD_LAG_TAG)) {
+            builder.withTag(MAX_RECORD_LAG_TAG, Math.max(0, nowMillis - oldestArrival));
+        }
+    }
+
+    /**
+     * Forget the event last walked on this thread.
+     *
+     * @return whether each of its records is aggregated, if event is the one last walked, else null
+     */
+    static byte[] takeAggregation(KinesisEvent event) {
+        final Aggregation aggregation = LAST_WALKED.get();
+        final boolean walked = event != null && aggregation.event == event;
+        aggregation.event = null;
+        return walked ? aggregation.states : null;
+    }
+
+    /**
+     * Forget the event last walked on this thread, if addBatchTags did not take it.
+     */
+    static void forget() {
+        LAST_WALKED.get().event = null;
+    }
+
+    private static final class Aggregation {
+        private KinesisEvent event;
+        private byte[] states = new byte[0];
+
+        private void reset(KinesisEvent event, int size) {
+            this.event = event;
+            if (states.length < size) {
+                states = new byte[size];
+            } else {
+                Arrays.fill(states, 0, size, UNKNOWN);
+            }
+        }
+    }
+}
@@ -22,6 +22,16 @@ import java.util.function.BiFunction;
 public class LambdaTracing<Input, Output> {
     protected static final AtomicBoolean isColdStart = new AtomicBoolean(true);
 
+    static final boolean RESOURCE_USAGE_ENABLED =
+            EnvironmentConfig.getBoolean("RESOURCE_USAGE_ENABLED", false);
+    static final boolean MEMORY_HEADROOM_ENABLED =
+            EnvironmentConfig.getBoolean("MEMORY_HEADROOM_ENABLED", false);
+
+    static {
+        // Loading a class needs memory, so not when a handler runs out of it
+        EmergencyErrorRecord.load();
+    }
+
     /**
      * One-line instrumentation convenience method.
      *
@@ -34,12 +44,30 @@ public class LambdaTracing<Input, Output> {
      */
     public static <Input, Output> Output instrument(
             Input input, Context context, BiFunction<Input, Context, Output> realHandler) {
+        if (isPassthrough()) {
+            return realHandler.apply(input, context);
+        }
         return new LambdaTracing<Input, Output>().instrumentRequest(input, context, realHandler);
     }
 
+    /**
+     * @return true if this invocation should call the handler without any instrumentation, in which
+     * case it still claims the cold start, so that a later traced invocation is not tagged as one
+     */
+    static boolean isPassthrough() {
+        if (!TracingSwitch.isPassthrough()) {
+            return false;
+        }
+        isColdStart.set(false);
+        return true;
+    }
+
     /**
      * Instrument a Lambda invocation
      *
+     * <p>When tracing is switched off, or no tracer is registered, realHandler is called directly
+     * (see {@link TracingSwitch}).
+     *
      * @param input       The invocation event
      * @param context     The invocation context
      * @param realHandler The function that implements the business logic. Will be invoked with the
@@ -48,26 +76,103 @@ public class LambdaTracing<Input, Output> {
      */
     public Output instrumentRequest(
             Input input, Context context, BiFunction<Input, Context, Output> realHandler) {
+        if (isPassthrough()) {
+            return realHandler.apply(input, context);
+        }
+        final InvocationCapture capture = isCaptured(input, context) ? InvocationCapture.start(input) : null;
+        final boolean costAttributed = isCostAttributed(input, context);
+        final long startNanos = costAttributed ? System.nanoTime() : 0;
+        final InstrumentationOverhead overhead =
+                isOverheadSampled(input, context) ? InstrumentationOverhead.start() : null;
         final Tracer tracer = GlobalTracer.get();
-        final SpanContext spanContext = extractContext(tracer, input);
+        final SpanContext spanContext = extractContext(tracer, input, context);
+        if (overhead != null) {
+            overhead.lap(InstrumentationOverhead.EXTRACT);
+        }
 
         Span span = buildRootSpan(input, context, tracer, spanContext);
-        try (Scope scope = tracer.activateSpan(span)) {
+        // Left over if an overridden buildRootSpan did not use the batch, or the Kinesis tags are off
+        BatchSpanContext.setPending(null);
+        KinesisEventParser.forget();
+        final ResourceUsageSampler resourceUsage =
+                isResourceUsageSampled(input, context) ? ResourceUsageSampler.start() : null;
+        ExecutionEnvironment.enter(span);
+        boolean failed = false;
+        boolean fatal = false;
+        try (Scope scope = tracer.activateSpan(ExportingSpan.unwrap(span))) {
+            if (overhead != null) {
+                overhead.lap(InstrumentationOverhead.START);
+            }
             Output output = realHandler.apply(input, context);
+            if (overhead != null) {
+                overhead.mark();
+            }
             parseResponse(span, output);
             return output;
         } catch (Throwable throwable) {
-            span.log(SpanUtil.createErrorAttributes(throwable));
+            failed = true;
+            if (overhead != null) {
+                overhead.mark();
+            }
+            if (throwable instanceof VirtualMachineError) {
+                fatal = true;
+                EmergencyErrorRecord.log(span, (VirtualMachineError) throwable);
+            } else {
+                span.log(SpanUtil.createErrorAttributes(throwable));
+            }
             throw throwable;
         } finally {
-            span.finish();
+            if (overhead != null) {
+                overhead.lap(InstrumentationOverhead.RESPONSE);
+            }
+            final boolean lastInFlight = ExecutionEnvironment.exit() == 0;
+            if (fatal) {
+                // The optional measurements allocate; only try to get the span out
+                EmergencyErrorRecord.finish(span);
+            } else {
+                if (resourceUsage != null) {
+                    resourceUsage.finish(span);
+                }
+                if (isMemoryHeadroomTracked(input, context)) {
+                    MemoryHeadroom.tag(span, context, lastInFlight);
+                }
+                if (costAttributed) {
+                    CostAttribution.tag(span, input, context, System.nanoTime() - startNanos);
+                }
+                if (overhead != null) {
+                    overhead.tag(span);
+                }
+                if (ContainerReport.isDue()) {
+                    ContainerReport.tag(span);
+                }
+                span.finish();
+            }
+            if (overhead != null) {
+                overhead.finish();
+            }
+            if (capture != null && !fatal) {
+                capture.finish(failed);
+            }
         }
     }
 
+    /**
+     * For batch events whose records carry several distinct contexts, the first one is returned; the
+     * default {@link #buildRootSpan} references all of them.
+     */
     protected SpanContext extractContext(Tracer tracer, Object input) {
         return HeadersParser.parseAndExtract(tracer, input);
     }
 
+    /**
+     * Extract from the input, falling back to the client context of a synchronous invocation by
+     * another function (see {@link ClientContextPropagation}).
+     */
+    protected SpanContext extractContext(Tracer tracer, Input input, Context context) {
+        final SpanContext spanContext = extractContext(tracer, input);
+        return spanContext != null ? spanContext : ClientContextPropagation.extract(tracer, context);
+    }
+
     protected Span buildRootSpan(
             Input input, Context context, Tracer tracer, SpanContext spanContext) {
         return SpanUtil.buildSpan(input, context, tracer, spanContext, isColdStart);
@@ -76,4 +181,60 @@ public class LambdaTracing<Input, Output> {
     protected void parseResponse(Span span, Output output) {
         ResponseParser.parseResponse(output, span);
     }
+
+    /**
+     * Whether to tag this invocation's root span with the bytes allocated by the handler thread and
+     * the garbage collection count and time while the handler ran.
+     *
+     * <p>Defaults to the {@code NEW_RELIC_LAMBDA_TRACING_RESOURCE_USAGE_ENABLED} environment
+     * variable. Override to sample a subset of invocations.
+     */
+    protected boolean isResourceUsageSampled(Input input, Context context) {
+        return RESOURCE_USAGE_ENABLED;
+    }
+
+    /**
+     * Whether to tag this invocation's root span with the time spent in the instrumentation itself,
+     * per phase, and the container's running means (see {@link InstrumentationOverhead}).
+     *
+     * <p>Defaults to sampling the {@code NEW_RELIC_LAMBDA_TRACING_OVERHEAD_SAMPLE_RATE} fraction of
+     * invocations, none if unset.
+     */
+    protected boolean isOverheadSampled(Input input, Context context) {
+        return InstrumentationOverhead.isSampled();
+    }
+
+    /**
+     * Whether to tag this invocation's root span with its estimated billed duration and GB-seconds,
+     * and add them to its tenant's total (see {@link CostAttribution}).
+     *
+     * <p>Defaults to the {@code NEW_RELIC_LAMBDA_TRACING_COST_ATTRIBUTION_ENABLED} environment
+     * variable.
+     */
+    protected boolean isCostAttributed(Input input, Context context) {
+        return CostAttribution.ENABLED;
+    }
+
+    /**
+     * Whether to tag this invocation's root span with its peak JVM memory usage relative to the
+     * function's configured memory, and this container's high-water mark.
+     *
+     * <p>Defaults to the {@code NEW_RELIC_LAMBDA_TRACING_MEMORY_HEADROOM_ENABLED} environment
+     * variable. Peak usage is measured since the last tracked invocation, so skipping invocations
+     * folds their peaks into the next tracked one.
+     */
+    protected boolean isMemoryHeadroomTracked(Input input, Context context) {
+        return MEMORY_HEADROOM_ENABLED;
+    }
+
+    /**
+     * Whether to record this invocation's input, with sensitive fields masked, and its duration to
+     * a local log that can be replayed (see {@link InvocationCapture} and {@link InvocationLog}).
+     *
+     * <p>Defaults to sampling the {@code NEW_RELIC_LAMBDA_TRACING_CAPTURE_SAMPLE_RATE} fraction of
+     * invocations, none if unset. The input is written as JSON before the handler runs.
+     */
+    protected boolean isCaptured(Input input, Context context) {
+        return InvocationCapture.isSampled();
+    }
 }
@@ -0,0 +1,439 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import io.opentracing.References;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import io.opentracing.tag.Tag;
+import io.opentracing.tag.Tags;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Span of the {@link LightweightTracer}. Tags, logs and links are kept in parallel arrays sized
+ * for a typical Lambda root span, and the span writes itself as an OTLP/JSON span when finished.
+ */
+final class LightweightSpan implements Span {
+
+    private static final int INITIAL_TAGS = 8;
+
+    private final LightweightTracer tracer;
+    private final long parentSpanId;
+    private final boolean localRoot;
+    private final long startNanos;
+    private final LightweightSpanContext[] links;
+
+    private LightweightSpanContext context;
+    private String operationName;
+    private String[] tagKeys = new String[INITIAL_TAGS];
+    private Object[] tagValues = new Object[INITIAL_TAGS];
+    private int tagCount;
+    private long[] logNanos;
+    private Map<String, ?>[] logFields;
+    private int logCount;
+    private long endNanos;
+    private boolean finished;
+
+    private LightweightSpan(LightweightTracer tracer, LightweightSpanContext context, long parentSpanId,
+            boolean localRoot, String operationName, long startNanos, LightweightSpanContext[] links) {
+        this.tracer = tracer;
+        this.context = context;
+        this.parentSpanId = parentSpanId;
+        this.localRoot = localRoot;
+        this.operationName = operationName;
+        this.startNanos = startNanos;
+        this.links = links;
+    }
+
+    @Override
+    public synchronized LightweightSpanContext context() {
+        return context;
+    }
+
+    @Override
+    public Span setTag(String key, String value) {
+        return tag(key, value);
+    }
+
+    @Override
+    public Span setTag(String key, boolean value) {
+        return tag(key, value);
+    }
+
+    @Override
+    public Span setTag(String key, Number value) {
+        return tag(key, value);
+    }
+
+    @Override
+    public <T> Span setTag(Tag<T> tag, T value) {
+        return tag(tag.getKey(), value);
+    }
+
+    @Override
+    public Span log(Map<String, ?> fields) {
+        return addLog(tracer.nowNanos(), fields);
+    }
+
+    @Override
+    public Span log(long timestampMicroseconds, Map<String, ?> fields) {
+        return addLog(TimeUnit.MICROSECONDS.toNanos(timestampMicroseconds), fields);
+    }
+
+    @Override
+    public Span log(String event) {
+        return log(Collections.singletonMap("event", event));
+    }
+
+    @Override
+    public Span log(long timestampMicroseconds, String event) {
+        return log(timestampMicroseconds, Collections.singletonMap("event", event));
+    }
+
+    @Override
+    public synchronized Span setBaggageItem(String key, String value) {
+        context = context.withBaggageItem(key, value);
+        return this;
+    }
+
+    @Override
+    public synchronized String getBaggageItem(String key) {
+        return context.getBaggageItem(key);
+    }
+
+    @Override
+    public synchronized Span setOperationName(String operationName) {
+        this.operationName = operationName;
+        return this;
+    }
+
+    @Override
+    public void finish() {
+        finishNanos(tracer.nowNanos());
+    }
+
+    @Override
+    public void finish(long finishMicros) {
+        finishNanos(TimeUnit.MICROSECONDS.toNanos(finishMicros));
+    }
+
+    /**
+     * @return whether this span has no parent in this process, so finishing it ends the invocation
+     */
+    boolean isLocalRoot() {
+        return localRoot;
+    }
+
+    synchronized Object getTag(String key) {
+        final int index = indexOf(key);
+        return index < 0 ? null : tagValues[index];
+    }
+
+    /**
+     * Write this span as an element of an OTLP/JSON {@code spans} array.
+     */
+    synchronized void writeTo(JsonWriter json) {
+        json.beginObject()
+                .name("traceId").hexValue(context.traceIdHigh, context.traceIdLow)
+                .name("spanId").hexValue(context.spanId);
+        if (parentSpanId != 0) {
+            json.name("parentSpanId").hexValue(parentSpanId);
+        }
+        json.name("name").value(operationName)
+                .name("kind").value(kind(getTag(Tags.SPAN_KIND.getKey())))
+                .name("startTimeUnixNano").quotedValue(startNanos)
+                .name("endTimeUnixNano").quotedValue(endNanos);
+
+        json.name("attributes").beginArray();
+        for (int i = 0; i < tagCount; i++) {
+            writeAttribute(json, tagKeys[i], tagValues[i]);
+        }
+        json.endArray();
+
+        if (logCount > 0) {
+            json.name("events").beginArray();
+            for (int i = 0; i < logCount; i++) {
+                final Object event = logFields[i].get("event");
+                json.beginObject()
+                        .name("timeUnixNano").quotedValue(logNanos[i])
+                        .name("name").value(event == null ? "log" : event.toString())
+                        .name("attributes").beginArray();
+                for (Map.Entry<String, ?> field : logFields[i].entrySet()) {
+                    if (!"event".equals(field.getKey())) {
+                        writeAttribute(json, field.getKey(), field.getValue());
+                    }
+                }
+                json.endArray().endObject();
+            }
+            json.endArray();
+        }
+
+        if (links != null) {
+            json.name("links").beginArray();
+            for (LightweightSpanContext link : links) {
+                json.beginObject()
+                        .name("traceId").hexValue(link.traceIdHigh, link.traceIdLow)
+                        .name("spanId").hexValue(link.spanId)
+                        .endObject();
+            }
+            json.endArray();
+        }
+
+        if (Boolean.TRUE.equals(getTag(Tags.ERROR.getKey())) || hasErrorLog()) {
+            json.name("status").beginObject().name("code").value(2).endObject();
+        }
+        json.endObject();
+    }
+
+    private synchronized Span tag(String key, Object value) {
+        if (finished || key == null) {
+            return this;
+        }
+        final int index = indexOf(key);
+        if (index >= 0) {
+            tagValues[index] = value;
+            return this;
+        }
+        if (tagCount == tagKeys.length) {
+            tagKeys = Arrays.copyOf(tagKeys, tagCount * 2);
+            tagValues = Arrays.copyOf(tagValues, tagCount * 2);
+        }
+        tagKeys[tagCount] = key;
+        tagValues[tagCount++] = value;
+        return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized Span addLog(long timestampNanos, Map<String, ?> fields) {
+        if (finished || fields == null) {
+            return this;
+        }
+        if (logNanos == null) {
+            logNanos = new long[2];
+            logFields = new Map[2];
+        } else if (logCount == logNanos.length) {
+            logNanos = Arrays.copyOf(logNanos, logCount * 2);
+            logFields = Arrays.copyOf(logFields, logCount * 2);
+        }
+        logNanos[logCount] = timestampNanos;
+        logFields[logCount++] = fields;
+        return this;
+    }
+
+    private void finishNanos(long endNanos) {
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            this.endNanos = endNanos;
+        }
+        tracer.report(this);
+    }
+
+    private int indexOf(String key) {
+        for (int i = 0; i < tagCount; i++) {
+            if (tagKeys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int kind(Object spanKind) {
+        if (Tags.SPAN_KIND_SERVER.equals(spanKind)) {
+            return 2;
+        }
+        if (Tags.SPAN_KIND_CLIENT.equals(spanKind)) {
+            return 3;
+        }
+        if (Tags.SPAN_KIND_PRODUCER.equals(spanKind)) {
+            return 4;
+        }
+        if (Tags.SPAN_KIND_CONSUMER.equals(spanKind)) {
+            return 5;
+        }
+        return 1;
+    }
+
+    /**
+     * @return whether an error was logged, as {@link LambdaTracing} does for a failed invocation
+     */
+    private boolean hasErrorLog() {
+        for (int i = 0; i < logCount; i++) {
+            if (Tags.ERROR.getKey().equals(logFields[i].get("event"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void writeAttribute(JsonWriter json, String key, Object value) {
+        if (value == null) {
+            return;
+        }
+        json.beginObject().name("key").value(key).name("value");
+        writeValue(json, value);
+        json.endObject();
+    }
+
+    /**
+     * Write value as an OTLP {@code AnyValue}: arrays as an {@code arrayValue} of their elements, a
+     * throwable as its stack trace, and other objects as their string form.
+     */
+    private static void writeValue(JsonWriter json, Object value) {
+        json.beginObject();
+        if (value instanceof Boolean) {
+            json.name("boolValue").value(((Boolean) value).booleanValue());
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            json.name("intValue").quotedValue(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            json.name("doubleValue").value(((Number) value).doubleValue());
+        } else if (value instanceof Throwable) {
+            final StringWriter stackTrace = new StringWriter();
+            ((Throwable) value).printStackTrace(new PrintWriter(stackTrace));
+            json.name("stringValue").value(stackTrace.toString());
+        } else if (value.getClass().isArray()) {
+            json.name("arrayValue").beginObject().name("values").beginArray();
+            for (int i = 0; i < Array.getLength(value); i++) {
+                final Object element = Array.get(value, i);
+                writeValue(json, element == null ? "null" : element);
+            }
+            json.endArray().endObject();
+        } else {
+            json.name("stringValue").value(value.toString());
+        }
+        json.endObject();
+    }
+
+    /**
+     * Builds spans for {@link LightweightTracer#buildSpan(String)}.
+     */
+    static final class Builder implements Tracer.SpanBuilder {
+
+        private final LightweightTracer tracer;
+        private final String operationName;
+        private LightweightSpanContext parent;
+        private LightweightSpanContext[] links;
+        private boolean ignoreActiveSpan;
+        private long startNanos;
+        private String[] tagKeys;
+        private Object[] tagValues;
+        private int tagCount;
+
+        Builder(LightweightTracer tracer, String operationName) {
+            this.tracer = tracer;
+            this.operationName = operationName;
+        }
+
+        @Override
+        public Builder asChildOf(SpanContext parent) {
+            return addReference(References.CHILD_OF, parent);
+        }
+
+        @Override
+        public Builder asChildOf(Span parent) {
+            return parent == null ? this : addReference(References.CHILD_OF, parent.context());
+        }
+
+        /**
+         * The first reference, of either type, is the parent and later ones are links. Contexts of
+         * other tracers are ignored.
+         */
+        @Override
+        public Builder addReference(String referenceType, SpanContext referencedContext) {
+            if (!(referencedContext instanceof LightweightSpanContext)) {
+                return this;
+            }
+            final LightweightSpanContext context = (LightweightSpanContext) referencedContext;
+            if (parent == null) {
+                parent = context;
+            } else {
+                links = links == null ? new LightweightSpanContext[1] : Arrays.copyOf(links, links.length + 1);
+                links[links.length - 1] = context;
+            }
+            return this;
+        }
+
+        @Override
+        public Builder ignoreActiveSpan() {
+            ignoreActiveSpan = true;
+            return this;
+        }
+
+        @Override
+        public Builder withTag(String key, String value) {
+            return tag(key, value);
+        }
+
+        @Override
+        public Builder withTag(String key, boolean value) {
+            return tag(key, value);
+        }
+
+        @Override
+        public Builder withTag(String key, Number value) {
+            return tag(key, value);
+        }
+
+        @Override
+        public <T> Builder withTag(Tag<T> tag, T value) {
+            return tag(tag.getKey(), value);
+        }
+
+        @Override
+        public Builder withStartTimestamp(long microseconds) {
+            startNanos = TimeUnit.MICROSECONDS.toNanos(microseconds);
+            return this;
+        }
+
+        @Override
+        public LightweightSpan start() {
+            if (parent == null && !ignoreActiveSpan) {
+                final Span active = tracer.activeSpan();
+                if (active instanceof LightweightSpan) {
+                    parent = ((LightweightSpan) active).context();
+                }
+            }
+            final LightweightSpanContext context;
+            if (parent == null) {
+                context = new LightweightSpanContext(LightweightTracer.nextId(), LightweightTracer.nextId(),
+                        LightweightTracer.nextId(), false, null);
+            } else {
+                context = new LightweightSpanContext(parent.traceIdHigh, parent.traceIdLow,
+                        LightweightTracer.nextId(), false, parent.baggage());
+            }
+            final LightweightSpan span = new LightweightSpan(tracer, context, parent == null ? 0 : parent.spanId,
+                    parent == null || parent.remote, operationName,
+                    startNanos == 0 ? tracer.nowNanos() : startNanos, links);
+            for (int i = 0; i < tagCount; i++) {
+                span.tag(tagKeys[i], tagValues[i]);
+            }
+            return span;
+        }
+
+        private Builder tag(String key, Object value) {
+            if (tagKeys == null) {
+                tagKeys = new String[INITIAL_TAGS];
+                tagValues = new Object[INITIAL_TAGS];
+            } else if (tagCount == tagKeys.length) {
+                tagKeys = Arrays.copyOf(tagKeys, tagCount * 2);
+                tagValues = Arrays.copyOf(tagValues, tagCount * 2);
+            }
+            tagKeys[tagCount] = key;
+            tagValues[tagCount++] = value;
+            return this;
+        }
+    }
+}
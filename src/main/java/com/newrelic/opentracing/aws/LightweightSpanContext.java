@@ -0,0 +1,208 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import io.opentracing.SpanContext;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Span context of the {@link LightweightTracer}: a 128-bit trace ID and a 64-bit span ID kept as
+ * longs, propagated as W3C {@code traceparent} and {@code baggage} headers.
+ */
+final class LightweightSpanContext implements SpanContext {
+
+    static final String TRACEPARENT = "traceparent";
+    static final String BAGGAGE = "baggage";
+
+    private static final String HEX = "0123456789abcdef";
+
+    final long traceIdHigh;
+    final long traceIdLow;
+    final long spanId;
+    // Extracted from another process, rather than a span started by this tracer
+    final boolean remote;
+    // Null when empty
+    private final Map<String, String> baggage;
+
+    LightweightSpanContext(long traceIdHigh, long traceIdLow, long spanId, boolean remote,
+            Map<String, String> baggage) {
+        this.traceIdHigh = traceIdHigh;
+        this.traceIdLow = traceIdLow;
+        this.spanId = spanId;
+        this.remote = remote;
+        this.baggage = baggage;
+    }
+
+    LightweightSpanContext withBaggageItem(String key, String value) {
+        final Map<String, String> items = baggage == null ? new LinkedHashMap<>() : new LinkedHashMap<>(baggage);
+        items.put(key, value);
+        return new LightweightSpanContext(traceIdHigh, traceIdLow, spanId, remote, items);
+    }
+
+    String getBaggageItem(String key) {
+        return baggage == null ? null : baggage.get(key);
+    }
+
+    /**
+     * @return the baggage for a child span, which shares it until either sets an item
+     */
+    Map<String, String> baggage() {
+        return baggage;
+    }
+
+    @Override
+    public String toTraceId() {
+        final StringBuilder traceId = new StringBuilder(32);
+        appendHex(traceId, traceIdHigh);
+        appendHex(traceId, traceIdLow);
+        return traceId.toString();
+    }
+
+    @Override
+    public String toSpanId() {
+        final StringBuilder spanId = new StringBuilder(16);
+        appendHex(spanId, this.spanId);
+        return spanId.toString();
+    }
+
+    @Override
+    public Iterable<Map.Entry<String, String>> baggageItems() {
+        return baggage == null ? Collections.<String, String>emptyMap().entrySet() : baggage.entrySet();
+    }
+
+    /**
+     * @return e.g. {@code 00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01}
+     */
+    String traceparent() {
+        final StringBuilder traceparent = new StringBuilder(55).append("00-");
+        appendHex(traceparent, traceIdHigh);
+        appendHex(traceparent, traceIdLow);
+        traceparent.append('-');
+        appendHex(traceparent, spanId);
+        return traceparent.append("-01").toString();
+    }
+
+    /**
+     * @return e.g. {@code tenant=acme,region=us%20east}, or null without baggage
+     */
+    String baggageHeader() {
+        if (baggage == null || baggage.isEmpty()) {
+            return null;
+        }
+        final StringBuilder header = new StringBuilder();
+        for (Map.Entry<String, String> item : baggage.entrySet()) {
+            if (header.length() > 0) {
+                header.append(',');
+            }
+            percentEncode(header, item.getKey());
+            header.append('=');
+            percentEncode(header, item.getValue());
+        }
+        return header.toString();
+    }
+
+    /**
+     * @param baggage The {@code baggage} header, or null
+     * @return the context, or null if traceparent is malformed or has all-zero IDs
+     */
+    static LightweightSpanContext parse(String traceparent, String baggage) {
+        if (traceparent == null) {
+            return null;
+        }
+        final String value = traceparent.trim();
+        // version-traceid-spanid-flags, where later versions may append fields
+        if (value.length() < 55 || value.charAt(2) != '-' || value.charAt(35) != '-' || value.charAt(52) != '-'
+                || (value.length() > 55 && value.charAt(55) != '-') || value.startsWith("ff")) {
+            return null;
+        }
+        try {
+            final long traceIdHigh = parseHex(value, 3);
+            final long traceIdLow = parseHex(value, 19);
+            final long spanId = parseHex(value, 36);
+            if ((traceIdHigh == 0 && traceIdLow == 0) || spanId == 0) {
+                return null;
+            }
+            return new LightweightSpanContext(traceIdHigh, traceIdLow, spanId, true, parseBaggage(baggage));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Map<String, String> parseBaggage(String header) {
+        if (header == null || header.isEmpty()) {
+            return null;
+        }
+        Map<String, String> baggage = null;
+        for (String member : header.split(",")) {
+            // Properties after ';' are not kept
+            final int end = member.indexOf(';') < 0 ? member.length() : member.indexOf(';');
+            final int equals = member.indexOf('=');
+            if (equals <= 0 || equals > end) {
+                continue;
+            }
+            if (baggage == null) {
+                baggage = new LinkedHashMap<>();
+            }
+            baggage.put(percentDecode(member.substring(0, equals).trim()),
+                    percentDecode(member.substring(equals + 1, end).trim()));
+        }
+        return baggage;
+    }
+
+    private static long parseHex(String value, int start) {
+        long parsed = 0;
+        for (int i = start; i < start + 16; i++) {
+            final int digit = Character.digit(value.charAt(i), 16);
+            if (digit < 0 || Character.isUpperCase(value.charAt(i))) {
+                throw new NumberFormatException(value);
+            }
+            parsed = parsed << 4 | digit;
+        }
+        return parsed;
+    }
+
+    private static void appendHex(StringBuilder builder, long value) {
+        for (int shift = 60; shift >= 0; shift -= 4) {
+            builder.append(HEX.charAt((int) (value >>> shift) & 0xF));
+        }
+    }
+
+    private static void percentEncode(StringBuilder builder, String value) {
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            final char c = (char) (b & 0xFF);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '.' || c == '_' || c == '~') {
+                builder.append(c);
+            } else {
+                builder.append('%').append(HEX.charAt(c >> 4)).append(HEX.charAt(c & 0xF));
+            }
+        }
+    }
+
+    private static String percentDecode(String value) {
+        if (value.indexOf('%') < 0) {
+            return value;
+        }
+        final ByteArrayOutputStream decoded = new ByteArrayOutputStream(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '%' && i + 2 < value.length() && Character.digit(value.charAt(i + 1), 16) >= 0
+                    && Character.digit(value.charAt(i + 2), 16) >= 0) {
+                decoded.write(Character.digit(value.charAt(i + 1), 16) << 4 | Character.digit(value.charAt(i + 2), 16));
+                i += 2;
+            } else {
+                final byte[] bytes = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+                decoded.write(bytes, 0, bytes.length);
+            }
+        }
+        return new String(decoded.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import io.opentracing.Scope;
+import io.opentracing.ScopeManager;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import io.opentracing.propagation.Format;
+import io.opentracing.propagation.TextMapExtract;
+import io.opentracing.propagation.TextMapInject;
+import io.opentracing.util.ThreadLocalScopeManager;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An optional {@link Tracer} for Lambda functions that writes finished spans as OTLP/JSON.
+ *
+ * <p>It has no background threads and nothing to load at startup beyond its own classes. Span IDs
+ * are primitive longs and tags are kept in arrays. Finished spans are written into one reusable
+ * buffer, which is copied out and written to the output stream, as one
+ * {@code ExportTraceServiceRequest} per line, when a span without a parent in this process
+ * finishes. That is normally the root span {@link LambdaTracing} finishes at the end of each
+ * invocation, so a log-based collector picks up one line per invocation. The output stream is
+ * written outside the lock spans are reported under. The buffer is also written if it grows past
+ * {@link #FLUSH_BYTES}.
+ *
+ * <p>Trace context is propagated with W3C {@code traceparent} and {@code baggage} headers.
+ *
+ * <pre>
+ * GlobalTracer.registerIfAbsent(LightweightTracer.create());
+ * </pre>
+ */
+public final class LightweightTracer implements Tracer {
+
+    static final int FLUSH_BYTES = 256 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final String SCOPE_NAME = "com.newrelic.opentracing.aws";
+
+    private final ScopeManager scopeManager = new ThreadLocalScopeManager();
+    private final OutputStream out;
+    private final String serviceName;
+    // Unix epoch nanoseconds at System.nanoTime() zero, so span times are monotonic
+    private final long epochNanosOffset;
+    private final JsonWriter json = new JsonWriter(INITIAL_BUFFER_SIZE);
+    private final AtomicLong dropped = new AtomicLong();
+    // Keeps lines whole when several threads write batches at once
+    private final Object writeLock = new Object();
+    private int pendingSpans;
+
+    private LightweightTracer(String serviceName, OutputStream out) {
+        this.serviceName = serviceName;
+        this.out = out;
+        this.epochNanosOffset = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - System.nanoTime();
+    }
+
+    /**
+     * @return a tracer for this function, named by {@code AWS_LAMBDA_FUNCTION_NAME}, that writes to
+     * standard output
+     */
+    public static LightweightTracer create() {
+        return create(System.getenv("AWS_LAMBDA_FUNCTION_NAME"), System.out);
+    }
+
+    /**
+     * @param serviceName The {@code service.name} resource attribute, or null
+     * @param out         Where each batch of finished spans is written, as one line
+     */
+    public static LightweightTracer create(String serviceName, OutputStream out) {
+        return new LightweightTracer(serviceName, out);
+    }
+
+    @Override
+    public ScopeManager scopeManager() {
+        return scopeManager;
+    }
+
+    @Override
+    public Span activeSpan() {
+        return scopeManager.activeSpan();
+    }
+
+    @Override
+    public Scope activateSpan(Span span) {
+        return scopeManager.activate(span);
+    }
+
+    @Override
+    public LightweightSpan.Builder buildSpan(String operationName) {
+        return new LightweightSpan.Builder(this, operationName);
+    }
+
+    @Override
+    public <C> void inject(SpanContext spanContext, Format<C> format, C carrier) {
+        if (!(spanContext instanceof LightweightSpanContext) || !(carrier instanceof TextMapInject)) {
+            return;
+        }
+        final LightweightSpanContext context = (LightweightSpanContext) spanContext;
+        final TextMapInject textMap = (TextMapInject) carrier;
+        textMap.put(LightweightSpanContext.TRACEPARENT, context.traceparent());
+        final String baggage = context.baggageHeader();
+        if (baggage != null) {
+            textMap.put(LightweightSpanContext.BAGGAGE, baggage);
+        }
+    }
+
+    /**
+     * @return the context in the carrier's {@code traceparent} header, or null if it has none or it
+     * is invalid
+     */
+    @Override
+    public <C> SpanContext extract(Format<C> format, C carrier) {
+        if (!(carrier instanceof TextMapExtract)) {
+            return null;
+        }
+        String traceparent = null;
+        String baggage = null;
+        for (Map.Entry<String, String> entry : (TextMapExtract) carrier) {
+            if (LightweightSpanContext.TRACEPARENT.equalsIgnoreCase(entry.getKey())) {
+                traceparent = entry.getValue();
+            } else if (LightweightSpanContext.BAGGAGE.equalsIgnoreCase(entry.getKey())) {
+                baggage = entry.getValue();
+            }
+        }
+        return LightweightSpanContext.parse(traceparent, baggage);
+    }
+
+    /**
+     * Write any spans that have finished but not been written yet.
+     */
+    public void flush() {
+        final int spans;
+        final byte[] batch;
+        synchronized (this) {
+            spans = pendingSpans;
+            batch = takeBatch();
+        }
+        write(batch, spans);
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+
+    /**
+     * @return the number of finished spans that could not be written
+     */
+    public long droppedSpans() {
+        return dropped.get();
+    }
+
+    long nowNanos() {
+        return epochNanosOffset + System.nanoTime();
+    }
+
+    void report(LightweightSpan span) {
+        final int spans;
+        final byte[] batch;
+        synchronized (this) {
+            if (pendingSpans == 0) {
+                beginRequest();
+            }
+            span.writeTo(json);
+            pendingSpans++;
+            if (!span.isLocalRoot() && json.length() < FLUSH_BYTES) {
+                return;
+            }
+            spans = pendingSpans;
+            batch = takeBatch();
+        }
+        write(batch, spans);
+    }
+
+    /**
+     * Close the request being written and reset the buffer. Must hold this tracer's lock.
+     *
+     * @return the request, or null if no span is pending
+     */
+    private byte[] takeBatch() {
+        if (pendingSpans == 0) {
+            return null;
+        }
+        json.endArray().endObject().endArray().endObject().endArray().endObject();
+        final byte[] batch = json.toByteArray();
+        json.reset();
+        pendingSpans = 0;
+        return batch;
+    }
+
+    private void write(byte[] batch, int spans) {
+        if (batch == null) {
+            return;
+        }
+        synchronized (writeLock) {
+            try {
+                out.write(batch);
+                out.write('\n');
+                out.flush();
+            } catch (IOException e) {
+                dropped.addAndGet(spans);
+            }
+        }
+    }
+
+    /**
+     * @return a random, non-zero ID
+     */
+    static long nextId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    private void beginRequest() {
+        json.beginObject().name("resourceSpans").beginArray().beginObject()
+                .name("resource").beginObject().name("attributes").beginArray();
+        resourceAttribute("service.name", serviceName);
+        resourceAttribute("cloud.provider", "aws");
+        resourceAttribute("faas.name", System.getenv("AWS_LAMBDA_FUNCTION_NAME"));
+        resourceAttribute("faas.version", System.getenv("AWS_LAMBDA_FUNCTION_VERSION"));
+        resourceAttribute("cloud.region", System.getenv("AWS_REGION"));
+        json.endArray().endObject()
+                .name("scopeSpans").beginArray().beginObject()
+                .name("scope").beginObject().name("name").value(SCOPE_NAME).endObject()
+                .name("spans").beginArray();
+    }
+
+    private void resourceAttribute(String key, String value) {
+        if (value != null) {
+            json.beginObject().name("key").value(key)
+                    .name("value").beginObject().name("stringValue").value(value).endObject()
+                    .endObject();
+        }
+    }
+}
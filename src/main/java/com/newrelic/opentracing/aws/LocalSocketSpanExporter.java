@@ -0,0 +1,227 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends finished span data to a companion Lambda extension over a local socket.
+ *
+ * <p>Each span is one frame: a four-byte big-endian payload length followed by a UTF-8 JSON
+ * object. {@link #export(byte[])} only offers the frame to a bounded queue, so the handler never
+ * waits on the socket; a daemon thread writes queued frames and reconnects after failures. Frames
+ * are dropped, and counted, when the queue is full or the extension cannot be reached.
+ *
+ * <p>Endpoints are {@code tcp://127.0.0.1:PORT} or {@code unix:///path/to/socket}. Unix domain
+ * sockets need a Java 16 or later runtime.
+ *
+ * <p>The exporter used by {@link LambdaTracing} is configured with
+ * {@code NEW_RELIC_LAMBDA_TRACING_EXPORT_ENDPOINT} and, optionally,
+ * {@code NEW_RELIC_LAMBDA_TRACING_EXPORT_BUFFER_SIZE} (frames, default 1024).
+ */
+public final class LocalSocketSpanExporter implements AutoCloseable {
+
+    static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    private static final long RECONNECT_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static volatile LocalSocketSpanExporter configured = fromEnvironment();
+
+    private final SocketAddress address;
+    private final BlockingQueue<byte[]> queue;
+    private final Thread writer;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean closed;
+    private SocketChannel channel;
+    private long nextConnectNanos = System.nanoTime();
+
+    private LocalSocketSpanExporter(SocketAddress address, int bufferSize) {
+        this.address = address;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, bufferSize));
+        this.writer = new Thread(this::writeLoop, "newrelic-span-exporter");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * @param endpoint   {@code tcp://host:port} or {@code unix:///path}
+     * @param bufferSize The number of frames that may wait to be written before new ones are dropped
+     * @return a started exporter
+     * @throws IllegalArgumentException if the endpoint cannot be parsed, or is a Unix domain socket
+     *                                  and the runtime does not support them
+     */
+    public static LocalSocketSpanExporter open(String endpoint, int bufferSize) {
+        return new LocalSocketSpanExporter(parseEndpoint(endpoint), bufferSize);
+    }
+
+    /**
+     * @return the exporter spans built by this library are sent to, or null if export is off
+     */
+    static LocalSocketSpanExporter configured() {
+        return configured;
+    }
+
+    /**
+     * Replace the exporter configured from the environment; null turns export off. Only spans
+     * started afterwards are affected.
+     */
+    public static void configure(LocalSocketSpanExporter exporter) {
+        configured = exporter;
+    }
+
+    /**
+     * Queue a frame without blocking.
+     *
+     * @param frame A length-prefixed frame
+     * @return false if the frame was dropped
+     */
+    public boolean export(byte[] frame) {
+        submitted.incrementAndGet();
+        if (closed || !queue.offer(frame)) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Wait until every frame exported so far has been written or dropped.
+     *
+     * @return false if the timeout elapsed first
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (written.get() + dropped.get() < submitted.get()) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        writer.interrupt();
+    }
+
+    private void writeLoop() {
+        try {
+            while (!closed) {
+                final byte[] frame = queue.take();
+                if (write(frame)) {
+                    written.incrementAndGet();
+                } else {
+                    dropped.incrementAndGet();
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } finally {
+            dropped.addAndGet(queue.size());
+            queue.clear();
+            disconnect();
+        }
+    }
+
+    private boolean write(byte[] frame) {
+        if (channel == null && !connect()) {
+            return false;
+        }
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(frame);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            return true;
+        } catch (IOException e) {
+            disconnect();
+            return false;
+        }
+    }
+
+    private boolean connect() {
+        final long now = System.nanoTime();
+        if (now - nextConnectNanos < 0) {
+            return false;
+        }
+        try {
+            channel = SocketChannel.open(address);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            nextConnectNanos = now + RECONNECT_BACKOFF_NANOS;
+            return false;
+        }
+    }
+
+    private void disconnect() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing left to do
+            }
+            channel = null;
+        }
+    }
+
+    static SocketAddress parseEndpoint(String endpoint) {
+        final URI uri = URI.create(endpoint);
+        if ("tcp".equals(uri.getScheme()) && uri.getHost() != null && uri.getPort() > 0) {
+            return new InetSocketAddress(uri.getHost(), uri.getPort());
+        }
+        if ("unix".equals(uri.getScheme()) && uri.getPath() != null && !uri.getPath().isEmpty()) {
+            return unixDomainSocketAddress(uri.getPath());
+        }
+        throw new IllegalArgumentException("Unsupported export endpoint: " + endpoint);
+    }
+
+    /**
+     * {@code UnixDomainSocketAddress.of(path)}, which only exists on Java 16 and later.
+     */
+    static SocketAddress unixDomainSocketAddress(String path) {
+        try {
+            return (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+                    .getMethod("of", String.class)
+                    .invoke(null, path);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Unix domain sockets need Java 16 or later", e);
+        }
+    }
+
+    private static LocalSocketSpanExporter fromEnvironment() {
+        final String endpoint = EnvironmentConfig.getString("EXPORT_ENDPOINT", null);
+        if (endpoint == null) {
+            return null;
+        }
+        try {
+            return open(endpoint, (int) EnvironmentConfig.getLong("EXPORT_BUFFER_SIZE", DEFAULT_BUFFER_SIZE));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import io.opentracing.Span;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the JVM's peak memory usage during an invocation to the memory configured for the
+ * function.
+ *
+ * <p>Heap and non-heap usage are the sum of the memory pools' peak usage, which is reset after every
+ * invocation. Pools reach their peaks at different times, so the sum is an upper bound of the
+ * combined peak. The compressed class space is left out, as the metaspace pool already includes it.
+ * Direct buffers have no peak, so their usage at the end of the invocation is used. The highest
+ * total seen by this container is carried across invocations.
+ *
+ * <p>Peak usage is process-wide. When invocations run concurrently, it is only reset once none is
+ * left in flight, so each invocation's peak covers the others that overlapped it.
+ */
+final class MemoryHeadroom {
+
+    static final String LIMIT_TAG = "aws.lambda.memory.limitMb";
+    static final String HEAP_RATIO_TAG = "aws.lambda.memory.heapPeakRatio";
+    static final String NON_HEAP_RATIO_TAG = "aws.lambda.memory.nonHeapPeakRatio";
+    static final String DIRECT_RATIO_TAG = "aws.lambda.memory.directRatio";
+    static final String PEAK_RATIO_TAG = "aws.lambda.memory.peakRatio";
+    static final String HIGH_WATER_RATIO_TAG = "aws.lambda.memory.highWaterRatio";
+    static final String LOW_HEADROOM_TAG = "aws.lambda.memory.lowHeadroom";
+
+    // Part of the "Metaspace" pool's usage, reported again as a pool of its own
+    private static final String COMPRESSED_CLASS_SPACE = "Compressed Class Space";
+
+    static final double WARNING_THRESHOLD =
+            EnvironmentConfig.getDouble("MEMORY_HEADROOM_WARNING_THRESHOLD", 0.1);
+
+    private static final MemoryPoolMXBean[] HEAP_POOLS = memoryPools(MemoryType.HEAP);
+    private static final MemoryPoolMXBean[] NON_HEAP_POOLS = memoryPools(MemoryType.NON_HEAP);
+    private static final BufferPoolMXBean DIRECT_POOL = directBufferPool();
+
+    private static final AtomicLong highWaterBytes = new AtomicLong();
+
+    private MemoryHeadroom() {
+    }
+
+    /**
+     * @param resetPeaks Whether to reset the memory pools' peak usage for the next invocation
+     */
+    static void tag(Span span, Context context, boolean resetPeaks) {
+        final int limitMb = context.getMemoryLimitInMB();
+        if (limitMb <= 0) {
+            return;
+        }
+        final double limitBytes = limitMb * 1024.0 * 1024.0;
+
+        final long heapPeak = peakUsed(HEAP_POOLS);
+        final long nonHeapPeak = peakUsed(NON_HEAP_POOLS);
+        final long direct = DIRECT_POOL == null ? 0 : Math.max(0, DIRECT_POOL.getMemoryUsed());
+        final long total = heapPeak + nonHeapPeak + direct;
+        final long highWater = highWaterBytes.accumulateAndGet(total, Math::max);
+
+        final double peakRatio = ratio(total, limitBytes);
+        if (AttributePipeline.isEnabled(LIMIT_TAG)) {
+            span.setTag(LIMIT_TAG, limitMb);
+        }
+        tagRatio(span, HEAP_RATIO_TAG, heapPeak, limitBytes);
+        tagRatio(span, NON_HEAP_RATIO_TAG, nonHeapPeak, limitBytes);
+        tagRatio(span, DIRECT_RATIO_TAG, direct, limitBytes);
+        tagRatio(span, PEAK_RATIO_TAG, total, limitBytes);
+        tagRatio(span, HIGH_WATER_RATIO_TAG, highWater, limitBytes);
+        if (1.0 - peakRatio < WARNING_THRESHOLD && AttributePipeline.isEnabled(LOW_HEADROOM_TAG)) {
+            span.setTag(LOW_HEADROOM_TAG, true);
+        }
+
+        if (resetPeaks) {
+            resetPeakUsage(HEAP_POOLS);
+            resetPeakUsage(NON_HEAP_POOLS);
+        }
+    }
+
+    private static long peakUsed(MemoryPoolMXBean[] pools) {
+        long used = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            final MemoryUsage peakUsage = pool.getPeakUsage();
+            if (peakUsage != null) {
+                used += peakUsage.getUsed();
+            }
+        }
+        return used;
+    }
+
+    private static void resetPeakUsage(MemoryPoolMXBean[] pools) {
+        for (MemoryPoolMXBean pool : pools) {
+            pool.resetPeakUsage();
+        }
+    }
+
+    private static void tagRatio(Span span, String key, long usedBytes, double limitBytes) {
+        if (AttributePipeline.isEnabled(key)) {
+            span.setTag(key, ratio(usedBytes, limitBytes));
+        }
+    }
+
+    private static double ratio(long usedBytes, double limitBytes) {
+        return Math.round(usedBytes / limitBytes * 1000.0) / 1000.0;
+    }
+
+    private static MemoryPoolMXBean[] memoryPools(MemoryType type) {
+        final List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == type && pool.isValid() && !COMPRESSED_CLASS_SPACE.equals(pool.getName())) {
+                pools.add(pool);
+            }
+        }
+        return pools.toArray(new MemoryPoolMXBean[0]);
+    }
+
+    private static BufferPoolMXBean directBufferPool() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                return pool;
+            }
+        }
+        return null;
+    }
+}
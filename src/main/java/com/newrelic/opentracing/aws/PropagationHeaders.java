@@ -0,0 +1,165 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import io.opentracing.propagation.TextMap;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * An extract-only carrier over an HTTP event's headers that only exposes the
+ * {@link PropagationKeys}.
+ *
+ * <p>The headers are scanned once, comparing names case-insensitively, and only the matches are
+ * kept. {@code multiValueHeaders}, which is the only header map ALB fills in multi-value mode, is
+ * scanned for keys the single-value map did not have; a key with several values is given to the
+ * tracer joined with commas, as an HTTP proxy would.
+ */
+public final class PropagationHeaders implements TextMap {
+
+    /**
+     * A carrier without headers, shared by records that cannot carry any. Never added to.
+     */
+    static final PropagationHeaders NONE = new PropagationHeaders();
+
+    private String[] keys;
+    private String[] values;
+    private int size;
+
+    private PropagationHeaders() {
+    }
+
+    /**
+     * @param headers           Header name to value, or null
+     * @param multiValueHeaders Header name to list of values, or null
+     */
+    static PropagationHeaders of(Map<?, ?> headers, Map<?, ?> multiValueHeaders) {
+        final PropagationKeys propagationKeys = PropagationKeys.get();
+        final PropagationHeaders carrier = empty();
+        if (headers != null) {
+            for (Map.Entry<?, ?> header : headers.entrySet()) {
+                if (header.getKey() instanceof String && header.getValue() instanceof String) {
+                    final String key = propagationKeys.match((String) header.getKey());
+                    if (key != null && !carrier.contains(key)) {
+                        carrier.add(key, (String) header.getValue());
+                    }
+                }
+            }
+        }
+        if (multiValueHeaders != null) {
+            for (Map.Entry<?, ?> header : multiValueHeaders.entrySet()) {
+                if (header.getKey() instanceof String && header.getValue() instanceof List) {
+                    final String key = propagationKeys.match((String) header.getKey());
+                    if (key != null && !carrier.contains(key)) {
+                        final String value = join((List<?>) header.getValue());
+                        if (value != null) {
+                            carrier.add(key, value);
+                        }
+                    }
+                }
+            }
+        }
+        return carrier;
+    }
+
+    /**
+     * @return a carrier to fill with {@link #add(String, String)}, for event types with their own
+     * header representation
+     */
+    static PropagationHeaders empty() {
+        return new PropagationHeaders();
+    }
+
+    int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> iterator() {
+        return new Iterator<Map.Entry<String, String>>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                final Map.Entry<String, String> entry = new AbstractMap.SimpleImmutableEntry<>(keys[next], values[next]);
+                next++;
+                return entry;
+            }
+        };
+    }
+
+    @Override
+    public void put(String key, String value) {
+        throw new UnsupportedOperationException("PropagationHeaders is only used for extraction");
+    }
+
+    /**
+     * @return the value of the header, compared case-insensitively, or null if it is not present
+     */
+    public String get(String key) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i].equalsIgnoreCase(key)) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    boolean contains(String key) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i].equalsIgnoreCase(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void add(String key, String value) {
+        if (keys == null) {
+            keys = new String[4];
+            values = new String[4];
+        } else if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        keys[size] = key;
+        values[size] = value;
+        size++;
+    }
+
+    private static String join(List<?> values) {
+        if (values.isEmpty()) {
+            return null;
+        }
+        if (values.size() == 1) {
+            final Object value = values.get(0);
+            return value instanceof String ? (String) value : null;
+        }
+        final StringBuilder joined = new StringBuilder();
+        for (Object value : values) {
+            if (value instanceof String) {
+                if (joined.length() > 0) {
+                    joined.append(',');
+                }
+                joined.append((String) value);
+            }
+        }
+        return joined.length() > 0 ? joined.toString() : null;
+    }
+}
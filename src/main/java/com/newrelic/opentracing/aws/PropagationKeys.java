@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The header names handed to {@code Tracer.extract}, matched case-insensitively.
+ *
+ * <p>The default set covers New Relic, W3C Trace Context and Baggage, Jaeger, B3, AWS X-Ray and the
+ * OpenTracing basic tracers. {@code NEW_RELIC_LAMBDA_TRACING_PROPAGATION_KEYS} replaces it with a
+ * comma-separated list; an entry ending in {@code *} matches a prefix, and {@code *} alone passes
+ * every header, as earlier versions did.
+ */
+final class PropagationKeys {
+
+    static final String DEFAULT_KEYS = "newrelic,traceparent,tracestate,baggage,"
+            + "uber-trace-id,uberctx-*,"
+            + "b3,x-b3-traceid,x-b3-spanid,x-b3-parentspanid,x-b3-sampled,x-b3-flags,"
+            + "x-amzn-trace-id,"
+            + "ot-tracer-traceid,ot-tracer-spanid,ot-tracer-sampled,ot-baggage-*";
+
+    private static volatile PropagationKeys configured =
+            parse(EnvironmentConfig.getString("PROPAGATION_KEYS", DEFAULT_KEYS));
+
+    private final boolean all;
+    private final String[] names;
+    private final String[] prefixes;
+
+    private PropagationKeys(boolean all, String[] names, String[] prefixes) {
+        this.all = all;
+        this.names = names;
+        this.prefixes = prefixes;
+    }
+
+    static PropagationKeys get() {
+        return configured;
+    }
+
+    static void set(PropagationKeys keys) {
+        configured = keys;
+    }
+
+    static PropagationKeys parse(String keys) {
+        final List<String> names = new ArrayList<>();
+        final List<String> prefixes = new ArrayList<>();
+        for (String key : keys.split(",")) {
+            key = key.trim().toLowerCase(Locale.ROOT);
+            if (key.equals("*")) {
+                return new PropagationKeys(true, new String[0], new String[0]);
+            }
+            if (key.endsWith("*")) {
+                prefixes.add(key.substring(0, key.length() - 1));
+            } else if (!key.isEmpty()) {
+                names.add(key);
+            }
+        }
+        return new PropagationKeys(false, names.toArray(new String[0]), prefixes.toArray(new String[0]));
+    }
+
+    /**
+     * @return the key to give the tracer for header, or null to leave header out. Exact matches are
+     * given in their configured lower case; prefix matches keep the header's own case, since it
+     * usually carries a baggage item name.
+     */
+    String match(String header) {
+        if (all) {
+            return header;
+        }
+        for (String name : names) {
+            if (name.equalsIgnoreCase(header)) {
+                return name;
+            }
+        }
+        for (String prefix : prefixes) {
+            if (header.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                return header;
+            }
+        }
+        return null;
+    }
+}
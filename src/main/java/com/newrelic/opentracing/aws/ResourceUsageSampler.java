@@ -0,0 +1,112 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import io.opentracing.Span;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+/**
+ * Samples the bytes allocated by the handler thread and the garbage collections that ran while the
+ * handler was executing.
+ *
+ * <p>MXBean references are looked up once per container, so sampling an invocation only reads
+ * counters from them.
+ */
+final class ResourceUsageSampler {
+
+    static final String ALLOCATED_BYTES_TAG = "jvm.allocatedBytes";
+    static final String GC_COUNT_TAG = "jvm.gc.count";
+    static final String GC_TIME_TAG = "jvm.gc.timeMs";
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = allocationMXBean();
+    private static final GarbageCollectorMXBean[] GC_MX_BEANS = garbageCollectorMXBeans();
+
+    private final long threadId;
+    private final long allocatedBytes;
+    private final long gcCount;
+    private final long gcTimeMillis;
+
+    private ResourceUsageSampler(long threadId, long allocatedBytes, long gcCount, long gcTimeMillis) {
+        this.threadId = threadId;
+        this.allocatedBytes = allocatedBytes;
+        this.gcCount = gcCount;
+        this.gcTimeMillis = gcTimeMillis;
+    }
+
+    /**
+     * Take the "before" sample. Must be called on the thread that runs the handler.
+     */
+    static ResourceUsageSampler start() {
+        final long threadId = Thread.currentThread().getId();
+        return new ResourceUsageSampler(threadId, allocatedBytes(threadId), gcCount(), gcTimeMillis());
+    }
+
+    /**
+     * Take the "after" sample and tag the span with the difference.
+     */
+    void finish(Span span) {
+        final long allocatedBytesAfter = allocatedBytes(threadId);
+        if (allocatedBytes >= 0 && allocatedBytesAfter >= 0 && AttributePipeline.isEnabled(ALLOCATED_BYTES_TAG)) {
+            span.setTag(ALLOCATED_BYTES_TAG, allocatedBytesAfter - allocatedBytes);
+        }
+        if (AttributePipeline.isEnabled(GC_COUNT_TAG)) {
+            span.setTag(GC_COUNT_TAG, gcCount() - gcCount);
+        }
+        if (AttributePipeline.isEnabled(GC_TIME_TAG)) {
+            span.setTag(GC_TIME_TAG, gcTimeMillis() - gcTimeMillis);
+        }
+    }
+
+    private static long allocatedBytes(long threadId) {
+        if (THREAD_MX_BEAN == null) {
+            return -1;
+        }
+        return THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gcMXBean : GC_MX_BEANS) {
+            // -1 means the collector does not report a count
+            count += Math.max(0, gcMXBean.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTimeMillis() {
+        long time = 0;
+        for (GarbageCollectorMXBean gcMXBean : GC_MX_BEANS) {
+            time += Math.max(0, gcMXBean.getCollectionTime());
+        }
+        return time;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationMXBean() {
+        try {
+            final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+            if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+                final com.sun.management.ThreadMXBean allocationMXBean =
+                        (com.sun.management.ThreadMXBean) threadMXBean;
+                if (allocationMXBean.isThreadAllocatedMemorySupported()
+                        && allocationMXBean.isThreadAllocatedMemoryEnabled()) {
+                    return allocationMXBean;
+                }
+            }
+        } catch (LinkageError e) {
+            // Not a HotSpot-derived JVM
+        }
+        return null;
+    }
+
+    private static GarbageCollectorMXBean[] garbageCollectorMXBeans() {
+        final List<GarbageCollectorMXBean> gcMXBeans = ManagementFactory.getGarbageCollectorMXBeans();
+        return gcMXBeans.toArray(new GarbageCollectorMXBean[0]);
+    }
+}
@@ -21,6 +21,16 @@ public class ResponseParser {
      * source type was created from an Application Load Balancer or API Gateway.
      */
     public static <Output> void parseResponse(Output response, Span span) {
+        final String statusCode = parseStatusCode(response);
+        if (statusCode != null) {
+            span.setTag("http.status_code", statusCode);
+        }
+    }
+
+    /**
+     * @return the response's HTTP status code, or null if it has none
+     */
+    static String parseStatusCode(Object response) {
         String statusCode = null;
 
         if (response instanceof Map) {
@@ -45,8 +55,6 @@ public class ResponseParser {
             }
         }
 
-        if (statusCode != null && !statusCode.isEmpty()) {
-            span.setTag("http.status_code", statusCode);
-        }
+        return statusCode == null || statusCode.isEmpty() ? null : statusCode;
     }
 }
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+/**
+ * Reads propagation headers from an SNS notification delivered to SQS without raw message
+ * delivery, where the SQS message body is the SNS envelope:
+ *
+ * <pre>
+ * {
+ *   "Type" : "Notification",
+ *   "Message" : "...",
+ *   "MessageAttributes" : {
+ *     "traceparent" : {"Type":"String","Value":"00-..."}
+ *   }
+ * }
+ * </pre>
+ *
+ * <p>Bodies can be up to 256KB, so the body is not parsed. Anything that does not start with a
+ * {@code "Type"} member is rejected after a few characters; otherwise only the
+ * {@code MessageAttributes} object is scanned, and only the values of propagation keys are decoded.
+ * The {@code Message} member is a JSON string, in which quotes are escaped, so it cannot contain
+ * the {@code "MessageAttributes"} key being searched for.
+ */
+final class SnsEnvelope {
+
+    private static final String TYPE = "\"Type\"";
+    private static final String MESSAGE_ATTRIBUTES = "\"MessageAttributes\"";
+    private static final String VALUE = "Value";
+
+    private SnsEnvelope() {
+    }
+
+    static boolean isEnvelope(String body) {
+        int i = skipWhitespace(body, 0);
+        if (i >= body.length() || body.charAt(i) != '{') {
+            return false;
+        }
+        i = skipWhitespace(body, i + 1);
+        return body.startsWith(TYPE, i);
+    }
+
+    /**
+     * Add the propagation headers found in the envelope's message attributes to carrier. A
+     * malformed envelope stops the scan, keeping the headers found so far.
+     */
+    static void addPropagationHeaders(PropagationKeys propagationKeys, PropagationHeaders carrier, String body) {
+        if (body == null || !isEnvelope(body)) {
+            return;
+        }
+        final int attributes = body.lastIndexOf(MESSAGE_ATTRIBUTES);
+        if (attributes < 0) {
+            return;
+        }
+        int i = expect(body, attributes + MESSAGE_ATTRIBUTES.length(), ':');
+        i = expect(body, i, '{');
+        i = expect(body, i, '"');
+        while (i > 0) {
+            final int nameEnd = endOfString(body, i - 1);
+            if (nameEnd < 0) {
+                return;
+            }
+            final String name = decodeString(body, i - 1, nameEnd);
+            final String key = name == null ? null : propagationKeys.match(name);
+            final int value = skipWhitespace(body, expect(body, nameEnd + 1, ':'));
+            if (value < 0 || value >= body.length()) {
+                return;
+            }
+            if (key != null && body.charAt(value) == '{' && !carrier.contains(key)) {
+                final String attributeValue = attributeValue(body, value);
+                if (attributeValue != null) {
+                    carrier.add(key, attributeValue);
+                }
+            }
+            i = expect(body, skipValue(body, value), ',');
+            i = expect(body, i, '"');
+        }
+    }
+
+    /**
+     * @param start The index of the attribute's opening brace
+     * @return the attribute's {@code Value} string, or null
+     */
+    private static String attributeValue(String body, int start) {
+        int i = expect(body, start + 1, '"');
+        while (i > 0) {
+            final int nameEnd = endOfString(body, i - 1);
+            if (nameEnd < 0) {
+                return null;
+            }
+            final boolean isValue = nameEnd - i == VALUE.length() && body.startsWith(VALUE, i);
+            final int value = skipWhitespace(body, expect(body, nameEnd + 1, ':'));
+            if (value < 0 || value >= body.length()) {
+                return null;
+            }
+            if (isValue) {
+                if (body.charAt(value) != '"') {
+                    return null;
+                }
+                final int valueEnd = endOfString(body, value);
+                return valueEnd < 0 ? null : decodeString(body, value, valueEnd);
+            }
+            i = expect(body, skipValue(body, value), ',');
+            i = expect(body, i, '"');
+        }
+        return null;
+    }
+
+    /**
+     * @return the index after c, skipping whitespace before it, or -1 if the next character is not c
+     */
+    private static int expect(String body, int index, char c) {
+        if (index < 0) {
+            return -1;
+        }
+        final int i = skipWhitespace(body, index);
+        return i < body.length() && body.charAt(i) == c ? i + 1 : -1;
+    }
+
+    private static int skipWhitespace(String body, int index) {
+        if (index < 0) {
+            return -1;
+        }
+        int i = index;
+        while (i < body.length()) {
+            final char c = body.charAt(i);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @param start The index of the opening quote
+     * @return the index of the closing quote, or -1
+     */
+    private static int endOfString(String body, int start) {
+        int i = start + 1;
+        while (i < body.length()) {
+            final char c = body.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '"') {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param start The index of the value's first character
+     * @return the index after the value, or -1
+     */
+    private static int skipValue(String body, int start) {
+        final char first = body.charAt(start);
+        if (first == '"') {
+            final int end = endOfString(body, start);
+            return end < 0 ? -1 : end + 1;
+        }
+        if (first != '{' && first != '[') {
+            int i = start;
+            while (i < body.length() && ",}] \n\r\t".indexOf(body.charAt(i)) < 0) {
+                i++;
+            }
+            return i;
+        }
+        int depth = 0;
+        int i = start;
+        while (i < body.length()) {
+            final char c = body.charAt(i);
+            if (c == '"') {
+                i = endOfString(body, i);
+                if (i < 0) {
+                    return -1;
+                }
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if ((c == '}' || c == ']') && --depth == 0) {
+                return i + 1;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the unescaped contents of the string between the quotes at start and end
+     */
+    private static String decodeString(String body, int start, int end) {
+        int escape = start + 1;
+        while (escape < end && body.charAt(escape) != '\\') {
+            escape++;
+        }
+        if (escape == end) {
+            return body.substring(start + 1, end);
+        }
+        final StringBuilder decoded = new StringBuilder(end - start);
+        decoded.append(body, start + 1, escape);
+        for (int i = escape; i < end; i++) {
+            char c = body.charAt(i);
+            if (c == '\\' && i + 1 < end) {
+                c = body.charAt(++i);
+                switch (c) {
+                    case 'b':
+                        c = '\b';
+                        break;
+                    case 'f':
+                        c = '\f';
+                        break;
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'u':
+                        if (i + 4 < end) {
+                            try {
+                                c = (char) Integer.parseInt(body.substring(i + 1, i + 5), 16);
+                                i += 4;
+                            } catch (NumberFormatException exception) {
+                                return null;
+                            }
+                        }
+                        break;
+                    default:
+                        // '"', '\\' and '/' stand for themselves
+                        break;
+                }
+            }
+            decoded.append(c);
+        }
+        return decoded.toString();
+    }
+}
@@ -6,6 +6,8 @@
 package com.newrelic.opentracing.aws;
 
 import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.events.KafkaEvent;
+import com.amazonaws.services.lambda.runtime.events.KinesisEvent;
 import io.opentracing.Span;
 import io.opentracing.SpanContext;
 import io.opentracing.Tracer;
@@ -27,14 +29,36 @@ public class SpanUtil {
             Tracer tracer,
             SpanContext spanContext,
             AtomicBoolean isColdStart) {
-        return EnhancedSpanBuilder.basedOn(tracer, "handleRequest")
-                .asChildOf(spanContext)
-                .withTag("aws.requestId", context.getAwsRequestId())
-                .withTag("aws.lambda.arn", context.getInvokedFunctionArn())
-                .optionallyWithTag(
-                        "aws.lambda.eventSource.arn", EventSourceParser.parseEventSourceArn(input))
-                .optionallyWithTag("aws.lambda.coldStart", isColdStart.getAndSet(false))
-                .start();
+        final HttpRoute route = HttpRoute.parse(input);
+        final String operationName = route != null ? route.operationName : HttpRoute.DEFAULT_OPERATION_NAME;
+        // A span left active on this thread, by another invocation or the runtime, is not the parent
+        final EnhancedSpanBuilder builder = EnhancedSpanBuilder.basedOn(tracer, operationName)
+                .ignoreActiveSpan();
+        final BatchSpanContext batch = BatchSpanContext.take(spanContext);
+        if (batch != null) {
+            builder.followsFrom(batch);
+        } else {
+            builder.asChildOf(spanContext);
+        }
+        AttributePipeline.apply(builder, input, context);
+        // Claimed even when not tagged, so that only the first invocation is a cold start
+        final boolean coldStart = isColdStart.getAndSet(false);
+        if (AttributePipeline.isEnabled(AttributePipeline.COLD_START)) {
+            builder.optionallyWithTag(AttributePipeline.COLD_START, coldStart);
+        }
+        if (route != null && AttributePipeline.isEnabled(HttpRoute.ROUTE_TAG)) {
+            builder.withTag(HttpRoute.ROUTE_TAG, route.route);
+        }
+        if (input instanceof KafkaEvent) {
+            if (AttributePipeline.isEnabled(KafkaEventParser.TAGS)) {
+                KafkaEventParser.addBatchTags(builder, (KafkaEvent) input, System.currentTimeMillis());
+            }
+        } else if (input instanceof KinesisEvent) {
+            if (AttributePipeline.isEnabled(KinesisEventParser.TAGS)) {
+                KinesisEventParser.addBatchTags(builder, (KinesisEvent) input, System.currentTimeMillis());
+            }
+        }
+        return builder.start();
     }
 
     public static Map<String, Object> createErrorAttributes(Throwable throwable) {
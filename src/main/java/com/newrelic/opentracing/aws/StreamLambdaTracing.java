@@ -29,12 +29,19 @@ public class StreamLambdaTracing {
     public static void instrument(
             InputStream input, OutputStream output, Context context, RequestStreamHandler realHandler)
             throws IOException {
+        if (LambdaTracing.isPassthrough()) {
+            realHandler.handleRequest(input, output, context);
+            return;
+        }
         new StreamLambdaTracing().instrumentRequest(input, output, context, realHandler);
     }
 
     /**
      * Instrument a Lambda invocation
      *
+     * <p>When tracing is switched off, or no tracer is registered, realHandler is called directly
+     * (see {@link TracingSwitch}).
+     *
      * @param input       The invocation event's input stream
      * @param output      The invocation response output stream
      * @param context     The invocation context
@@ -44,17 +51,82 @@ public class StreamLambdaTracing {
     public void instrumentRequest(
             InputStream input, OutputStream output, Context context, RequestStreamHandler realHandler)
             throws IOException {
+        if (LambdaTracing.isPassthrough()) {
+            realHandler.handleRequest(input, output, context);
+            return;
+        }
+        final InvocationCapture capture = isCaptured(input, context) ? InvocationCapture.startStream(input) : null;
+        final InputStream handlerInput = capture != null ? capture.input() : input;
+        final boolean costAttributed = isCostAttributed(input, context);
+        final long startNanos = costAttributed ? System.nanoTime() : 0;
+        final InstrumentationOverhead overhead =
+                isOverheadSampled(input, context) ? InstrumentationOverhead.start() : null;
         final Tracer tracer = GlobalTracer.get();
-        final SpanContext spanContext = extractContext(tracer, input);
+        final SpanContext spanContext = extractContext(tracer, input, context);
+        if (overhead != null) {
+            overhead.lap(InstrumentationOverhead.EXTRACT);
+        }
 
         Span span = buildRootSpan(input, context, tracer, spanContext);
-        try (Scope scope = tracer.activateSpan(span)) {
-            realHandler.handleRequest(input, output, context);
+        // Left over if an overridden buildRootSpan did not use the batch
+        BatchSpanContext.setPending(null);
+        final ResourceUsageSampler resourceUsage =
+                isResourceUsageSampled(input, context) ? ResourceUsageSampler.start() : null;
+        ExecutionEnvironment.enter(span);
+        boolean failed = false;
+        boolean fatal = false;
+        try (Scope scope = tracer.activateSpan(ExportingSpan.unwrap(span))) {
+            if (overhead != null) {
+                overhead.lap(InstrumentationOverhead.START);
+            }
+            realHandler.handleRequest(handlerInput, output, context);
+            if (overhead != null) {
+                overhead.mark();
+            }
         } catch (Throwable throwable) {
-            span.log(SpanUtil.createErrorAttributes(throwable));
+            failed = true;
+            if (overhead != null) {
+                overhead.mark();
+            }
+            if (throwable instanceof VirtualMachineError) {
+                fatal = true;
+                EmergencyErrorRecord.log(span, (VirtualMachineError) throwable);
+            } else {
+                span.log(SpanUtil.createErrorAttributes(throwable));
+            }
             throw throwable;
         } finally {
-            span.finish();
+            if (overhead != null) {
+                overhead.lap(InstrumentationOverhead.RESPONSE);
+            }
+            final boolean lastInFlight = ExecutionEnvironment.exit() == 0;
+            if (fatal) {
+                // The optional measurements allocate; only try to get the span out
+                EmergencyErrorRecord.finish(span);
+            } else {
+                if (resourceUsage != null) {
+                    resourceUsage.finish(span);
+                }
+                if (isMemoryHeadroomTracked(input, context)) {
+                    MemoryHeadroom.tag(span, context, lastInFlight);
+                }
+                if (costAttributed) {
+                    CostAttribution.tag(span, input, context, System.nanoTime() - startNanos);
+                }
+                if (overhead != null) {
+                    overhead.tag(span);
+                }
+                if (ContainerReport.isDue()) {
+                    ContainerReport.tag(span);
+                }
+                span.finish();
+            }
+            if (overhead != null) {
+                overhead.finish();
+            }
+            if (capture != null && !fatal) {
+                capture.finish(failed);
+            }
         }
     }
 
@@ -66,4 +138,48 @@ public class StreamLambdaTracing {
     protected SpanContext extractContext(Tracer tracer, InputStream input) {
         return null;
     }
+
+    /**
+     * Same as {@link LambdaTracing#extractContext(Tracer, Object, Context)}.
+     */
+    protected SpanContext extractContext(Tracer tracer, InputStream input, Context context) {
+        final SpanContext spanContext = extractContext(tracer, input);
+        return spanContext != null ? spanContext : ClientContextPropagation.extract(tracer, context);
+    }
+
+    /**
+     * Same as {@link LambdaTracing#isResourceUsageSampled(Object, Context)}.
+     */
+    protected boolean isResourceUsageSampled(InputStream input, Context context) {
+        return LambdaTracing.RESOURCE_USAGE_ENABLED;
+    }
+
+    /**
+     * Same as {@link LambdaTracing#isOverheadSampled(Object, Context)}.
+     */
+    protected boolean isOverheadSampled(InputStream input, Context context) {
+        return InstrumentationOverhead.isSampled();
+    }
+
+    /**
+     * Same as {@link LambdaTracing#isCostAttributed(Object, Context)}.
+     */
+    protected boolean isCostAttributed(InputStream input, Context context) {
+        return CostAttribution.ENABLED;
+    }
+
+    /**
+     * Same as {@link LambdaTracing#isMemoryHeadroomTracked(Object, Context)}.
+     */
+    protected boolean isMemoryHeadroomTracked(InputStream input, Context context) {
+        return LambdaTracing.MEMORY_HEADROOM_ENABLED;
+    }
+
+    /**
+     * Same as {@link LambdaTracing#isCaptured(Object, Context)}. The handler reads the input through
+     * a stream that copies it.
+     */
+    protected boolean isCaptured(InputStream input, Context context) {
+        return InvocationCapture.isSampled();
+    }
 }
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import io.opentracing.Tracer;
+import io.opentracing.noop.NoopScopeManager;
+import io.opentracing.util.GlobalTracer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runtime kill switch for the instrumentation.
+ *
+ * <p>When the switch is off, or when no tracer has been registered with {@link GlobalTracer}, the
+ * handler is called directly: no context extraction, no event parsing and no span.
+ *
+ * <p>The initial state comes from {@code NEW_RELIC_LAMBDA_TRACING_ENABLED}. It can then be flipped
+ * without a redeploy through a local config endpoint ({@code NEW_RELIC_LAMBDA_TRACING_SWITCH_URL},
+ * e.g. a config extension on localhost) or a file ({@code NEW_RELIC_LAMBDA_TRACING_SWITCH_FILE}),
+ * whose content is {@code true}/{@code false}, {@code on}/{@code off} or {@code {"enabled": false}}.
+ * The endpoint takes precedence over the file, and both are read by a daemon thread, started by the
+ * first invocation, every {@code NEW_RELIC_LAMBDA_TRACING_SWITCH_POLL_SECONDS}. Invocations only
+ * read a volatile, so until the first read completes they see the initial state.
+ */
+final class TracingSwitch {
+
+    static final String SWITCH_FILE =
+            EnvironmentConfig.getString("SWITCH_FILE", "/tmp/newrelic-lambda-tracing-switch");
+    static final String SWITCH_URL = EnvironmentConfig.getString("SWITCH_URL", null);
+
+    private static final boolean ENABLED_AT_INIT = EnvironmentConfig.getBoolean("ENABLED", true);
+    private static final long POLL_INTERVAL_MILLIS =
+            TimeUnit.SECONDS.toMillis(Math.max(1, EnvironmentConfig.getLong("SWITCH_POLL_SECONDS", 30)));
+    private static final int URL_TIMEOUT_MILLIS = 200;
+    private static final int MAX_CONTENT_BYTES = 256;
+
+    private static volatile boolean enabled = ENABLED_AT_INIT;
+    private static volatile boolean pollerStarted;
+    private static final AtomicBoolean startingPoller = new AtomicBoolean();
+
+    private TracingSwitch() {
+    }
+
+    /**
+     * @return true if this invocation should call the handler without any instrumentation
+     */
+    static boolean isPassthrough() {
+        return !isEnabled() || isNoop(GlobalTracer.get());
+    }
+
+    static boolean isEnabled() {
+        if (!pollerStarted) {
+            startPoller();
+        }
+        return enabled;
+    }
+
+    private static void startPoller() {
+        if (!startingPoller.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            final Thread poller = new Thread(TracingSwitch::pollLoop, "newrelic-lambda-tracing-switch");
+            poller.setDaemon(true);
+            poller.start();
+        } catch (RuntimeException | OutOfMemoryError e) {
+            // The switch keeps its initial state
+        }
+        pollerStarted = true;
+    }
+
+    private static void pollLoop() {
+        while (true) {
+            refresh();
+            try {
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * A tracer that was never registered is the {@code NoopTracer}, whose scope manager is the
+     * no-op one. Checking the scope manager also sees through {@link GlobalTracer}'s delegation.
+     */
+    static boolean isNoop(Tracer tracer) {
+        return tracer.scopeManager() instanceof NoopScopeManager;
+    }
+
+    /**
+     * Re-read the endpoint and file now, regardless of the poll interval.
+     */
+    static void refresh() {
+        Boolean value = null;
+        if (SWITCH_URL != null) {
+            value = parse(readUrl(SWITCH_URL));
+        }
+        if (value == null && SWITCH_FILE != null) {
+            value = parse(readFile(SWITCH_FILE));
+        }
+        enabled = value != null ? value : ENABLED_AT_INIT;
+    }
+
+    static Boolean parse(String content) {
+        if (content == null) {
+            return null;
+        }
+        String value = content.trim().toLowerCase(Locale.ROOT);
+        if (value.startsWith("{")) {
+            final int key = value.indexOf("\"enabled\"");
+            final int colon = key < 0 ? -1 : value.indexOf(':', key);
+            if (colon < 0) {
+                return null;
+            }
+            int end = colon + 1;
+            while (end < value.length() && value.charAt(end) != ',' && value.charAt(end) != '}') {
+                end++;
+            }
+            value = value.substring(colon + 1, end).trim();
+            if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                value = value.substring(1, value.length() - 1).trim();
+            }
+        }
+        switch (value) {
+            case "true":
+            case "on":
+            case "1":
+            case "enabled":
+                return Boolean.TRUE;
+            case "false":
+            case "off":
+            case "0":
+            case "disabled":
+                return Boolean.FALSE;
+            default:
+                return null;
+        }
+    }
+
+    private static String readFile(String file) {
+        final Path path = Paths.get(file);
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            return read(inputStream);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String readUrl(String url) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(URL_TIMEOUT_MILLIS);
+            connection.setReadTimeout(URL_TIMEOUT_MILLIS);
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return null;
+            }
+            try (InputStream inputStream = connection.getInputStream()) {
+                return read(inputStream);
+            }
+        } catch (IOException | RuntimeException e) {
+            return null;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private static String read(InputStream inputStream) throws IOException {
+        final byte[] buffer = new byte[MAX_CONTENT_BYTES];
+        int length = 0;
+        int read;
+        while (length < buffer.length && (read = inputStream.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+        }
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import io.opentracing.Scope;
+import io.opentracing.ScopeManager;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import io.opentracing.noop.NoopTracerFactory;
+import io.opentracing.propagation.Format;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.BiFunction;
+
+/**
+ * Fails the build when the bytes allocated by one instrumented invocation of an event type exceed
+ * that type's budget in {@code allocation-budgets.properties}.
+ *
+ * <p>Uses a no-op tracer so that only this library's allocations are measured. It is wrapped so
+ * that {@link TracingSwitch} does not detect it and take the passthrough path, which is measured
+ * separately with the plain no-op tracer. Budgets are upper bounds; a failure reports the bytes
+ * measured and the budget of each type over it.
+ */
+public class AllocationBudgetTest {
+
+    private static final int WARMUP_INVOCATIONS = 20_000;
+    private static final int MEASURED_INVOCATIONS = 10_000;
+
+    private static final BiFunction<Object, Context, Object> HANDLER = (input, context) -> "ok";
+
+    private static com.sun.management.ThreadMXBean threadMXBean;
+
+    @BeforeClass
+    public static void beforeClass() {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadMXBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void testPassthroughAllocationBudget() throws IOException {
+        GlobalTracerTestUtils.initTracer(NoopTracerFactory.create());
+        final long budget = Long.parseLong(loadBudgets().getProperty("passthrough").trim());
+
+        final long bytesPerInvocation =
+                measure(SampleEvents.apiGatewayProxyRequestEvent(), LambdaTracingTest.createContext());
+        Assert.assertTrue("Passthrough allocated " + bytesPerInvocation + " bytes/invocation, budget " + budget,
+                bytesPerInvocation <= budget);
+    }
+
+    @Test
+    public void testAllocationBudgets() throws IOException {
+        GlobalTracerTestUtils.initTracer(new UndetectedNoopTracer());
+        final Properties budgets = loadBudgets();
+        final Context context = LambdaTracingTest.createContext();
+        final List<String> overBudget = new ArrayList<>();
+
+        for (Map.Entry<String, Object> event : SampleEvents.all().entrySet()) {
+            final String type = event.getKey();
+            final String budgetValue = budgets.getProperty(type);
+            Assert.assertNotNull("No allocation budget for " + type, budgetValue);
+            final long budget = Long.parseLong(budgetValue.trim());
+
+            final long bytesPerInvocation = measure(event.getValue(), context);
+            if (bytesPerInvocation > budget) {
+                overBudget.add(type + " allocated " + bytesPerInvocation + " bytes/invocation, budget " + budget);
+            }
+        }
+
+        Assert.assertEquals("Over allocation budget", Collections.emptyList(), overBudget);
+    }
+
+    private static long measure(Object input, Context context) {
+        for (int i = 0; i < WARMUP_INVOCATIONS; i++) {
+            LambdaTracing.instrument(input, context, HANDLER);
+        }
+
+        final long threadId = Thread.currentThread().getId();
+        final long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_INVOCATIONS; i++) {
+            LambdaTracing.instrument(input, context, HANDLER);
+        }
+        final long after = threadMXBean.getThreadAllocatedBytes(threadId);
+        return (after - before) / MEASURED_INVOCATIONS;
+    }
+
+    private static Properties loadBudgets() throws IOException {
+        final Properties budgets = new Properties();
+        try (InputStream inputStream = AllocationBudgetTest.class.getResourceAsStream("/allocation-budgets.properties")) {
+            Assert.assertNotNull("allocation-budgets.properties is missing", inputStream);
+            budgets.load(inputStream);
+        }
+        return budgets;
+    }
+
+    /**
+     * Delegates to the no-op tracer without exposing its scope manager type.
+     */
+    private static final class UndetectedNoopTracer implements Tracer {
+        private final Tracer delegate = NoopTracerFactory.create();
+        private final ScopeManager scopeManager = new ScopeManager() {
+            @Override
+            public Scope activate(Span span) {
+                return delegate.scopeManager().activate(span);
+            }
+
+            @Override
+            public Span activeSpan() {
+                return delegate.scopeManager().activeSpan();
+            }
+        };
+
+        @Override
+        public ScopeManager scopeManager() {
+            return scopeManager;
+        }
+
+        @Override
+        public Span activeSpan() {
+            return delegate.activeSpan();
+        }
+
+        @Override
+        public Scope activateSpan(Span span) {
+            return delegate.activateSpan(span);
+        }
+
+        @Override
+        public SpanBuilder buildSpan(String operationName) {
+            return delegate.buildSpan(operationName);
+        }
+
+        @Override
+        public <C> void inject(SpanContext spanContext, Format<C> format, C carrier) {
+            delegate.inject(spanContext, format, carrier);
+        }
+
+        @Override
+        public <C> SpanContext extract(Format<C> format, C carrier) {
+            return delegate.extract(format, carrier);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
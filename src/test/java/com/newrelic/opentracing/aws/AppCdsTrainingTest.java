@@ -0,0 +1,49 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+public class AppCdsTrainingTest {
+
+    private final MockTracer mockTracer = new MockTracer();
+
+    @Before
+    public void before() {
+        mockTracer.reset();
+        GlobalTracerTestUtils.initTracer(mockTracer);
+    }
+
+    @Test
+    public void testEveryEventTypeTraced() throws Exception {
+        AppCdsTraining.train();
+
+        final int eventTypes = SampleEvents.all().size();
+        final List<MockSpan> spans = mockTracer.finishedSpans();
+        // one root span per invocation, the error invocation and the stream invocation
+        Assert.assertEquals(eventTypes * AppCdsTraining.INVOCATIONS_PER_EVENT + 2, spans.size());
+        Assert.assertFalse(spans.get(spans.size() - 2).logEntries().isEmpty());
+        Assert.assertNotNull(spans.get(0).tags().get(InstrumentationOverhead.TAG));
+    }
+
+    @Test
+    public void testHttpResponsesHaveStatusCode() {
+        for (Object event : SampleEvents.all().values()) {
+            final String statusCode = ResponseParser.parseStatusCode(SampleEvents.response(event));
+            if ("http".equals(EventSourceParser.parseTrigger(event))) {
+                Assert.assertEquals(event.getClass().getName(), "200", statusCode);
+            } else {
+                Assert.assertNull(statusCode);
+            }
+        }
+    }
+}
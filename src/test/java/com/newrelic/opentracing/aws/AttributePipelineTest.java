@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AttributePipelineTest {
+
+    private final MockTracer mockTracer = new MockTracer();
+
+    @Before
+    public void before() {
+        mockTracer.reset();
+        GlobalTracerTestUtils.initTracer(mockTracer);
+        AttributePipeline.reset();
+    }
+
+    @After
+    public void after() {
+        AttributePipeline.reset();
+    }
+
+    @Test
+    public void testDefaultTags() {
+        LambdaTracing.instrument(SampleEvents.sqsEvent(), SampleEvents.context(), (input, context) -> "ok");
+
+        final Map<String, Object> tags = mockTracer.finishedSpans().get(0).tags();
+        Assert.assertEquals("sample-request", tags.get(AttributePipeline.REQUEST_ID));
+        Assert.assertEquals("arn:aws:lambda:us-east-1:123456789012:function:sample", tags.get(AttributePipeline.ARN));
+        Assert.assertNotNull(tags.get(AttributePipeline.EVENT_SOURCE_ARN));
+        // Optional tags are off unless listed in NEW_RELIC_LAMBDA_TRACING_ENABLED_TAGS
+        Assert.assertFalse(tags.containsKey(AttributePipeline.FUNCTION_VERSION));
+    }
+
+    @Test
+    public void testAddedTags() {
+        final AtomicInteger constantCalls = new AtomicInteger();
+        AttributePipeline.add("app.eventType", (input, context) -> input.getClass().getSimpleName());
+        AttributePipeline.add("app.none", (input, context) -> null);
+        AttributePipeline.addConstant("app.memoryMb", context -> {
+            constantCalls.incrementAndGet();
+            return context.getMemoryLimitInMB();
+        });
+
+        LambdaTracing.instrument("first", SampleEvents.context(), (input, context) -> "ok");
+        LambdaTracing.instrument("second", SampleEvents.context(), (input, context) -> "ok");
+
+        final List<MockSpan> spans = mockTracer.finishedSpans();
+        for (MockSpan span : spans) {
+            Assert.assertEquals("String", span.tags().get("app.eventType"));
+            Assert.assertFalse(span.tags().containsKey("app.none"));
+            Assert.assertEquals(SampleEvents.context().getMemoryLimitInMB(), span.tags().get("app.memoryMb"));
+        }
+        Assert.assertEquals(1, constantCalls.get());
+    }
+
+    @Test
+    public void testThrowingExtractor() {
+        AttributePipeline.add("app.failing", (input, context) -> {
+            throw new IllegalStateException("extractor failed");
+        });
+        AttributePipeline.addConstant("app.failingConstant", context -> {
+            throw new IllegalStateException("extractor failed");
+        });
+        AttributePipeline.add("app.after", (input, context) -> "value");
+
+        Assert.assertEquals("ok", LambdaTracing.instrument("input", SampleEvents.context(), (input, context) -> "ok"));
+
+        final Map<String, Object> tags = mockTracer.finishedSpans().get(0).tags();
+        Assert.assertFalse(tags.containsKey("app.failing"));
+        Assert.assertFalse(tags.containsKey("app.failingConstant"));
+        Assert.assertEquals("value", tags.get("app.after"));
+        Assert.assertEquals("sample-request", tags.get(AttributePipeline.REQUEST_ID));
+    }
+
+    @Test
+    public void testDisabledKeys() {
+        final Set<String> disabled = new HashSet<>(Arrays.asList("aws.requestId", "aws.lambda.kafka.*",
+                "aws.lambda.environment.*"));
+
+        Assert.assertFalse(AttributePipeline.isEnabled("aws.requestId", disabled));
+        Assert.assertFalse(AttributePipeline.isEnabled(KafkaEventParser.TAGS, disabled));
+        Assert.assertFalse(AttributePipeline.isEnabled(KafkaEventParser.BATCH_SIZE_TAG, disabled));
+        Assert.assertTrue(AttributePipeline.isEnabled(KinesisEventParser.TAGS, disabled));
+        Assert.assertTrue(AttributePipeline.isEnabled("aws.lambda.arn", disabled));
+        Assert.assertTrue(AttributePipeline.isEnabled("aws.requestId"));
+        Assert.assertFalse(AttributePipeline.isEnabled(ExecutionEnvironment.IDLE_TAG, disabled));
+        Assert.assertTrue(AttributePipeline.isEnabled(ExecutionEnvironment.CONCURRENCY_TAG, disabled));
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.events.SNSEvent;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import io.opentracing.References;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class BatchSpanContextTest {
+
+    private static final MockTracer mockTracer = new MockTracer();
+    private static final PropagationKeys DEFAULT_KEYS = PropagationKeys.get();
+
+    @BeforeClass
+    public static void beforeClass() {
+        GlobalTracerTestUtils.initTracer(mockTracer);
+    }
+
+    @Before
+    public void before() {
+        mockTracer.reset();
+        // MockTracer propagates through "traceid" and "spanid"
+        PropagationKeys.set(PropagationKeys.parse("traceid,spanid"));
+    }
+
+    @After
+    public void after() {
+        PropagationKeys.set(DEFAULT_KEYS);
+    }
+
+    @Test
+    public void testSqsBatchFollowsFromEachDistinctContext() {
+        final SQSEvent event = sqsEvent(new long[][]{{1, 10}, {1, 10}, {2, 20}, {0, 0}, {3, 30}, {2, 20}});
+
+        LambdaTracing.instrument(event, LambdaTracingTest.createContext(), (input, context) -> "ok");
+
+        final MockSpan span = mockTracer.finishedSpans().get(0);
+        final List<MockSpan.Reference> references = span.references();
+        Assert.assertEquals(3, references.size());
+        for (MockSpan.Reference reference : references) {
+            Assert.assertEquals(References.FOLLOWS_FROM, reference.getReferenceType());
+        }
+        Assert.assertEquals(10L, references.get(0).getContext().spanId());
+        Assert.assertEquals(20L, references.get(1).getContext().spanId());
+        Assert.assertEquals(30L, references.get(2).getContext().spanId());
+    }
+
+    @Test
+    public void testSingleDistinctContextStaysChildOf() {
+        final SQSEvent event = sqsEvent(new long[][]{{1, 10}, {1, 10}, {0, 0}});
+
+        LambdaTracing.instrument(event, LambdaTracingTest.createContext(), (input, context) -> "ok");
+
+        final MockSpan span = mockTracer.finishedSpans().get(0);
+        Assert.assertEquals(1, span.references().size());
+        Assert.assertEquals(References.CHILD_OF, span.references().get(0).getReferenceType());
+        Assert.assertEquals(10L, span.parentId());
+    }
+
+    @Test
+    public void testSnsBatch() {
+        final SNSEvent event = new SNSEvent();
+        final List<SNSEvent.SNSRecord> records = new ArrayList<>();
+        for (int i = 1; i <= 2; i++) {
+            final Map<String, SNSEvent.MessageAttribute> attributes = new HashMap<>();
+            attributes.put("traceid", snsAttribute(String.valueOf(i)));
+            attributes.put("spanid", snsAttribute(String.valueOf(i * 10)));
+            final SNSEvent.SNS sns = new SNSEvent.SNS();
+            sns.setMessageAttributes(attributes);
+            final SNSEvent.SNSRecord record = new SNSEvent.SNSRecord();
+            record.setSns(sns);
+            records.add(record);
+        }
+        event.setRecords(records);
+
+        final SpanContext context = HeadersParser.parseAndExtract(mockTracer, event);
+        Assert.assertTrue(context instanceof MockSpan.MockContext);
+        Assert.assertEquals("10", context.toSpanId());
+        final BatchSpanContext batch = BatchSpanContext.take(context);
+        Assert.assertEquals(2, batch.size());
+        Assert.assertNull(BatchSpanContext.take(context));
+    }
+
+    @Test
+    public void testOverriddenBuildRootSpanGetsTracerContext() {
+        final SQSEvent event = sqsEvent(new long[][]{{1, 10}, {2, 20}});
+        final LambdaTracing<SQSEvent, String> tracing = new LambdaTracing<SQSEvent, String>() {
+            @Override
+            protected Span buildRootSpan(SQSEvent input, Context context, Tracer tracer, SpanContext spanContext) {
+                return tracer.buildSpan("custom").asChildOf(spanContext).start();
+            }
+        };
+
+        tracing.instrumentRequest(event, LambdaTracingTest.createContext(), (input, context) -> "ok");
+        // The batch left pending is not applied to the next span
+        LambdaTracing.instrument("input", LambdaTracingTest.createContext(), (input, context) -> "ok");
+
+        final List<MockSpan> spans = mockTracer.finishedSpans();
+        Assert.assertEquals(10L, spans.get(0).parentId());
+        Assert.assertTrue(spans.get(1).references().isEmpty());
+    }
+
+    @Test
+    public void testMalformedRecordDoesNotHideOthers() {
+        final SQSEvent event = sqsEvent(new long[][]{{2, 20}});
+        final SQSEvent.SQSMessage malformed = sqsMessage(1, 10);
+        malformed.getMessageAttributes().put("spanid", sqsAttribute("not-a-number"));
+        final List<SQSEvent.SQSMessage> records = new ArrayList<>(event.getRecords());
+        records.add(0, malformed);
+        event.setRecords(records);
+
+        final SpanContext context = HeadersParser.parseAndExtract(mockTracer, event);
+        Assert.assertEquals("20", context.toSpanId());
+    }
+
+    @Test
+    public void testCollectorCap() {
+        final BatchSpanContext.Collector collector = new BatchSpanContext.Collector(2);
+        Assert.assertNull(collector.first());
+        Assert.assertNull(collector.toBatch());
+        Assert.assertFalse(collector.add(null));
+
+        final SQSEvent event = sqsEvent(new long[][]{{1, 10}, {1, 10}, {2, 20}, {3, 30}});
+        for (SQSEvent.SQSMessage message : event.getRecords()) {
+            collector.add(HeadersParser.parseAndExtract(mockTracer, sqsEvent(message)));
+        }
+        Assert.assertTrue(collector.isFull());
+        final BatchSpanContext batch = collector.toBatch();
+        Assert.assertEquals(2, batch.size());
+        Assert.assertEquals("10", batch.get(0).toSpanId());
+        Assert.assertEquals("20", batch.get(1).toSpanId());
+        Assert.assertEquals("10", collector.first().toSpanId());
+    }
+
+    @Test
+    public void testCollectorManyContexts() {
+        final BatchSpanContext.Collector collector = new BatchSpanContext.Collector(100);
+        final long[][] contexts = new long[250][];
+        for (int i = 0; i < contexts.length; i++) {
+            contexts[i] = new long[]{i % 50 + 1, i % 50 + 100};
+        }
+        for (SQSEvent.SQSMessage message : sqsEvent(contexts).getRecords()) {
+            collector.add(HeadersParser.parseAndExtract(mockTracer, sqsEvent(message)));
+        }
+        Assert.assertFalse(collector.isFull());
+        Assert.assertEquals(50, collector.toBatch().size());
+    }
+
+    /**
+     * @param contexts Trace and span ID pairs, {0, 0} for a message without context
+     */
+    private static SQSEvent sqsEvent(long[][] contexts) {
+        final List<SQSEvent.SQSMessage> records = new ArrayList<>();
+        for (long[] context : contexts) {
+            records.add(sqsMessage(context[0], context[1]));
+        }
+        final SQSEvent event = new SQSEvent();
+        event.setRecords(records);
+        return event;
+    }
+
+    private static SQSEvent sqsEvent(SQSEvent.SQSMessage message) {
+        final SQSEvent event = new SQSEvent();
+        event.setRecords(Collections.singletonList(message));
+        return event;
+    }
+
+    private static SQSEvent.SQSMessage sqsMessage(long traceId, long spanId) {
+        final Map<String, SQSEvent.MessageAttribute> attributes = new HashMap<>();
+        attributes.put("content-type", sqsAttribute("application/json"));
+        if (traceId != 0) {
+            attributes.put("traceid", sqsAttribute(String.valueOf(traceId)));
+            attributes.put("spanid", sqsAttribute(String.valueOf(spanId)));
+        }
+        final SQSEvent.SQSMessage message = new SQSEvent.SQSMessage();
+        message.setMessageAttributes(attributes);
+        return message;
+    }
+
+    private static SQSEvent.MessageAttribute sqsAttribute(String value) {
+        final SQSEvent.MessageAttribute attribute = new SQSEvent.MessageAttribute();
+        attribute.setStringValue(value);
+        return attribute;
+    }
+
+    private static SNSEvent.MessageAttribute snsAttribute(String value) {
+        final SNSEvent.MessageAttribute attribute = new SNSEvent.MessageAttribute();
+        attribute.setValue(value);
+        return attribute;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import com.amazonaws.services.lambda.runtime.Client;
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ClientContextPropagationTest {
+
+    private static final MockTracer mockTracer = new MockTracer();
+    private static final PropagationKeys DEFAULT_KEYS = PropagationKeys.get();
+
+    @BeforeClass
+    public static void beforeClass() {
+        GlobalTracerTestUtils.initTracer(mockTracer);
+    }
+
+    @Before
+    public void before() {
+        mockTracer.reset();
+        // MockTracer propagates through "traceid" and "spanid"
+        PropagationKeys.set(PropagationKeys.parse("traceid,spanid"));
+    }
+
+    @After
+    public void after() {
+        PropagationKeys.set(DEFAULT_KEYS);
+    }
+
+    @Test
+    public void testInject() {
+        final MockSpan caller = (MockSpan) mockTracer.buildSpan("caller").start();
+
+        final String encoded = ClientContextPropagation.inject(mockTracer, caller.context(),
+                Collections.singletonMap("tenant", "acme"));
+
+        final String json = new String(Base64.getDecoder().decode(encoded), StandardCharsets.UTF_8);
+        Assert.assertTrue(json.startsWith("{\"custom\":{\"tenant\":\"acme\","));
+        Assert.assertTrue(json.endsWith("}}"));
+        Assert.assertTrue(json.contains("\"traceid\":\"" + caller.context().traceId() + "\""));
+        Assert.assertTrue(json.contains("\"spanid\":\"" + caller.context().spanId() + "\""));
+    }
+
+    @Test
+    public void testCalleeContinuesTrace() {
+        final MockSpan caller = (MockSpan) mockTracer.buildSpan("caller").start();
+        final Map<String, String> custom = new HashMap<>();
+        custom.put("traceid", String.valueOf(caller.context().traceId()));
+        custom.put("spanid", String.valueOf(caller.context().spanId()));
+        custom.put("tenant", "acme");
+
+        LambdaTracing.instrument(new HashMap<String, Object>(), LambdaTracingTest.createContext(clientContext(custom)),
+                (input, context) -> "ok");
+
+        final MockSpan span = mockTracer.finishedSpans().get(0);
+        Assert.assertEquals(caller.context().traceId(), span.context().traceId());
+        Assert.assertEquals(caller.context().spanId(), span.parentId());
+    }
+
+    @Test
+    public void testInputTakesPrecedence() {
+        final Map<String, String> custom = new HashMap<>();
+        custom.put("traceid", "1");
+        custom.put("spanid", "10");
+        final Map<String, String> headers = new HashMap<>();
+        headers.put("traceid", "2");
+        headers.put("spanid", "20");
+        final Map<String, Object> input = new HashMap<>();
+        input.put("headers", headers);
+
+        LambdaTracing.instrument(input, LambdaTracingTest.createContext(clientContext(custom)), (in, context) -> "ok");
+
+        Assert.assertEquals(20L, mockTracer.finishedSpans().get(0).parentId());
+    }
+
+    @Test
+    public void testStreamHandler() throws IOException {
+        final Map<String, String> custom = new HashMap<>();
+        custom.put("traceid", "3");
+        custom.put("spanid", "30");
+
+        StreamLambdaTracing.instrument(new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream(),
+                LambdaTracingTest.createContext(clientContext(custom)), (input, output, context) -> {
+                });
+
+        Assert.assertEquals(30L, mockTracer.finishedSpans().get(0).parentId());
+    }
+
+    @Test
+    public void testNoClientContext() {
+        Assert.assertNull(ClientContextPropagation.extract(mockTracer, LambdaTracingTest.createContext()));
+        Assert.assertNull(ClientContextPropagation.extract(mockTracer, LambdaTracingTest.createContext(
+                clientContext(Collections.singletonMap("tenant", "acme")))));
+    }
+
+    private static ClientContext clientContext(Map<String, String> custom) {
+        return new ClientContext() {
+            @Override
+            public Client getClient() {
+                return null;
+            }
+
+            @Override
+            public Map<String, String> getCustom() {
+                return custom;
+            }
+
+            @Override
+            public Map<String, String> getEnvironment() {
+                return null;
+            }
+        };
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class CostAttributionTest {
+
+    private static final MockTracer mockTracer = new MockTracer();
+    private static final PropagationKeys DEFAULT_KEYS = PropagationKeys.get();
+
+    private final LambdaTracing<Object, String> tracing = new LambdaTracing<Object, String>() {
+        @Override
+        protected boolean isCostAttributed(Object input, Context context) {
+            return true;
+        }
+    };
+
+    @BeforeClass
+    public static void beforeClass() {
+        GlobalTracerTestUtils.initTracer(mockTracer);
+    }
+
+    @Before
+    public void before() {
+        mockTracer.reset();
+        // MockTracer propagates through "traceid", "spanid" and "baggage-" prefixed baggage items
+        PropagationKeys.set(PropagationKeys.parse("traceid,spanid,baggage-*"));
+        CostAttribution.setTenantKey("tenant");
+        CostAttribution.setTopTenants(new CostAttribution.TopTenants(2));
+    }
+
+    @After
+    public void after() {
+        PropagationKeys.set(DEFAULT_KEYS);
+        CostAttribution.setTenantKey(null);
+    }
+
+    @Test
+    public void testBilledDuration() {
+        Assert.assertEquals(1, CostAttribution.billedMillis(0));
+        Assert.assertEquals(1, CostAttribution.billedMillis(TimeUnit.MILLISECONDS.toNanos(1)));
+        Assert.assertEquals(2, CostAttribution.billedMillis(TimeUnit.MILLISECONDS.toNanos(1) + 1));
+        Assert.assertEquals(0.25, CostAttribution.gbSeconds(250, 1024), 1e-9);
+        Assert.assertEquals(0.000125, CostAttribution.gbSeconds(1, 128), 1e-12);
+    }
+
+    @Test
+    public void testCostTagged() {
+        tracing.instrumentRequest("input", LambdaTracingTest.createContext(), (input, context) -> {
+            sleep(5);
+            return "ok";
+        });
+
+        final MockSpan span = mockTracer.finishedSpans().get(0);
+        final long billedMillis = (Long) span.tags().get(CostAttribution.BILLED_DURATION_TAG);
+        Assert.assertTrue(billedMillis >= 5);
+        Assert.assertEquals(CostAttribution.gbSeconds(billedMillis, 510),
+                (Double) span.tags().get(CostAttribution.GB_SECONDS_TAG), 1e-12);
+        Assert.assertFalse(span.tags().containsKey(CostAttribution.TENANT_TAG));
+        Assert.assertTrue(CostAttribution.topTenants().gbSeconds(CostAttribution.NO_TENANT) > 0);
+    }
+
+    @Test
+    public void testTenantFromBaggage() {
+        final Map<String, String> headers = new HashMap<>();
+        headers.put("traceid", "1");
+        headers.put("spanid", "10");
+        headers.put("baggage-tenant", "acme");
+        headers.put("Tenant", "ignored");
+        final Map<String, Object> input = new HashMap<>();
+        input.put("headers", headers);
+
+        tracing.instrumentRequest(input, LambdaTracingTest.createContext(), (in, context) -> "ok");
+
+        Assert.assertEquals("acme", mockTracer.finishedSpans().get(0).tags().get(CostAttribution.TENANT_TAG));
+    }
+
+    @Test
+    public void testTenantFromHeader() {
+        final APIGatewayV2HTTPEvent input = new APIGatewayV2HTTPEvent();
+        input.setHeaders(Collections.singletonMap("Tenant", "globex"));
+
+        tracing.instrumentRequest(input, LambdaTracingTest.createContext(), (in, context) -> "ok");
+
+        Assert.assertEquals("globex", mockTracer.finishedSpans().get(0).tags().get(CostAttribution.TENANT_TAG));
+        Assert.assertTrue(CostAttribution.topTenants().gbSeconds("globex") > 0);
+    }
+
+    @Test
+    public void testContainerReport() {
+        ContainerReport.reportNext();
+        final APIGatewayV2HTTPEvent input = new APIGatewayV2HTTPEvent();
+        input.setHeaders(Collections.singletonMap("tenant", "acme"));
+
+        tracing.instrumentRequest(input, LambdaTracingTest.createContext(), (in, context) -> "ok");
+        tracing.instrumentRequest(input, LambdaTracingTest.createContext(), (in, context) -> "ok");
+
+        final String topTenants = (String) mockTracer.finishedSpans().get(0).tags().get(CostAttribution.TOP_TENANTS_TAG);
+        Assert.assertTrue(topTenants, topTenants.matches("acme=[\\d.]+/1"));
+        Assert.assertFalse(mockTracer.finishedSpans().get(1).tags().containsKey(CostAttribution.TOP_TENANTS_TAG));
+    }
+
+    @Test
+    public void testContainerReportWithoutCostAttribution() {
+        ContainerReport.reportNext();
+
+        LambdaTracing.instrument("input", LambdaTracingTest.createContext(), (in, context) -> "ok");
+
+        final Map<String, Object> tags = mockTracer.finishedSpans().get(0).tags();
+        Assert.assertEquals(Boolean.TRUE, tags.get(ContainerReport.TAG));
+        Assert.assertTrue(((Number) tags.get(ExecutionEnvironment.MAX_CONCURRENCY_TAG)).intValue() >= 1);
+        Assert.assertFalse(tags.containsKey(CostAttribution.GB_SECONDS_TAG));
+    }
+
+    @Test
+    public void testTopTenants() {
+        final CostAttribution.TopTenants tenants = new CostAttribution.TopTenants(2);
+        Assert.assertEquals("", tenants.format());
+        tenants.add("acme", 3);
+        tenants.add("globex", 1);
+        tenants.add("acme", 2);
+        Assert.assertEquals("acme=5.0/2,globex=1.0/1", tenants.format());
+
+        // Replaces globex, the smallest, and inherits its GB-seconds
+        tenants.add("initech", 0.5);
+        Assert.assertEquals("acme=5.0/2,initech=~1.5/1", tenants.format());
+        Assert.assertEquals(0, tenants.gbSeconds("globex"), 0);
+
+        // A tenant with a large share gets back in
+        tenants.add("globex", 10);
+        Assert.assertEquals("globex=~11.5/1,acme=5.0/2", tenants.format());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.amazonaws.services.lambda.runtime.events.ApplicationLoadBalancerRequestEvent;
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class HttpRouteTest {
+
+    @Before
+    @After
+    public void reset() {
+        HttpRoute.reset();
+    }
+
+    @Test
+    public void testResourceTemplate() {
+        final HttpRoute route = HttpRoute.parse(SampleEvents.apiGatewayProxyRequestEvent());
+
+        Assert.assertEquals("GET /orders/{orderId}", route.operationName);
+        Assert.assertEquals("/orders/{orderId}", route.route);
+        Assert.assertSame(route, HttpRoute.parse(SampleEvents.apiGatewayProxyRequestEvent()));
+    }
+
+    @Test
+    public void testRouteKey() {
+        final HttpRoute route = HttpRoute.parse(SampleEvents.apiGatewayV2HTTPEvent());
+
+        Assert.assertEquals("POST /carts/{cartId}/items", route.operationName);
+        Assert.assertEquals("/carts/{cartId}/items", route.route);
+    }
+
+    @Test
+    public void testDefaultRouteUsesPath() {
+        final APIGatewayV2HTTPEvent.RequestContext.Http http = new APIGatewayV2HTTPEvent.RequestContext.Http();
+        http.setMethod("GET");
+        final APIGatewayV2HTTPEvent.RequestContext requestContext = new APIGatewayV2HTTPEvent.RequestContext();
+        requestContext.setHttp(http);
+        final APIGatewayV2HTTPEvent event = new APIGatewayV2HTTPEvent();
+        event.setRouteKey("$default");
+        event.setRawPath("/users/42/orders/3F2504E0-4F89-11D3-9A0C-0305E82C3301");
+        event.setRequestContext(requestContext);
+
+        Assert.assertSame(HttpRoute.OVERFLOW, HttpRoute.parse(event));
+        final HttpRoute route = HttpRoute.parse(event);
+
+        Assert.assertEquals("GET /users/{id}/orders/{uuid}", route.operationName);
+        Assert.assertEquals("/users/{id}/orders/{uuid}", route.route);
+    }
+
+    @Test
+    public void testLoadBalancerPath() {
+        final ApplicationLoadBalancerRequestEvent event = SampleEvents.applicationLoadBalancerRequestEvent();
+
+        HttpRoute.parse(event);
+        Assert.assertEquals("GET /products/{id}/reviews", HttpRoute.parse(event).operationName);
+    }
+
+    @Test
+    public void testMaps() {
+        final Map<String, Object> restApi = new HashMap<>();
+        restApi.put("httpMethod", "DELETE");
+        restApi.put("resource", "/orders/{orderId}");
+        restApi.put("path", "/orders/4711");
+        restApi.put("requestContext", Collections.emptyMap());
+        Assert.assertEquals("DELETE /orders/{orderId}", HttpRoute.parse(restApi).operationName);
+
+        final Map<String, Object> functionUrl = new HashMap<>();
+        functionUrl.put("routeKey", "$default");
+        functionUrl.put("rawPath", "/items/17");
+        functionUrl.put("requestContext", Collections.singletonMap("http", Collections.singletonMap("method", "PUT")));
+        HttpRoute.parse(functionUrl);
+        Assert.assertEquals("PUT /items/{id}", HttpRoute.parse(functionUrl).operationName);
+
+        Assert.assertNull(HttpRoute.parse(SampleEvents.sqsMap()));
+    }
+
+    @Test
+    public void testNotHttp() {
+        Assert.assertNull(HttpRoute.parse("input"));
+        Assert.assertNull(HttpRoute.parse(SampleEvents.sqsEvent()));
+        Assert.assertNull(HttpRoute.parse(new APIGatewayProxyRequestEvent()));
+    }
+
+    @Test
+    public void testNormalize() {
+        final String path = "/orders/latest/";
+        Assert.assertSame(path, HttpRoute.normalize(path));
+        Assert.assertEquals("/{id}/", HttpRoute.normalize("/0815/"));
+        Assert.assertEquals("/v2/{id}", HttpRoute.normalize("/v2/12"));
+        Assert.assertEquals("/a1/3f2504e0-4f89-11d3-9a0c", HttpRoute.normalize("/a1/3f2504e0-4f89-11d3-9a0c"));
+    }
+
+    @Test
+    public void testOverflow() {
+        final HttpRoute first = HttpRoute.named("GET", "/route/0");
+        for (int i = 1; i < HttpRoute.MAX_ROUTES; i++) {
+            Assert.assertNotSame(HttpRoute.OVERFLOW, HttpRoute.named("GET", "/route/" + i));
+        }
+
+        Assert.assertSame(HttpRoute.OVERFLOW, HttpRoute.named("GET", "/one/too/many"));
+        Assert.assertSame(HttpRoute.OVERFLOW, HttpRoute.named("POST", "/route/0"));
+        Assert.assertSame(first, HttpRoute.named("GET", "/route/0"));
+        Assert.assertEquals(HttpRoute.DEFAULT_OPERATION_NAME, HttpRoute.OVERFLOW.operationName);
+    }
+
+    @Test
+    public void testPathRoutesAfterJunk() {
+        // More one-off paths than there are routes, as a scanner would send
+        for (int i = 0; i < 10 * HttpRoute.MAX_ROUTES; i++) {
+            Assert.assertSame(HttpRoute.OVERFLOW, HttpRoute.parse(loadBalancerEvent("/wp-admin/" + i + ".php")));
+        }
+
+        Assert.assertEquals("GET /orders/{orderId}",
+                HttpRoute.parse(SampleEvents.apiGatewayProxyRequestEvent()).operationName);
+        final ApplicationLoadBalancerRequestEvent event = loadBalancerEvent("/products/7/reviews");
+        for (int i = 1; i < HttpRoute.PATH_ROUTE_SIGHTINGS; i++) {
+            Assert.assertSame(HttpRoute.OVERFLOW, HttpRoute.parse(event));
+        }
+        final HttpRoute route = HttpRoute.parse(event);
+        Assert.assertEquals("GET /products/{id}/reviews", route.operationName);
+        Assert.assertSame(route, HttpRoute.parse(loadBalancerEvent("/products/8/reviews")));
+    }
+
+    @Test
+    public void testConcurrentNaming() throws Exception {
+        final int threads = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<Set<HttpRoute>>> named = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            named.add(executor.submit(() -> {
+                start.await();
+                final Set<HttpRoute> routes = Collections.newSetFromMap(new IdentityHashMap<>());
+                // Twice as many routes as fit, the same ones on every thread
+                for (int i = 0; i < 2 * HttpRoute.MAX_ROUTES; i++) {
+                    routes.add(HttpRoute.named("GET", HttpRoute.normalize("/route" + i + "/" + i)));
+                }
+                return routes;
+            }));
+        }
+        start.countDown();
+        final Set<HttpRoute> routes = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Future<Set<HttpRoute>> future : named) {
+            routes.addAll(future.get());
+        }
+        executor.shutdown();
+
+        Assert.assertTrue(routes.remove(HttpRoute.OVERFLOW));
+        Assert.assertEquals(HttpRoute.MAX_ROUTES, routes.size());
+        for (HttpRoute route : routes) {
+            Assert.assertTrue(route.route, route.route.matches("/route[0-9]+/\\{id}"));
+        }
+    }
+
+    @Test
+    public void testRootSpanNamedAfterRoute() {
+        final MockTracer mockTracer = new MockTracer();
+        GlobalTracerTestUtils.initTracer(mockTracer);
+
+        LambdaTracing.instrument(SampleEvents.apiGatewayProxyRequestEvent(), LambdaTracingTest.createContext(),
+                (input, context) -> "ok");
+
+        final MockSpan span = mockTracer.finishedSpans().get(0);
+        Assert.assertEquals("GET /orders/{orderId}", span.operationName());
+        Assert.assertEquals("/orders/{orderId}", span.tags().get(HttpRoute.ROUTE_TAG));
+    }
+
+    private static ApplicationLoadBalancerRequestEvent loadBalancerEvent(String path) {
+        final ApplicationLoadBalancerRequestEvent event = new ApplicationLoadBalancerRequestEvent();
+        event.setHttpMethod("GET");
+        event.setPath(path);
+        return event;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.KinesisEvent;
+import io.opentracing.mock.MockTracer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class InvocationCaptureTest {
+
+    private final MockTracer mockTracer = new MockTracer();
+
+    private Path directory;
+
+    @Before
+    public void before() throws IOException {
+        mockTracer.reset();
+        GlobalTracerTestUtils.initTracer(mockTracer);
+        directory = Files.createTempDirectory("capture");
+        InvocationCapture.reset(directory);
+    }
+
+    @After
+    public void after() throws IOException {
+        InvocationCapture.reset(null);
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testLogRotation() throws IOException {
+        final Path rotated = directory.resolve("rotated");
+        final byte[] event = new byte[100];
+        Arrays.fill(event, (byte) 'x');
+        // Three entries fit in a file, so seven entries need three files, of which two are kept
+        try (InvocationLog log = InvocationLog.open(rotated, 8 + 3 * (4 + 19 + 4 + 100) + 4, 2)) {
+            for (int i = 0; i < 7; i++) {
+                Assert.assertTrue(log.append(1000 + i, i, i == 5, "type", event));
+            }
+            Assert.assertFalse(log.append(0, 0, false, "type", new byte[1000]));
+        }
+
+        try (Stream<Path> files = Files.list(rotated)) {
+            Assert.assertEquals(2, files.count());
+        }
+        final List<InvocationLog.Entry> entries = InvocationLog.read(rotated);
+        Assert.assertEquals(4, entries.size());
+        Assert.assertEquals(1003, entries.get(0).getStartMillis());
+        Assert.assertEquals(6, entries.get(3).getDurationNanos());
+        Assert.assertTrue(entries.get(2).isError());
+        Assert.assertEquals("type", entries.get(0).getEventType());
+        Assert.assertArrayEquals(event, entries.get(0).getEvent());
+
+        // A new log continues after the existing files
+        try (InvocationLog log = InvocationLog.open(rotated, 4096, 2)) {
+            log.append(2000, 0, false, "type", event);
+        }
+        final List<InvocationLog.Entry> continued = InvocationLog.read(rotated);
+        Assert.assertEquals(2, continued.size());
+        Assert.assertEquals(1006, continued.get(0).getStartMillis());
+        Assert.assertEquals(2000, continued.get(1).getStartMillis());
+    }
+
+    @Test
+    public void testRedaction() {
+        final String json = "{\"headers\":{\"Authorization\":\"Bearer a\\\"b\",\"Host\":\"example.com\"},"
+                + "\"password\": 1234.5,\"token\":{\"a\":[1,\"}\"]},\"secret\":true,\"body\":\"hello\"}";
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+
+        EventJson.redact(bytes, bytes.length, InvocationCapture.REDACTED_FIELDS);
+
+        Assert.assertEquals("{\"headers\":{\"Authorization\":\"***********\",\"Host\":\"example.com\"},"
+                + "\"password\": 0000.0,\"token\":\"***********\",\"secret\":true,\"body\":\"hello\"}",
+                new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testEmbeddedRedaction() {
+        final String json = "{\"headers\":{\"Authorization\":\"Bearer abc\"},"
+                + "\"body\":\"{\\\"password\\\":\\\"hunter2\\\",\\\"token\\\":{\\\"a\\\":1},\\\"id\\\":7}\","
+                + "\"Message\":\"{\\\"body\\\":\\\"{\\\\\\\"secret\\\\\\\":\\\\\\\"x\\\\\\\"}\\\"}\","
+                + "\"note\":\"{not json\"}";
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+
+        EventJson.redact(bytes, bytes.length, InvocationCapture.REDACTED_FIELDS);
+
+        Assert.assertEquals("{\"headers\":{\"Authorization\":\"**********\"},"
+                + "\"body\":\"{\\\"password\\\":\\\"*******\\\",\\\"token\\\":[       ],\\\"id\\\":7}\","
+                + "\"Message\":\"{\\\"body\\\":\\\"{\\\\\\\"secret\\\\\\\":\\\\\\\"*\\\\\\\"}\\\"}\","
+                + "\"note\":\"{not json\"}",
+                new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testTypedInvocation() throws IOException {
+        final APIGatewayProxyRequestEvent input = new APIGatewayProxyRequestEvent();
+        input.setHttpMethod("GET");
+        input.setPath("/orders");
+        input.setHeaders(Collections.singletonMap("authorization", "Bearer abc"));
+
+        capturing().instrumentRequest(input, SampleEvents.context(), (in, context) -> "ok");
+
+        final List<InvocationLog.Entry> entries = InvocationLog.read(directory);
+        Assert.assertEquals(1, entries.size());
+        Assert.assertEquals(APIGatewayProxyRequestEvent.class.getName(), entries.get(0).getEventType());
+        Assert.assertFalse(entries.get(0).isError());
+        final String event = new String(entries.get(0).getEvent(), StandardCharsets.UTF_8);
+        Assert.assertTrue(event, event.contains("\"httpMethod\":\"GET\""));
+        Assert.assertTrue(event, event.contains("\"path\":\"/orders\""));
+        Assert.assertTrue(event, event.contains("\"authorization\":\"**********\""));
+    }
+
+    @Test
+    public void testOtherInputNotCaptured() {
+        final boolean[] called = {false};
+        final Object input = new Object() {
+            public String getSecret() {
+                called[0] = true;
+                return "secret";
+            }
+        };
+
+        Assert.assertNull(InvocationCapture.start(input));
+        Assert.assertFalse(called[0]);
+    }
+
+    @Test
+    public void testRuntimeNames() {
+        final KinesisEvent.Record kinesis = new KinesisEvent.Record();
+        kinesis.setApproximateArrivalTimestamp(new Date(1545084650987L));
+        final KinesisEvent.KinesisEventRecord record = new KinesisEvent.KinesisEventRecord();
+        record.setEventSourceARN("arn:aws:kinesis:us-east-1:123456789012:stream/stream");
+        record.setKinesis(kinesis);
+        final KinesisEvent event = new KinesisEvent();
+        event.setRecords(Collections.singletonList(record));
+        final JsonWriter json = new JsonWriter(64);
+
+        Assert.assertTrue(EventJson.write(json, event, InvocationCapture.MAX_EVENT_BYTES));
+        final String written = json.toString();
+        Assert.assertTrue(written, written.startsWith("{\"Records\":[{\"eventSourceARN\":"));
+        Assert.assertTrue(written, written.contains("\"approximateArrivalTimestamp\":1.545084650987E9"));
+
+        // Stops once the limit is reached
+        Assert.assertFalse(EventJson.write(json.reset(), event, 16));
+        Assert.assertTrue(json.length() < written.length());
+    }
+
+    @Test
+    public void testStreamInvocation() throws IOException {
+        final String payload = "{\"orderId\":\"4711\",\"password\":\"hunter2\"}";
+        final InputStream input = new ByteArrayInputStream(payload.getBytes(StandardCharsets.UTF_8));
+        final StreamLambdaTracing tracing = new StreamLambdaTracing() {
+            @Override
+            protected boolean isCaptured(InputStream input, Context context) {
+                return true;
+            }
+        };
+
+        try {
+            tracing.instrumentRequest(input, new ByteArrayOutputStream(), SampleEvents.context(),
+                    (in, out, context) -> {
+                        // Reads only part of the input
+                        in.read(new byte[4]);
+                        throw new IllegalStateException("failed");
+                    });
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+
+        final InvocationLog.Entry entry = InvocationLog.read(directory).get(0);
+        Assert.assertEquals(InvocationCapture.STREAM_EVENT_TYPE, entry.getEventType());
+        Assert.assertTrue(entry.isError());
+        Assert.assertEquals("{\"orderId\":\"4711\",\"password\":\"*******\"}",
+                new String(entry.getEvent(), StandardCharsets.UTF_8));
+    }
+
+    private static LambdaTracing<Object, Object> capturing() {
+        return new LambdaTracing<Object, Object>() {
+            @Override
+            protected boolean isCaptured(Object input, Context context) {
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import com.amazonaws.services.lambda.runtime.events.KafkaEvent;
+import io.opentracing.SpanContext;
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class KafkaEventParserTest {
+
+    private static final MockTracer mockTracer = new MockTracer();
+    private static final PropagationKeys DEFAULT_KEYS = PropagationKeys.get();
+
+    @BeforeClass
+    public static void beforeClass() {
+        GlobalTracerTestUtils.initTracer(mockTracer);
+    }
+
+    @Before
+    public void before() {
+        mockTracer.reset();
+        // MockTracer propagates through "traceid" and "spanid"
+        PropagationKeys.set(PropagationKeys.parse("traceid,spanid"));
+    }
+
+    @After
+    public void after() {
+        PropagationKeys.set(DEFAULT_KEYS);
+    }
+
+    @Test
+    public void testSpan() {
+        final long now = System.currentTimeMillis();
+        final KafkaEvent event = kafkaEvent(now);
+
+        LambdaTracing.instrument(event, LambdaTracingTest.createContext(), (input, context) -> "ok");
+
+        final MockSpan span = mockTracer.finishedSpans().get(0);
+        Assert.assertEquals("arn:aws:kafka:us-east-1:123456789012:cluster/orders/abc",
+                span.tags().get("aws.lambda.eventSource.arn"));
+        Assert.assertEquals(42L, span.parentId());
+        Assert.assertEquals(7L, span.context().traceId());
+        Assert.assertEquals(3, span.tags().get(KafkaEventParser.BATCH_SIZE_TAG));
+        Assert.assertEquals(2, span.tags().get(KafkaEventParser.PARTITION_COUNT_TAG));
+        Assert.assertEquals("orders-0:2,orders-1:1", span.tags().get(KafkaEventParser.PARTITION_BATCH_SIZES_TAG));
+        Assert.assertEquals(2, span.tags().get(KafkaEventParser.MAX_PARTITION_BATCH_SIZE_TAG));
+        final long lag = ((Number) span.tags().get(KafkaEventParser.MAX_RECORD_LAG_TAG)).longValue();
+        Assert.assertTrue(lag >= 5000);
+    }
+
+    @Test
+    public void testOnlyPropagationHeadersDecoded() {
+        final KafkaEvent event = kafkaEvent(System.currentTimeMillis());
+
+        final PropagationHeaders carrier = KafkaEventParser.propagationHeaders(PropagationKeys.get(),
+                event.getRecords().get("orders-0").get(1));
+        Assert.assertEquals(2, carrier.size());
+        Assert.assertFalse(carrier.contains("content-type"));
+
+        final SpanContext context = HeadersParser.parseAndExtract(mockTracer, event);
+        Assert.assertEquals("42", context.toSpanId());
+    }
+
+    @Test
+    public void testEmptyEvent() {
+        final KafkaEvent event = new KafkaEvent();
+        LambdaTracing.instrument(event, LambdaTracingTest.createContext(), (input, context) -> "ok");
+
+        final MockSpan span = mockTracer.finishedSpans().get(0);
+        Assert.assertEquals(0, span.parentId());
+        Assert.assertFalse(span.tags().containsKey(KafkaEventParser.BATCH_SIZE_TAG));
+    }
+
+    static KafkaEvent kafkaEvent(long now) {
+        final Map<String, List<KafkaEvent.KafkaEventRecord>> records = new LinkedHashMap<>();
+        records.put("orders-0", Arrays.asList(
+                record("orders", 0, now - 5000, Collections.singletonList(header("content-type", "json"))),
+                record("orders", 0, now - 1000, Arrays.asList(
+                        header("content-type", "json"), header("TraceId", "7"), header("SpanId", "42")))));
+        records.put("orders-1", new ArrayList<>(Collections.singletonList(
+                record("orders", 1, now - 2000, Collections.singletonList(header("spanid", "99"))))));
+
+        final KafkaEvent event = new KafkaEvent();
+        event.setEventSourceArn("arn:aws:kafka:us-east-1:123456789012:cluster/orders/abc");
+        event.setRecords(records);
+        return event;
+    }
+
+    private static KafkaEvent.KafkaEventRecord record(String topic, int partition, long timestamp,
+            List<Map<String, byte[]>> headers) {
+        final KafkaEvent.KafkaEventRecord record = new KafkaEvent.KafkaEventRecord();
+        record.setTopic(topic);
+        record.setPartition(partition);
+        record.setTimestamp(timestamp);
+        record.setHeaders(headers);
+        return record;
+    }
+
+    private static Map<String, byte[]> header(String key, String value) {
+        return Collections.singletonMap(key, value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import com.amazonaws.services.lambda.runtime.events.KinesisEvent;
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+public class KinesisDeaggregatorTest {
+
+    @Test
+    public void testUserRecords() throws Exception {
+        final KinesisEvent.Record record = kinesisRecord(aggregate(
+                userRecord(0, null, "first"),
+                userRecord(1, 0, "second", "traceparent", SampleEvents.TRACEPARENT, "tenant", "acme"),
+                userRecord(0, null, "third")));
+        final List<String> seen = new ArrayList<>();
+
+        final int visited = KinesisDeaggregator.forEach(record, userRecord -> {
+            Assert.assertTrue(userRecord.isAggregated());
+            Assert.assertTrue(userRecord.data().isReadOnly());
+            seen.add(userRecord.index() + ":" + userRecord.partitionKey() + ":" + userRecord.explicitHashKey()
+                    + ":" + StandardCharsets.UTF_8.decode(userRecord.data()) + ":" + userRecord.tag("tenant"));
+            return true;
+        });
+
+        Assert.assertEquals(3, visited);
+        Assert.assertEquals(Arrays.asList("0:pk-a:null:first:null", "1:pk-b:42:second:acme", "2:pk-a:null:third:null"),
+                seen);
+        Assert.assertEquals(3, KinesisDeaggregator.countUserRecords(record.getData()));
+        Assert.assertEquals("data is not consumed", 0, record.getData().position());
+    }
+
+    @Test
+    public void testVisitorStops() throws Exception {
+        final KinesisEvent.Record record = kinesisRecord(aggregate(
+                userRecord(0, null, "first"), userRecord(0, null, "second")));
+
+        Assert.assertEquals(1, KinesisDeaggregator.forEach(record, userRecord -> false));
+    }
+
+    @Test
+    public void testNotAggregated() {
+        final KinesisEvent.Record record = kinesisRecord("{\"orderId\":\"4711\"}".getBytes(StandardCharsets.UTF_8));
+        final List<String> seen = new ArrayList<>();
+
+        KinesisDeaggregator.forEach(record, userRecord -> {
+            Assert.assertFalse(userRecord.isAggregated());
+            seen.add(userRecord.partitionKey() + ":" + StandardCharsets.UTF_8.decode(userRecord.data()));
+            return true;
+        });
+
+        Assert.assertEquals(Collections.singletonList("record-key:{\"orderId\":\"4711\"}"), seen);
+        Assert.assertEquals(-1, KinesisDeaggregator.countUserRecords(record.getData()));
+    }
+
+    @Test
+    public void testDigestMismatchIsNotAggregated() throws Exception {
+        final byte[] aggregated = aggregate(userRecord(0, null, "first"), userRecord(0, null, "second"));
+        aggregated[aggregated.length - 1] ^= 1;
+
+        Assert.assertFalse(KinesisDeaggregator.isAggregated(ByteBuffer.wrap(aggregated)));
+        Assert.assertEquals(1, KinesisDeaggregator.forEach(kinesisRecord(aggregated), userRecord -> {
+            Assert.assertFalse(userRecord.isAggregated());
+            return true;
+        }));
+    }
+
+    @Test
+    public void testContextPerUserRecord() throws Exception {
+        final KinesisEvent event = kinesisEvent(kinesisRecord(aggregate(
+                userRecord(0, null, "first"),
+                userRecord(0, null, "second", "traceparent", SampleEvents.TRACEPARENT))));
+        final List<String> traceparents = new ArrayList<>();
+
+        KinesisEventParser.forEachRecord(event, carrier -> {
+            traceparents.add(carrier.get("traceparent"));
+            return true;
+        });
+
+        Assert.assertEquals(Arrays.asList(null, SampleEvents.TRACEPARENT), traceparents);
+    }
+
+    @Test
+    public void testWalkRemembersAggregation() throws Exception {
+        final KinesisEvent event = kinesisEvent(
+                kinesisRecord(aggregate(userRecord(0, null, "first"), userRecord(0, null, "second"))),
+                kinesisRecord("plain".getBytes(StandardCharsets.UTF_8)),
+                kinesisRecord("unvisited".getBytes(StandardCharsets.UTF_8)));
+        final List<PropagationHeaders> carriers = new ArrayList<>();
+
+        KinesisEventParser.forEachRecord(event, carrier -> {
+            carriers.add(carrier);
+            return carriers.size() < 3;
+        });
+
+        Assert.assertEquals(3, carriers.size());
+        Assert.assertSame(PropagationHeaders.NONE, carriers.get(2));
+        final byte[] walked = KinesisEventParser.takeAggregation(event);
+        Assert.assertEquals(KinesisEventParser.AGGREGATED, walked[0]);
+        Assert.assertEquals(KinesisEventParser.NOT_AGGREGATED, walked[1]);
+        Assert.assertEquals(KinesisEventParser.UNKNOWN, walked[2]);
+        Assert.assertNull(KinesisEventParser.takeAggregation(event));
+    }
+
+    @Test
+    public void testEventParsersReleaseEvent() throws Exception {
+        final KinesisEvent event = kinesisEvent(kinesisRecord(aggregate(userRecord(0, null, "first"))));
+        final List<PropagationHeaders> carriers = new ArrayList<>();
+
+        EventParsers.forEachRecord(event, carriers::add);
+
+        Assert.assertEquals(1, carriers.size());
+        Assert.assertNull(KinesisEventParser.takeAggregation(event));
+    }
+
+    @Test
+    public void testBatchTagsCountUserRecords() throws Exception {
+        final MockTracer mockTracer = new MockTracer();
+        GlobalTracerTestUtils.initTracer(mockTracer);
+        final KinesisEvent.Record aggregated = kinesisRecord(aggregate(
+                userRecord(0, null, "first"), userRecord(0, null, "second"), userRecord(0, null, "third")));
+        aggregated.setApproximateArrivalTimestamp(new Date(System.currentTimeMillis() - 5000));
+        final KinesisEvent event = kinesisEvent(aggregated, kinesisRecord("plain".getBytes(StandardCharsets.UTF_8)));
+
+        LambdaTracing.instrument(event, LambdaTracingTest.createContext(), (input, context) -> "ok");
+
+        final MockSpan span = mockTracer.finishedSpans().get(0);
+        Assert.assertEquals(4, span.tags().get(KinesisEventParser.BATCH_SIZE_TAG));
+        Assert.assertEquals(2, span.tags().get(KinesisEventParser.RECORD_COUNT_TAG));
+        Assert.assertEquals(1, span.tags().get(KinesisEventParser.AGGREGATED_RECORD_COUNT_TAG));
+        Assert.assertTrue(((Number) span.tags().get(KinesisEventParser.MAX_RECORD_LAG_TAG)).longValue() >= 5000);
+    }
+
+    private static KinesisEvent kinesisEvent(KinesisEvent.Record... records) {
+        final List<KinesisEvent.KinesisEventRecord> eventRecords = new ArrayList<>();
+        for (KinesisEvent.Record record : records) {
+            final KinesisEvent.KinesisEventRecord eventRecord = new KinesisEvent.KinesisEventRecord();
+            eventRecord.setEventSourceARN("arn:aws:kinesis:us-east-1:123456789012:stream/stream");
+            eventRecord.setKinesis(record);
+            eventRecords.add(eventRecord);
+        }
+        final KinesisEvent event = new KinesisEvent();
+        event.setRecords(eventRecords);
+        return event;
+    }
+
+    private static KinesisEvent.Record kinesisRecord(byte[] data) {
+        final KinesisEvent.Record record = new KinesisEvent.Record();
+        record.setPartitionKey("record-key");
+        record.setData(ByteBuffer.wrap(data));
+        return record;
+    }
+
+    /**
+     * @return a KPL aggregated record with the partition keys pk-a and pk-b and the explicit hash key 42
+     */
+    private static byte[] aggregate(byte[]... userRecords) throws Exception {
+        final ByteArrayOutputStream message = new ByteArrayOutputStream();
+        writeBytes(message, 1, "pk-a".getBytes(StandardCharsets.UTF_8));
+        writeBytes(message, 1, "pk-b".getBytes(StandardCharsets.UTF_8));
+        writeBytes(message, 2, "42".getBytes(StandardCharsets.UTF_8));
+        for (byte[] userRecord : userRecords) {
+            writeBytes(message, 3, userRecord);
+        }
+        final byte[] messageBytes = message.toByteArray();
+
+        final ByteArrayOutputStream aggregated = new ByteArrayOutputStream();
+        aggregated.write(KinesisDeaggregator.MAGIC);
+        aggregated.write(messageBytes);
+        aggregated.write(MessageDigest.getInstance("MD5").digest(messageBytes));
+        return aggregated.toByteArray();
+    }
+
+    /**
+     * @param tags key and value pairs
+     */
+    private static byte[] userRecord(int partitionKeyIndex, Integer explicitHashKeyIndex, String data,
+            String... tags) {
+        final ByteArrayOutputStream record = new ByteArrayOutputStream();
+        writeVarint(record, 1 << 3);
+        writeVarint(record, partitionKeyIndex);
+        if (explicitHashKeyIndex != null) {
+            writeVarint(record, 2 << 3);
+            writeVarint(record, explicitHashKeyIndex);
+        }
+        writeBytes(record, 3, data.getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < tags.length; i += 2) {
+            final ByteArrayOutputStream tag = new ByteArrayOutputStream();
+            writeBytes(tag, 1, tags[i].getBytes(StandardCharsets.UTF_8));
+            writeBytes(tag, 2, tags[i + 1].getBytes(StandardCharsets.UTF_8));
+            writeBytes(record, 4, tag.toByteArray());
+        }
+        return record.toByteArray();
+    }
+
+    private static void writeBytes(ByteArrayOutputStream out, int field, byte[] bytes) {
+        writeVarint(out, field << 3 | 2);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}
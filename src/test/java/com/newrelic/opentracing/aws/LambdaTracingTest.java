@@ -0,0 +1,454 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import io.opentracing.noop.NoopTracerFactory;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class LambdaTracingTest {
+
+    private static final MockTracer mockTracer = new MockTracer();
+
+    @BeforeClass
+    public static void beforeClass() {
+        GlobalTracerTestUtils.initTracer(mockTracer);
+    }
+
+    @Before
+    public void before() {
+        mockTracer.reset();
+        LambdaTracing.isColdStart.set(true);
+    }
+
+    @Test
+    public void testResourceUsageNotSampledByDefault() {
+        new LambdaTracing<String, String>().instrumentRequest("input", createContext(), (input, context) -> input);
+
+        final MockSpan span = mockTracer.finishedSpans().get(0);
+        Assert.assertFalse(span.tags().containsKey(ResourceUsageSampler.GC_COUNT_TAG));
+        Assert.assertFalse(span.tags().containsKey(ResourceUsageSampler.ALLOCATED_BYTES_TAG));
+    }
+
+    @Test
+    public void testResourceUsageSampled() {
+        final LambdaTracing<String, Integer> tracing = new LambdaTracing<String, Integer>() {
+            @Override
+            protected boolean isResourceUsageSampled(String input, Context context) {
+                return true;
+            }
+        };
+        tracing.instrumentRequest("input", createContext(), (input, context) -> new byte[1024 * 1024].length);
+
+        final MockSpan span = mockTracer.finishedSpans().get(0);
+        Assert.assertNotNull(span.tags().get(ResourceUsageSampler.GC_COUNT_TAG));
+        Assert.assertNotNull(span.tags().get(ResourceUsageSampler.GC_TIME_TAG));
+        final Object allocatedBytes = span.tags().get(ResourceUsageSampler.ALLOCATED_BYTES_TAG);
+        if (allocatedBytes != null) {
+            Assert.assertTrue(((Number) allocatedBytes).longValue() >= 1024 * 1024);
+        }
+    }
+
+    @Test
+    public void testMemoryHeadroom() {
+        final LambdaTracing<String, String> tracing = new LambdaTracing<String, String>() {
+            @Override
+            protected boolean isMemoryHeadroomTracked(String input, Context context) {
+                return true;
+            }
+        };
+        tracing.instrumentRequest("input", createContext(), (input, context) -> input);
+        tracing.instrumentRequest("input", createContext(), (input, context) -> input);
+
+        final MockSpan first = mockTracer.finishedSpans().get(0);
+        final MockSpan second = mockTracer.finishedSpans().get(1);
+        Assert.assertEquals(510, second.tags().get(MemoryHeadroom.LIMIT_TAG));
+        final double peakRatio = ((Number) second.tags().get(MemoryHeadroom.PEAK_RATIO_TAG)).doubleValue();
+        final double highWaterRatio = ((Number) second.tags().get(MemoryHeadroom.HIGH_WATER_RATIO_TAG)).doubleValue();
+        Assert.assertTrue(peakRatio > 0);
+        Assert.assertTrue(highWaterRatio >= peakRatio);
+        Assert.assertTrue(highWaterRatio >= ((Number) first.tags().get(MemoryHeadroom.PEAK_RATIO_TAG)).doubleValue());
+    }
+
+    @Test
+    public void testOverheadNotSampledByDefault() {
+        new LambdaTracing<String, String>().instrumentRequest("input", createContext(), (input, context) -> input);
+
+        Assert.assertFalse(mockTracer.finishedSpans().get(0).tags().containsKey(InstrumentationOverhead.TAG));
+    }
+
+    @Test
+    public void testOverhead() {
+        final LambdaTracing<String, String> tracing = new LambdaTracing<String, String>() {
+            @Override
+            protected boolean isOverheadSampled(String input, Context context) {
+                return true;
+            }
+
+            @Override
+            protected SpanContext extractContext(Tracer tracer, Object input) {
+                sleep(5);
+                return null;
+            }
+        };
+        tracing.instrumentRequest("input", createContext(), (input, context) -> {
+            sleep(20);
+            return input;
+        });
+        tracing.instrumentRequest("input", createContext(), (input, context) -> input);
+
+        final String first = (String) mockTracer.finishedSpans().get(0).tags().get(InstrumentationOverhead.TAG);
+        Assert.assertTrue(first, first.matches("extract:\\d+\\.\\d,start:\\d+\\.\\d,response:\\d+\\.\\d"));
+        final double extractMicros = Double.parseDouble(first.substring("extract:".length(), first.indexOf(',')));
+        Assert.assertTrue(first, extractMicros >= 5000);
+        // The handler is not counted
+        final double responseMicros = Double.parseDouble(first.substring(first.indexOf("response:") + "response:".length()));
+        Assert.assertTrue(first, responseMicros < 20000);
+
+        final Map<String, Object> second = mockTracer.finishedSpans().get(1).tags();
+        final String containerMeans = (String) second.get(InstrumentationOverhead.CONTAINER_TAG);
+        Assert.assertTrue(containerMeans, containerMeans.matches(
+                "extract:[\\d.]+,start:[\\d.]+,response:[\\d.]+,finish:[\\d.]+,n:\\d+"));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void testEnvironmentReuse() {
+        LambdaTracing.instrument("input", createContext(), (input, context) -> input);
+        sleep(20);
+        LambdaTracing.instrument("input", createContext(), (input, context) -> input);
+
+        final Map<String, Object> first = mockTracer.finishedSpans().get(0).tags();
+        final Map<String, Object> second = mockTracer.finishedSpans().get(1).tags();
+        Assert.assertEquals(16, ((String) first.get(ExecutionEnvironment.ID_TAG)).length());
+        Assert.assertEquals(first.get(ExecutionEnvironment.ID_TAG), second.get(ExecutionEnvironment.ID_TAG));
+        Assert.assertEquals((Long) first.get(ExecutionEnvironment.INVOCATIONS_TAG) + 1,
+                second.get(ExecutionEnvironment.INVOCATIONS_TAG));
+        Assert.assertTrue((Long) second.get(ExecutionEnvironment.AGE_TAG) >= 20);
+        Assert.assertTrue((Long) second.get(ExecutionEnvironment.IDLE_TAG) >= 20);
+    }
+
+    @Test
+    public void testConcurrentInvocations() throws Exception {
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final List<Future<Boolean>> isOwnSpan = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                isOwnSpan.add(executor.submit(() -> LambdaTracing.instrument("input", createContext(), (input, context) -> {
+                    final Span active = mockTracer.activeSpan();
+                    started.countDown();
+                    await(release);
+                    return active == mockTracer.activeSpan();
+                })));
+            }
+            started.await(10, TimeUnit.SECONDS);
+            Assert.assertEquals(2, ExecutionEnvironment.inFlight());
+            release.countDown();
+            Assert.assertTrue(isOwnSpan.get(0).get(10, TimeUnit.SECONDS));
+            Assert.assertTrue(isOwnSpan.get(1).get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(0, ExecutionEnvironment.inFlight());
+        final List<MockSpan> spans = mockTracer.finishedSpans();
+        Assert.assertEquals(2, spans.size());
+        int coldStarts = 0;
+        int maxConcurrency = 0;
+        for (MockSpan span : spans) {
+            maxConcurrency = Math.max(maxConcurrency, (Integer) span.tags().get(ExecutionEnvironment.CONCURRENCY_TAG));
+            Assert.assertEquals(0, span.parentId());
+            if (Boolean.TRUE.equals(span.tags().get("aws.lambda.coldStart"))) {
+                coldStarts++;
+            }
+        }
+        Assert.assertEquals(1, coldStarts);
+        Assert.assertEquals(2, maxConcurrency);
+    }
+
+    @Test
+    public void testConcurrentFirstInvocations() throws Exception {
+        final int threads = 4;
+        final LambdaTracing<String, String> tracing = new LambdaTracing<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < 200; round++) {
+                mockTracer.reset();
+                LambdaTracing.isColdStart.set(true);
+                final CyclicBarrier barrier = new CyclicBarrier(threads);
+                final List<Future<String>> invocations = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    invocations.add(executor.submit(() -> {
+                        barrier.await(10, TimeUnit.SECONDS);
+                        return tracing.instrumentRequest("input", createContext(), (input, context) -> input);
+                    }));
+                }
+                for (Future<String> invocation : invocations) {
+                    invocation.get(10, TimeUnit.SECONDS);
+                }
+
+                final List<MockSpan> spans = mockTracer.finishedSpans();
+                Assert.assertEquals(threads, spans.size());
+                int coldStarts = 0;
+                for (MockSpan span : spans) {
+                    if (Boolean.TRUE.equals(span.tags().get("aws.lambda.coldStart"))) {
+                        coldStarts++;
+                    }
+                }
+                Assert.assertEquals("round " + round, 1, coldStarts);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testLeakedScopeIsNotParent() throws Exception {
+        // On its own thread, as the leaked scope stays active there
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> {
+                LambdaTracing.instrument("input", createContext(), (input, context) ->
+                        mockTracer.activateSpan(mockTracer.buildSpan("leaked").start()));
+                return LambdaTracing.instrument("input", createContext(), (input, context) -> input);
+            }).get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final MockSpan second = mockTracer.finishedSpans().get(1);
+        Assert.assertEquals("handleRequest", second.operationName());
+        Assert.assertEquals(0, second.parentId());
+        Assert.assertEquals(1, second.tags().get(ExecutionEnvironment.CONCURRENCY_TAG));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void testSwitchFileTurnsTracingOff() throws IOException {
+        final Path switchFile = Paths.get(TracingSwitch.SWITCH_FILE);
+        try {
+            Files.write(switchFile, "off\n".getBytes(StandardCharsets.UTF_8));
+            TracingSwitch.refresh();
+            Assert.assertEquals("input", LambdaTracing.instrument("input", createContext(), (input, context) -> input));
+            Assert.assertTrue(mockTracer.finishedSpans().isEmpty());
+            // The invocation that was not traced was the cold start
+            Assert.assertFalse(LambdaTracing.isColdStart.get());
+
+            Files.write(switchFile, "{\"enabled\": true}".getBytes(StandardCharsets.UTF_8));
+            TracingSwitch.refresh();
+            LambdaTracing.instrument("input", createContext(), (input, context) -> input);
+            Assert.assertEquals(1, mockTracer.finishedSpans().size());
+            Assert.assertNull(mockTracer.finishedSpans().get(0).tags().get(AttributePipeline.COLD_START));
+        } finally {
+            Files.deleteIfExists(switchFile);
+            TracingSwitch.refresh();
+        }
+    }
+
+    @Test
+    public void testSwitchParse() {
+        Assert.assertEquals(Boolean.FALSE, TracingSwitch.parse(" false\n"));
+        Assert.assertEquals(Boolean.FALSE, TracingSwitch.parse("OFF"));
+        Assert.assertEquals(Boolean.FALSE, TracingSwitch.parse("{\"enabled\":\"false\"}"));
+        Assert.assertEquals(Boolean.TRUE, TracingSwitch.parse("on"));
+        Assert.assertNull(TracingSwitch.parse("{\"other\": false}"));
+        Assert.assertNull(TracingSwitch.parse(""));
+        Assert.assertEquals(Boolean.FALSE, TracingSwitch.parse("{\"enabled\": false, \"reason\": \"on call\"}"));
+        Assert.assertNull(TracingSwitch.parse("10"));
+        Assert.assertNull(TracingSwitch.parse("only"));
+        Assert.assertNull(TracingSwitch.parse("{\"enabled\": \"offline\"}"));
+    }
+
+    @Test
+    public void testOutOfMemoryError() {
+        final OutOfMemoryError error = new OutOfMemoryError("Java heap space");
+        final LambdaTracing<String, String> tracing = new LambdaTracing<String, String>() {
+            @Override
+            protected boolean isCostAttributed(String input, Context context) {
+                return true;
+            }
+        };
+        try {
+            tracing.instrumentRequest("input", createContext(), (input, context) -> {
+                throw error;
+            });
+            Assert.fail();
+        } catch (OutOfMemoryError e) {
+            Assert.assertSame(error, e);
+        }
+
+        final MockSpan span = mockTracer.finishedSpans().get(0);
+        Assert.assertEquals(EmergencyErrorRecord.OUT_OF_MEMORY, span.tags().get(EmergencyErrorRecord.ERROR_KIND));
+        Assert.assertFalse("optional measurements are skipped",
+                span.tags().containsKey(CostAttribution.GB_SECONDS_TAG));
+        final Map<String, ?> fields = span.logEntries().get(0).fields();
+        Assert.assertEquals("error", fields.get("event"));
+        Assert.assertSame(error, fields.get("error.object"));
+        Assert.assertEquals("Java heap space", fields.get("message"));
+        Assert.assertEquals(EmergencyErrorRecord.OUT_OF_MEMORY, fields.get(EmergencyErrorRecord.ERROR_KIND));
+    }
+
+    @Test
+    public void testVirtualMachineErrorKind() {
+        Assert.assertEquals("StackOverflowError", EmergencyErrorRecord.kind(new StackOverflowError()));
+        Assert.assertEquals("VirtualMachineError", EmergencyErrorRecord.kind(new InternalError()));
+    }
+
+    @Test
+    public void testVirtualMachineErrorFieldsNotShared() {
+        for (String message : new String[] { "first", "second" }) {
+            try {
+                LambdaTracing.instrument("input", createContext(), (input, context) -> {
+                    throw new OutOfMemoryError(message);
+                });
+                Assert.fail();
+            } catch (OutOfMemoryError expected) {
+            }
+        }
+
+        final List<MockSpan> spans = mockTracer.finishedSpans();
+        Assert.assertEquals("first", spans.get(0).logEntries().get(0).fields().get("message"));
+        Assert.assertEquals("second", spans.get(1).logEntries().get(0).fields().get("message"));
+
+        final Map<String, Object> fallback = EmergencyErrorRecord.preallocatedFields(EmergencyErrorRecord.STACK_OVERFLOW);
+        Assert.assertEquals(EmergencyErrorRecord.STACK_OVERFLOW, fallback.get(EmergencyErrorRecord.ERROR_KIND));
+        try {
+            fallback.put("message", "changed");
+            Assert.fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    @Test
+    public void testNoopTracerDetected() {
+        Assert.assertTrue(TracingSwitch.isNoop(NoopTracerFactory.create()));
+        Assert.assertFalse(TracingSwitch.isNoop(mockTracer));
+        Assert.assertFalse(TracingSwitch.isPassthrough());
+    }
+
+    static Context createContext() {
+        return createContext(null);
+    }
+
+    static Context createContext(ClientContext clientContext) {
+        return new Context() {
+            @Override
+            public String getAwsRequestId() {
+                return "123";
+            }
+
+            @Override
+            public String getLogGroupName() {
+                return "logGroupName";
+            }
+
+            @Override
+            public String getLogStreamName() {
+                return "getLogStreamName";
+            }
+
+            @Override
+            public String getFunctionName() {
+                return null;
+            }
+
+            @Override
+            public String getFunctionVersion() {
+                return "LATEST";
+            }
+
+            @Override
+            public String getInvokedFunctionArn() {
+                return "arn";
+            }
+
+            @Override
+            public CognitoIdentity getIdentity() {
+                return new CognitoIdentity() {
+                    @Override
+                    public String getIdentityId() {
+                        return "identity";
+                    }
+
+                    @Override
+                    public String getIdentityPoolId() {
+                        return "identityPoolId";
+                    }
+                };
+            }
+
+            @Override
+            public ClientContext getClientContext() {
+                return clientContext;
+            }
+
+            @Override
+            public int getRemainingTimeInMillis() {
+                return 100;
+            }
+
+            @Override
+            public int getMemoryLimitInMB() {
+                return 510;
+            }
+
+            @Override
+            public LambdaLogger getLogger() {
+                return new LambdaLogger() {
+                    @Override
+                    public void log(String string) {
+                    }
+
+                    @Override
+                    public void log(byte[] message) {
+                    }
+                };
+            }
+        };
+    }
+}
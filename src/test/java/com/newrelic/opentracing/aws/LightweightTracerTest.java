@@ -0,0 +1,169 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import io.opentracing.References;
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.propagation.Format;
+import io.opentracing.propagation.TextMapAdapter;
+import io.opentracing.tag.Tags;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class LightweightTracerTest {
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private LightweightTracer tracer;
+
+    @Before
+    public void before() {
+        tracer = LightweightTracer.create("my-function", out);
+    }
+
+    @Test
+    public void testFlushedWhenRootFinishes() {
+        final Span root = tracer.buildSpan("root").start();
+        try (Scope ignored = tracer.activateSpan(root)) {
+            tracer.buildSpan("child").start().finish();
+            Assert.assertEquals("child spans are buffered", 0, out.size());
+        }
+        root.finish();
+
+        final String output = output();
+        Assert.assertTrue(output, output.startsWith("{\"resourceSpans\":[{\"resource\":{\"attributes\":["
+                + "{\"key\":\"service.name\",\"value\":{\"stringValue\":\"my-function\"}},"
+                + "{\"key\":\"cloud.provider\",\"value\":{\"stringValue\":\"aws\"}}"));
+        Assert.assertTrue(output, output.endsWith("}]}]}]}\n"));
+        Assert.assertEquals(1, output.split("\n").length);
+
+        final String rootId = ((LightweightSpan) root).context().toSpanId();
+        Assert.assertTrue(output, output.contains("\"parentSpanId\":\"" + rootId + "\",\"name\":\"child\""));
+        Assert.assertTrue(output, output.contains("\"spanId\":\"" + rootId + "\",\"name\":\"root\""));
+    }
+
+    @Test
+    public void testSpanJson() {
+        final LightweightSpan span = tracer.buildSpan("handler")
+                .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER)
+                .withStartTimestamp(1_000_000)
+                .start();
+        span.setTag("count", 3);
+        span.setTag("ratio", 0.5);
+        span.setTag("cold", true);
+        span.setTag("count", 4);
+        span.setTag(Tags.ERROR, true);
+        span.log(1_500_000, Collections.singletonMap("event", "error"));
+        span.finish(3_000_000);
+        final LightweightSpanContext context = span.context();
+
+        Assert.assertTrue(output(), output().contains("\"spans\":[{"
+                + "\"traceId\":\"" + context.toTraceId() + "\","
+                + "\"spanId\":\"" + context.toSpanId() + "\","
+                + "\"name\":\"handler\",\"kind\":2,"
+                + "\"startTimeUnixNano\":\"1000000000\",\"endTimeUnixNano\":\"3000000000\","
+                + "\"attributes\":["
+                + "{\"key\":\"span.kind\",\"value\":{\"stringValue\":\"server\"}},"
+                + "{\"key\":\"count\",\"value\":{\"intValue\":\"4\"}},"
+                + "{\"key\":\"ratio\",\"value\":{\"doubleValue\":0.5}},"
+                + "{\"key\":\"cold\",\"value\":{\"boolValue\":true}},"
+                + "{\"key\":\"error\",\"value\":{\"boolValue\":true}}],"
+                + "\"events\":[{\"timeUnixNano\":\"1500000000\",\"name\":\"error\",\"attributes\":[]}],"
+                + "\"status\":{\"code\":2}}]"));
+    }
+
+    @Test
+    public void testErrorLog() {
+        final Span span = tracer.buildSpan("handler").start();
+        span.log(SpanUtil.createErrorAttributes(new IllegalStateException("failed")));
+        span.finish();
+
+        final String output = output();
+        Assert.assertTrue(output, output.contains("\"status\":{\"code\":2}"));
+        Assert.assertTrue(output, output.contains("{\"key\":\"stack\",\"value\":{\"arrayValue\":{\"values\":"
+                + "[{\"stringValue\":\"" + LightweightTracerTest.class.getName() + ".testErrorLog("));
+        Assert.assertTrue(output, output.contains("{\"key\":\"error.object\",\"value\":{\"stringValue\":"
+                + "\"java.lang.IllegalStateException: failed\\u000a\\u0009at "));
+        Assert.assertFalse(output, output.contains("[Ljava.lang.StackTraceElement;"));
+    }
+
+    @Test
+    public void testFinishIsIdempotent() {
+        final Span span = tracer.buildSpan("root").start();
+        span.finish();
+        span.finish();
+        Assert.assertEquals(1, output().split("\n").length);
+    }
+
+    @Test
+    public void testInjectAndExtract() {
+        final Span caller = tracer.buildSpan("caller").start();
+        caller.setBaggageItem("tenant", "acme corp");
+        final Map<String, String> headers = new HashMap<>();
+        tracer.inject(caller.context(), Format.Builtin.HTTP_HEADERS, new TextMapAdapter(headers));
+
+        final String traceparent = headers.get("traceparent");
+        Assert.assertEquals("00-" + caller.context().toTraceId() + "-" + caller.context().toSpanId() + "-01",
+                traceparent);
+        Assert.assertEquals("tenant=acme%20corp", headers.get("baggage"));
+
+        final Map<String, String> received = new HashMap<>();
+        received.put("Traceparent", traceparent);
+        received.put("Baggage", headers.get("baggage"));
+        final SpanContext extracted = tracer.extract(Format.Builtin.HTTP_HEADERS, new TextMapAdapter(received));
+        Assert.assertEquals(caller.context().toTraceId(), extracted.toTraceId());
+
+        // A span with a remote parent is the local root, so it is written when it finishes
+        final Span callee = tracer.buildSpan("callee").asChildOf(extracted).start();
+        Assert.assertEquals("acme corp", callee.getBaggageItem("tenant"));
+        callee.finish();
+        Assert.assertTrue(output().contains("\"parentSpanId\":\"" + caller.context().toSpanId() + "\""));
+    }
+
+    @Test
+    public void testInvalidTraceparent() {
+        Assert.assertNull(extract("00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331"));
+        Assert.assertNull(extract("00-00000000000000000000000000000000-b7ad6b7169203331-01"));
+        Assert.assertNull(extract("00-0AF7651916CD43DD8448EB211C80319C-b7ad6b7169203331-01"));
+        Assert.assertNull(extract("ff-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01"));
+        Assert.assertNull(tracer.extract(Format.Builtin.HTTP_HEADERS, new TextMapAdapter(new HashMap<>())));
+        Assert.assertNotNull(extract("00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01"));
+    }
+
+    @Test
+    public void testLinks() {
+        final SpanContext first = tracer.buildSpan("first").start().context();
+        final SpanContext second = tracer.buildSpan("second").start().context();
+
+        final Span consumer = tracer.buildSpan("consumer")
+                .addReference(References.FOLLOWS_FROM, first)
+                .addReference(References.FOLLOWS_FROM, second)
+                .start();
+        consumer.finish();
+        tracer.flush();
+
+        Assert.assertEquals(first.toTraceId(), consumer.context().toTraceId());
+        Assert.assertTrue(output(), output().contains("\"links\":[{\"traceId\":\"" + second.toTraceId()
+                + "\",\"spanId\":\"" + second.toSpanId() + "\"}]"));
+    }
+
+    private SpanContext extract(String traceparent) {
+        return tracer.extract(Format.Builtin.HTTP_HEADERS,
+                new TextMapAdapter(Collections.singletonMap("traceparent", traceparent)));
+    }
+
+    private String output() {
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
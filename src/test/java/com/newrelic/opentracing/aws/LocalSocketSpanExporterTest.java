@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import io.opentracing.mock.MockTracer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+public class LocalSocketSpanExporterTest {
+
+    private static final MockTracer mockTracer = new MockTracer();
+
+    @BeforeClass
+    public static void beforeClass() {
+        GlobalTracerTestUtils.initTracer(mockTracer);
+    }
+
+    @After
+    public void after() {
+        LocalSocketSpanExporter.configure(null);
+        mockTracer.reset();
+    }
+
+    @Test
+    public void testRootSpanExported() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            final LocalSocketSpanExporter exporter =
+                    LocalSocketSpanExporter.open("tcp://127.0.0.1:" + server.getLocalPort(), 8);
+            LocalSocketSpanExporter.configure(exporter);
+            try {
+                LambdaTracing.instrument("input", LambdaTracingTest.createContext(), (input, context) -> {
+                    // The tracer's own span is active, not the exporting wrapper
+                    Assert.assertFalse(mockTracer.activeSpan() instanceof ExportingSpan);
+                    return "ok";
+                });
+                Assert.assertTrue(exporter.flush(10, TimeUnit.SECONDS));
+                Assert.assertEquals(1, exporter.getWrittenCount());
+
+                try (Socket socket = server.accept();
+                     DataInputStream input = new DataInputStream(socket.getInputStream())) {
+                    final byte[] payload = new byte[input.readInt()];
+                    input.readFully(payload);
+                    final String json = new String(payload, StandardCharsets.UTF_8);
+                    final String spanId = mockTracer.finishedSpans().get(0).context().toSpanId();
+                    Assert.assertTrue(json, json.startsWith("{\"traceId\":"));
+                    Assert.assertTrue(json, json.contains("\"spanId\":\"" + spanId + "\""));
+                    Assert.assertTrue(json, json.contains("\"name\":\"handleRequest\""));
+                    Assert.assertTrue(json, json.contains("\"aws.requestId\":\"123\""));
+                    Assert.assertTrue(json, json.contains("\"aws.lambda.coldStart\":true"));
+                }
+            } finally {
+                exporter.close();
+            }
+        }
+    }
+
+    @Test
+    public void testDropsWhenUnreachable() throws Exception {
+        final int port;
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = server.getLocalPort();
+        }
+        final LocalSocketSpanExporter exporter = LocalSocketSpanExporter.open("tcp://127.0.0.1:" + port, 1);
+        try {
+            for (int i = 0; i < 100; i++) {
+                exporter.export(new byte[]{0, 0, 0, 0});
+            }
+            Assert.assertTrue(exporter.flush(10, TimeUnit.SECONDS));
+            Assert.assertEquals(100, exporter.getDroppedCount());
+            Assert.assertEquals(0, exporter.getWrittenCount());
+        } finally {
+            exporter.close();
+        }
+    }
+
+    @Test
+    public void testJsonWriter() {
+        final JsonWriter writer = new JsonWriter(16);
+        writer.beginFrame().beginObject()
+                .name("s").value("a\"b\\\n\u00e9\u20ac")
+                .name("n").value(-42L)
+                .name("d").value(1.5)
+                .name("b").value(Boolean.TRUE)
+                .name("x").value((String) null)
+                .name("a").beginArray().value(1L).value(2L).endArray()
+                .endObject();
+        final byte[] frame = writer.toFrame();
+        final String json = new String(frame, 4, frame.length - 4, StandardCharsets.UTF_8);
+        Assert.assertEquals("{\"s\":\"a\\\"b\\\\\\u000a\u00e9\u20ac\",\"n\":-42,\"d\":1.5,\"b\":true,\"x\":null,\"a\":[1,2]}",
+                json);
+        Assert.assertEquals(frame.length - 4, ((frame[0] & 0xFF) << 24) | ((frame[1] & 0xFF) << 16)
+                | ((frame[2] & 0xFF) << 8) | (frame[3] & 0xFF));
+    }
+}
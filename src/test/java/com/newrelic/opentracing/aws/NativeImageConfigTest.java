@@ -0,0 +1,49 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+public class NativeImageConfigTest {
+
+    private static final String PROPERTIES =
+            "/META-INF/native-image/com.newrelic.opentracing/java-aws-lambda/native-image.properties";
+    private static final String RUN_TIME = "--initialize-at-run-time=";
+
+    @Test
+    public void testRunTimeInitializedClassesExist() throws Exception {
+        for (String className : runTimeInitialized()) {
+            Class.forName(className, false, getClass().getClassLoader());
+        }
+    }
+
+    @Test
+    public void testStateFromEnvironmentIsRunTimeInitialized() throws IOException {
+        final List<String> classes = runTimeInitialized();
+        for (Class<?> type : Arrays.asList(LambdaTracing.class, TracingSwitch.class, PropagationKeys.class,
+                ExecutionEnvironment.class, LocalSocketSpanExporter.class)) {
+            Assert.assertTrue(type.getName(), classes.contains(type.getName()));
+        }
+    }
+
+    private static List<String> runTimeInitialized() throws IOException {
+        final Properties properties = new Properties();
+        try (InputStream in = NativeImageConfigTest.class.getResourceAsStream(PROPERTIES)) {
+            Assert.assertNotNull(PROPERTIES, in);
+            properties.load(in);
+        }
+        final String args = properties.getProperty("Args");
+        Assert.assertTrue(args, args.startsWith(RUN_TIME));
+        return Arrays.asList(args.substring(RUN_TIME.length()).trim().split(","));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.ApplicationLoadBalancerRequestEvent;
+import io.opentracing.SpanContext;
+import io.opentracing.mock.MockTracer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PropagationHeadersTest {
+
+    private static final PropagationKeys DEFAULT_KEYS = PropagationKeys.get();
+
+    @After
+    public void after() {
+        PropagationKeys.set(DEFAULT_KEYS);
+    }
+
+    @Test
+    public void testOnlyPropagationKeysCaseInsensitive() {
+        PropagationKeys.set(PropagationKeys.parse(PropagationKeys.DEFAULT_KEYS));
+        final Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Cookie", "session=very-long-value");
+        headers.put("TraceParent", "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01");
+        headers.put("NewRelic", "payload");
+        headers.put("UberCtx-Tenant", "acme");
+        headers.put("Accept", "application/json");
+
+        final Map<String, String> carrier = toMap(PropagationHeaders.of(headers, null));
+        final Map<String, String> expected = new HashMap<>();
+        expected.put("traceparent", "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01");
+        expected.put("newrelic", "payload");
+        expected.put("UberCtx-Tenant", "acme");
+        Assert.assertEquals(expected, carrier);
+    }
+
+    @Test
+    public void testMultiValueFallback() {
+        PropagationKeys.set(PropagationKeys.parse(PropagationKeys.DEFAULT_KEYS));
+        final Map<String, String> headers = Collections.singletonMap("traceparent", "single");
+        final Map<String, List<String>> multiValueHeaders = new HashMap<>();
+        multiValueHeaders.put("Traceparent", Collections.singletonList("ignored, single-value map wins"));
+        multiValueHeaders.put("tracestate", Arrays.asList("a=1", "b=2"));
+        multiValueHeaders.put("x-forwarded-for", Arrays.asList("203.0.113.10", "10.0.0.1"));
+
+        final Map<String, String> carrier = toMap(PropagationHeaders.of(headers, multiValueHeaders));
+        Assert.assertEquals(2, carrier.size());
+        Assert.assertEquals("single", carrier.get("traceparent"));
+        Assert.assertEquals("a=1,b=2", carrier.get("tracestate"));
+    }
+
+    @Test
+    public void testAllKeys() {
+        PropagationKeys.set(PropagationKeys.parse("*"));
+        final Map<String, String> headers = new HashMap<>();
+        headers.put("Custom-Header", "value");
+        Assert.assertEquals(headers, toMap(PropagationHeaders.of(headers, null)));
+    }
+
+    @Test
+    public void testExtract() {
+        // MockTracer propagates through "traceid" and "spanid"
+        PropagationKeys.set(PropagationKeys.parse("traceid,spanid"));
+        final MockTracer mockTracer = new MockTracer();
+
+        final APIGatewayProxyRequestEvent apiGateway = new APIGatewayProxyRequestEvent();
+        final Map<String, String> headers = new HashMap<>();
+        headers.put("TraceId", "1");
+        headers.put("SPANID", "2");
+        apiGateway.setHeaders(headers);
+        final SpanContext apiGatewayContext = HeadersParser.parseAndExtract(mockTracer, apiGateway);
+        Assert.assertEquals("1", apiGatewayContext.toTraceId());
+        Assert.assertEquals("2", apiGatewayContext.toSpanId());
+
+        // ALB in multi-value mode only sets multiValueHeaders
+        final ApplicationLoadBalancerRequestEvent alb = new ApplicationLoadBalancerRequestEvent();
+        final Map<String, List<String>> multiValueHeaders = new HashMap<>();
+        multiValueHeaders.put("traceid", Collections.singletonList("3"));
+        multiValueHeaders.put("spanid", Collections.singletonList("4"));
+        alb.setMultiValueHeaders(multiValueHeaders);
+        final SpanContext albContext = HeadersParser.parseAndExtract(mockTracer, alb);
+        Assert.assertEquals("3", albContext.toTraceId());
+        Assert.assertEquals("4", albContext.toSpanId());
+
+        final Map<String, Object> map = new HashMap<>();
+        map.put("multiValueHeaders", multiValueHeaders);
+        Assert.assertEquals("4", HeadersParser.parseAndExtract(mockTracer, map).toSpanId());
+
+        Assert.assertNull(HeadersParser.parseAndExtract(mockTracer, new APIGatewayProxyRequestEvent()));
+    }
+
+    private static Map<String, String> toMap(PropagationHeaders carrier) {
+        final Map<String, String> map = new HashMap<>();
+        for (Map.Entry<String, String> entry : carrier) {
+            map.put(entry.getKey(), entry.getValue());
+        }
+        return map;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import io.opentracing.SpanContext;
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class SnsEnvelopeTest {
+
+    private static final MockTracer mockTracer = new MockTracer();
+    private static final PropagationKeys DEFAULT_KEYS = PropagationKeys.get();
+
+    @BeforeClass
+    public static void beforeClass() {
+        GlobalTracerTestUtils.initTracer(mockTracer);
+    }
+
+    @Before
+    public void before() {
+        mockTracer.reset();
+        // MockTracer propagates through "traceid" and "spanid"
+        PropagationKeys.set(PropagationKeys.parse("traceid,spanid"));
+    }
+
+    @After
+    public void after() {
+        PropagationKeys.set(DEFAULT_KEYS);
+    }
+
+    @Test
+    public void testContextFromEnvelope() {
+        LambdaTracing.instrument(sqsEvent(envelope("{\\\"order\\\":1}")), LambdaTracingTest.createContext(),
+                (input, context) -> "ok");
+
+        final MockSpan span = mockTracer.finishedSpans().get(0);
+        Assert.assertEquals(7L, span.context().traceId());
+        Assert.assertEquals(42L, span.parentId());
+    }
+
+    @Test
+    public void testMessageAttributesInMessageIgnored() {
+        // A Message that itself looks like an envelope is escaped, so only the outer attributes count
+        final String message = "{\\\"MessageAttributes\\\":{\\\"spanid\\\":{\\\"Type\\\":\\\"String\\\","
+                + "\\\"Value\\\":\\\"1\\\"}}}";
+        final PropagationHeaders carrier = PropagationHeaders.empty();
+        SnsEnvelope.addPropagationHeaders(PropagationKeys.get(), carrier, envelope(message));
+
+        Assert.assertEquals(2, carrier.size());
+        final SpanContext context = HeadersParser.parseAndExtract(mockTracer, sqsEvent(envelope(message)));
+        Assert.assertEquals("42", context.toSpanId());
+    }
+
+    @Test
+    public void testOnlyPropagationKeysDecoded() {
+        final String body = "{\"Type\":\"Notification\",\"Message\":\"hi\",\"MessageAttributes\":{"
+                + "\"other\":{\"Type\":\"String\",\"Value\":\"a\\\"b\"},"
+                + "\"SpanId\":{\"Type\":\"String\",\"Value\":\"4\\u0032\"},"
+                + "\"count\":{\"Type\":\"Number\",\"Value\":\"3\"},"
+                + "\"traceid\":{\"Value\":\"7\",\"Type\":\"String\"}}}";
+        final PropagationHeaders carrier = PropagationHeaders.empty();
+        SnsEnvelope.addPropagationHeaders(PropagationKeys.get(), carrier, body);
+
+        Assert.assertEquals(2, carrier.size());
+        Assert.assertFalse(carrier.contains("other"));
+        final SpanContext context = HeadersParser.parseAndExtract(mockTracer, sqsEvent(body));
+        Assert.assertEquals("7", context.toTraceId());
+        Assert.assertEquals("42", context.toSpanId());
+    }
+
+    @Test
+    public void testMessageAttributesTakePrecedence() {
+        final SQSEvent event = sqsEvent(envelope("hi"));
+        final SQSEvent.MessageAttribute traceId = new SQSEvent.MessageAttribute();
+        traceId.setStringValue("8");
+        final SQSEvent.MessageAttribute spanId = new SQSEvent.MessageAttribute();
+        spanId.setStringValue("80");
+        final Map<String, SQSEvent.MessageAttribute> attributes = new HashMap<>();
+        attributes.put("traceid", traceId);
+        attributes.put("spanid", spanId);
+        event.getRecords().get(0).setMessageAttributes(attributes);
+
+        final SpanContext context = HeadersParser.parseAndExtract(mockTracer, event);
+        Assert.assertEquals("80", context.toSpanId());
+    }
+
+    @Test
+    public void testNotAnEnvelope() {
+        Assert.assertFalse(SnsEnvelope.isEnvelope(""));
+        Assert.assertFalse(SnsEnvelope.isEnvelope("plain text"));
+        Assert.assertFalse(SnsEnvelope.isEnvelope("[1, 2]"));
+        Assert.assertFalse(SnsEnvelope.isEnvelope("{\"MessageAttributes\":{}}"));
+        Assert.assertTrue(SnsEnvelope.isEnvelope(" {\n  \"Type\" : \"Notification\"}"));
+
+        final PropagationHeaders carrier = PropagationHeaders.empty();
+        SnsEnvelope.addPropagationHeaders(PropagationKeys.get(), carrier,
+                "{\"MessageAttributes\":{\"traceid\":{\"Value\":\"7\"}}}");
+        Assert.assertEquals(0, carrier.size());
+    }
+
+    @Test
+    public void testMalformedEnvelope() {
+        final String envelope = envelope("hi");
+        for (int length = 0; length < envelope.length(); length++) {
+            final PropagationHeaders carrier = PropagationHeaders.empty();
+            SnsEnvelope.addPropagationHeaders(PropagationKeys.get(), carrier, envelope.substring(0, length));
+            Assert.assertTrue(carrier.size() <= 2);
+        }
+
+        final PropagationHeaders carrier = PropagationHeaders.empty();
+        SnsEnvelope.addPropagationHeaders(PropagationKeys.get(), carrier,
+                "{\"Type\":\"Notification\",\"MessageAttributes\":{\"traceid\":{\"Value\":7},\"spanid\" 1}}");
+        Assert.assertEquals(0, carrier.size());
+        Assert.assertNull(HeadersParser.parseAndExtract(mockTracer, sqsEvent("{\"Type\":\"Notification\"}")));
+    }
+
+    /**
+     * @param message The already JSON-escaped Message
+     */
+    private static String envelope(String message) {
+        return "{\n"
+                + "  \"Type\" : \"Notification\",\n"
+                + "  \"MessageId\" : \"22b80b92-fdea-4c2c-8f9d-bdfb0c7bf324\",\n"
+                + "  \"TopicArn\" : \"arn:aws:sns:us-east-1:123456789012:orders\",\n"
+                + "  \"Message\" : \"" + message + "\",\n"
+                + "  \"Timestamp\" : \"2021-01-01T00:00:00.000Z\",\n"
+                + "  \"MessageAttributes\" : {\n"
+                + "    \"content-type\" : {\"Type\":\"String\",\"Value\":\"application/json\"},\n"
+                + "    \"traceid\" : {\"Type\":\"String\",\"Value\":\"7\"},\n"
+                + "    \"spanid\" : {\"Type\":\"String\",\"Value\":\"42\"}\n"
+                + "  }\n"
+                + "}";
+    }
+
+    private static SQSEvent sqsEvent(String body) {
+        final SQSEvent.SQSMessage message = new SQSEvent.SQSMessage();
+        message.setBody(body);
+        final SQSEvent event = new SQSEvent();
+        event.setRecords(Collections.singletonList(message));
+        return event;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import io.opentracing.util.GlobalTracer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Loads the classes of a cold start ahead of time, for Application Class Data Sharing (AppCDS).
+ *
+ * <p>Runs the full instrumentation path, with every optional measurement sampled, over one sample
+ * event of each supported type, the error path and the stream handler path. Run it with the
+ * function's deployment classpath and the {@code -training} jar, which holds this class and its
+ * sample events, to record what it loads, then dump the archive with the deployment classpath
+ * alone, which skips the training jar's classes:
+ *
+ * <pre>
+ * java -XX:DumpLoadedClassList=function.classlist -cp &lt;classpath&gt;:&lt;training jar&gt; com.newrelic.opentracing.aws.AppCdsTraining
+ * java -Xshare:dump -XX:SharedClassListFile=function.classlist -XX:SharedArchiveFile=function.jsa -cp &lt;classpath&gt;
+ * </pre>
+ *
+ * <p>Without a registered tracer, {@link LightweightTracer} is registered and its output discarded.
+ * To include a different tracer's classes, register it and call {@link #train()} from your own main.
+ */
+public final class AppCdsTraining {
+
+    static final int INVOCATIONS_PER_EVENT = 3;
+
+    private AppCdsTraining() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (!GlobalTracer.isRegistered()) {
+            GlobalTracer.registerIfAbsent(LightweightTracer.create("appcds-training", new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                }
+            }));
+        }
+        train();
+    }
+
+    /**
+     * Trace sample invocations with the registered tracer.
+     */
+    public static void train() throws IOException {
+        final LambdaTracing<Object, Object> tracing = new LambdaTracing<Object, Object>() {
+            @Override
+            protected boolean isResourceUsageSampled(Object input, Context context) {
+                return true;
+            }
+
+            @Override
+            protected boolean isOverheadSampled(Object input, Context context) {
+                return true;
+            }
+
+            @Override
+            protected boolean isCostAttributed(Object input, Context context) {
+                return true;
+            }
+
+            @Override
+            protected boolean isMemoryHeadroomTracked(Object input, Context context) {
+                return true;
+            }
+        };
+        final Context context = SampleEvents.context();
+        for (Object event : SampleEvents.all().values()) {
+            for (int i = 0; i < INVOCATIONS_PER_EVENT; i++) {
+                tracing.instrumentRequest(event, context, (input, ctx) -> SampleEvents.response(input));
+            }
+        }
+
+        try {
+            tracing.instrumentRequest("error", context, (input, ctx) -> {
+                throw new IllegalStateException("training");
+            });
+        } catch (IllegalStateException expected) {
+        }
+
+        final byte[] payload = "{\"orderId\":\"4711\"}".getBytes(StandardCharsets.UTF_8);
+        new StreamLambdaTracing().instrumentRequest(new ByteArrayInputStream(payload), new ByteArrayOutputStream(),
+                context, (input, output, ctx) -> {
+                    final byte[] buffer = new byte[payload.length];
+                    final int read = input.read(buffer);
+                    output.write(buffer, 0, Math.max(read, 0));
+                });
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2ProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2ProxyResponseEvent;
+import com.amazonaws.services.lambda.runtime.events.ApplicationLoadBalancerRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.CodeCommitEvent;
+import com.amazonaws.services.lambda.runtime.events.DynamodbEvent;
+import com.amazonaws.services.lambda.runtime.events.KafkaEvent;
+import com.amazonaws.services.lambda.runtime.events.KinesisEvent;
+import com.amazonaws.services.lambda.runtime.events.KinesisFirehoseEvent;
+import com.amazonaws.services.lambda.runtime.events.S3Event;
+import com.amazonaws.services.lambda.runtime.events.SNSEvent;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.amazonaws.services.lambda.runtime.events.ScheduledEvent;
+import software.amazon.awssdk.eventnotifications.s3.model.S3EventNotification;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One representative event per type handled by {@link EventSourceParser} or {@link HeadersParser},
+ * each carrying a W3C trace context where the event type can. Used to train class data sharing
+ * archives (see {@link AppCdsTraining}), to measure allocations per event type and by the cold
+ * start benchmark, which builds a single event per JVM.
+ *
+ * <p>Part of the {@code training} source set, published as the {@code -training} jar, so that
+ * functions do not ship these events in the library jar.
+ */
+public final class SampleEvents {
+
+    static final String TRACEPARENT = "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01";
+
+    private static final List<String> TYPES = Collections.unmodifiableList(Arrays.asList(
+            "String",
+            "Map.apiGateway",
+            "Map.sqs",
+            "S3EventNotification",
+            "S3Event",
+            "SNSEvent",
+            "SQSEvent",
+            "KinesisEvent",
+            "KinesisFirehoseEvent",
+            "DynamodbEvent",
+            "CodeCommitEvent",
+            "KafkaEvent",
+            "ScheduledEvent",
+            "APIGatewayProxyRequestEvent",
+            "APIGatewayV2ProxyRequestEvent",
+            "APIGatewayV2HTTPEvent",
+            "ApplicationLoadBalancerRequestEvent"));
+
+    private SampleEvents() {
+    }
+
+    /**
+     * @return the event type names, in a stable order
+     */
+    public static List<String> types() {
+        return TYPES;
+    }
+
+    /**
+     * @return new sample events, by type name, in a stable order
+     */
+    static Map<String, Object> all() {
+        final Map<String, Object> events = new LinkedHashMap<>();
+        for (String type : TYPES) {
+            events.put(type, event(type));
+        }
+        return events;
+    }
+
+    /**
+     * Build one event, loading only the classes of its own type.
+     *
+     * @throws IllegalArgumentException if type is not one of {@link #types()}
+     */
+    public static Object event(String type) {
+        switch (type) {
+            case "String":
+                return "not an event";
+            case "Map.apiGateway":
+                return apiGatewayMap();
+            case "Map.sqs":
+                return sqsMap();
+            case "S3EventNotification":
+                return S3EventNotification.fromJson(
+                        "{\"Records\":[{\"s3\":{\"bucket\":{\"name\":\"bucket\",\"arn\":\"arn:aws:s3:::bucket\"}}}]}");
+            case "S3Event":
+                return s3Event();
+            case "SNSEvent":
+                return snsEvent();
+            case "SQSEvent":
+                return sqsEvent();
+            case "KinesisEvent":
+                return kinesisEvent();
+            case "KinesisFirehoseEvent":
+                return kinesisFirehoseEvent();
+            case "DynamodbEvent":
+                return dynamodbEvent();
+            case "CodeCommitEvent":
+                return codeCommitEvent();
+            case "KafkaEvent":
+                return kafkaEvent();
+            case "ScheduledEvent":
+                return scheduledEvent();
+            case "APIGatewayProxyRequestEvent":
+                return apiGatewayProxyRequestEvent();
+            case "APIGatewayV2ProxyRequestEvent":
+                return apiGatewayV2ProxyRequestEvent();
+            case "APIGatewayV2HTTPEvent":
+                return apiGatewayV2HTTPEvent();
+            case "ApplicationLoadBalancerRequestEvent":
+                return applicationLoadBalancerRequestEvent();
+            default:
+                throw new IllegalArgumentException("Unknown event type: " + type);
+        }
+    }
+
+    /**
+     * @return a response of the type a handler of event would return, with a status code for HTTP
+     * events
+     */
+    public static Object response(Object event) {
+        if (event instanceof APIGatewayProxyRequestEvent) {
+            return new APIGatewayProxyResponseEvent().withStatusCode(200);
+        } else if (event instanceof APIGatewayV2ProxyRequestEvent) {
+            final APIGatewayV2ProxyResponseEvent response = new APIGatewayV2ProxyResponseEvent();
+            response.setStatusCode(200);
+            return response;
+        } else if (event instanceof APIGatewayV2HTTPEvent || event instanceof ApplicationLoadBalancerRequestEvent
+                || event instanceof Map && ((Map) event).containsKey("requestContext")) {
+            return Collections.singletonMap("statusCode", 200);
+        }
+        return "ok";
+    }
+
+    public static Context context() {
+        return new Context() {
+            @Override
+            public String getAwsRequestId() {
+                return "sample-request";
+            }
+
+            @Override
+            public String getLogGroupName() {
+                return "/aws/lambda/sample";
+            }
+
+            @Override
+            public String getLogStreamName() {
+                return "sample";
+            }
+
+            @Override
+            public String getFunctionName() {
+                return "sample";
+            }
+
+            @Override
+            public String getFunctionVersion() {
+                return "$LATEST";
+            }
+
+            @Override
+            public String getInvokedFunctionArn() {
+                return "arn:aws:lambda:us-east-1:123456789012:function:sample";
+            }
+
+            @Override
+            public CognitoIdentity getIdentity() {
+                return null;
+            }
+
+            @Override
+            public ClientContext getClientContext() {
+                return null;
+            }
+
+            @Override
+            public int getRemainingTimeInMillis() {
+                return 3000;
+            }
+
+            @Override
+            public int getMemoryLimitInMB() {
+                return 512;
+            }
+
+            @Override
+            public LambdaLogger getLogger() {
+                return null;
+            }
+        };
+    }
+
+    static Map<String, String> headers() {
+        final Map<String, String> headers = new HashMap<>();
+        headers.put("Accept", "application/json");
+        headers.put("Host", "abcdef1234.execute-api.us-east-1.amazonaws.com");
+        headers.put("User-Agent", "curl/8.4.0");
+        headers.put("X-Forwarded-For", "203.0.113.10");
+        headers.put("traceparent", TRACEPARENT);
+        return headers;
+    }
+
+    static Map<String, Object> apiGatewayMap() {
+        final Map<String, Object> identity = new HashMap<>();
+        identity.put("userArn", "arn:aws:iam::123456789012:user/test");
+        final Map<String, Object> requestContext = new HashMap<>();
+        requestContext.put("identity", identity);
+        final Map<String, Object> event = new HashMap<>();
+        event.put("requestContext", requestContext);
+        event.put("headers", headers());
+        return event;
+    }
+
+    static Map<String, Object> sqsMap() {
+        final Map<String, Object> record = new HashMap<>();
+        record.put("eventSourceARN", "arn:aws:sqs:us-east-1:123456789012:queue");
+        final List<Object> records = new ArrayList<>();
+        records.add(record);
+        final Map<String, Object> event = new HashMap<>();
+        event.put("Records", records);
+        return event;
+    }
+
+    static S3Event s3Event() {
+        final com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification.S3BucketEntity bucket =
+                new com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification.S3BucketEntity(
+                        "bucket",
+                        new com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification.UserIdentityEntity("principalId"),
+                        "arn:aws:s3:::bucket");
+        final com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification.S3Entity s3 =
+                new com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification.S3Entity("id", bucket, null, null);
+        final List<com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification.S3EventNotificationRecord> records =
+                new ArrayList<>();
+        records.add(new com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification.S3EventNotificationRecord(
+                "us-east-1", "ObjectCreated:Put", "aws:s3", "2019-09-03T19:37:27.192Z", "2.1", null, null, s3, null));
+        return new S3Event(records);
+    }
+
+    static SNSEvent snsEvent() {
+        final SNSEvent.MessageAttribute traceparent = new SNSEvent.MessageAttribute();
+        traceparent.setType("String");
+        traceparent.setValue(TRACEPARENT);
+        final Map<String, SNSEvent.MessageAttribute> messageAttributes = new HashMap<>();
+        messageAttributes.put("traceparent", traceparent);
+        final SNSEvent.SNS sns = new SNSEvent.SNS();
+        sns.setMessageAttributes(messageAttributes);
+        final SNSEvent.SNSRecord record = new SNSEvent.SNSRecord();
+        record.setEventSubscriptionArn("arn:aws:sns:us-east-1:123456789012:topic:subscription");
+        record.setSns(sns);
+        final SNSEvent event = new SNSEvent();
+        event.setRecords(Collections.singletonList(record));
+        return event;
+    }
+
+    static SQSEvent sqsEvent() {
+        final SQSEvent.MessageAttribute traceparent = new SQSEvent.MessageAttribute();
+        traceparent.setDataType("String");
+        traceparent.setStringValue(TRACEPARENT);
+        final Map<String, SQSEvent.MessageAttribute> messageAttributes = new HashMap<>();
+        messageAttributes.put("traceparent", traceparent);
+        final SQSEvent.SQSMessage message = new SQSEvent.SQSMessage();
+        message.setEventSourceArn("arn:aws:sqs:us-east-1:123456789012:queue");
+        message.setBody("{\"orderId\":\"4711\"}");
+        message.setMessageAttributes(messageAttributes);
+        final SQSEvent event = new SQSEvent();
+        event.setRecords(Collections.singletonList(message));
+        return event;
+    }
+
+    static KinesisEvent kinesisEvent() {
+        final KinesisEvent.KinesisEventRecord record = new KinesisEvent.KinesisEventRecord();
+        record.setEventSourceARN("arn:aws:kinesis:us-east-1:123456789012:stream/stream");
+        final KinesisEvent event = new KinesisEvent();
+        event.setRecords(Collections.singletonList(record));
+        return event;
+    }
+
+    static KinesisFirehoseEvent kinesisFirehoseEvent() {
+        final KinesisFirehoseEvent event = new KinesisFirehoseEvent();
+        event.setDeliveryStreamArn("arn:aws:firehose:us-east-1:123456789012:deliverystream/stream");
+        return event;
+    }
+
+    static DynamodbEvent dynamodbEvent() {
+        final DynamodbEvent.DynamodbStreamRecord record = new DynamodbEvent.DynamodbStreamRecord();
+        record.setEventSourceARN("arn:aws:dynamodb:us-east-1:123456789012:table/table/stream/label");
+        final DynamodbEvent event = new DynamodbEvent();
+        event.setRecords(Collections.singletonList(record));
+        return event;
+    }
+
+    static CodeCommitEvent codeCommitEvent() {
+        final CodeCommitEvent.Record record = new CodeCommitEvent.Record();
+        record.setEventSourceArn("arn:aws:codecommit:us-east-1:123456789012:repository");
+        final CodeCommitEvent event = new CodeCommitEvent();
+        event.setRecords(Collections.singletonList(record));
+        return event;
+    }
+
+    /**
+     * Two partitions of one topic, three records, one of which carries a trace context.
+     */
+    static KafkaEvent kafkaEvent() {
+        final long now = System.currentTimeMillis();
+        final Map<String, List<KafkaEvent.KafkaEventRecord>> records = new LinkedHashMap<>();
+        records.put("orders-0", Arrays.asList(
+                kafkaRecord("orders", 0, now - 5000, Collections.singletonList(kafkaHeader("content-type", "json"))),
+                kafkaRecord("orders", 0, now - 1000, Arrays.asList(
+                        kafkaHeader("content-type", "json"), kafkaHeader("traceparent", TRACEPARENT)))));
+        records.put("orders-1", new ArrayList<>(Collections.singletonList(
+                kafkaRecord("orders", 1, now - 2000, Collections.singletonList(kafkaHeader("content-type", "json"))))));
+
+        final KafkaEvent event = new KafkaEvent();
+        event.setEventSourceArn("arn:aws:kafka:us-east-1:123456789012:cluster/orders/abc");
+        event.setRecords(records);
+        return event;
+    }
+
+    static ScheduledEvent scheduledEvent() {
+        final ScheduledEvent event = new ScheduledEvent();
+        event.setDetailType("Scheduled Event");
+        event.setSource("aws.events");
+        event.setResources(Collections.singletonList("arn:aws:events:us-east-1:123456789012:rule/schedule"));
+        return event;
+    }
+
+    static APIGatewayProxyRequestEvent apiGatewayProxyRequestEvent() {
+        final APIGatewayProxyRequestEvent.RequestIdentity identity = new APIGatewayProxyRequestEvent.RequestIdentity();
+        identity.setUserArn("arn:aws:iam::123456789012:user/test");
+        final APIGatewayProxyRequestEvent.ProxyRequestContext requestContext =
+                new APIGatewayProxyRequestEvent.ProxyRequestContext();
+        requestContext.setIdentity(identity);
+        final APIGatewayProxyRequestEvent event = new APIGatewayProxyRequestEvent();
+        event.setResource("/orders/{orderId}");
+        event.setPath("/orders/4711");
+        event.setHttpMethod("GET");
+        event.setHeaders(headers());
+        event.setRequestContext(requestContext);
+        return event;
+    }
+
+    static APIGatewayV2ProxyRequestEvent apiGatewayV2ProxyRequestEvent() {
+        final APIGatewayV2ProxyRequestEvent.RequestIdentity identity =
+                new APIGatewayV2ProxyRequestEvent.RequestIdentity();
+        identity.setUserArn("arn:aws:iam::123456789012:user/test");
+        final APIGatewayV2ProxyRequestEvent.RequestContext requestContext =
+                new APIGatewayV2ProxyRequestEvent.RequestContext();
+        requestContext.setIdentity(identity);
+        final APIGatewayV2ProxyRequestEvent event = new APIGatewayV2ProxyRequestEvent();
+        event.setHeaders(headers());
+        event.setRequestContext(requestContext);
+        return event;
+    }
+
+    static APIGatewayV2HTTPEvent apiGatewayV2HTTPEvent() {
+        final APIGatewayV2HTTPEvent event = new APIGatewayV2HTTPEvent();
+        event.setRouteKey("POST /carts/{cartId}/items");
+        event.setRawPath("/carts/42/items");
+        event.setHeaders(headers());
+        return event;
+    }
+
+    static ApplicationLoadBalancerRequestEvent applicationLoadBalancerRequestEvent() {
+        final ApplicationLoadBalancerRequestEvent event = new ApplicationLoadBalancerRequestEvent();
+        event.setHttpMethod("GET");
+        event.setPath("/products/12345/reviews");
+        event.setHeaders(headers());
+        return event;
+    }
+
+    private static KafkaEvent.KafkaEventRecord kafkaRecord(String topic, int partition, long timestamp,
+            List<Map<String, byte[]>> headers) {
+        final KafkaEvent.KafkaEventRecord record = new KafkaEvent.KafkaEventRecord();
+        record.setTopic(topic);
+        record.setPartition(partition);
+        record.setTimestamp(timestamp);
+        record.setHeaders(headers);
+        return record;
+    }
+
+    private static Map<String, byte[]> kafkaHeader(String key, String value) {
+        return Collections.singletonMap(key, value.getBytes(StandardCharsets.UTF_8));
+    }
+}
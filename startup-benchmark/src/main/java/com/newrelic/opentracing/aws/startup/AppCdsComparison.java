@@ -0,0 +1,55 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws.startup;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Launches {@link StartupSample} repeatedly on the JVM with the default class data sharing archive
+ * and with an application archive recorded by {@code AppCdsTraining}, and reports startup and first
+ * invocation latency of each.
+ *
+ * <p>Arguments: {@code <runs> <archive> <java command...>}. The java command must use the classpath
+ * the archive was recorded with, as jars only.
+ */
+public final class AppCdsComparison {
+
+    private AppCdsComparison() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("usage: AppCdsComparison <runs> <archive> <java command...>");
+            System.exit(2);
+        }
+        final int runs = Integer.parseInt(args[0]);
+        if (!new File(args[1]).isFile()) {
+            System.err.println(args[1] + " not found, run appCdsArchive first");
+            System.exit(2);
+        }
+        final List<String> java = Arrays.asList(args).subList(2, args.length);
+
+        StartupComparison.report("default CDS", StartupComparison.run(command(java, null), runs));
+        StartupComparison.report("AppCDS", StartupComparison.run(command(java, args[1]), runs));
+    }
+
+    /**
+     * @param archive the application archive, or null for the JVM's default archive
+     */
+    static List<String> command(List<String> java, String archive) {
+        final List<String> command = new ArrayList<>(java.size() + 2);
+        command.add(java.get(0));
+        if (archive != null) {
+            command.add("-XX:SharedArchiveFile=" + archive);
+        }
+        command.addAll(java.subList(1, java.size()));
+        command.add(StartupSample.class.getName());
+        return command;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws.startup;
+
+import com.newrelic.opentracing.aws.SampleEvents;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Launches {@link ColdStartSample} in fresh JVMs, for each event type, {@link ColdStartSample.Mode}
+ * and class data sharing setting, and reports the distribution of the time from launch until the
+ * first invocation returned, with the overhead of each mode over the bare handler.
+ *
+ * <p>Runs are interleaved, one JVM of every mode and sharing setting after the other, so that drift
+ * on the machine affects all of them alike.
+ *
+ * <p>Arguments: {@code <runs> <event types> <archive> <java command...>}. Event types are a comma
+ * separated list of {@link SampleEvents#types()}, or {@code all}. Class data sharing is measured
+ * off, with the JVM's default archive and, if the archive exists, with that AppCDS archive, in
+ * which case the java command must use the classpath it was recorded with, as jars only.
+ */
+public final class ColdStartBenchmark {
+
+    static final String SHARING_OFF = "off";
+    static final String SHARING_DEFAULT = "default";
+    static final String SHARING_APP = "AppCDS";
+
+    private ColdStartBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("usage: ColdStartBenchmark <runs> <event types|all> <archive> <java command...>");
+            System.exit(2);
+        }
+        final int runs = Integer.parseInt(args[0]);
+        final List<String> types = "all".equals(args[1]) ? SampleEvents.types() : Arrays.asList(args[1].split(","));
+        for (String type : types) {
+            if (!SampleEvents.types().contains(type)) {
+                throw new IllegalArgumentException("Unknown event type: " + type + ", expected one of "
+                        + SampleEvents.types());
+            }
+        }
+        final List<String> sharing = new ArrayList<>(Arrays.asList(SHARING_OFF, SHARING_DEFAULT));
+        if (new File(args[2]).isFile()) {
+            sharing.add(SHARING_APP);
+        } else {
+            System.out.println("AppCDS: " + args[2] + " not found, run appCdsArchive first");
+        }
+        final List<String> java = Arrays.asList(args).subList(3, args.length);
+
+        for (String type : types) {
+            final Map<String, long[]> responseMicros = new LinkedHashMap<>();
+            for (String cds : sharing) {
+                for (ColdStartSample.Mode mode : ColdStartSample.Mode.values()) {
+                    responseMicros.put(key(cds, mode), new long[runs]);
+                }
+            }
+            for (int i = 0; i < runs; i++) {
+                for (String cds : sharing) {
+                    for (ColdStartSample.Mode mode : ColdStartSample.Mode.values()) {
+                        final List<String> command = command(java, cds, args[2], mode, type);
+                        responseMicros.get(key(cds, mode))[i] = StartupComparison.measure(command).responseMicros;
+                    }
+                }
+            }
+            System.out.print(report(type, responseMicros));
+        }
+    }
+
+    /**
+     * @param cds one of {@link #SHARING_OFF}, {@link #SHARING_DEFAULT} or {@link #SHARING_APP}
+     */
+    static List<String> command(List<String> java, String cds, String archive, ColdStartSample.Mode mode,
+            String type) {
+        final List<String> command = new ArrayList<>(java.size() + 4);
+        command.add(java.get(0));
+        if (SHARING_OFF.equals(cds)) {
+            command.add("-Xshare:off");
+        } else if (SHARING_APP.equals(cds)) {
+            command.add("-XX:SharedArchiveFile=" + archive);
+        }
+        command.addAll(java.subList(1, java.size()));
+        command.add(ColdStartSample.class.getName());
+        command.add(mode.name().toLowerCase(Locale.ROOT));
+        command.add(type);
+        return command;
+    }
+
+    /**
+     * @param responseMicros launch to response latencies, by {@code "<sharing> <mode>"}, each
+     * sharing setting with the bare mode first
+     */
+    static String report(String type, Map<String, long[]> responseMicros) {
+        final StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "%s%n%-20s %6s %10s %10s %10s %10s %14s%n", type, "", "runs",
+                "p50 (us)", "p90 (us)", "p99 (us)", "max (us)", "p50 vs bare"));
+        long bare = 0;
+        for (Map.Entry<String, long[]> entry : responseMicros.entrySet()) {
+            final long[] samples = entry.getValue();
+            final long p50 = StartupComparison.percentile(samples, 50);
+            if (entry.getKey().endsWith(" " + ColdStartSample.Mode.BARE.name().toLowerCase(Locale.ROOT))) {
+                bare = p50;
+            }
+            report.append(String.format(Locale.ROOT, "%-20s %6d %10d %10d %10d %10d %+14d%n", entry.getKey(),
+                    samples.length, p50, StartupComparison.percentile(samples, 90),
+                    StartupComparison.percentile(samples, 99), StartupComparison.percentile(samples, 100),
+                    p50 - bare));
+        }
+        return report.toString();
+    }
+
+    private static String key(String cds, ColdStartSample.Mode mode) {
+        return cds + " " + mode.name().toLowerCase(Locale.ROOT);
+    }
+}
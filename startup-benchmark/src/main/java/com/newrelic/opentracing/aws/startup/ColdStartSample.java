@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws.startup;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.newrelic.opentracing.aws.LambdaTracing;
+import com.newrelic.opentracing.aws.LightweightTracer;
+import com.newrelic.opentracing.aws.SampleEvents;
+import io.opentracing.noop.NoopTracerFactory;
+import io.opentracing.util.GlobalTracer;
+
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.function.BiFunction;
+
+/**
+ * A sample handler process for {@link ColdStartBenchmark}: handles the first invocation of one
+ * event type in a fresh JVM, in one of the {@link Mode}s, with the {@link StartupSample} output.
+ *
+ * <p>Arguments: {@code <bare|noop|lightweight> <event type>}, the event type being one of
+ * {@link SampleEvents#types()}.
+ */
+public final class ColdStartSample {
+
+    enum Mode {
+        /** The handler alone, as the runtime would call it without the library. */
+        BARE,
+        /** The handler through {@link LambdaTracing}, with the no-op tracer registered. */
+        NOOP,
+        /** The handler through {@link LambdaTracing}, traced by {@link LightweightTracer}. */
+        LIGHTWEIGHT
+    }
+
+    private ColdStartSample() {
+    }
+
+    public static void main(String[] args) {
+        System.out.println(StartupSample.STARTED);
+        System.out.flush();
+
+        final Mode mode = Mode.valueOf(args[0].toUpperCase(Locale.ROOT));
+        final long start = System.nanoTime();
+        final Object response = invoke(mode, SampleEvents.event(args[1]));
+        final long micros = (System.nanoTime() - start) / 1000;
+
+        System.out.println(StartupSample.FIRST_INVOCATION + micros);
+        if (response == null) {
+            System.exit(1);
+        }
+    }
+
+    static Object invoke(Mode mode, Object event) {
+        final Context context = new SampleContext("request-1");
+        // A class rather than a lambda, so the bare handler does not pay for bootstrapping lambdas
+        final Handler handler = new Handler();
+        switch (mode) {
+            case BARE:
+                return handler.apply(event, context);
+            case NOOP:
+                GlobalTracer.registerIfAbsent(NoopTracerFactory.create());
+                return LambdaTracing.instrument(event, context, handler);
+            default:
+                GlobalTracer.registerIfAbsent(LightweightTracer.create("cold-start-sample", new OutputStream() {
+                    @Override
+                    public void write(int b) {
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) {
+                    }
+                }));
+                return LambdaTracing.instrument(event, context, handler);
+        }
+    }
+
+    private static final class Handler implements BiFunction<Object, Context, Object> {
+        @Override
+        public Object apply(Object input, Context context) {
+            return SampleEvents.response(input);
+        }
+    }
+}
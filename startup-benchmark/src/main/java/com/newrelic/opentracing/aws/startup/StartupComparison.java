@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws.startup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Launches {@link StartupSample} repeatedly as a native image and on the JVM and reports, per mode,
+ * the time until main is entered and the latency of the first traced invocation.
+ *
+ * <p>Arguments: {@code <runs> <native binary> <java command...>}. The native binary is skipped if
+ * it does not exist, so the JVM side can be measured without GraalVM.
+ */
+public final class StartupComparison {
+
+    private StartupComparison() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("usage: StartupComparison <runs> <native binary> <java command...>");
+            System.exit(2);
+        }
+        final int runs = Integer.parseInt(args[0]);
+        final List<String> jvm = new ArrayList<>(Arrays.asList(args).subList(2, args.length));
+        jvm.add(StartupSample.class.getName());
+
+        report("jvm", run(jvm, runs));
+        if (new java.io.File(args[1]).canExecute()) {
+            report("native", run(Arrays.asList(args[1]), runs));
+        } else {
+            System.out.println("native: " + args[1] + " not found, run nativeCompile first");
+        }
+    }
+
+    static List<Measurement> run(List<String> command, int runs) throws IOException, InterruptedException {
+        final List<Measurement> measurements = new ArrayList<>(runs);
+        for (int i = 0; i < runs; i++) {
+            measurements.add(measure(command));
+        }
+        return measurements;
+    }
+
+    /**
+     * Start one process and wait for it to exit.
+     *
+     * @return the time from launch until it printed {@link StartupSample#STARTED}, the first
+     * invocation latency it reported, and the time from launch until it reported it
+     */
+    static Measurement measure(List<String> command) throws IOException, InterruptedException {
+        final long launch = System.nanoTime();
+        final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        long startupNanos = -1;
+        long firstInvocationMicros = -1;
+        long responseNanos = -1;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (startupNanos < 0 && line.equals(StartupSample.STARTED)) {
+                    startupNanos = System.nanoTime() - launch;
+                } else if (line.startsWith(StartupSample.FIRST_INVOCATION)) {
+                    responseNanos = System.nanoTime() - launch;
+                    firstInvocationMicros =
+                            Long.parseLong(line.substring(StartupSample.FIRST_INVOCATION.length()).trim());
+                }
+            }
+        }
+        final int exit = process.waitFor();
+        if (exit != 0 || startupNanos < 0 || firstInvocationMicros < 0) {
+            throw new IllegalStateException("sample failed with exit code " + exit + ": " + command);
+        }
+        return new Measurement(startupNanos / 1000, firstInvocationMicros, responseNanos / 1000);
+    }
+
+    static void report(String mode, List<Measurement> measurements) {
+        final long[] startup = new long[measurements.size()];
+        final long[] firstInvocation = new long[measurements.size()];
+        for (int i = 0; i < measurements.size(); i++) {
+            startup[i] = measurements.get(i).startupMicros;
+            firstInvocation[i] = measurements.get(i).firstInvocationMicros;
+        }
+        System.out.printf("%s: runs=%d startup p50=%dus p90=%dus, first invocation p50=%dus p90=%dus%n",
+                mode, measurements.size(), percentile(startup, 50), percentile(startup, 90),
+                percentile(firstInvocation, 50), percentile(firstInvocation, 90));
+    }
+
+    /**
+     * @return the nearest-rank percentile of samples, or 0 without samples
+     */
+    static long percentile(long[] samples, double percentile) {
+        if (samples.length == 0) {
+            return 0;
+        }
+        final long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        final int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.min(sorted.length - 1, Math.max(0, rank - 1))];
+    }
+
+    static final class Measurement {
+        final long startupMicros;
+        final long firstInvocationMicros;
+        final long responseMicros;
+
+        Measurement(long startupMicros, long firstInvocationMicros, long responseMicros) {
+            this.startupMicros = startupMicros;
+            this.firstInvocationMicros = firstInvocationMicros;
+            this.responseMicros = responseMicros;
+        }
+    }
+}
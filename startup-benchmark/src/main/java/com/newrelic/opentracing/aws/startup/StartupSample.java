@@ -0,0 +1,48 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws.startup;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.newrelic.opentracing.aws.LambdaTracing;
+import com.newrelic.opentracing.aws.LightweightTracer;
+import io.opentracing.util.GlobalTracer;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A sample handler process, built both as a native image and run on the JVM by
+ * {@link StartupComparison}. It prints {@value #STARTED} as soon as main is entered, then traces one
+ * HTTP invocation and prints its latency in microseconds after {@value #FIRST_INVOCATION}.
+ */
+public final class StartupSample {
+
+    static final String STARTED = "started";
+    static final String FIRST_INVOCATION = "firstInvocationMicros ";
+
+    private StartupSample() {
+    }
+
+    public static void main(String[] args) {
+        System.out.println(STARTED);
+        System.out.flush();
+
+        final long start = System.nanoTime();
+        GlobalTracer.registerIfAbsent(LightweightTracer.create("startup-sample", new ByteArrayOutputStream()));
+        final APIGatewayV2HTTPEvent event = new APIGatewayV2HTTPEvent();
+        event.setHeaders(Collections.singletonMap("traceparent",
+                "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01"));
+        final Map<String, Object> response = LambdaTracing.instrument(event, new SampleContext("request-1"),
+                (input, context) -> Collections.singletonMap("statusCode", 200));
+        final long micros = (System.nanoTime() - start) / 1000;
+
+        System.out.println(FIRST_INVOCATION + micros);
+        if (!response.containsKey("statusCode")) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws.startup;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class StartupComparisonTest {
+
+    @Test
+    public void testMeasureJvm() throws Exception {
+        final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        final StartupComparison.Measurement measurement = StartupComparison.measure(Arrays.asList(
+                java, "-cp", System.getProperty("java.class.path"), StartupSample.class.getName()));
+
+        Assert.assertTrue(measurement.startupMicros > 0);
+        Assert.assertTrue(measurement.firstInvocationMicros > 0);
+        Assert.assertTrue(measurement.responseMicros >= measurement.startupMicros);
+    }
+
+    @Test
+    public void testMeasureColdStart() throws Exception {
+        final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        final StartupComparison.Measurement measurement = StartupComparison.measure(ColdStartBenchmark.command(
+                Arrays.asList(java, "-cp", System.getProperty("java.class.path")), ColdStartBenchmark.SHARING_DEFAULT,
+                null, ColdStartSample.Mode.BARE, "SQSEvent"));
+
+        Assert.assertTrue(measurement.responseMicros >= measurement.startupMicros);
+    }
+
+    @Test
+    public void testPercentile() {
+        final long[] samples = {5, 1, 4, 2, 3};
+
+        Assert.assertEquals(3, StartupComparison.percentile(samples, 50));
+        Assert.assertEquals(5, StartupComparison.percentile(samples, 90));
+        Assert.assertEquals(0, StartupComparison.percentile(new long[0], 50));
+    }
+
+    @Test
+    public void testAppCdsCommand() {
+        final List<String> java = Arrays.asList("java", "-cp", "sample.jar");
+
+        Assert.assertEquals(Arrays.asList("java", "-XX:SharedArchiveFile=sample.jsa", "-cp", "sample.jar",
+                StartupSample.class.getName()), AppCdsComparison.command(java, "sample.jsa"));
+        Assert.assertEquals(Arrays.asList("java", "-cp", "sample.jar", StartupSample.class.getName()),
+                AppCdsComparison.command(java, null));
+    }
+
+    @Test
+    public void testColdStartCommand() {
+        final List<String> java = Arrays.asList("java", "-cp", "sample.jar");
+
+        Assert.assertEquals(Arrays.asList("java", "-Xshare:off", "-cp", "sample.jar", ColdStartSample.class.getName(),
+                "noop", "SQSEvent"), ColdStartBenchmark.command(java, ColdStartBenchmark.SHARING_OFF, "sample.jsa",
+                ColdStartSample.Mode.NOOP, "SQSEvent"));
+        Assert.assertEquals(Arrays.asList("java", "-XX:SharedArchiveFile=sample.jsa", "-cp", "sample.jar",
+                ColdStartSample.class.getName(), "bare", "String"), ColdStartBenchmark.command(java,
+                ColdStartBenchmark.SHARING_APP, "sample.jsa", ColdStartSample.Mode.BARE, "String"));
+    }
+
+    @Test
+    public void testColdStartReport() {
+        final Map<String, long[]> responseMicros = new LinkedHashMap<>();
+        responseMicros.put("off bare", new long[] {100, 120});
+        responseMicros.put("off lightweight", new long[] {150, 190});
+        responseMicros.put("default bare", new long[] {80, 90});
+        responseMicros.put("default lightweight", new long[] {95, 99});
+
+        final String[] lines = ColdStartBenchmark.report("SQSEvent", responseMicros).split(System.lineSeparator());
+
+        Assert.assertEquals("SQSEvent", lines[0]);
+        Assert.assertTrue(lines[3], lines[3].startsWith("off lightweight") && lines[3].endsWith("+50"));
+        Assert.assertTrue(lines[5], lines[5].startsWith("default lightweight") && lines[5].endsWith("+15"));
+    }
+}
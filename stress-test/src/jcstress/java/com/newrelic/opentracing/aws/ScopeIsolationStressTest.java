@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import io.opentracing.mock.MockSpan;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.ZZ_Result;
+
+/**
+ * Two invocations run at once. Each handler must only ever see its own root span as the active
+ * span, that span must have no parent, and nothing may stay active once the invocation returns.
+ * Actor threads are reused across iterations, so a span left active by one iteration would show up
+ * in a later one.
+ */
+@JCStressTest
+@Description("No span leaks into another invocation's scope")
+@Outcome(id = "true, true", expect = Expect.ACCEPTABLE, desc = "Each invocation saw only its own span")
+@Outcome(expect = Expect.FORBIDDEN, desc = "An invocation saw another invocation's span")
+@State
+public class ScopeIsolationStressTest {
+
+    static {
+        StressTracer.register();
+    }
+
+    @Actor
+    public void first(ZZ_Result result) {
+        result.r1 = invoke("first");
+    }
+
+    @Actor
+    public void second(ZZ_Result result) {
+        result.r2 = invoke("second");
+    }
+
+    @Arbiter
+    public void arbiter(ZZ_Result result) {
+        StressTracer.discardFinishedSpans();
+    }
+
+    private static boolean invoke(String requestId) {
+        final boolean isOwnSpan = LambdaTracing.instrument("input", new StressContext(requestId),
+                ScopeIsolationStressTest::isOwnRootSpan);
+        return isOwnSpan && StressTracer.activeSpan() == null;
+    }
+
+    private static Boolean isOwnRootSpan(String input, Context context) {
+        final MockSpan active = StressTracer.activeSpan();
+        return active != null
+                && active.parentId() == 0
+                && context.getAwsRequestId().equals(active.tags().get("aws.requestId"));
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2019 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.aws;
+
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import io.opentracing.util.GlobalTracer;
+
+/**
+ * The tracer shared by all stress tests in a JVM, as {@link GlobalTracer} can only be registered
+ * once.
+ */
+final class StressTracer {
+
+    static final MockTracer TRACER = new MockTracer();
+
+    private StressTracer() {
+    }
+
+    /**
+     * Called before any invocation, as instrumentation is bypassed until a tracer is registered.
+     */
+    static void register() {
+        GlobalTracer.registerIfAbsent(TRACER);
+    }
+
+    static MockSpan activeSpan() {
+        return (MockSpan) TRACER.activeSpan();
+    }
+
+    /**
+     * Finished spans are not inspected, only kept from piling up.
+     */
+    static void discardFinishedSpans() {
+        TRACER.reset();
+    }
+}